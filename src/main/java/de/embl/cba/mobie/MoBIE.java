@@ -7,6 +7,7 @@ import de.embl.cba.mobie.display.SegmentationSourceDisplay;
 import de.embl.cba.mobie.display.AnnotatedIntervalDisplay;
 import de.embl.cba.mobie.annotate.AnnotatedIntervalCreator;
 import de.embl.cba.mobie.annotate.AnnotatedIntervalTableRow;
+import de.embl.cba.mobie.bdv.LazySourcesOpener;
 import de.embl.cba.mobie.n5.N5ImageLoader;
 import de.embl.cba.mobie.n5.zarr.N5OMEZarrImageLoader;
 import de.embl.cba.mobie.n5.zarr.OMEZarrReader;
@@ -16,7 +17,11 @@ import de.embl.cba.mobie.serialize.DatasetJsonParser;
 import de.embl.cba.mobie.serialize.ProjectJsonParser;
 import de.embl.cba.mobie.source.ImageDataFormat;
 import de.embl.cba.mobie.source.ImageSource;
+import de.embl.cba.mobie.source.LazySource;
 import de.embl.cba.mobie.source.SegmentationSource;
+import de.embl.cba.mobie.source.SourceBounds;
+import de.embl.cba.mobie.table.SegmentsTableMerger;
+import de.embl.cba.mobie.table.TableColumnsLoader;
 import de.embl.cba.mobie.table.TableDataFormat;
 import de.embl.cba.mobie.ui.UserInterface;
 import de.embl.cba.mobie.ui.WindowArrangementHelper;
@@ -30,22 +35,30 @@ import de.embl.cba.tables.tablerow.TableRowImageSegment;
 import ij.IJ;
 import mpicbg.spim.data.SpimData;
 import mpicbg.spim.data.sequence.ImgLoader;
+import net.imglib2.type.numeric.NumericType;
+import net.imglib2.util.Cast;
+import net.imglib2.util.Pair;
+import net.imglib2.util.ValuePair;
 import org.jdom2.Document;
 import org.jdom2.Element;
 import org.jdom2.JDOMException;
 import org.jdom2.input.SAXBuilder;
 import sc.fiji.bdvpg.PlaygroundPrefs;
 import sc.fiji.bdvpg.services.SourceAndConverterServices;
+import sc.fiji.bdvpg.sourceandconverter.SourceAndConverterHelper;
 import sc.fiji.bdvpg.sourceandconverter.importer.SourceAndConverterFromSpimDataCreator;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Paths;
 import java.util.*;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
 import static de.embl.cba.mobie.Utils.createAnnotatedImageSegmentsFromTableFile;
 import static de.embl.cba.mobie.Utils.getName;
@@ -67,8 +80,9 @@ public class MoBIE
 	private String projectRoot;
 	private String imageRoot;
 	private String tableRoot;
-	private HashMap< String, ImgLoader > sourceNameToImgLoader;
-	private HashMap< String, SourceAndConverter< ? > > sourceNameToSourceAndConverter;
+	private Map< String, ImgLoader > sourceNameToImgLoader;
+	private Map< String, SourceAndConverter< ? > > sourceNameToSourceAndConverter;
+	private Map< String, CompletableFuture< SourceAndConverter< ? > > > sourceNameToOpening;
 
 	public MoBIE( String projectRoot ) throws IOException
 	{
@@ -83,8 +97,9 @@ public class MoBIE
 		projectName = getName( projectLocation );
 		PlaygroundPrefs.setSourceAndConverterUIVisibility( false );
 		project = new ProjectJsonParser().parseProject( FileAndUrlUtils.combinePath( projectRoot,  "project.json" ) );
-		sourceNameToImgLoader = new HashMap<>();
-		sourceNameToSourceAndConverter = new HashMap<>();
+		sourceNameToImgLoader = new ConcurrentHashMap<>();
+		sourceNameToSourceAndConverter = new ConcurrentHashMap<>();
+		sourceNameToOpening = new ConcurrentHashMap<>();
 
 		openDataset();
 	}
@@ -153,28 +168,73 @@ public class MoBIE
 
 	public List< SourceAndConverter< ? > > openSourceAndConverters( List< String > sources )
 	{
-		List< SourceAndConverter< ? > > sourceAndConverters = new CopyOnWriteArrayList<>();
 		final long start = System.currentTimeMillis();
-		final int nThreads = N_THREADS;
-		final ExecutorService executorService = Executors.newFixedThreadPool( nThreads );
+
+		final List< Callable< SourceAndConverter< ? > > > tasks = new ArrayList<>();
 		for ( String sourceName : sources )
-		{
-			executorService.execute( () -> {
-				sourceAndConverters.add( getSourceAndConverter( sourceName ) );
-			} );
-		}
+			tasks.add( () -> getSourceAndConverter( sourceName ) );
 
-		executorService.shutdown();
-		try {
-			executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-		} catch (InterruptedException e) {
-		}
+		final List< SourceAndConverter< ? > > sourceAndConverters = ThreadUtils.invokeAll( tasks );
 
-		System.out.println( "Fetched " + sourceAndConverters.size() + " image source(s) in " + (System.currentTimeMillis() - start) + " ms, using " + nThreads + " thread(s).");
+		System.out.println( "Fetched " + sourceAndConverters.size() + " image source(s) in " + (System.currentTimeMillis() - start) + " ms, using " + ThreadUtils.N_IO_THREADS + " thread(s).");
 
 		return sourceAndConverters;
 	}
 
+	/**
+	 * Creates {@link LazySource}s for the sources, which only open their image loader
+	 * once they are shown, see {@link LazySourcesOpener}.
+	 * Sources whose bounds or pixel type can not be read from their metadata are opened right away.
+	 */
+	public List< SourceAndConverter< ? > > openLazySourceAndConverters( List< String > sources )
+	{
+		final long start = System.currentTimeMillis();
+
+		final List< Callable< SourceAndConverter< ? > > > tasks = new ArrayList<>();
+		for ( String sourceName : sources )
+			tasks.add( () -> getLazySourceAndConverter( sourceName ) );
+
+		final List< SourceAndConverter< ? > > sourceAndConverters = ThreadUtils.invokeAll( tasks );
+
+		System.out.println( "Fetched " + sourceAndConverters.size() + " image source(s) in " + (System.currentTimeMillis() - start) + " ms, using " + ThreadUtils.N_IO_THREADS + " thread(s).");
+
+		return sourceAndConverters;
+	}
+
+	private SourceAndConverter< ? > getLazySourceAndConverter( String sourceName )
+	{
+		final SourceAndConverter< ? > opened = sourceNameToSourceAndConverter.get( sourceName );
+		if ( opened != null )
+			return opened;
+
+		// the image loader of ome.zarr sources does not use the transforms of the xml
+		final ImageDataFormat imageDataFormat = settings.values.getImageDataFormat();
+		if ( imageDataFormat != ImageDataFormat.BdvN5 && imageDataFormat != ImageDataFormat.BdvN5S3 )
+			return getSourceAndConverter( sourceName );
+
+		// only the bounds and data type are read, the image loader is created once the source is opened
+		final SourceBounds bounds = SourceBounds.read( getImagePath( getSource( sourceName ) ) );
+		final Pair< NumericType, NumericType > types = bounds == null ? null : Cast.unchecked( N5ImageLoader.getTypes( bounds.getDataType() ) );
+		if ( types == null )
+			return getSourceAndConverter( sourceName );
+
+		// opens the source once, for both the lazy source and its volatile version
+		final AtomicReference< SourceAndConverter< ? > > actual = new AtomicReference<>();
+		final Supplier< SourceAndConverter< ? > > opener = () -> {
+			synchronized ( actual )
+			{
+				if ( actual.get() == null )
+					actual.set( openSourceAndConverter( sourceName, false ) );
+				return actual.get();
+			}
+		};
+
+		final LazySource source = new LazySource( sourceName, bounds, types.getA(), () -> opener.get().getSpimSource() );
+		final LazySource volatileSource = new LazySource( sourceName, bounds, types.getB(), () -> opener.get().asVolatile().getSpimSource() );
+		final SourceAndConverter volatileSourceAndConverter = new SourceAndConverter( volatileSource, SourceAndConverterHelper.createConverter( volatileSource ) );
+		return new SourceAndConverter( source, SourceAndConverterHelper.createConverter( source ), volatileSourceAndConverter );
+	}
+
 	private void openDataset( String datasetName ) throws IOException
 	{
 		setDatasetName( datasetName );
@@ -241,6 +301,14 @@ public class MoBIE
 		return datasetName;
 	}
 
+	/**
+	 * @return the location of the images of the current dataset
+	 */
+	public String getDatasetLocation()
+	{
+		return FileAndUrlUtils.combinePath( imageRoot, getDatasetName() );
+	}
+
 	public List< String > getDatasets()
 	{
 		return project.getDatasets();
@@ -261,11 +329,119 @@ public class MoBIE
 		return dataset.sources.get( sourceName ).get();
 	}
 
+	/**
+	 * Returns the opened source, or opens it.
+	 * Concurrent requests for the same source wait for the same opening.
+	 *
+	 * @throws CancellationException if the opening was cancelled, see {@link #cancelSourceOpenings()}
+	 */
 	public SourceAndConverter getSourceAndConverter( String sourceName )
 	{
-		if ( sourceNameToSourceAndConverter.containsKey( sourceName ) )
-			return sourceNameToSourceAndConverter.get( sourceName );
+		final SourceAndConverter< ? > opened = sourceNameToSourceAndConverter.get( sourceName );
+		if ( opened != null )
+			return opened;
 
+		return openSourceAndConverter( sourceName, true );
+	}
+
+	/**
+	 * @param register
+	 * 			whether to register the opened source for {@link #getSourceAndConverter};
+	 * 			not for lazy sources, as the shown sources, which wrap them, are registered instead
+	 */
+	private SourceAndConverter< ? > openSourceAndConverter( String sourceName, boolean register )
+	{
+		final CompletableFuture< SourceAndConverter< ? > > opening = new CompletableFuture<>();
+		CompletableFuture< SourceAndConverter< ? > > runningOpening;
+		while ( ( runningOpening = sourceNameToOpening.putIfAbsent( sourceName, opening ) ) != null )
+		{
+			if ( ! runningOpening.isCompletedExceptionally() )
+				return waitForOpening( sourceName, runningOpening );
+
+			// a cancelled or failed opening is replaced, not joined
+			sourceNameToOpening.remove( sourceName, runningOpening );
+		}
+
+		try
+		{
+			// it may have been opened since the first check
+			SourceAndConverter< ? > sourceAndConverter = register ? sourceNameToSourceAndConverter.get( sourceName ) : null;
+			if ( sourceAndConverter == null )
+			{
+				final Pair< SourceAndConverter< ? >, ImgLoader > created = createSourceAndConverter( sourceName, opening );
+				sourceAndConverter = created.getA();
+
+				// registering excludes cancelling, such that the loader of a cancelled
+				// opening, which may already have been replaced by a new one, is closed
+				synchronized ( opening )
+				{
+					if ( opening.isCancelled() )
+					{
+						closeImgLoader( created.getB() );
+						throw new CancellationException( "Opening of " + sourceName + " was cancelled." );
+					}
+
+					if ( created.getB() != null )
+						sourceNameToImgLoader.put( sourceName, created.getB() );
+					if ( register )
+						sourceNameToSourceAndConverter.put( sourceName, sourceAndConverter );
+				}
+			}
+			opening.complete( sourceAndConverter );
+		}
+		catch ( RuntimeException e )
+		{
+			opening.completeExceptionally( e );
+		}
+		finally
+		{
+			sourceNameToOpening.remove( sourceName, opening );
+		}
+
+		return waitForOpening( sourceName, opening );
+	}
+
+	/**
+	 * Cancels all source openings that are in progress, e.g. when another view is shown.
+	 * Sources that are opened nevertheless are closed again.
+	 */
+	public void cancelSourceOpenings()
+	{
+		for ( Map.Entry< String, CompletableFuture< SourceAndConverter< ? > > > entry : sourceNameToOpening.entrySet() )
+		{
+			cancel( entry.getValue() );
+			sourceNameToOpening.remove( entry.getKey(), entry.getValue() );
+		}
+	}
+
+	// see openSourceAndConverter, where registering the opened source excludes cancelling it
+	private static void cancel( CompletableFuture< SourceAndConverter< ? > > opening )
+	{
+		synchronized ( opening )
+		{
+			opening.cancel( false );
+		}
+	}
+
+	private SourceAndConverter< ? > waitForOpening( String sourceName, CompletableFuture< SourceAndConverter< ? > > opening )
+	{
+		try
+		{
+			return opening.join();
+		}
+		catch ( CompletionException e )
+		{
+			if ( e.getCause() instanceof RuntimeException )
+				throw ( RuntimeException ) e.getCause();
+			throw new RuntimeException( "Could not open " + sourceName, e.getCause() );
+		}
+	}
+
+	/**
+	 * @return the source and its image loader, which is not registered yet
+	 */
+	private Pair< SourceAndConverter< ? >, ImgLoader > createSourceAndConverter( String sourceName, CompletableFuture< SourceAndConverter< ? > > opening )
+	{
 		final ImageSource source = getSource( sourceName );
 		final String imagePath = getImagePath( source );
 		new Thread( () -> IJ.log( "Opening image:\n" + imagePath ) ).start();
@@ -280,14 +456,18 @@ public class MoBIE
 			case BdvOmeZarr:
 				spimData = openBdvZarrData(imagePath);
 		}
+
+		if ( opening.isCancelled() )
+		{
+			if ( spimData != null )
+				closeImgLoader( spimData.getSequenceDescription().getImgLoader() );
+			throw new CancellationException( "Opening of " + sourceName + " was cancelled." );
+		}
+
 		final SourceAndConverterFromSpimDataCreator creator = new SourceAndConverterFromSpimDataCreator( spimData );
 		final SourceAndConverter< ? > sourceAndConverter = creator.getSetupIdToSourceAndConverter().values().iterator().next();
-        if (spimData != null)
-        {
-		sourceNameToImgLoader.put( sourceName, spimData.getSequenceDescription().getImgLoader() );
-		sourceNameToSourceAndConverter.put( sourceName, sourceAndConverter );
-        }
-		return sourceAndConverter;
+		final ImgLoader imgLoader = spimData == null ? null : spimData.getSequenceDescription().getImgLoader();
+		return new ValuePair<>( sourceAndConverter, imgLoader );
 	}
 
 	public void setDataset( String dataset )
@@ -359,109 +539,68 @@ public class MoBIE
 		return segments;
 	}
 
-	private Map< String, List< String > > loadAdditionalTable( String imageID, String tablePath )
+	private Map< String, List< String > > loadAdditionalTable( String tablePath )
 	{
 		Logger.log( "Opening table:\n" + tablePath );
-		Map< String, List< String > > columns = TableColumns.stringColumnsFromTableFile( tablePath );
-		TableColumns.addLabelImageIdColumn( columns, Constants.LABEL_IMAGE_ID, imageID );
-		return columns;
+		return TableColumnsLoader.loadColumns( tablePath );
 	}
 
-	private List< Map< String, List< String > > > loadAdditionalTables( List<String> sources, String table )
+	private Map< String, Map< String, List< String > > > loadAdditionalTables( List<String> sources, String table )
 	{
-		final List< Map< String, List< String > > > additionalTables = new CopyOnWriteArrayList<>();
-
 		final long start = System.currentTimeMillis();
-		final ExecutorService executorService = Executors.newFixedThreadPool( N_THREADS );
 
+		final List< Callable< Map< String, List< String > > > > tasks = new ArrayList<>();
 		for ( String sourceName : sources )
-		{
-			executorService.execute( () -> {
-				Map< String, List< String > > columns =
-						loadAdditionalTable( sourceName, getTablePath( ( SegmentationSource ) getSource( sourceName ), table ) );
-				additionalTables.add( columns );
-			} );
-		}
+			tasks.add( () -> loadAdditionalTable( getTablePath( ( SegmentationSource ) getSource( sourceName ), table ) ) );
 
-		executorService.shutdown();
-		try {
-			executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-		} catch (InterruptedException e) {
-		}
+		final List< Map< String, List< String > > > tables = ThreadUtils.invokeAll( tasks );
 
-		System.out.println( "Fetched " + sources.size() + " table(s) in " + (System.currentTimeMillis() - start) + " ms, using " + N_THREADS + " thread(s).");
+		final Map< String, Map< String, List< String > > > sourceToTable = new LinkedHashMap<>();
+		for ( int i = 0; i < sources.size(); i++ )
+			sourceToTable.put( sources.get( i ), tables.get( i ) );
 
-		return additionalTables;
+		System.out.println( "Fetched " + sources.size() + " table(s) in " + (System.currentTimeMillis() - start) + " ms, using " + ThreadUtils.N_IO_THREADS + " thread(s).");
+
+		return sourceToTable;
 	}
 
 
-	private ArrayList< List< TableRowImageSegment > > loadPrimarySegmentsTables( SegmentationSourceDisplay segmentationDisplay, String table )
+	private List< List< TableRowImageSegment > > loadPrimarySegmentsTables( SegmentationSourceDisplay segmentationDisplay, String table )
 	{
-		final ArrayList< List< TableRowImageSegment > > primaryTables = new ArrayList<>();
+		final long start = System.currentTimeMillis();
 
-		// TODO: make parallel
+		final List< Callable< List< TableRowImageSegment > > > tasks = new ArrayList<>();
 		for ( String sourceName : segmentationDisplay.getSources() )
-		{
-			final List< TableRowImageSegment > primaryTable = loadImageSegmentsTable( sourceName, table );
-			primaryTables.add( primaryTable );
-		}
-
-		return primaryTables;
-	}
-
-	private Map< String, List< String > > createColumnsForMerging( List< TableRowImageSegment > segments, Map< String, List< String > > newColumns )
-	{
-		final ArrayList< String > segmentIdColumn = TableColumns.getColumn( segments, Constants.SEGMENT_LABEL_ID );
-		final ArrayList< String > imageIdColumn = TableColumns.getColumn( segments, Constants.LABEL_IMAGE_ID );
-		final HashMap< String, List< String > > referenceColumns = new HashMap<>();
-		referenceColumns.put( Constants.LABEL_IMAGE_ID, imageIdColumn );
-		referenceColumns.put( Constants.SEGMENT_LABEL_ID, segmentIdColumn );
-
-		// deal with the fact that the label ids are sometimes
-		// stored as 1 and sometimes as 1.0
-		// after below operation they all will be 1.0, 2.0, ...
-		Utils.toDoubleStrings( segmentIdColumn );
-		Utils.toDoubleStrings( newColumns.get( Constants.SEGMENT_LABEL_ID ) );
-
-		final Map< String, List< String > > columnsForMerging = TableColumns.createColumnsForMergingExcludingReferenceColumns( referenceColumns, newColumns );
+			tasks.add( () -> loadImageSegmentsTable( sourceName, table ) );
 
-		return columnsForMerging;
-	}
+		final List< List< TableRowImageSegment > > primaryTables = ThreadUtils.invokeAll( tasks );
 
-	private void mergeSegmentsTable( List< TableRowImageSegment > tableRows, Map< String, List< String > > additionalTable )
-	{
-		// prepare
-		final Map< String, List< String > > columnsForMerging = createColumnsForMerging( tableRows, additionalTable );
+		System.out.println( "Fetched " + tasks.size() + " primary table(s) in " + (System.currentTimeMillis() - start) + " ms, using " + ThreadUtils.N_IO_THREADS + " thread(s).");
 
-		// append
-		for ( Map.Entry< String, List< String > > column : columnsForMerging.entrySet() )
-		{
-			TableRows.addColumn( tableRows, column.getKey(), column.getValue() );
-		}
+		return primaryTables;
 	}
 
 	public void appendSegmentsTables( List< String > imageSourceNames, List< String > relativeTablePaths, List< TableRowImageSegment > tableRows )
 	{
+		final SegmentsTableMerger merger = new SegmentsTableMerger( tableRows );
+
 		for ( String table : relativeTablePaths )
 		{
 			// load
-			final List< Map< String, List< String > > > additionalTables = loadAdditionalTables( imageSourceNames, table );
-
-			// concatenate
-			Map< String, List< String > > concatenatedTable = TableColumns.concatenate( additionalTables );
+			final Map< String, Map< String, List< String > > > additionalTables = loadAdditionalTables( imageSourceNames, table );
 
 			// merge
-			mergeSegmentsTable( tableRows, concatenatedTable );
+			merger.merge( additionalTables, table );
 		}
 	}
 
 	public void appendSegmentsTables( String source, String tablePath, List<TableRowImageSegment> tableRows )
 	{
 		// load
-		Map< String, List< String > > additionalTable = loadAdditionalTable( source, tablePath );
+		Map< String, List< String > > additionalTable = loadAdditionalTable( tablePath );
 
 		// merge
-		mergeSegmentsTable( tableRows, additionalTable );
+		new SegmentsTableMerger( tableRows ).merge( Collections.singletonMap( source, additionalTable ), tablePath );
 	}
 
 	public void appendSegmentsTables( SegmentationSourceDisplay segmentationDisplay, List< String > relativeTablePaths )
@@ -475,7 +614,7 @@ public class MoBIE
 	public void loadPrimarySegmentsTables( SegmentationSourceDisplay segmentationDisplay )
 	{
 		segmentationDisplay.tableRows = new ArrayList<>();
-		final ArrayList< List< TableRowImageSegment > > primaryTables = loadPrimarySegmentsTables( segmentationDisplay, segmentationDisplay.getTables().get( 0 ) );
+		final List< List< TableRowImageSegment > > primaryTables = loadPrimarySegmentsTables( segmentationDisplay, segmentationDisplay.getTables().get( 0 ) );
 
 		for ( List< TableRowImageSegment > primaryTable : primaryTables )
 		{
@@ -514,16 +653,31 @@ public class MoBIE
 	{
 		SourceAndConverterServices.getBdvDisplayService().removeFromAllBdvs( sourceAndConverter );
 		String sourceName = sourceAndConverter.getSpimSource().getName();
-		final ImgLoader imgLoader = sourceNameToImgLoader.get( sourceName );
-		if ( imgLoader instanceof N5ImageLoader )
+
+		// e.g. a lazy source that is just being opened
+		final CompletableFuture< SourceAndConverter< ? > > opening = sourceNameToOpening.get( sourceName );
+		if ( opening != null )
 		{
-			( ( N5ImageLoader ) imgLoader ).close();
+			cancel( opening );
+			sourceNameToOpening.remove( sourceName, opening );
 		}
 
-		sourceNameToImgLoader.remove( sourceName );
+		final ImgLoader imgLoader = sourceNameToImgLoader.remove( sourceName );
+		closeImgLoader( imgLoader );
+
 		sourceNameToSourceAndConverter.remove( sourceName );
+	}
 
-		// TODO - when we support more image formats e.g. OME-ZARR, we should explicitly close their imgloaders here too
+	private static void closeImgLoader( ImgLoader imgLoader )
+	{
+		if ( imgLoader instanceof N5ImageLoader )
+		{
+			( ( N5ImageLoader ) imgLoader ).close();
+		}
+		else if ( imgLoader instanceof N5OMEZarrImageLoader )
+		{
+			( ( N5OMEZarrImageLoader ) imgLoader ).close();
+		}
 	}
 
 	public void registerSourceAndConverter( String name, SourceAndConverter< ? > sac )
@@ -0,0 +1,206 @@
+package de.embl.cba.mobie;
+
+import net.imglib2.cache.queue.BlockingFetchQueues;
+import net.imglib2.cache.queue.FetcherThreads;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread pools that are shared by all image loaders and bulk operations,
+ * such that the number of threads does not grow with the number of sources.
+ *
+ * <ul>
+ *     <li>{@link #getFetchQueue()}: the block loading queue of all image loaders,
+ *     worked off by a fixed number of fetcher threads in the order of the
+ *     mipmap level priorities of the BDV renderers</li>
+ *     <li>{@link #getPrefetchExecutorService()}: for reading blocks ahead of requests</li>
+ *     <li>{@link #ioExecutorService}: for opening sources and loading tables</li>
+ *     <li>{@link #getMeshingExecutorService()}: for computing the meshes of segments</li>
+ *     <li>{@link #getSelectionExecutorService()}: for reading the labels of clicked segments,
+ *     such that clicks do not queue behind source and table loading</li>
+ * </ul>
+ */
+public abstract class ThreadUtils
+{
+	public static final int N_IO_THREADS = MoBIE.N_THREADS;
+
+	/**
+	 * Number of priorities of the fetch queue; must be at least the
+	 * number of mipmap levels of any source.
+	 */
+	public static final int MAX_NUM_LEVELS = 32;
+
+	private static int numFetcherThreads = Math.max( 1, Runtime.getRuntime().availableProcessors() );
+	private static BlockingFetchQueues< Callable< ? > > fetchQueue;
+	private static FetcherThreads fetcherThreads;
+	private static ExecutorService prefetchExecutorService;
+	private static ExecutorService meshingExecutorService;
+	private static ExecutorService selectionExecutorService;
+
+	private static final ThreadLocal< Boolean > isIoThread = ThreadLocal.withInitial( () -> false );
+
+	/**
+	 * Shared pool for loading data (tables, sources) in parallel.
+	 */
+	public static final ExecutorService ioExecutorService = Executors.newFixedThreadPool( N_IO_THREADS, createThreadFactory( "mobie-io", () -> isIoThread.set( true ) ) );
+
+	/**
+	 * Sets the number of threads that fetch blocks for all image loaders.
+	 * Must be called before the first image is loaded.
+	 */
+	public static synchronized void setNumFetcherThreads( int numFetcherThreads )
+	{
+		if ( fetchQueue != null )
+			throw new IllegalStateException( "The fetcher threads are already running." );
+
+		ThreadUtils.numFetcherThreads = Math.max( 1, numFetcherThreads );
+	}
+
+	public static synchronized int getNumFetcherThreads()
+	{
+		return numFetcherThreads;
+	}
+
+	public static synchronized BlockingFetchQueues< Callable< ? > > getFetchQueue()
+	{
+		if ( fetchQueue == null )
+		{
+			fetchQueue = new BlockingFetchQueues<>( MAX_NUM_LEVELS, numFetcherThreads );
+			fetcherThreads = new FetcherThreads( fetchQueue, numFetcherThreads );
+		}
+
+		return fetchQueue;
+	}
+
+	public static synchronized ExecutorService getPrefetchExecutorService()
+	{
+		if ( prefetchExecutorService == null )
+			prefetchExecutorService = Executors.newFixedThreadPool( numFetcherThreads, createThreadFactory( "mobie-prefetch", () -> {} ) );
+
+		return prefetchExecutorService;
+	}
+
+	public static synchronized ExecutorService getMeshingExecutorService()
+	{
+		if ( meshingExecutorService == null )
+			meshingExecutorService = Executors.newFixedThreadPool( Math.max( 1, Runtime.getRuntime().availableProcessors() ), createThreadFactory( "mobie-meshing", () -> {} ) );
+
+		return meshingExecutorService;
+	}
+
+	public static synchronized ExecutorService getSelectionExecutorService()
+	{
+		if ( selectionExecutorService == null )
+			selectionExecutorService = Executors.newFixedThreadPool( 2, createThreadFactory( "mobie-selection", () -> {} ) );
+
+		return selectionExecutorService;
+	}
+
+	/**
+	 * Runs the tasks in the {@link #ioExecutorService} and waits for all of them.
+	 * If a task fails, the tasks that did not start yet are skipped and the
+	 * exception is thrown once the running tasks have finished.
+	 * If called from within that pool, the tasks are run in the calling thread,
+	 * as waiting for them could otherwise deadlock the pool.
+	 *
+	 * @return the results, in the order of the tasks
+	 */
+	public static < T > List< T > invokeAll( List< Callable< T > > tasks )
+	{
+		final List< T > results = new ArrayList<>();
+
+		if ( isIoThread.get() )
+		{
+			for ( Callable< T > task : tasks )
+			{
+				try
+				{
+					results.add( task.call() );
+				}
+				catch ( RuntimeException e )
+				{
+					throw e;
+				}
+				catch ( Exception e )
+				{
+					throw new RuntimeException( e );
+				}
+			}
+			return results;
+		}
+
+		// once a task failed, the tasks that did not start yet are skipped
+		final AtomicBoolean isFailed = new AtomicBoolean();
+		final CountDownLatch numUnfinished = new CountDownLatch( tasks.size() );
+
+		final List< Future< T > > futures = new ArrayList<>();
+		for ( Callable< T > task : tasks )
+			futures.add( ioExecutorService.submit( () -> {
+				try
+				{
+					return isFailed.get() ? null : task.call();
+				}
+				finally
+				{
+					numUnfinished.countDown();
+				}
+			} ) );
+
+		for ( Future< T > future : futures )
+		{
+			try
+			{
+				results.add( future.get() );
+			}
+			catch ( InterruptedException e )
+			{
+				isFailed.set( true );
+				Thread.currentThread().interrupt();
+				throw new RuntimeException( e );
+			}
+			catch ( ExecutionException e )
+			{
+				// the running tasks are waited for, such that none of them is still running after the failure
+				isFailed.set( true );
+				try
+				{
+					numUnfinished.await();
+				}
+				catch ( InterruptedException interrupted )
+				{
+					Thread.currentThread().interrupt();
+				}
+
+				if ( e.getCause() instanceof RuntimeException )
+					throw ( RuntimeException ) e.getCause();
+				throw new RuntimeException( e.getCause() );
+			}
+		}
+
+		return results;
+	}
+
+	private static ThreadFactory createThreadFactory( String name, Runnable init )
+	{
+		final AtomicInteger threadCount = new AtomicInteger();
+
+		return runnable -> {
+			final Thread thread = new Thread( () -> {
+				init.run();
+				runnable.run();
+			}, name + "-" + threadCount.incrementAndGet() );
+			thread.setDaemon( true );
+			return thread;
+		};
+	}
+}
@@ -4,6 +4,7 @@ import bdv.util.BdvHandle;
 import bdv.viewer.Source;
 import bdv.viewer.SourceAndConverter;
 import de.embl.cba.bdv.utils.BdvUtils;
+import de.embl.cba.mobie.table.TableColumnsLoader;
 import de.embl.cba.tables.FileAndUrlUtils;
 import de.embl.cba.tables.TableColumns;
 import de.embl.cba.tables.imagesegment.SegmentProperty;
@@ -153,7 +154,7 @@ public abstract class Utils
 
 		tablePath = resolveTablePath( tablePath );
 
-		Map< String, List< String > > columns = TableColumns.stringColumnsFromTableFile( tablePath );
+		Map< String, List< String > > columns = TableColumnsLoader.loadColumns( tablePath );
 
 		TableColumns.addLabelImageIdColumn(
 				columns,
@@ -0,0 +1,192 @@
+package de.embl.cba.mobie.annotate;
+
+import gnu.trove.list.array.TIntArrayList;
+import net.imglib2.RealInterval;
+import net.imglib2.RealLocalizable;
+
+import java.util.List;
+
+/**
+ * Uniform grid over a list of intervals, for finding the interval
+ * that contains a position without testing all of them.
+ *
+ * The grid cells have about the average size of the intervals,
+ * such that each cell only refers to a few intervals.
+ */
+public class IntervalGridIndex
+{
+	public static final int NOT_FOUND = -1;
+
+	// bounds the memory for few, very differently sized intervals
+	private static final long MAX_NUM_CELLS_PER_INTERVAL = 16;
+
+	private final List< ? extends RealInterval > intervals;
+	private final int numDimensions;
+	private final double[] min;
+	private final double[] cellSize;
+	private final int[] gridDimensions;
+	private final int[][] cellToIntervalIndices;
+
+	public IntervalGridIndex( List< ? extends RealInterval > intervals, RealInterval union )
+	{
+		this.intervals = intervals;
+		this.numDimensions = union.numDimensions();
+		this.min = new double[ numDimensions ];
+		this.cellSize = new double[ numDimensions ];
+		this.gridDimensions = new int[ numDimensions ];
+
+		initGrid( union );
+		cellToIntervalIndices = createCells();
+	}
+
+	/**
+	 * @return the index of the first interval that contains the position,
+	 * or {@link #NOT_FOUND}
+	 */
+	public int getIntervalIndex( RealLocalizable position )
+	{
+		final int cellIndex = getCellIndex( position );
+		if ( cellIndex < 0 ) return NOT_FOUND;
+
+		for ( int intervalIndex : cellToIntervalIndices[ cellIndex ] )
+		{
+			if ( contains( intervals.get( intervalIndex ), position ) )
+				return intervalIndex;
+		}
+
+		return NOT_FOUND;
+	}
+
+	/**
+	 * Adds the indices of all intervals that contain the position, in ascending order.
+	 */
+	public void getIntervalIndices( RealLocalizable position, TIntArrayList intervalIndices )
+	{
+		final int cellIndex = getCellIndex( position );
+		if ( cellIndex < 0 ) return;
+
+		for ( int intervalIndex : cellToIntervalIndices[ cellIndex ] )
+		{
+			if ( contains( intervals.get( intervalIndex ), position ) )
+				intervalIndices.add( intervalIndex );
+		}
+	}
+
+	// -1 if outside of the grid
+	private int getCellIndex( RealLocalizable position )
+	{
+		int cellIndex = 0;
+		for ( int d = numDimensions - 1; d >= 0; d-- )
+		{
+			final int gridPosition = ( int ) Math.floor( ( position.getDoublePosition( d ) - min[ d ] ) / cellSize[ d ] );
+			if ( gridPosition < 0 || gridPosition >= gridDimensions[ d ] ) return -1;
+			cellIndex = cellIndex * gridDimensions[ d ] + gridPosition;
+		}
+		return cellIndex;
+	}
+
+	private boolean contains( RealInterval interval, RealLocalizable position )
+	{
+		for ( int d = 0; d < numDimensions; d++ )
+		{
+			final double p = position.getDoublePosition( d );
+			if ( p < interval.realMin( d ) || p > interval.realMax( d ) ) return false;
+		}
+		return true;
+	}
+
+	private void initGrid( RealInterval union )
+	{
+		final int numIntervals = Math.max( 1, intervals.size() );
+
+		final double[] averageSize = new double[ numDimensions ];
+		for ( RealInterval interval : intervals )
+			for ( int d = 0; d < numDimensions; d++ )
+				averageSize[ d ] += ( interval.realMax( d ) - interval.realMin( d ) ) / numIntervals;
+
+		long numCells = 1;
+		for ( int d = 0; d < numDimensions; d++ )
+		{
+			min[ d ] = union.realMin( d );
+			final double extent = union.realMax( d ) - union.realMin( d );
+			gridDimensions[ d ] = averageSize[ d ] > 0 ? ( int ) Math.min( Math.ceil( extent / averageSize[ d ] ), numIntervals ) : 1;
+			gridDimensions[ d ] = Math.max( 1, gridDimensions[ d ] );
+			numCells *= gridDimensions[ d ];
+		}
+
+		// coarsen the grid until it fits the budget
+		while ( numCells > MAX_NUM_CELLS_PER_INTERVAL * numIntervals )
+		{
+			numCells = 1;
+			for ( int d = 0; d < numDimensions; d++ )
+			{
+				gridDimensions[ d ] = Math.max( 1, gridDimensions[ d ] / 2 );
+				numCells *= gridDimensions[ d ];
+			}
+		}
+
+		for ( int d = 0; d < numDimensions; d++ )
+		{
+			final double extent = union.realMax( d ) - union.realMin( d );
+			// the max of the union belongs to the last cell
+			cellSize[ d ] = extent > 0 ? Math.nextUp( extent / gridDimensions[ d ] ) : 1.0;
+		}
+	}
+
+	private int[][] createCells()
+	{
+		int numCells = 1;
+		for ( int d = 0; d < numDimensions; d++ )
+			numCells *= gridDimensions[ d ];
+
+		final TIntArrayList[] cells = new TIntArrayList[ numCells ];
+		for ( int i = 0; i < numCells; i++ )
+			cells[ i ] = new TIntArrayList();
+
+		final int[] cellMin = new int[ numDimensions ];
+		final int[] cellMax = new int[ numDimensions ];
+		final int[] gridPosition = new int[ numDimensions ];
+
+		// adding in the order of the intervals keeps the first matching one first
+		for ( int intervalIndex = 0; intervalIndex < intervals.size(); intervalIndex++ )
+		{
+			final RealInterval interval = intervals.get( intervalIndex );
+			for ( int d = 0; d < numDimensions; d++ )
+			{
+				cellMin[ d ] = toGridPosition( interval.realMin( d ), d );
+				cellMax[ d ] = toGridPosition( interval.realMax( d ), d );
+				gridPosition[ d ] = cellMin[ d ];
+			}
+
+			// iterate over all grid cells within [cellMin, cellMax]
+			while ( true )
+			{
+				int cellIndex = 0;
+				for ( int d = numDimensions - 1; d >= 0; d-- )
+					cellIndex = cellIndex * gridDimensions[ d ] + gridPosition[ d ];
+				cells[ cellIndex ].add( intervalIndex );
+
+				int d = 0;
+				while ( d < numDimensions && gridPosition[ d ] == cellMax[ d ] )
+				{
+					gridPosition[ d ] = cellMin[ d ];
+					d++;
+				}
+				if ( d == numDimensions ) break;
+				gridPosition[ d ]++;
+			}
+		}
+
+		final int[][] cellToIntervalIndices = new int[ numCells ][];
+		for ( int i = 0; i < numCells; i++ )
+			cellToIntervalIndices[ i ] = cells[ i ].toArray();
+
+		return cellToIntervalIndices;
+	}
+
+	private int toGridPosition( double position, int d )
+	{
+		final int gridPosition = ( int ) Math.floor( ( position - min[ d ] ) / cellSize[ d ] );
+		return Math.max( 0, Math.min( gridDimensions[ d ] - 1, gridPosition ) );
+	}
+}
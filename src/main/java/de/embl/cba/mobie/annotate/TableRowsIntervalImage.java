@@ -14,6 +14,7 @@ import net.imglib2.type.numeric.integer.IntType;
 import net.imglib2.util.Intervals;
 
 import java.awt.*;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.function.BiConsumer;
@@ -28,7 +29,7 @@ public class TableRowsIntervalImage< T extends AnnotatedIntervalTableRow >
 	private String name;
 	private SourceAndConverter< IntType > sourceAndConverter;
 	private RealInterval union;
-	private int size;
+	private IntervalGridIndex intervalIndex;
 
 	public TableRowsIntervalImage(
 			List< T > tableRows,
@@ -45,38 +46,35 @@ public class TableRowsIntervalImage< T extends AnnotatedIntervalTableRow >
 
 	public void init( List< T > tableRows )
 	{
-		size = tableRows.size();
 		nameToTableRow = new HashMap<>();
 		nameToTableRowIndex = new HashMap();
+		final List< RealInterval > intervals = new ArrayList<>();
 
 		int rowIndex = 0;
 		for ( T tableRow : tableRows )
 		{
 			nameToTableRow.put( tableRow.getName(), tableRow );
 			nameToTableRowIndex.put( tableRow.getName(), rowIndex++ );
+			intervals.add( tableRow.getInterval() );
 			if ( union == null )
 				union = tableRow.getInterval();
 			else
 				union = Intervals.union( tableRow.getInterval(), union );
 		}
+
+		intervalIndex = new IntervalGridIndex( intervals, union );
 	}
 
 	private void createImage( )
 	{
 		BiConsumer< RealLocalizable, IntType > biConsumer = ( l, t ) ->
 		{
-			t.setInteger( ListItemsARGBConverter.OUT_OF_BOUNDS_ROW_INDEX );
-
-			for ( int i = 0; i < size; i++ )
-			{
-				final RealInterval interval = tableRows.get( i ).getInterval();
-
-				if ( Intervals.contains( interval, l ) )
-				{
-					t.setInteger( i );
-					return;
-				}
-			}
+			final int rowIndex = intervalIndex.getIntervalIndex( l );
+
+			if ( rowIndex == IntervalGridIndex.NOT_FOUND )
+				t.setInteger( ListItemsARGBConverter.OUT_OF_BOUNDS_ROW_INDEX );
+			else
+				t.setInteger( rowIndex );
 		};
 
 		final FunctionRealRandomAccessible< IntType > randomAccessible = new FunctionRealRandomAccessible( 3, biConsumer, IntType::new );
@@ -0,0 +1,153 @@
+package de.embl.cba.mobie.bdv;
+
+import bdv.util.BdvHandle;
+import bdv.viewer.Source;
+import bdv.viewer.SourceAndConverter;
+import bdv.viewer.ViewerPanel;
+import bdv.viewer.ViewerState;
+import bdv.viewer.ViewerStateChange;
+import bdv.viewer.ViewerStateChangeListener;
+import de.embl.cba.mobie.ThreadUtils;
+import de.embl.cba.mobie.source.LazySource;
+import ij.IJ;
+import net.imglib2.FinalRealInterval;
+import net.imglib2.RealInterval;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.util.Intervals;
+
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Opens the {@link LazySource}s of a viewer once they are visible and
+ * intersect the currently shown plane, such that sources outside of the
+ * field of view do not create image loaders.
+ */
+public class LazySourcesOpener implements ViewerStateChangeListener
+{
+	private final ViewerPanel viewerPanel;
+	private final AtomicBoolean isUpdatePending = new AtomicBoolean();
+
+	public LazySourcesOpener( BdvHandle bdvHandle )
+	{
+		viewerPanel = bdvHandle.getViewerPanel();
+		viewerPanel.state().changeListeners().add( this );
+	}
+
+	/**
+	 * Stops listening to the viewer, e.g. when it is closed.
+	 */
+	public void close()
+	{
+		viewerPanel.state().changeListeners().remove( this );
+	}
+
+	@Override
+	public void viewerStateChanged( ViewerStateChange change )
+	{
+		switch ( change )
+		{
+			case VIEWER_TRANSFORM_CHANGED:
+			case CURRENT_TIMEPOINT_CHANGED:
+			case VISIBILITY_CHANGED:
+			case NUM_SOURCES_CHANGED:
+			case DISPLAY_MODE_CHANGED:
+				// coalesce e.g. the many transform changes while dragging
+				if ( isUpdatePending.compareAndSet( false, true ) )
+					SwingUtilities.invokeLater( this::openVisibleSources );
+		}
+	}
+
+	private void openVisibleSources()
+	{
+		isUpdatePending.set( false );
+
+		final ViewerState state = viewerPanel.state().snapshot();
+		final int timepoint = state.getCurrentTimepoint();
+		final RealInterval viewerBounds = getViewerBounds( state.getViewerTransform() );
+
+		for ( SourceAndConverter< ? > sourceAndConverter : state.getVisibleAndPresentSources() )
+		{
+			final List< LazySource< ? > > lazySources = new ArrayList<>();
+			addLazySourceToOpen( sourceAndConverter.getSpimSource(), lazySources );
+			if ( sourceAndConverter.asVolatile() != null )
+				addLazySourceToOpen( sourceAndConverter.asVolatile().getSpimSource(), lazySources );
+
+			if ( lazySources.isEmpty() ) continue;
+			if ( Intervals.isEmpty( Intervals.intersect( viewerBounds, getBounds( sourceAndConverter.getSpimSource(), timepoint ) ) ) ) continue;
+
+			for ( LazySource< ? > lazySource : lazySources )
+				lazySource.open( ThreadUtils.ioExecutorService ).whenComplete( ( source, throwable ) -> onOpened( lazySource, throwable ) );
+		}
+	}
+
+	private void onOpened( LazySource< ? > lazySource, Throwable throwable )
+	{
+		if ( throwable == null )
+		{
+			viewerPanel.requestRepaint();
+			return;
+		}
+
+		// the opening is started again with the next change of the viewer
+		final Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+		if ( cause instanceof CancellationException )
+			IJ.log( "Opening of " + lazySource.getName() + " was cancelled." );
+		else
+			IJ.log( "[ERROR] Could not open " + lazySource.getName() + ": " + cause );
+	}
+
+	private static void addLazySourceToOpen( Source< ? > source, List< LazySource< ? > > lazySources )
+	{
+		final LazySource< ? > lazySource = LazySource.getUnopened( source );
+		if ( lazySource != null && ! lazySource.isOpeningStarted() )
+			lazySources.add( lazySource );
+	}
+
+	// the global bounding box of the currently shown plane
+	private RealInterval getViewerBounds( AffineTransform3D viewerTransform )
+	{
+		final double width = viewerPanel.getDisplay().getWidth();
+		final double height = viewerPanel.getDisplay().getHeight();
+
+		final double[] min = new double[]{ Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE };
+		final double[] max = new double[]{ -Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE };
+		final double[] corner = new double[ 3 ];
+		for ( double[] screenCorner : new double[][]{ { 0, 0, 0 }, { width, 0, 0 }, { 0, height, 0 }, { width, height, 0 } } )
+		{
+			viewerTransform.applyInverse( corner, screenCorner );
+			for ( int d = 0; d < 3; d++ )
+			{
+				min[ d ] = Math.min( min[ d ], corner[ d ] );
+				max[ d ] = Math.max( max[ d ], corner[ d ] );
+			}
+		}
+
+		return new FinalRealInterval( min, max );
+	}
+
+	// the global bounds of the voxels, i.e. including half a voxel around the voxel centers
+	private static RealInterval getBounds( Source< ? > source, int timepoint )
+	{
+		final AffineTransform3D sourceTransform = new AffineTransform3D();
+		source.getSourceTransform( timepoint, 0, sourceTransform );
+		final FinalRealInterval bounds = sourceTransform.estimateBounds( source.getSource( timepoint, 0 ) );
+
+		final double[] min = new double[ 3 ];
+		final double[] max = new double[ 3 ];
+		for ( int d = 0; d < 3; d++ )
+		{
+			double voxelExtent = 0;
+			for ( int c = 0; c < 3; c++ )
+				voxelExtent += 0.5 * Math.abs( sourceTransform.get( d, c ) );
+			min[ d ] = bounds.realMin( d ) - voxelExtent;
+			max[ d ] = bounds.realMax( d ) + voxelExtent;
+		}
+
+		return new FinalRealInterval( min, max );
+	}
+}
@@ -333,6 +333,7 @@ public class ScreenShotMaker
         final Cursor< ARGBType > argbCursor = Views.iterable( argbCapture ).localizingCursor();
         final int numVisibleSources = argbCaptures.size();
         Cursor< ARGBType >[] cursors = getCursors( argbCaptures, numVisibleSources );
+        final boolean[] isOccluding = AccumulateOccludingProjectorARGB.getOccluding( blendingModes );
 
         while ( argbCursor.hasNext() )
         {
@@ -340,7 +341,7 @@ public class ScreenShotMaker
             for ( int i = 0; i < numVisibleSources; i++ )
                 cursors[ i ].fwd();
 
-            final int argbIndex = AccumulateOccludingProjectorARGB.getArgbIndex( cursors, AccumulateOccludingProjectorARGB.getOccludedBy() );
+            final int argbIndex = AccumulateOccludingProjectorARGB.getArgbIndex( cursors, isOccluding );
             argbCursor.get().set( argbIndex );
         }
     }
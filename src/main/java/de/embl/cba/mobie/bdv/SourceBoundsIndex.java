@@ -0,0 +1,132 @@
+package de.embl.cba.mobie.bdv;
+
+import bdv.viewer.Source;
+import bdv.viewer.SourceAndConverter;
+import de.embl.cba.mobie.annotate.IntervalGridIndex;
+import gnu.trove.list.array.TIntArrayList;
+import net.imglib2.FinalRealInterval;
+import net.imglib2.RealInterval;
+import net.imglib2.RealLocalizable;
+import net.imglib2.RealPoint;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.util.Intervals;
+import sc.fiji.bdvpg.sourceandconverter.SourceAndConverterHelper;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of the bounds of the sources of a viewer, in global coordinates,
+ * for finding the sources at a position without testing all of them.
+ *
+ * The index is built lazily per timepoint, on the xy bounds of the sources,
+ * and rebuilt after sources are added or removed, or after {@link #invalidate()}
+ * (e.g. if a source transform was changed).
+ * The candidates are then tested with {@link SourceAndConverterHelper#isPositionWithinSourceInterval}.
+ */
+public class SourceBoundsIndex
+{
+	private final boolean is2D;
+	private final LinkedHashSet< SourceAndConverter< ? > > sourceAndConverters = new LinkedHashSet<>();
+	private final Map< Integer, TimepointIndex > timepointToIndex = new HashMap<>();
+
+	public SourceBoundsIndex( boolean is2D )
+	{
+		this.is2D = is2D;
+	}
+
+	public synchronized void addAll( Collection< ? extends SourceAndConverter< ? > > sourceAndConverters )
+	{
+		if ( this.sourceAndConverters.addAll( sourceAndConverters ) )
+			invalidate();
+	}
+
+	public synchronized void removeAll( Collection< ? extends SourceAndConverter< ? > > sourceAndConverters )
+	{
+		if ( this.sourceAndConverters.removeAll( sourceAndConverters ) )
+			invalidate();
+	}
+
+	public synchronized boolean contains( SourceAndConverter< ? > sourceAndConverter )
+	{
+		return sourceAndConverters.contains( sourceAndConverter );
+	}
+
+	public synchronized void invalidate()
+	{
+		timepointToIndex.clear();
+	}
+
+	/**
+	 * @return the indexed sources that contain the position at the timepoint
+	 */
+	public synchronized List< SourceAndConverter< ? > > getSourceAndConverters( RealPoint position, int timePoint )
+	{
+		final TimepointIndex index = timepointToIndex.computeIfAbsent( timePoint, TimepointIndex::new );
+
+		final List< SourceAndConverter< ? > > sourceAndConverters = new ArrayList<>();
+		if ( index.gridIndex == null ) return sourceAndConverters;
+
+		final TIntArrayList candidates = new TIntArrayList();
+		index.gridIndex.getIntervalIndices( new RealPoint( position.getDoublePosition( 0 ), position.getDoublePosition( 1 ) ), candidates );
+
+		for ( int i = 0; i < candidates.size(); i++ )
+		{
+			final SourceAndConverter< ? > sourceAndConverter = index.sourceAndConverters.get( candidates.get( i ) );
+			if ( SourceAndConverterHelper.isPositionWithinSourceInterval( sourceAndConverter, position, timePoint, is2D ) )
+				sourceAndConverters.add( sourceAndConverter );
+		}
+
+		return sourceAndConverters;
+	}
+
+	private class TimepointIndex
+	{
+		private final List< SourceAndConverter< ? > > sourceAndConverters = new ArrayList<>();
+		private final List< RealInterval > bounds = new ArrayList<>();
+		private IntervalGridIndex gridIndex;
+
+		TimepointIndex( int timePoint )
+		{
+			RealInterval union = null;
+			for ( SourceAndConverter< ? > sourceAndConverter : SourceBoundsIndex.this.sourceAndConverters )
+			{
+				final Source< ? > source = sourceAndConverter.getSpimSource();
+				if ( ! source.isPresent( timePoint ) ) continue;
+
+				final RealInterval xyBounds = getXYBounds( source, timePoint );
+				sourceAndConverters.add( sourceAndConverter );
+				bounds.add( xyBounds );
+				union = union == null ? xyBounds : Intervals.union( union, xyBounds );
+			}
+
+			if ( union != null )
+				gridIndex = new IntervalGridIndex( bounds, union );
+		}
+	}
+
+	private static RealInterval getXYBounds( Source< ? > source, int timePoint )
+	{
+		final AffineTransform3D sourceTransform = new AffineTransform3D();
+		source.getSourceTransform( timePoint, 0, sourceTransform );
+		final FinalRealInterval bounds = sourceTransform.estimateBounds( source.getSource( timePoint, 0 ) );
+
+		// include the voxel extent, as the source is rendered from voxel centers +/- 0.5
+		final double[] min = new double[ 2 ];
+		final double[] max = new double[ 2 ];
+		for ( int d = 0; d < 2; d++ )
+		{
+			double voxelExtent = 0;
+			for ( int c = 0; c < 3; c++ )
+				voxelExtent += 0.5 * Math.abs( sourceTransform.get( d, c ) );
+			min[ d ] = bounds.realMin( d ) - voxelExtent;
+			max[ d ] = bounds.realMax( d ) + voxelExtent;
+		}
+
+		return new FinalRealInterval( min, max );
+	}
+}
@@ -2,11 +2,15 @@ package de.embl.cba.mobie.bdv;
 
 import bdv.util.BdvHandle;
 import bdv.viewer.SourceAndConverter;
+import net.imglib2.RealPoint;
 import sc.fiji.bdvpg.services.SourceAndConverterServices;
 import sc.fiji.bdvpg.sourceandconverter.SourceAndConverterHelper;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
@@ -14,11 +18,23 @@ public class SourcesAtMousePositionSupplier implements Supplier< Collection< Sou
 {
 	BdvHandle bdvHandle;
 	boolean is2D;
+	SourceBoundsIndex sourceBoundsIndex;
 
 	public SourcesAtMousePositionSupplier( BdvHandle bdvHandle, boolean is2D )
+	{
+		this( bdvHandle, is2D, null );
+	}
+
+	/**
+	 * @param sourceBoundsIndex
+	 * 			for finding the indexed sources at the mouse position;
+	 * 			the other sources of the viewer are tested one by one
+	 */
+	public SourcesAtMousePositionSupplier( BdvHandle bdvHandle, boolean is2D, SourceBoundsIndex sourceBoundsIndex )
 	{
 		this.bdvHandle = bdvHandle;
 		this.is2D = is2D;
+		this.sourceBoundsIndex = sourceBoundsIndex;
 	}
 
 	@Override
@@ -26,9 +42,14 @@ public class SourcesAtMousePositionSupplier implements Supplier< Collection< Sou
 	{
 		final BdvMousePositionProvider positionProvider = new BdvMousePositionProvider( bdvHandle );
 
+		final RealPoint position = positionProvider.getPosition();
+		final int timePoint = positionProvider.getTimePoint();
+
+		final Set< SourceAndConverter< ? > > indexedSourcesAtPosition = sourceBoundsIndex == null ? Collections.emptySet() : new HashSet<>( sourceBoundsIndex.getSourceAndConverters( position, timePoint ) );
+
 		final List< SourceAndConverter< ? > > sourceAndConverters = SourceAndConverterServices.getBdvDisplayService().getSourceAndConverterOf( bdvHandle )
 				.stream()
-				.filter( sac -> SourceAndConverterHelper.isPositionWithinSourceInterval( sac, positionProvider.getPosition(), positionProvider.getTimePoint(), is2D ) )
+				.filter( sac -> sourceBoundsIndex != null && sourceBoundsIndex.contains( sac ) ? indexedSourcesAtPosition.contains( sac ) : SourceAndConverterHelper.isPositionWithinSourceInterval( sac, position, timePoint, is2D ) )
 				.filter( sac -> SourceAndConverterServices.getBdvDisplayService().isVisible( sac, bdvHandle ) )
 				.collect( Collectors.toList() );
 
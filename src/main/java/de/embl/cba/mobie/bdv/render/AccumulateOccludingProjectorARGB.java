@@ -38,14 +38,22 @@ import net.imglib2.type.numeric.ARGBType;
 import sc.fiji.bdvpg.services.ISourceAndConverterService;
 import sc.fiji.bdvpg.services.SourceAndConverterServices;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 
+/**
+ * Sums the ARGB values of all sources, where a source is not shown
+ * at pixels at which any subsequent source with an occluding
+ * {@link BlendingMode} is visible (alpha > 0).
+ *
+ * The sources are accumulated back to front, such that all preceding
+ * sources can be skipped as soon as an occluding source is visible.
+ * The projector holds no shared state, such that several viewers with
+ * different blending modes can render concurrently.
+ */
 public class AccumulateOccludingProjectorARGB extends AccumulateProjector< ARGBType, ARGBType >
 {
-	private static BlendingMode[] blendingModes;
-	private static ArrayList< ArrayList< Integer > > occludedBy;
+	private final boolean[] isOccluding;
 
 	public AccumulateOccludingProjectorARGB(
 			final List< VolatileProjector > sourceProjectors,
@@ -56,13 +64,7 @@ public class AccumulateOccludingProjectorARGB extends AccumulateProjector< ARGBT
 			final ExecutorService executorService )
 	{
 		super( sourceProjectors, sourceScreenImages, target, numThreads, executorService );
-		blendingModes = getBlendingModes( sources );
-		initOcclusions( blendingModes );
-	}
-
-	public static ArrayList< ArrayList< Integer > > getOccludedBy()
-	{
-		return occludedBy;
+		isOccluding = getOccluding( getBlendingModes( sources ) );
 	}
 
 	public static BlendingMode[] getBlendingModes( List< SourceAndConverter<?> > sources )
@@ -75,23 +77,12 @@ public class AccumulateOccludingProjectorARGB extends AccumulateProjector< ARGBT
 				.toArray( BlendingMode[]::new );
 	}
 
-	private void initOcclusions( BlendingMode[] blendingModes )
+	public static boolean[] getOccluding( BlendingMode[] blendingModes )
 	{
-		occludedBy = new ArrayList();
-
+		final boolean[] isOccluding = new boolean[ blendingModes.length ];
 		for ( int sourceIndex = 0; sourceIndex < blendingModes.length; sourceIndex++ )
-		{
-			final ArrayList< Integer > occludingSubsequentSourceIndices = new ArrayList<>();
-			occludedBy.add( occludingSubsequentSourceIndices );
-
-			for ( int subsequentSourceIndex = sourceIndex + 1; subsequentSourceIndex < blendingModes.length; subsequentSourceIndex++ )
-			{
-				if ( BlendingMode.isOccluding( blendingModes[ subsequentSourceIndex ] ) )
-				{
-					occludingSubsequentSourceIndices.add( subsequentSourceIndex );
-				}
-			}
-		}
+			isOccluding[ sourceIndex ] = BlendingMode.isOccluding( blendingModes[ sourceIndex ] );
+		return isOccluding;
 	}
 
 	@Override
@@ -99,31 +90,26 @@ public class AccumulateOccludingProjectorARGB extends AccumulateProjector< ARGBT
 			final Cursor< ? extends ARGBType >[] accesses,
 			final ARGBType target )
 	{
-		final int argbIndex = getArgbIndex( accesses, occludedBy );
-		target.set( argbIndex );
+		target.set( getArgbIndex( accesses, isOccluding ) );
 	}
 
-	public static int getArgbIndex( Cursor< ? extends ARGBType >[] accesses, ArrayList< ArrayList< Integer > > occludedBy )
+	public static int getArgbIndex( Cursor< ? extends ARGBType >[] accesses, boolean[] isOccluding )
 	{
 		int aAccu = 0, rAccu = 0, gAccu = 0, bAccu = 0;
 
-		int[] argbs = getARGBs( accesses );
-
-		for ( int sourceIndex = 0; sourceIndex < accesses.length; sourceIndex++ )
+		for ( int sourceIndex = accesses.length - 1; sourceIndex >= 0; sourceIndex-- )
 		{
-			final int argb = argbs[ sourceIndex ];
+			final int argb = accesses[ sourceIndex ].get().get();
 			final int a = ARGBType.alpha( argb );
 			if ( a == 0 ) continue;
-			if ( isOccluded( argbs, occludedBy.get( sourceIndex ) ) ) continue;
-
-			final int r = ARGBType.red( argb );
-			final int g = ARGBType.green( argb );
-			final int b = ARGBType.blue( argb );
 
 			aAccu += a; // does this make sense??
-			rAccu += r;
-			gAccu += g;
-			bAccu += b;
+			rAccu += ARGBType.red( argb );
+			gAccu += ARGBType.green( argb );
+			bAccu += ARGBType.blue( argb );
+
+			// all preceding sources are occluded by this one
+			if ( isOccluding[ sourceIndex ] ) break;
 		}
 
 		if ( aAccu > 255 )
@@ -137,26 +123,4 @@ public class AccumulateOccludingProjectorARGB extends AccumulateProjector< ARGBT
 
 		return ARGBType.rgba( rAccu, gAccu, bAccu, aAccu );
 	}
-
-	private static boolean isOccluded( int[] argbs, ArrayList< Integer > occlusions )
-	{
-		for ( Integer occludingSourceIndex : occlusions )
-		{
-			if ( ARGBType.alpha( argbs[ occludingSourceIndex ] ) > 0 )
-			{
-				return true;
-			}
-		}
-		return false;
-	}
-
-	private static int[] getARGBs( Cursor< ? extends ARGBType >[] accesses )
-	{
-		int[] argbs = new int[ accesses.length ];
-		for ( int sourceIndex = 0; sourceIndex < accesses.length; sourceIndex++ )
-		{
-			argbs[ sourceIndex ] = accesses[ sourceIndex ].get().get();
-		}
-		return argbs;
-	}
 }
@@ -51,7 +51,7 @@ public class ImageSliceView
 
 	private void show( )
 	{
-		List< SourceAndConverter< ? > > sourceAndConverters = moBIE.openSourceAndConverters( display.getSources() );
+		List< SourceAndConverter< ? > > sourceAndConverters = moBIE.openLazySourceAndConverters( display.getSources() );
 
 		// transform
 		sourceAndConverters = TransformHelper.transformSourceAndConverters( sourceAndConverters, display.sourceTransformers );
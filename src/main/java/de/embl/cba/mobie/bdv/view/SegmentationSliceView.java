@@ -47,7 +47,7 @@ public class SegmentationSliceView< S extends ImageSegment > implements Coloring
 		display.coloringModel.listeners().add( this );
 
 		// open
-		List< SourceAndConverter< ? > > sourceAndConverters = moBIE.openSourceAndConverters( display.getSources() );
+		List< SourceAndConverter< ? > > sourceAndConverters = moBIE.openLazySourceAndConverters( display.getSources() );
 
 		// transform
 		sourceAndConverters = TransformHelper.transformSourceAndConverters( sourceAndConverters, display.sourceTransformers );
@@ -111,15 +111,37 @@ public class SegmentationSliceView< S extends ImageSegment > implements Coloring
 	@Override
 	public synchronized void coloringChanged()
 	{
+		for ( LabelConverter< S > labelConverter : getLabelConverters() )
+			labelConverter.coloringChanged();
+
 		bdvHandle.getViewerPanel().requestRepaint();
 	}
 
 	@Override
 	public synchronized void selectionChanged()
 	{
+		for ( LabelConverter< S > labelConverter : getLabelConverters() )
+			labelConverter.selectionChanged();
+
 		bdvHandle.getViewerPanel().requestRepaint();
 	}
 
+	private List< LabelConverter< S > > getLabelConverters()
+	{
+		final List< LabelConverter< S > > labelConverters = new ArrayList<>();
+
+		// the listeners are registered before the sources are shown
+		if ( display.sourceAndConverters == null ) return labelConverters;
+
+		for ( SourceAndConverter< ? > sourceAndConverter : display.sourceAndConverters )
+		{
+			if ( sourceAndConverter.getConverter() instanceof LabelConverter )
+				labelConverters.add( ( LabelConverter< S > ) sourceAndConverter.getConverter() );
+		}
+
+		return labelConverters;
+	}
+
 	@Override
 	public synchronized void focusEvent( S selection )
 	{
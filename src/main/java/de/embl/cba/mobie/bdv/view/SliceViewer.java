@@ -2,8 +2,10 @@ package de.embl.cba.mobie.bdv.view;
 
 import bdv.util.BdvHandle;
 import bdv.viewer.SourceAndConverter;
+import de.embl.cba.mobie.bdv.LazySourcesOpener;
 import de.embl.cba.mobie.bdv.MobieBdvSupplier;
 import de.embl.cba.mobie.bdv.MobieSerializableBdvOptions;
+import de.embl.cba.mobie.bdv.SourceBoundsIndex;
 import de.embl.cba.mobie.bdv.SourcesAtMousePositionSupplier;
 import de.embl.cba.mobie.bdv.ViewerTransformLogger;
 import de.embl.cba.mobie.command.NonSelectedSegmentsOpacityAdjusterCommand;
@@ -38,6 +40,8 @@ public class SliceViewer implements Supplier< BdvHandle >
 	private final boolean is2D;
 	private final ViewerManager viewerManager;
 	private final int timepoints;
+	private final SourceBoundsIndex sourceBoundsIndex;
+	private final LazySourcesOpener lazySourcesOpener;
 
 	private SourceAndConverterContextMenuClickBehaviour contextMenu;
 	private final SourceAndConverterService sacService;
@@ -47,16 +51,25 @@ public class SliceViewer implements Supplier< BdvHandle >
 		this.is2D = is2D;
 		this.viewerManager = viewerManager;
 		this.timepoints = timepoints;
+		this.sourceBoundsIndex = new SourceBoundsIndex( is2D );
 
 		sacService = ( SourceAndConverterService ) SourceAndConverterServices.getSourceAndConverterService();
 		sacDisplayService = SourceAndConverterServices.getBdvDisplayService();
 
 		bdvHandle = createBdv( timepoints );
 		sacDisplayService.registerBdvHandle( bdvHandle );
+		installSourceTransformListener();
+		lazySourcesOpener = new LazySourcesOpener( bdvHandle );
 
 		installContextMenuAndKeyboardShortCuts();
 	}
 
+	public void close()
+	{
+		lazySourcesOpener.close();
+		bdvHandle.close();
+	}
+
 	@Override
 	public BdvHandle get()
 	{
@@ -64,13 +77,20 @@ public class SliceViewer implements Supplier< BdvHandle >
 		{
 			bdvHandle = createBdv( timepoints );
 			sacDisplayService.registerBdvHandle( bdvHandle );
+			installSourceTransformListener();
 		}
 		return bdvHandle;
 	}
 
+	private void installSourceTransformListener()
+	{
+		// the bounds of sources whose transform is edited must be indexed again
+		bdvHandle.getManualTransformEditor().manualTransformActiveListeners().add( active -> sourceBoundsIndex.invalidate() );
+	}
+
 	private void installContextMenuAndKeyboardShortCuts( )
 	{
-		final BdvSegmentSelector segmentBdvSelector = new BdvSegmentSelector( bdvHandle, is2D, () -> viewerManager.getSegmentationDisplays() );
+		final BdvSegmentSelector segmentBdvSelector = new BdvSegmentSelector( bdvHandle, is2D, () -> viewerManager.getSegmentationDisplays(), sourceBoundsIndex );
 
 		sacService.registerAction( UNDO_SEGMENT_SELECTIONS, sourceAndConverters -> {
 			// TODO: Maybe only do this for the sacs at the mouse position
@@ -107,7 +127,7 @@ public class SliceViewer implements Supplier< BdvHandle >
 				SAVE_CURRENT_SETTINGS_AS_VIEW
 		};
 
-		contextMenu = new SourceAndConverterContextMenuClickBehaviour( bdvHandle, new SourcesAtMousePositionSupplier( bdvHandle, is2D ), actions );
+		contextMenu = new SourceAndConverterContextMenuClickBehaviour( bdvHandle, new SourcesAtMousePositionSupplier( bdvHandle, is2D, sourceBoundsIndex ), actions );
 
 		Behaviours behaviours = new Behaviours( new InputTriggerConfig() );
 		behaviours.behaviour( contextMenu, "Context menu", "button3", "shift P");
@@ -136,6 +156,11 @@ public class SliceViewer implements Supplier< BdvHandle >
 				"Change random color seed", "ctrl L" ) ;
 	}
 
+	public SourceBoundsIndex getSourceBoundsIndex()
+	{
+		return sourceBoundsIndex;
+	}
+
 	public SourceAndConverterService getSacService()
 	{
 		return sacService;
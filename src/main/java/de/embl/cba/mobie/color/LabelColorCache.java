@@ -0,0 +1,144 @@
+package de.embl.cba.mobie.color;
+
+import de.embl.cba.mobie.segment.SegmentIndex;
+import de.embl.cba.tables.imagesegment.ImageSegment;
+import de.embl.cba.tables.select.SelectionModel;
+import gnu.trove.set.hash.TLongHashSet;
+import net.imglib2.type.numeric.ARGBType;
+
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Label to ARGB lookup table for the segments of one label image.
+ *
+ * The colors of the wrapped coloring model are cached in a dense array,
+ * which is only cleared when the coloring or the timepoint changes.
+ * The selection coloring is applied on top, using a primitive set of
+ * the selected labels that is rebuilt when the selection changes.
+ *
+ * The cache may be read and filled concurrently by the BDV render threads.
+ *
+ * @param < S >
+ */
+public class LabelColorCache< S extends ImageSegment >
+{
+	// labels above this are not cached, to bound the memory of the lookup table
+	public static final int MAX_CACHED_LABEL = 1 << 22;
+
+	// a transparent color that is unlikely to be used by any coloring model;
+	// if it is, it is just recomputed each time
+	private static final int NOT_CACHED = 0x00010203;
+
+	private final SegmentIndex< S > segmentIndex;
+	private final MoBIEColoringModel< S > coloringModel;
+
+	private volatile int[] colors;
+	private volatile int timePoint;
+	private volatile boolean isSelectionEmpty;
+	private volatile TLongHashSet selectedLabels;
+
+	public LabelColorCache( SegmentIndex< S > segmentIndex, MoBIEColoringModel< S > coloringModel )
+	{
+		this.segmentIndex = segmentIndex;
+		this.coloringModel = coloringModel;
+		this.colors = createColors( 0 );
+		this.timePoint = 0;
+		selectionChanged();
+	}
+
+	public int getColor( long label )
+	{
+		final int argb = getWrappedColor( label );
+
+		if ( isSelectionEmpty ) return argb;
+
+		return coloringModel.applySelectionColoring( argb, selectedLabels.contains( label ) );
+	}
+
+	public synchronized void coloringChanged()
+	{
+		colors = createColors( colors.length );
+	}
+
+	public synchronized void selectionChanged()
+	{
+		final SelectionModel< S > selectionModel = coloringModel.getSelectionModel();
+
+		final TLongHashSet labels = new TLongHashSet();
+
+		if ( selectionModel == null || selectionModel.isEmpty() )
+		{
+			selectedLabels = labels;
+			isSelectionEmpty = true;
+			return;
+		}
+
+		final Set< S > selected = selectionModel.getSelected();
+		for ( S segment : selected )
+		{
+			if ( segment.timePoint() == timePoint && segment.imageId().equals( segmentIndex.getImageId() ) )
+				labels.add( ( long ) segment.labelId() );
+		}
+
+		selectedLabels = labels;
+		isSelectionEmpty = false;
+	}
+
+	public synchronized void setTimePoint( int timePoint )
+	{
+		if ( this.timePoint == timePoint ) return;
+
+		this.timePoint = timePoint;
+		coloringChanged();
+		selectionChanged();
+	}
+
+	private int getWrappedColor( long label )
+	{
+		// keep the array that was current when starting, such that
+		// a color that is computed while the coloring changes is not cached
+		final int[] colors = this.colors;
+
+		if ( label >= 0 && label < colors.length )
+		{
+			final int argb = colors[ ( int ) label ];
+			if ( argb != NOT_CACHED ) return argb;
+		}
+
+		final ARGBType color = new ARGBType();
+		coloringModel.getWrappedColoringModel().convert( segmentIndex.getSegment( label, timePoint ), color );
+		final int argb = color.get();
+
+		if ( label >= 0 && label < colors.length )
+			colors[ ( int ) label ] = argb;
+		else if ( label >= 0 && label <= MAX_CACHED_LABEL )
+			cache( colors, ( int ) label, argb );
+
+		return argb;
+	}
+
+	private synchronized void cache( int[] colorsAtStart, int label, int argb )
+	{
+		if ( colors != colorsAtStart ) return;
+
+		if ( label >= colors.length )
+		{
+			int size = Math.max( colors.length, 1024 );
+			while ( size <= label ) size *= 2;
+
+			final int[] grown = createColors( Math.min( size, MAX_CACHED_LABEL + 1 ) );
+			System.arraycopy( colors, 0, grown, 0, colors.length );
+			colors = grown;
+		}
+
+		colors[ label ] = argb;
+	}
+
+	private static int[] createColors( int size )
+	{
+		final int[] colors = new int[ size ];
+		Arrays.fill( colors, NOT_CACHED );
+		return colors;
+	}
+}
@@ -38,11 +38,9 @@ import net.imglib2.type.numeric.RealType;
 
 public class LabelConverter< S extends ImageSegment > implements Converter< RealType, ARGBType >, TimePointListener, OpacityAdjuster
 {
-	private final SegmentAdapter< S > segmentAdapter;
-	private final String imageId;
 	private final MoBIEColoringModel< S > coloringModel;
+	private final LabelColorCache< S > colorCache;
 
-	private int timePointIndex = 0;
 	private double opacity = 1.0;
 
 	public LabelConverter(
@@ -50,9 +48,8 @@ public class LabelConverter< S extends ImageSegment > implements Converter< Real
 			String imageId,
 			MoBIEColoringModel< S > coloringModel )
 	{
-		this.segmentAdapter = segmentAdapter;
-		this.imageId = imageId;
 		this.coloringModel = coloringModel;
+		this.colorCache = new LabelColorCache<>( segmentAdapter.getSegmentIndex( imageId ), coloringModel );
 	}
 
 	@Override
@@ -67,25 +64,17 @@ public class LabelConverter< S extends ImageSegment > implements Converter< Real
 			}
 		}
 
-		if ( label.getRealDouble() == 0 )
-		{
-			color.set( 0 );
-			return;
-		}
+		final long labelId = ( long ) label.getRealDouble();
 
-		final S imageSegment = segmentAdapter.getSegment( label.getRealDouble(), timePointIndex, imageId );
-
-		if ( imageSegment == null )
+		if ( labelId == 0 )
 		{
 			color.set( 0 );
 			return;
 		}
-		else
-		{
-			coloringModel.convert( imageSegment, color );
-			final int alpha = ARGBType.alpha( color.get() );
-			color.mul( alpha / 255.0 );
-		}
+
+		color.set( colorCache.getColor( labelId ) );
+		final int alpha = ARGBType.alpha( color.get() );
+		color.mul( alpha / 255.0 );
 
 		color.mul( opacity );
 	}
@@ -93,7 +82,25 @@ public class LabelConverter< S extends ImageSegment > implements Converter< Real
 	@Override
 	public void timePointChanged( int timePointIndex )
 	{
-		this.timePointIndex = timePointIndex;
+		colorCache.setTimePoint( timePointIndex );
+	}
+
+	/**
+	 * Must be called when the coloring model changed,
+	 * before the viewer is repainted.
+	 */
+	public void coloringChanged()
+	{
+		colorCache.coloringChanged();
+	}
+
+	/**
+	 * Must be called when the selection changed,
+	 * before the viewer is repainted.
+	 */
+	public void selectionChanged()
+	{
+		colorCache.selectionChanged();
 	}
 
 	@Override
@@ -83,33 +83,43 @@ public class MoBIEColoringModel< T > extends AbstractColoringModel< T >
 
 		if ( selectionModel == null ) return;
 
-		// TODO: this is very inefficient as it recomputes the colors all the time
-		//   implement a selectionChanged Listener!
+		// for label images the colors are cached, see LabelColorCache
 		if ( selectionModel.isEmpty() ) return;
 
-		final boolean isSelected = selectionModel.isSelected( input );
+		output.set( applySelectionColoring( output.get(), selectionModel.isSelected( input ) ) );
+	}
 
+	/**
+	 * Modifies a color of the wrapped coloring model
+	 * according to the selection coloring mode.
+	 * This should only be called if the selection is not empty.
+	 *
+	 * @param argb
+	 * 			color of the wrapped coloring model
+	 * @param isSelected
+	 * 			whether the item of this color is selected
+	 * @return the color as it should be rendered
+	 */
+	public int applySelectionColoring( int argb, boolean isSelected )
+	{
 		if ( ! isSelected )
 		{
-			dim( output, opacityNotSelected );
+			return dim( argb, opacityNotSelected );
 		}
 		else
 		{
-			if ( selectionColor != null ) output.set( selectionColor );
+			if ( selectionColor != null ) return selectionColor.get();
+			return argb;
 		}
 	}
 
-	private void dim( ARGBType output, double opacity )
+	private static int dim( int colorIndex, double opacity )
 	{
-		final int colorIndex = output.get();
-
-		output.set(
-				ARGBType.rgba(
+		return ARGBType.rgba(
 						ARGBType.red( colorIndex ),
 						ARGBType.green( colorIndex ),
 						ARGBType.blue( colorIndex ),
-						opacity * 255 )
-		);
+						opacity * 255 );
 	}
 
 	public void setSelectionColor( ARGBType selectionColor )
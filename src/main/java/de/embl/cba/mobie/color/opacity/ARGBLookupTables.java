@@ -0,0 +1,114 @@
+package de.embl.cba.mobie.color.opacity;
+
+import net.imglib2.type.numeric.ARGBType;
+
+/**
+ * The colors of all values of 8 and 16 bit images, such that a converter
+ * can convert their pixels with a single array read.
+ *
+ * The tables are computed by the given value converters when they are first
+ * needed. Each table remembers the settings it was computed with, and is
+ * computed again if they differ from the current ones, e.g. also when the
+ * wrapped converter was changed directly, and not through the wrapper.
+ */
+class ARGBLookupTables
+{
+	public static final int BYTE_TABLE_SIZE = 1 << 8;
+	public static final int SHORT_TABLE_SIZE = 1 << 16;
+
+	interface ValueConverter
+	{
+		void convert( int value, ARGBType output );
+	}
+
+	private final ValueConverter byteConverter;
+	private final ValueConverter shortConverter;
+	private volatile Table byteTable;
+	private volatile Table shortTable;
+
+	ARGBLookupTables( ValueConverter byteConverter, ValueConverter shortConverter )
+	{
+		this.byteConverter = byteConverter;
+		this.shortConverter = shortConverter;
+	}
+
+	/**
+	 * @return the colors for the current settings of the converter
+	 */
+	int[] getByteTable( double min, double max, int color, double opacity )
+	{
+		final Table table = byteTable;
+		return table != null && table.isFor( min, max, color, opacity ) ? table.colors : createByteTable( min, max, color, opacity );
+	}
+
+	/**
+	 * @return the colors for the current settings of the converter
+	 */
+	int[] getShortTable( double min, double max, int color, double opacity )
+	{
+		final Table table = shortTable;
+		return table != null && table.isFor( min, max, color, opacity ) ? table.colors : createShortTable( min, max, color, opacity );
+	}
+
+	/**
+	 * Changes the settings that the colors depend on, e.g. min, max, color or opacity.
+	 *
+	 * Tables are not computed during the change, such that none of them
+	 * mixes the settings before and after the change.
+	 */
+	synchronized void update( Runnable change )
+	{
+		change.run();
+		byteTable = null;
+		shortTable = null;
+	}
+
+	private synchronized int[] createByteTable( double min, double max, int color, double opacity )
+	{
+		if ( byteTable == null || ! byteTable.isFor( min, max, color, opacity ) )
+			byteTable = new Table( create( byteConverter, BYTE_TABLE_SIZE ), min, max, color, opacity );
+		return byteTable.colors;
+	}
+
+	private synchronized int[] createShortTable( double min, double max, int color, double opacity )
+	{
+		if ( shortTable == null || ! shortTable.isFor( min, max, color, opacity ) )
+			shortTable = new Table( create( shortConverter, SHORT_TABLE_SIZE ), min, max, color, opacity );
+		return shortTable.colors;
+	}
+
+	private static int[] create( ValueConverter converter, int size )
+	{
+		final int[] table = new int[ size ];
+		final ARGBType argb = new ARGBType();
+		for ( int value = 0; value < size; value++ )
+		{
+			converter.convert( value, argb );
+			table[ value ] = argb.get();
+		}
+		return table;
+	}
+
+	private static class Table
+	{
+		private final int[] colors;
+		private final double min;
+		private final double max;
+		private final int color;
+		private final double opacity;
+
+		private Table( int[] colors, double min, double max, int color, double opacity )
+		{
+			this.colors = colors;
+			this.min = min;
+			this.max = max;
+			this.color = color;
+			this.opacity = opacity;
+		}
+
+		private boolean isFor( double min, double max, int color, double opacity )
+		{
+			return this.min == min && this.max == max && this.color == color && this.opacity == opacity;
+		}
+	}
+}
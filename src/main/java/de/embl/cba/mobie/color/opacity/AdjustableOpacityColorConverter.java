@@ -33,24 +33,53 @@ import net.imglib2.converter.Converter;
 import net.imglib2.display.ColorConverter;
 import net.imglib2.type.numeric.ARGBType;
 import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
 
 public class AdjustableOpacityColorConverter implements OpacityAdjuster, ColorConverter, Converter< RealType, ARGBType >
 {
 	private final Converter< RealType, ARGBType > converter;
-	private double opacity = 1.0;
+	private final ColorConverter colorConverter;
+	private final ARGBLookupTables lookupTables;
+	private volatile double opacity = 1.0;
 
 	public AdjustableOpacityColorConverter( Converter< RealType, ARGBType > converter )
 	{
 		this.converter = converter;
+		this.colorConverter = ( ColorConverter ) converter;
+
+		// only used while the tables are computed, i.e. by one thread at a time
+		final UnsignedByteType byteValue = new UnsignedByteType();
+		final UnsignedShortType shortValue = new UnsignedShortType();
+		this.lookupTables = new ARGBLookupTables(
+				( value, output ) -> {
+					byteValue.set( value );
+					convertRealType( byteValue, output );
+				},
+				( value, output ) -> {
+					shortValue.set( value );
+					convertRealType( shortValue, output );
+				} );
 	}
 
 	@Override
 	public void convert( RealType realType, ARGBType output )
+	{
+		// 8 and 16 bit images, i.e. most of the images, are converted with a lookup table
+		if ( realType instanceof UnsignedByteType )
+			output.set( lookupTables.getByteTable( colorConverter.getMin(), colorConverter.getMax(), getColorValue(), opacity )[ ( ( UnsignedByteType ) realType ).get() ] );
+		else if ( realType instanceof UnsignedShortType )
+			output.set( lookupTables.getShortTable( colorConverter.getMin(), colorConverter.getMax(), getColorValue(), opacity )[ ( ( UnsignedShortType ) realType ).get() ] );
+		else
+			convertRealType( realType, output );
+	}
+
+	private void convertRealType( RealType realType, ARGBType output )
 	{
 		if ( realType.getRealDouble() == 0 )
 		{
 			// ...for the Accumulate projector
-			output.set( new ARGBType( ARGBType.rgba( 0, 0, 0, 0 ) ) );
+			output.set( 0 );
 		}
 		else
 		{
@@ -59,10 +88,15 @@ public class AdjustableOpacityColorConverter implements OpacityAdjuster, ColorCo
 		}
 	}
 
+	private int getColorValue()
+	{
+		return colorConverter.supportsColor() ? colorConverter.getColor().get() : 0;
+	}
+
 	@Override
 	public void setOpacity( double opacity )
 	{
-		this.opacity = opacity;
+		lookupTables.update( () -> this.opacity = opacity );
 	}
 
 	@Override
@@ -74,42 +108,42 @@ public class AdjustableOpacityColorConverter implements OpacityAdjuster, ColorCo
 	@Override
 	public ARGBType getColor()
 	{
-		return (( ColorConverter ) converter).getColor();
+		return colorConverter.getColor();
 	}
 
 	@Override
 	public void setColor( ARGBType c )
 	{
-		(( ColorConverter ) converter).setColor( c );
+		lookupTables.update( () -> colorConverter.setColor( c ) );
 	}
 
 	@Override
 	public boolean supportsColor()
 	{
-		return (( ColorConverter ) converter).supportsColor();
+		return colorConverter.supportsColor();
 	}
 
 	@Override
 	public double getMin()
 	{
-		return (( ColorConverter ) converter).getMin();
+		return colorConverter.getMin();
 	}
 
 	@Override
 	public double getMax()
 	{
-		return (( ColorConverter ) converter).getMax();
+		return colorConverter.getMax();
 	}
 
 	@Override
 	public void setMin( double min )
 	{
-		(( ColorConverter ) converter).setMin( min );
+		lookupTables.update( () -> colorConverter.setMin( min ) );
 	}
 
 	@Override
 	public void setMax( double max )
 	{
-		(( ColorConverter ) converter).setMax( max );
+		lookupTables.update( () -> colorConverter.setMax( max ) );
 	}
 }
@@ -34,26 +34,56 @@ import net.imglib2.converter.Converter;
 import net.imglib2.display.ColorConverter;
 import net.imglib2.type.numeric.ARGBType;
 import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.volatiles.VolatileUnsignedByteType;
+import net.imglib2.type.volatiles.VolatileUnsignedShortType;
 
 public class VolatileAdjustableOpacityColorConverter< V extends Volatile< RealType > > implements ColorConverter, Converter< V, ARGBType >, OpacityAdjuster
 {
 	private final Converter< V, ARGBType > converter;
 	private final ColorConverter colorConverter;
-	private double opacity = 1.0;
+	private final ARGBLookupTables lookupTables;
+	private volatile double opacity = 1.0;
 
 	public VolatileAdjustableOpacityColorConverter( Converter< V, ARGBType > converter )
 	{
 		this.converter = converter;
 		this.colorConverter = ( ColorConverter ) converter;
+
+		// only used while the tables are computed, i.e. by one thread at a time
+		final VolatileUnsignedByteType byteValue = new VolatileUnsignedByteType();
+		byteValue.setValid( true );
+		final VolatileUnsignedShortType shortValue = new VolatileUnsignedShortType();
+		shortValue.setValid( true );
+		this.lookupTables = new ARGBLookupTables(
+				( value, output ) -> {
+					byteValue.get().set( value );
+					convertVolatile( ( V ) ( Object ) byteValue, output );
+				},
+				( value, output ) -> {
+					shortValue.get().set( value );
+					convertVolatile( ( V ) ( Object ) shortValue, output );
+				} );
 	}
 
 	@Override
 	public void convert( V realTypeVolatile, ARGBType output )
+	{
+		// valid 8 and 16 bit voxels, i.e. most of the voxels, are converted with a lookup table
+		final Object value = realTypeVolatile;
+		if ( value instanceof VolatileUnsignedByteType && realTypeVolatile.isValid() )
+			output.set( lookupTables.getByteTable( colorConverter.getMin(), colorConverter.getMax(), getColorValue(), opacity )[ ( ( VolatileUnsignedByteType ) value ).get().get() ] );
+		else if ( value instanceof VolatileUnsignedShortType && realTypeVolatile.isValid() )
+			output.set( lookupTables.getShortTable( colorConverter.getMin(), colorConverter.getMax(), getColorValue(), opacity )[ ( ( VolatileUnsignedShortType ) value ).get().get() ] );
+		else
+			convertVolatile( realTypeVolatile, output );
+	}
+
+	private void convertVolatile( V realTypeVolatile, ARGBType output )
 	{
 		if ( realTypeVolatile.isValid() && realTypeVolatile.get().getRealDouble() == 0 )
 		{
 			// ...for the Accumulate projector to know where the source ends
-			output.set( new ARGBType( ARGBType.rgba( 0, 0, 0, 0 ) ) );
+			output.set( 0 );
 		}
 		else
 		{
@@ -62,10 +92,15 @@ public class VolatileAdjustableOpacityColorConverter< V extends Volatile< RealTy
 		}
 	}
 
+	private int getColorValue()
+	{
+		return colorConverter.supportsColor() ? colorConverter.getColor().get() : 0;
+	}
+
 	@Override
 	public void setOpacity( double opacity )
 	{
-		this.opacity = opacity;
+		lookupTables.update( () -> this.opacity = opacity );
 	}
 
 	@Override
@@ -83,7 +118,7 @@ public class VolatileAdjustableOpacityColorConverter< V extends Volatile< RealTy
 	@Override
 	public void setColor( ARGBType c )
 	{
-		colorConverter.setColor( c );
+		lookupTables.update( () -> colorConverter.setColor( c ) );
 	}
 
 	@Override
@@ -107,12 +142,12 @@ public class VolatileAdjustableOpacityColorConverter< V extends Volatile< RealTy
 	@Override
 	public void setMin( double min )
 	{
-		colorConverter.setMin( min );
+		lookupTables.update( () -> colorConverter.setMin( min ) );
 	}
 
 	@Override
 	public void setMax( double max )
 	{
-		colorConverter.setMax( max );
+		lookupTables.update( () -> colorConverter.setMax( max ) );
 	}
 }
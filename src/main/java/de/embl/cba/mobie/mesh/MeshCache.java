@@ -0,0 +1,244 @@
+package de.embl.cba.mobie.mesh;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Least recently used cache of mesh coordinates, bounded by the total number of coordinates.
+ *
+ * If a directory is set, the meshes are also written there, and read from
+ * there if they are not in memory, e.g. after a restart.
+ * The viewers use the {@link #getDefaultDirectory default directory}.
+ */
+public class MeshCache
+{
+	public static final long DEFAULT_MAX_NUM_COORDINATES = 32 * 1024 * 1024;
+
+	private static File defaultDirectory = new File( System.getProperty( "user.home" ), ".mobie" + File.separator + "mesh-cache" );
+
+	private final long maxNumCoordinates;
+	private final LinkedHashMap< Key, float[] > keyToMesh = new LinkedHashMap<>( 16, 0.75f, true );
+	private long numCoordinates;
+	private File directory;
+
+	public MeshCache()
+	{
+		this( DEFAULT_MAX_NUM_COORDINATES );
+	}
+
+	public MeshCache( long maxNumCoordinates )
+	{
+		this.maxNumCoordinates = maxNumCoordinates;
+	}
+
+	/**
+	 * @return the directory of the meshes and label statistics of the viewers, or null to only keep them in memory
+	 */
+	public static synchronized File getDefaultDirectory()
+	{
+		return defaultDirectory;
+	}
+
+	/**
+	 * Takes effect for viewers that are created afterwards.
+	 *
+	 * @param directory
+	 * 			null to only keep the meshes in memory
+	 */
+	public static synchronized void setDefaultDirectory( File directory )
+	{
+		defaultDirectory = directory;
+	}
+
+	public synchronized void setDirectory( File directory )
+	{
+		if ( directory != null )
+			directory.mkdirs();
+
+		this.directory = directory;
+	}
+
+	/**
+	 * @return the directory in which the meshes are written, or null
+	 */
+	public synchronized File getDirectory()
+	{
+		return directory;
+	}
+
+	/**
+	 * @return the mesh, or null if it is not cached
+	 */
+	public float[] get( Key key )
+	{
+		final File file;
+		synchronized ( this )
+		{
+			final float[] mesh = keyToMesh.get( key );
+			if ( mesh != null || directory == null ) return mesh;
+			file = getFile( key );
+		}
+
+		if ( ! file.exists() ) return null;
+
+		final float[] mesh = read( file );
+		if ( mesh != null )
+			putInMemory( key, mesh );
+
+		return mesh;
+	}
+
+	public void put( Key key, float[] mesh )
+	{
+		final File file;
+		synchronized ( this )
+		{
+			file = directory == null ? null : getFile( key );
+		}
+
+		putInMemory( key, mesh );
+
+		if ( file != null )
+			write( file, mesh );
+	}
+
+	public synchronized void remove( Key key )
+	{
+		final float[] mesh = keyToMesh.remove( key );
+		if ( mesh != null )
+			numCoordinates -= mesh.length;
+
+		if ( directory != null )
+			getFile( key ).delete();
+	}
+
+	private synchronized void putInMemory( Key key, float[] mesh )
+	{
+		final float[] previous = keyToMesh.put( key, mesh );
+		if ( previous != null )
+			numCoordinates -= previous.length;
+		numCoordinates += mesh.length;
+
+		// evict the least recently used meshes, but keep the new one
+		final Iterator< Map.Entry< Key, float[] > > iterator = keyToMesh.entrySet().iterator();
+		while ( numCoordinates > maxNumCoordinates && keyToMesh.size() > 1 )
+		{
+			final Map.Entry< Key, float[] > eldest = iterator.next();
+			if ( eldest.getKey().equals( key ) ) continue;
+			numCoordinates -= eldest.getValue().length;
+			iterator.remove();
+		}
+	}
+
+	private File getFile( Key key )
+	{
+		return new File( directory, key.toString() + ".mesh" );
+	}
+
+	private static float[] read( File file )
+	{
+		try ( DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) ) )
+		{
+			final float[] mesh = new float[ in.readInt() ];
+			for ( int i = 0; i < mesh.length; i++ )
+				mesh[ i ] = in.readFloat();
+			return mesh;
+		}
+		catch ( IOException e )
+		{
+			// the mesh is then computed again
+			file.delete();
+			return null;
+		}
+	}
+
+	private static void write( File file, float[] mesh )
+	{
+		final File tmpFile = new File( file.getPath() + ".tmp" );
+		try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tmpFile ) ) ) )
+		{
+			out.writeInt( mesh.length );
+			for ( float coordinate : mesh )
+				out.writeFloat( coordinate );
+		}
+		catch ( IOException e )
+		{
+			tmpFile.delete();
+			return;
+		}
+
+		// readers never see partially written meshes
+		if ( ! tmpFile.renameTo( file ) )
+			tmpFile.delete();
+	}
+
+	/**
+	 * @return a file name part that identifies the source,
+	 * as sources of different datasets or projects may have the same name
+	 */
+	public static String toFileName( String datasetLocation, String sourceName )
+	{
+		return sourceName.replaceAll( "[^a-zA-Z0-9._-]", "_" ) + "-" + UUID.nameUUIDFromBytes( datasetLocation.getBytes( StandardCharsets.UTF_8 ) );
+	}
+
+	/**
+	 * Identifies a mesh by everything that it is computed from.
+	 */
+	public static class Key
+	{
+		private final String datasetLocation;
+		private final String sourceName;
+		private final long label;
+		private final int timePoint;
+		private final int level;
+		private final int smoothingIterations;
+
+		/**
+		 * @param datasetLocation
+		 * 			the location of the dataset of the source, e.g. its image root
+		 */
+		public Key( String datasetLocation, String sourceName, long label, int timePoint, int level, int smoothingIterations )
+		{
+			this.datasetLocation = datasetLocation;
+			this.sourceName = sourceName;
+			this.label = label;
+			this.timePoint = timePoint;
+			this.level = level;
+			this.smoothingIterations = smoothingIterations;
+		}
+
+		@Override
+		public boolean equals( Object o )
+		{
+			if ( this == o ) return true;
+			if ( ! ( o instanceof Key ) ) return false;
+			final Key key = ( Key ) o;
+			return label == key.label && timePoint == key.timePoint && level == key.level && smoothingIterations == key.smoothingIterations && sourceName.equals( key.sourceName ) && datasetLocation.equals( key.datasetLocation );
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return Objects.hash( datasetLocation, sourceName, label, timePoint, level, smoothingIterations );
+		}
+
+		@Override
+		public String toString()
+		{
+			// usable as a file name
+			return toFileName( datasetLocation, sourceName ) + "-" + label + "-t" + timePoint + "-l" + level + "-s" + smoothingIterations;
+		}
+	}
+}
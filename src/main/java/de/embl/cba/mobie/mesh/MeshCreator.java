@@ -3,6 +3,8 @@ package de.embl.cba.mobie.mesh;
 import bdv.viewer.Source;
 import customnode.CustomTriangleMesh;
 import de.embl.cba.bdv.utils.objects3d.FloodFill;
+import de.embl.cba.mobie.segment.LabelStatistics;
+import de.embl.cba.mobie.source.LazySource;
 import de.embl.cba.tables.Logger;
 import de.embl.cba.tables.Utils;
 import de.embl.cba.tables.ij3d.UniverseUtils;
@@ -19,45 +21,75 @@ import net.imglib2.util.Intervals;
 import net.imglib2.view.Views;
 import org.scijava.vecmath.Point3f;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import static de.embl.cba.tables.Utils.getVoxelSpacings;
 
+/**
+ * Creates the meshes of segments, and caches them in a {@link MeshCache}.
+ * The meshes of several segments can be created in parallel.
+ */
 public class MeshCreator < S extends ImageSegment >
 {
-	private int meshSmoothingIterations;
+	public static final long MAX_NUM_LABEL_STATISTICS_VOXELS = 512L * 512L * 512L;
+	public static final int MAX_NUM_LABEL_STATISTICS = 8;
+
+	private volatile int meshSmoothingIterations;
 	private double maxNumSegmentVoxels;
+	private final MeshCache meshCache;
+	private volatile String datasetLocation = "";
+	// the least recently used statistics are evicted, they are then read again from the directory of the mesh cache
+	private final Map< String, CompletableFuture< LabelStatistics > > keyToLabelStatistics = Collections.synchronizedMap( new LinkedHashMap< String, CompletableFuture< LabelStatistics > >( 16, 0.75f, true )
+	{
+		@Override
+		protected boolean removeEldestEntry( Map.Entry< String, CompletableFuture< LabelStatistics > > eldest )
+		{
+			return size() > MAX_NUM_LABEL_STATISTICS;
+		}
+	} );
 
 	public MeshCreator( int meshSmoothingIterations, double maxNumSegmentVoxels )
 	{
 		this.meshSmoothingIterations = meshSmoothingIterations;
 		this.maxNumSegmentVoxels = maxNumSegmentVoxels;
+		this.meshCache = new MeshCache();
+	}
+
+	public void setMeshSmoothingIterations( int meshSmoothingIterations )
+	{
+		this.meshSmoothingIterations = meshSmoothingIterations;
 	}
 
-	private float[] createMesh( ImageSegment segment, double[] voxelSpacing, Source< ? > labelsSource )
+	public MeshCache getMeshCache()
+	{
+		return meshCache;
+	}
+
+	/**
+	 * @param datasetLocation
+	 * 			the location of the dataset of the segments, which identifies
+	 * 			their meshes and label statistics together with the image name
+	 */
+	public void setDatasetLocation( String datasetLocation )
+	{
+		this.datasetLocation = datasetLocation;
+	}
+
+	private float[] createMesh( ImageSegment segment, int level, Source< ? > labelsSource )
 	{
-		Integer level = getLevel( segment, labelsSource, voxelSpacing );
 		double[] voxelSpacings = Utils.getVoxelSpacings( labelsSource ).get( level );
 
 		final RandomAccessibleInterval< ? extends RealType< ? > > labelsRAI = ( RandomAccessibleInterval< ? extends RealType< ? > > ) labelsSource.getSource( segment.timePoint(), level  );
 
-		if ( segment.boundingBox() == null )
-			setSegmentBoundingBox( segment, labelsRAI, voxelSpacings );
-
 		FinalInterval boundingBox = getIntervalInVoxelUnits( segment.boundingBox(), voxelSpacings );
-		final long numElements = Intervals.numElements( boundingBox );
-
-		if ( voxelSpacing == null ) // auto-resolution
-		{
-			if ( numElements > maxNumSegmentVoxels )
-			{
-				Logger.info( "# 3D View:\n" +
-						"The bounding box of the selected segment has " + numElements + " voxels.\n" +
-						"The maximum recommended number is however only " + maxNumSegmentVoxels + ".\n" +
-						"It can take a bit of time to load...." );
-			}
-		}
 
 		if ( ! Intervals.contains( labelsRAI, boundingBox ) )
 		{
@@ -90,36 +122,81 @@ public class MeshCreator < S extends ImageSegment >
 		return meshCoordinates;
 	}
 
+	/**
+	 * @param recomputeMesh
+	 * 			whether to compute the mesh even if it is cached
+	 */
 	public CustomTriangleMesh createSmoothCustomTriangleMesh( ImageSegment segment, double[] voxelSpacing, boolean recomputeMesh, Source< ? > source )
 	{
-		CustomTriangleMesh triangleMesh = createCustomTriangleMesh( segment, voxelSpacing, recomputeMesh, source );
-		MeshEditor.smooth2( triangleMesh, meshSmoothingIterations );
-		return triangleMesh;
-	}
+		// a not yet opened lazy source would be meshed as empty
+		final LazySource< ? > lazySource = LazySource.getUnopened( source );
+		if ( lazySource != null )
+			lazySource.open();
 
-	private CustomTriangleMesh createCustomTriangleMesh( ImageSegment segment, double[] voxelSpacing, boolean recomputeMesh, Source< ? > source )
-	{
-		if ( segment.getMesh() == null || recomputeMesh )
+		if ( segment.boundingBox() == null )
+			setSegmentBoundingBox( segment, source );
+
+		final int level = getLevel( segment, source, voxelSpacing );
+
+		if ( voxelSpacing == null ) // auto-resolution
 		{
-			try
+			final long numElements = Intervals.numElements( getIntervalInVoxelUnits( segment.boundingBox(), Utils.getVoxelSpacings( source ).get( level ) ) );
+			if ( numElements > maxNumSegmentVoxels )
 			{
-				final float[] mesh = createMesh( segment, voxelSpacing, source );
-				if ( mesh == null )
-				{
-					throw new RuntimeException( "Could not create mesh for segment " + segment.labelId() + " at time point " + segment.timePoint() );
-				}
-				segment.setMesh( mesh );
+				Logger.info( "# 3D View:\n" +
+						"The bounding box of the selected segment has " + numElements + " voxels.\n" +
+						"The maximum recommended number is however only " + maxNumSegmentVoxels + ".\n" +
+						"It can take a bit of time to load...." );
 			}
-			catch ( Exception e )
+		}
+
+		final int smoothingIterations = meshSmoothingIterations;
+		final MeshCache.Key key = new MeshCache.Key( datasetLocation, segment.imageId(), ( long ) segment.labelId(), segment.timePoint(), level, smoothingIterations );
+
+		float[] mesh = recomputeMesh ? null : meshCache.get( key );
+		if ( mesh == null )
+		{
+			final CustomTriangleMesh triangleMesh = createCustomTriangleMesh( segment, level, source );
+			MeshEditor.smooth2( triangleMesh, smoothingIterations );
+			mesh = asMeshCoordinates( triangleMesh );
+			meshCache.put( key, mesh );
+		}
+
+		return asCustomTriangleMesh( mesh );
+	}
+
+	private CustomTriangleMesh createCustomTriangleMesh( ImageSegment segment, int level, Source< ? > source )
+	{
+		try
+		{
+			final float[] mesh = createMesh( segment, level, source );
+			if ( mesh == null )
 			{
-				e.printStackTrace();
 				throw new RuntimeException( "Could not create mesh for segment " + segment.labelId() + " at time point " + segment.timePoint() );
 			}
+			return asCustomTriangleMesh( mesh );
+		}
+		catch ( Exception e )
+		{
+			e.printStackTrace();
+			throw new RuntimeException( "Could not create mesh for segment " + segment.labelId() + " at time point " + segment.timePoint() );
 		}
+	}
 
-		CustomTriangleMesh triangleMesh = asCustomTriangleMesh( segment.getMesh() );
+	private static float[] asMeshCoordinates( CustomTriangleMesh triangleMesh )
+	{
+		final List< Point3f > points = triangleMesh.getMesh();
+		final float[] meshCoordinates = new float[ 3 * points.size() ];
 
-		return triangleMesh;
+		int i = 0;
+		for ( Point3f point : points )
+		{
+			meshCoordinates[ i++ ] = point.x;
+			meshCoordinates[ i++ ] = point.y;
+			meshCoordinates[ i++ ] = point.z;
+		}
+
+		return meshCoordinates;
 	}
 
 	private static CustomTriangleMesh asCustomTriangleMesh( final float[] meshCoordinates )
@@ -139,43 +216,29 @@ public class MeshCreator < S extends ImageSegment >
 		return mesh;
 	}
 
-	private Integer getLevel( ImageSegment segment, Source< ? > labelSource, double[] voxelSpacing )
+	private int getLevel( ImageSegment segment, Source< ? > labelSource, double[] voxelSpacing )
 	{
-		Integer level;
-
 		if ( voxelSpacing != null )
-		{
-			level = getLevel( labelSource, voxelSpacing );
-		}
-		else // auto-resolution
-		{
-			if ( segment.boundingBox() == null )
-			{
-				Logger.error( "3D View:\n" +
-						"Automated resolution level selection is enabled, but the segment has no bounding box.\n" +
-						"This combination is currently not possible." );
-				level = null;
-			}
-			else
-			{
-				final ArrayList< double[] > voxelSpacings = Utils.getVoxelSpacings( labelSource );
+			return getLevel( labelSource, voxelSpacing );
 
-				final int numLevels = voxelSpacings.size();
+		// auto-resolution
+		final ArrayList< double[] > voxelSpacings = Utils.getVoxelSpacings( labelSource );
 
-				for ( level = 0; level < numLevels; level++ )
-				{
-					FinalInterval boundingBox = getIntervalInVoxelUnits( segment.boundingBox(), voxelSpacings.get( level ) );
+		final int numLevels = voxelSpacings.size();
 
-					final long numElements = Intervals.numElements( boundingBox );
+		int level;
+		for ( level = 0; level < numLevels; level++ )
+		{
+			FinalInterval boundingBox = getIntervalInVoxelUnits( segment.boundingBox(), voxelSpacings.get( level ) );
 
-					if ( numElements <= maxNumSegmentVoxels )
-						break;
-				}
+			final long numElements = Intervals.numElements( boundingBox );
 
-				if ( level == numLevels ) level = numLevels - 1;
-			}
+			if ( numElements <= maxNumSegmentVoxels )
+				break;
 		}
 
+		if ( level == numLevels ) level = numLevels - 1;
+
 		return level;
 	}
 
@@ -211,6 +274,115 @@ public class MeshCreator < S extends ImageSegment >
 		return level;
 	}
 
+	/**
+	 * Sets the bounding box from the statistics of all labels, which are
+	 * computed once per label image, time point and resolution level.
+	 *
+	 * The statistics are computed at the highest resolution level with at most
+	 * {@link #MAX_NUM_LABEL_STATISTICS_VOXELS} voxels. Labels that vanish at
+	 * this level, e.g. very small ones, are flood filled at full resolution.
+	 */
+	private void setSegmentBoundingBox( ImageSegment segment, Source< ? > labelsSource )
+	{
+		final int level = getLabelStatisticsLevel( labelsSource, segment.timePoint() );
+		final double[] voxelSpacing = Utils.getVoxelSpacings( labelsSource ).get( level );
+		final RandomAccessibleInterval< ? extends RealType< ? > > labelsRAI = ( RandomAccessibleInterval< ? extends RealType< ? > > ) labelsSource.getSource( segment.timePoint(), level );
+
+		final LabelStatistics.Statistics statistics = getLabelStatistics( segment.imageId(), segment.timePoint(), level, labelsRAI ).get( ( long ) segment.labelId() );
+		if ( statistics == null )
+		{
+			setSegmentBoundingBox( segment, ( RandomAccessibleInterval< ? extends RealType< ? > > ) labelsSource.getSource( segment.timePoint(), 0 ), Utils.getVoxelSpacings( labelsSource ).get( 0 ) );
+			return;
+		}
+
+		final long[] voxelMin = statistics.getMin();
+		final long[] voxelMax = statistics.getMax();
+
+		// the downsampled labels may be off by one voxel, but not beyond the image
+		final int padding = level > 0 ? 1 : 0;
+
+		final int numDimensions = segment.numDimensions();
+		final double[] min = new double[ numDimensions ];
+		final double[] max = new double[ numDimensions ];
+		for ( int d = 0; d < numDimensions; d++ )
+		{
+			min[ d ] = Math.max( voxelMin[ d ] - padding, labelsRAI.min( d ) ) * voxelSpacing[ d ];
+			max[ d ] = Math.min( voxelMax[ d ] + padding, labelsRAI.max( d ) ) * voxelSpacing[ d ];
+		}
+
+		segment.setBoundingBox( new FinalRealInterval( min, max ) );
+	}
+
+	private static int getLabelStatisticsLevel( Source< ? > labelsSource, int timePoint )
+	{
+		final int numLevels = labelsSource.getNumMipmapLevels();
+		for ( int level = 0; level < numLevels - 1; level++ )
+			if ( Intervals.numElements( labelsSource.getSource( timePoint, level ) ) <= MAX_NUM_LABEL_STATISTICS_VOXELS )
+				return level;
+
+		return numLevels - 1;
+	}
+
+	/**
+	 * Computes the statistics only once, also if requested concurrently,
+	 * and reads or writes them from or to the directory of the mesh cache, if set.
+	 */
+	private LabelStatistics getLabelStatistics( String imageId, int timePoint, int level, RandomAccessibleInterval< ? extends RealType< ? > > labelsRAI )
+	{
+		final String key = MeshCache.toFileName( datasetLocation, imageId ) + "-t" + timePoint + "-l" + level;
+
+		final CompletableFuture< LabelStatistics > computing = new CompletableFuture<>();
+		final CompletableFuture< LabelStatistics > existing = keyToLabelStatistics.putIfAbsent( key, computing );
+		if ( existing != null )
+			return existing.join();
+
+		try
+		{
+			final File directory = meshCache.getDirectory();
+			final File file = directory == null ? null : new File( directory, key + ".label-statistics.tsv" );
+
+			LabelStatistics labelStatistics = null;
+			if ( file != null && file.exists() )
+			{
+				try
+				{
+					labelStatistics = LabelStatistics.read( file );
+				}
+				catch ( IOException e )
+				{
+					// they are then computed again
+					file.delete();
+				}
+			}
+
+			if ( labelStatistics == null )
+			{
+				labelStatistics = LabelStatistics.compute( labelsRAI );
+
+				if ( file != null )
+				{
+					try
+					{
+						labelStatistics.write( file );
+					}
+					catch ( IOException e )
+					{
+						file.delete();
+					}
+				}
+			}
+
+			computing.complete( labelStatistics );
+			return labelStatistics;
+		}
+		catch ( RuntimeException e )
+		{
+			keyToLabelStatistics.remove( key, computing );
+			computing.completeExceptionally( e );
+			throw e;
+		}
+	}
+
 	private void setSegmentBoundingBox(
 			ImageSegment segment,
 			RandomAccessibleInterval< ? extends RealType< ? > > labelsRAI,
@@ -0,0 +1,98 @@
+package de.embl.cba.mobie.n5;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.DefaultBlockReader;
+import org.janelia.saalfeldlab.n5.s3.N5AmazonS3Reader;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * {@link N5AmazonS3Reader} that keeps the raw data blocks in the {@link DiskBlockCache}
+ * and reads the blocks of sharded datasets (see {@link Shards}) with byte-range requests.
+ */
+public class CachingN5AmazonS3Reader extends N5AmazonS3Reader
+{
+	private final DiskBlockCache diskBlockCache;
+	private final Shards.ShardSizes shardSizes = new Shards.ShardSizes();
+	private final Map< String, Shards.Index > shardIndexCache = Shards.createIndexCache();
+
+	public CachingN5AmazonS3Reader( AmazonS3 s3, String bucketName, String containerPath ) throws IOException
+	{
+		super( s3, bucketName, containerPath );
+		this.diskBlockCache = DiskBlockCache.getInstance();
+	}
+
+	public AmazonS3 getS3()
+	{
+		return s3;
+	}
+
+	public String getBucketName()
+	{
+		return bucketName;
+	}
+
+	public String getContainerPath()
+	{
+		return containerPath;
+	}
+
+	@Override
+	public DatasetAttributes getDatasetAttributes( String pathName ) throws IOException
+	{
+		final DatasetAttributes attributes = shardSizes.get( this, pathName ) == null ? null : Shards.getN5DatasetAttributes( getAttributes( pathName ), getGson() );
+		return attributes != null ? attributes : super.getDatasetAttributes( pathName );
+	}
+
+	@Override
+	public DataBlock< ? > readBlock( String pathName, DatasetAttributes datasetAttributes, long... gridPosition ) throws IOException
+	{
+		final int[] shardSize = shardSizes.get( this, pathName );
+		if ( shardSize != null )
+			return readShardedBlock( pathName, datasetAttributes, shardSize, gridPosition );
+
+		if ( diskBlockCache == null )
+			return super.readBlock( pathName, datasetAttributes, gridPosition );
+
+		final String dataBlockKey = getObjectKey( pathName, Shards.getN5ChunkPath( gridPosition ) );
+
+		try ( final InputStream in = diskBlockCache.get( s3.getUrl( bucketName, dataBlockKey ).toString(), DiskBlockCache.createS3Fetcher( s3, bucketName, dataBlockKey ) ) )
+		{
+			return DefaultBlockReader.readBlock( in, datasetAttributes, gridPosition );
+		}
+		catch ( AmazonS3Exception e )
+		{
+			if ( "NoSuchKey".equals( e.getErrorCode() ) )
+				return null;
+			throw e;
+		}
+	}
+
+	private DataBlock< ? > readShardedBlock( String pathName, DatasetAttributes datasetAttributes, int[] shardSize, long[] gridPosition ) throws IOException
+	{
+		final String shardKey = getObjectKey( pathName, Shards.getShardPath( Shards.getN5ChunkPath( Shards.getShardPosition( gridPosition, shardSize ) ) ) );
+		final byte[] block = Shards.readBlock(
+				s3, bucketName, shardKey,
+				Shards.getBlockIndex( gridPosition, shardSize ),
+				Shards.getNumBlocks( shardSize ),
+				shardIndexCache );
+
+		return block == null ? null : DefaultBlockReader.readBlock( new ByteArrayInputStream( block ), datasetAttributes, gridPosition );
+	}
+
+	private String getObjectKey( String pathName, String path )
+	{
+		final StringBuilder builder = new StringBuilder( containerPath );
+		final String cleaned = pathName.replaceAll( "^/+", "" );
+		if ( ! cleaned.isEmpty() )
+			builder.append( '/' ).append( cleaned );
+		builder.append( '/' ).append( path );
+		return builder.toString().replaceAll( "^/+", "" );
+	}
+}
@@ -0,0 +1,476 @@
+package de.embl.cba.mobie.n5;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import de.embl.cba.mobie.ThreadUtils;
+import de.embl.cba.mobie.n5.zarr.N5S3ZarrReader;
+import de.embl.cba.mobie.n5.zarr.ZarrDatasetAttributes;
+import de.embl.cba.tables.Logger;
+import net.imglib2.util.Intervals;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.N5FSReader;
+import org.janelia.saalfeldlab.n5.N5FSWriter;
+import org.janelia.saalfeldlab.n5.N5Reader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+/**
+ * The chunks that exist in a dataset of an N5 or Zarr container,
+ * such that the image loaders can answer missing chunks, e.g. of
+ * mostly empty segmentations, without fetching them.
+ *
+ * Only S3 datasets are indexed. Checking a missing chunk file is cheap in
+ * file system datasets, and chunks that were written after the index was made
+ * are then read as well.
+ *
+ * The index of an S3 dataset is taken from the {@link #FILE_NAME} file in the dataset,
+ * which is written by the export together with a {@link #STAMP_KEY stamp} in the
+ * dataset attributes; the file is only used if its stamp matches, i.e. if it was
+ * written for the current export. Otherwise the dataset is listed, and the listing is
+ * cached on the local disk, together with the modification stamp of the dataset
+ * attributes, such that it is listed again when the dataset is written again.
+ */
+public class ChunkIndex
+{
+	public static final String FILE_NAME = "chunk-index";
+	public static final String STAMP_KEY = "chunkIndexStamp";
+
+	private static final int MAGIC = 0x4D6F4332; // "MoC2", "MoCI" files had no stamp
+	private static final String SUFFIX = ".index";
+	private static final long MAX_CACHE_AGE_MILLIS = 60L * 60 * 1000;
+
+	private static boolean enabled = true;
+	private static File directory = new File( System.getProperty( "user.home" ), ".mobie" + File.separator + "chunk-index" );
+
+	private final long[] gridDimensions;
+	private final BitSet chunks;
+
+	// identifies the state of the dataset that the index was made for, or empty
+	private final String stamp;
+
+	public ChunkIndex( long[] gridDimensions )
+	{
+		this( gridDimensions, new BitSet(), "" );
+	}
+
+	private ChunkIndex( long[] gridDimensions, BitSet chunks, String stamp )
+	{
+		if ( Intervals.numElements( gridDimensions ) > Integer.MAX_VALUE )
+			throw new IllegalArgumentException( "Too many chunks: " + Arrays.toString( gridDimensions ) );
+
+		this.gridDimensions = gridDimensions.clone();
+		this.chunks = chunks;
+		this.stamp = stamp;
+	}
+
+	public static synchronized boolean isEnabled()
+	{
+		return enabled;
+	}
+
+	public static synchronized void setEnabled( boolean enabled )
+	{
+		ChunkIndex.enabled = enabled;
+	}
+
+	/**
+	 * Sets the directory in which listings of S3 datasets are cached.
+	 */
+	public static synchronized void setDirectory( File directory )
+	{
+		ChunkIndex.directory = directory;
+	}
+
+	private static synchronized File getDirectory()
+	{
+		return directory;
+	}
+
+	public static long[] getGridDimensions( DatasetAttributes attributes )
+	{
+		final long[] dimensions = attributes.getDimensions();
+		final int[] blockSize = attributes.getBlockSize();
+		final long[] gridDimensions = new long[ dimensions.length ];
+		for ( int d = 0; d < dimensions.length; d++ )
+			gridDimensions[ d ] = ( dimensions[ d ] + blockSize[ d ] - 1 ) / blockSize[ d ];
+		return gridDimensions;
+	}
+
+	/**
+	 * @return false if the chunk does not exist; true if it exists
+	 * or if it is not within the grid of this index
+	 */
+	public boolean contains( long... gridPosition )
+	{
+		final int index = toIndex( gridPosition );
+		return index < 0 || chunks.get( index );
+	}
+
+	public void add( long... gridPosition )
+	{
+		final int index = toIndex( gridPosition );
+		if ( index >= 0 )
+			chunks.set( index );
+	}
+
+	public int numChunks()
+	{
+		return chunks.cardinality();
+	}
+
+	private int toIndex( long[] gridPosition )
+	{
+		if ( gridPosition.length != gridDimensions.length ) return -1;
+
+		long index = 0;
+		for ( int d = gridDimensions.length - 1; d >= 0; d-- )
+		{
+			if ( gridPosition[ d ] < 0 || gridPosition[ d ] >= gridDimensions[ d ] ) return -1;
+			index = index * gridDimensions[ d ] + gridPosition[ d ];
+		}
+		return ( int ) index;
+	}
+
+	/**
+	 * Loads the index of a dataset in the background, see {@link #get}.
+	 *
+	 * @return the index, or null if it is disabled or could not be loaded
+	 */
+	public static CompletableFuture< ChunkIndex > load( N5Reader n5, String pathName, DatasetAttributes attributes )
+	{
+		if ( ! isEnabled() )
+			return CompletableFuture.completedFuture( null );
+
+		return CompletableFuture.supplyAsync( () -> {
+			try
+			{
+				return get( n5, pathName, attributes );
+			}
+			catch ( Exception e )
+			{
+				// e.g. listing is not allowed; the chunks are then fetched as before
+				Logger.warn( "Could not index the chunks of " + pathName + ": " + e );
+				return null;
+			}
+		}, ThreadUtils.ioExecutorService );
+	}
+
+	/**
+	 * @return the index written by the current export of an S3 dataset, or its cached or new listing,
+	 * or null if the dataset is not in S3 or sharded
+	 */
+	public static ChunkIndex get( N5Reader n5, String pathName, DatasetAttributes attributes ) throws IOException
+	{
+		// the index of each shard tells which of its chunks exist
+		if ( Shards.getShardSize( n5, pathName ) != null )
+			return null;
+
+		final S3Dataset s3Dataset = S3Dataset.of( n5, pathName );
+		if ( s3Dataset == null )
+			return null;
+
+		final long[] gridDimensions = getGridDimensions( attributes );
+
+		final String exportStamp = n5.getAttribute( pathName, STAMP_KEY, String.class );
+		if ( exportStamp != null )
+		{
+			try ( InputStream in = openFile( s3Dataset ) )
+			{
+				if ( in != null )
+				{
+					final ChunkIndex index = read( new DataInputStream( new BufferedInputStream( in ) ) );
+					if ( index.stamp.equals( exportStamp ) && Arrays.equals( index.gridDimensions, gridDimensions ) )
+						return index;
+				}
+			}
+			catch ( IOException e )
+			{
+				// e.g. an index of an older version; the dataset is then listed
+			}
+		}
+
+		final String location = s3Dataset.s3.getUrl( s3Dataset.bucketName, s3Dataset.key ).toString();
+		final String attributesStamp = getAttributesStamp( s3Dataset, n5 );
+		final File cacheFile = getCacheFile( location );
+		final ChunkIndex cached = readCache( cacheFile, location );
+		if ( cached != null && cached.stamp.equals( attributesStamp ) && Arrays.equals( cached.gridDimensions, gridDimensions ) )
+			return cached;
+
+		final ChunkIndex listed = list( n5, pathName, attributes );
+		if ( listed == null )
+			return null;
+
+		final ChunkIndex index = new ChunkIndex( listed.gridDimensions, listed.chunks, attributesStamp );
+		if ( ! attributesStamp.isEmpty() )
+		{
+			try
+			{
+				writeCache( index, cacheFile, location );
+			}
+			catch ( IOException e )
+			{
+				DiskBlockCache.warnNotCached( "the chunk index of " + location, e );
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Lists the chunks of a dataset in a file system or S3 container,
+	 * e.g. to write the {@link #FILE_NAME} file after an export.
+	 *
+	 * @return the index, or null if the reader does not support listing or the dataset is sharded
+	 */
+	public static ChunkIndex list( N5Reader n5, String pathName, DatasetAttributes attributes ) throws IOException
+	{
+		if ( Shards.getShardSize( n5, pathName ) != null )
+			return null;
+
+		final ChunkIndex index = new ChunkIndex( getGridDimensions( attributes ) );
+
+		// row major zarr chunk keys are in reversed dimension order
+		final boolean isReversed = attributes instanceof ZarrDatasetAttributes && ( ( ZarrDatasetAttributes ) attributes ).isRowMajor();
+
+		if ( n5 instanceof N5FSReader )
+		{
+			final Path datasetPath = new File( ( ( N5FSReader ) n5 ).getBasePath(), pathName ).toPath();
+			if ( ! Files.isDirectory( datasetPath ) ) return index;
+
+			try ( Stream< Path > paths = Files.walk( datasetPath ) )
+			{
+				paths.filter( Files::isRegularFile ).forEach( path ->
+						index.addKey( datasetPath.relativize( path ).toString().replace( File.separatorChar, '/' ), isReversed ) );
+			}
+			return index;
+		}
+
+		final S3Dataset s3Dataset = S3Dataset.of( n5, pathName );
+		if ( s3Dataset == null ) return null;
+
+		final String prefix = s3Dataset.key + "/";
+		final ListObjectsV2Request request = new ListObjectsV2Request().withBucketName( s3Dataset.bucketName ).withPrefix( prefix );
+		ListObjectsV2Result result;
+		do
+		{
+			result = s3Dataset.s3.listObjectsV2( request );
+			for ( S3ObjectSummary summary : result.getObjectSummaries() )
+				index.addKey( summary.getKey().substring( prefix.length() ), isReversed );
+			request.setContinuationToken( result.getNextContinuationToken() );
+		}
+		while ( result.isTruncated() );
+
+		return index;
+	}
+
+	// e.g. "3/2/1" of N5 or "1.2.3" of Zarr; other files such as the attributes are skipped
+	private void addKey( String key, boolean isReversed )
+	{
+		final String[] parts = key.split( "[./]" );
+		final int n = gridDimensions.length;
+		if ( parts.length != n ) return;
+
+		final long[] gridPosition = new long[ n ];
+		for ( int i = 0; i < n; i++ )
+		{
+			if ( parts[ i ].isEmpty() || ! parts[ i ].chars().allMatch( Character::isDigit ) ) return;
+			gridPosition[ isReversed ? n - 1 - i : i ] = Long.parseLong( parts[ i ] );
+		}
+		add( gridPosition );
+	}
+
+	/**
+	 * Writes the index into a dataset of a file system container, where the image
+	 * loaders find it once the container is uploaded to S3, and stamps the dataset
+	 * attributes, such that indices of other exports are not used.
+	 */
+	public void write( N5FSWriter n5, String pathName ) throws IOException
+	{
+		final String stamp = UUID.randomUUID().toString();
+		final File datasetDirectory = new File( n5.getBasePath(), pathName );
+		final File file = new File( datasetDirectory, FILE_NAME );
+		final File tmpFile = new File( datasetDirectory, FILE_NAME + ".tmp" );
+		try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tmpFile ) ) ) )
+		{
+			new ChunkIndex( gridDimensions, chunks, stamp ).write( out );
+		}
+		catch ( IOException e )
+		{
+			tmpFile.delete();
+			throw e;
+		}
+
+		// readers never see a partially written index
+		Files.move( tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+		n5.setAttribute( pathName, STAMP_KEY, stamp );
+	}
+
+	private void write( DataOutputStream out ) throws IOException
+	{
+		out.writeInt( MAGIC );
+		out.writeUTF( stamp );
+		out.writeInt( gridDimensions.length );
+		for ( long dimension : gridDimensions )
+			out.writeLong( dimension );
+		final long[] words = chunks.toLongArray();
+		out.writeInt( words.length );
+		for ( long word : words )
+			out.writeLong( word );
+	}
+
+	private static ChunkIndex read( DataInputStream in ) throws IOException
+	{
+		if ( in.readInt() != MAGIC ) throw new IOException( "Invalid header" );
+
+		final String stamp = in.readUTF();
+		final long[] gridDimensions = new long[ in.readInt() ];
+		for ( int d = 0; d < gridDimensions.length; d++ )
+			gridDimensions[ d ] = in.readLong();
+		final long[] words = new long[ in.readInt() ];
+		for ( int i = 0; i < words.length; i++ )
+			words[ i ] = in.readLong();
+
+		return new ChunkIndex( gridDimensions, BitSet.valueOf( words ), stamp );
+	}
+
+	/**
+	 * @return the index file in the dataset, or null if there is none
+	 */
+	private static InputStream openFile( S3Dataset s3Dataset )
+	{
+		try
+		{
+			return s3Dataset.s3.getObject( s3Dataset.bucketName, s3Dataset.key + "/" + FILE_NAME ).getObjectContent();
+		}
+		catch ( AmazonS3Exception e )
+		{
+			if ( e.getStatusCode() == 404 || e.getStatusCode() == 403 ) return null;
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the modification time and ETag of the dataset attributes, which are written
+	 * again when the dataset is written again, or empty if they can not be read
+	 */
+	private static String getAttributesStamp( S3Dataset s3Dataset, N5Reader n5 )
+	{
+		final String attributesFileName = n5 instanceof N5S3ZarrReader ? ".zarray" : "attributes.json";
+		try
+		{
+			final ObjectMetadata metadata = s3Dataset.s3.getObjectMetadata( s3Dataset.bucketName, s3Dataset.key + "/" + attributesFileName );
+			return ( metadata.getLastModified() == null ? "" : metadata.getLastModified().getTime() ) + "-" + metadata.getETag();
+		}
+		catch ( AmazonS3Exception e )
+		{
+			if ( e.getStatusCode() == 404 || e.getStatusCode() == 403 ) return "";
+			throw e;
+		}
+	}
+
+	private static File getCacheFile( String location )
+	{
+		try
+		{
+			final byte[] digest = MessageDigest.getInstance( "SHA-1" ).digest( location.getBytes( StandardCharsets.UTF_8 ) );
+			final StringBuilder builder = new StringBuilder();
+			for ( byte b : digest )
+				builder.append( String.format( "%02x", b ) );
+			return new File( getDirectory(), builder.append( SUFFIX ).toString() );
+		}
+		catch ( NoSuchAlgorithmException e )
+		{
+			throw new RuntimeException( e );
+		}
+	}
+
+	private static ChunkIndex readCache( File file, String location )
+	{
+		// chunks may also be added without writing the attributes again
+		if ( ! file.exists() || System.currentTimeMillis() - file.lastModified() > MAX_CACHE_AGE_MILLIS )
+			return null;
+
+		try ( DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) ) )
+		{
+			if ( ! in.readUTF().equals( location ) ) throw new IOException( "Location mismatch" );
+			return read( in );
+		}
+		catch ( IOException e )
+		{
+			file.delete();
+			return null;
+		}
+	}
+
+	private static void writeCache( ChunkIndex index, File file, String location ) throws IOException
+	{
+		file.getParentFile().mkdirs();
+
+		final File tmp = File.createTempFile( file.getName(), ".tmp", file.getParentFile() );
+		try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tmp ) ) ) )
+		{
+			out.writeUTF( location );
+			index.write( out );
+		}
+		catch ( IOException e )
+		{
+			tmp.delete();
+			throw e;
+		}
+
+		Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+	}
+
+	private static class S3Dataset
+	{
+		private final AmazonS3 s3;
+		private final String bucketName;
+		private final String key;
+
+		private S3Dataset( AmazonS3 s3, String bucketName, String containerPath, String pathName )
+		{
+			this.s3 = s3;
+			this.bucketName = bucketName;
+			this.key = ( containerPath + "/" + pathName ).replaceAll( "/+", "/" ).replaceAll( "^/|/$", "" );
+		}
+
+		static S3Dataset of( N5Reader n5, String pathName )
+		{
+			if ( n5 instanceof CachingN5AmazonS3Reader )
+			{
+				final CachingN5AmazonS3Reader reader = ( CachingN5AmazonS3Reader ) n5;
+				return new S3Dataset( reader.getS3(), reader.getBucketName(), reader.getContainerPath(), pathName );
+			}
+
+			if ( n5 instanceof N5S3ZarrReader )
+			{
+				final N5S3ZarrReader reader = ( N5S3ZarrReader ) n5;
+				return new S3Dataset( reader.getS3(), reader.getBucketName(), reader.getContainerPath(), pathName );
+			}
+
+			return null;
+		}
+	}
+}
@@ -0,0 +1,391 @@
+package de.embl.cba.mobie.n5;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import de.embl.cba.tables.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Size bounded cache of raw (still compressed) data blocks on the local disk.
+ *
+ * Blocks are keyed on the full object location, i.e. container URI,
+ * dataset path and grid position. Each file stores its key and a checksum
+ * of the content, which are validated when reading it back; invalid files
+ * are removed and the block is fetched again.
+ * Each file also stores the ETag of the block and when it was last validated.
+ * Blocks older than {@link #MAX_AGE_MILLIS} are revalidated with a conditional
+ * request, such that blocks that changed remotely are not served forever.
+ * The least recently used blocks are evicted once the cache exceeds its size.
+ */
+public class DiskBlockCache
+{
+	public interface BlockFetcher
+	{
+		/**
+		 * @param eTag
+		 * 			the ETag of the cached block, or null if there is none
+		 * @return the block, or null if it still has the given ETag
+		 */
+		Block fetch( String eTag ) throws IOException;
+	}
+
+	public static class Block
+	{
+		private final byte[] bytes;
+		private final String eTag;
+
+		/**
+		 * @param eTag
+		 * 			null if the source of the block has no ETags
+		 */
+		public Block( byte[] bytes, String eTag )
+		{
+			this.bytes = bytes;
+			this.eTag = eTag;
+		}
+	}
+
+	private static class Entry
+	{
+		private final byte[] bytes;
+		private final String eTag;
+		private final long validationTime;
+
+		private Entry( byte[] bytes, String eTag, long validationTime )
+		{
+			this.bytes = bytes;
+			this.eTag = eTag;
+			this.validationTime = validationTime;
+		}
+	}
+
+	public static final long MAX_AGE_MILLIS = 24L * 60 * 60 * 1000;
+
+	private static final int MAGIC = 0x4D6F4232; // "MoB2", "MoBC" files had no ETag
+	private static final String SUFFIX = ".block";
+
+	private static DiskBlockCache diskBlockCache;
+	private static boolean enabled = true;
+	private static File directory = new File( System.getProperty( "user.home" ), ".mobie" + File.separator + "block-cache" );
+	private static long maxNumBytes = 10L * 1024 * 1024 * 1024;
+
+	private final File cacheDirectory;
+	private final long maxCacheBytes;
+	private final LinkedHashMap< String, Long > fileNameToNumBytes = new LinkedHashMap<>( 16, 0.75f, true );
+	private long numBytes = 0;
+
+	/**
+	 * @return the shared cache, or null if disk caching is disabled
+	 */
+	public static synchronized DiskBlockCache getInstance()
+	{
+		if ( ! enabled ) return null;
+
+		if ( diskBlockCache == null )
+			diskBlockCache = new DiskBlockCache( directory, maxNumBytes );
+
+		return diskBlockCache;
+	}
+
+	public static synchronized void setEnabled( boolean enabled )
+	{
+		DiskBlockCache.enabled = enabled;
+	}
+
+	/**
+	 * Takes effect for readers that are created afterwards.
+	 */
+	public static synchronized void configure( File directory, long maxNumBytes )
+	{
+		DiskBlockCache.directory = directory;
+		DiskBlockCache.maxNumBytes = maxNumBytes;
+		diskBlockCache = null;
+	}
+
+	public DiskBlockCache( File cacheDirectory, long maxCacheBytes )
+	{
+		this.cacheDirectory = cacheDirectory;
+		this.maxCacheBytes = maxCacheBytes;
+
+		// scanning a large cache takes a while, blocks are served and added meanwhile
+		final Thread thread = new Thread( this::initIndex, "mobie-block-cache-index" );
+		thread.setDaemon( true );
+		thread.start();
+	}
+
+	/**
+	 * Fetches an object, or a byte range of it if length is larger than 0,
+	 * with a GET request that is conditional on the ETag of the cached block.
+	 */
+	public static BlockFetcher createS3Fetcher( AmazonS3 s3, String bucketName, String key, long offset, int length )
+	{
+		return eTag ->
+		{
+			final GetObjectRequest request = new GetObjectRequest( bucketName, key );
+			if ( length > 0 )
+				request.setRange( offset, offset + length - 1 );
+			if ( eTag != null )
+				request.setNonmatchingETagConstraints( Collections.singletonList( eTag ) );
+
+			// the object is null if the ETag still matches
+			try ( S3Object object = s3.getObject( request ) )
+			{
+				if ( object == null ) return null;
+
+				try ( InputStream in = object.getObjectContent() )
+				{
+					return new Block( readFully( in ), object.getObjectMetadata().getETag() );
+				}
+			}
+		};
+	}
+
+	public static BlockFetcher createS3Fetcher( AmazonS3 s3, String bucketName, String key )
+	{
+		return createS3Fetcher( s3, bucketName, key, 0, 0 );
+	}
+
+	/**
+	 * Returns the block from the disk, or fetches, stores and returns it.
+	 * Exceptions of the fetcher (e.g. for missing blocks) are passed on.
+	 *
+	 * @param key
+	 * 			the full location of the block
+	 * @param fetcher
+	 * 			fetches the raw block if it is not cached,
+	 * 			or if the cached block is older than {@link #MAX_AGE_MILLIS} and has changed
+	 * @return a stream of the raw block
+	 */
+	public InputStream get( String key, BlockFetcher fetcher ) throws IOException
+	{
+		final String fileName = toFileName( key );
+		final File file = getFile( fileName );
+
+		final Entry cached = read( file, key );
+		if ( cached != null && System.currentTimeMillis() - cached.validationTime < MAX_AGE_MILLIS )
+		{
+			touch( fileName, file );
+			return new ByteArrayInputStream( cached.bytes );
+		}
+
+		final Block fetched = fetcher.fetch( cached == null ? null : cached.eTag );
+
+		// not modified: the cached block is stored again with the new validation time
+		final Block block = fetched == null ? new Block( cached.bytes, cached.eTag ) : fetched;
+
+		try
+		{
+			write( file, key, block );
+			add( fileName, file.length() );
+		}
+		catch ( IOException e )
+		{
+			warnNotCached( "block " + key, e );
+		}
+
+		return new ByteArrayInputStream( block.bytes );
+	}
+
+	/**
+	 * Reports that something could not be written to a local cache.
+	 * The caches are an optimisation, so failing to write to them
+	 * must not fail the loading.
+	 */
+	static void warnNotCached( String what, IOException e )
+	{
+		Logger.warn( "Could not cache " + what + ": " + e );
+	}
+
+	public synchronized void clear()
+	{
+		for ( String fileName : fileNameToNumBytes.keySet() )
+			getFile( fileName ).delete();
+		fileNameToNumBytes.clear();
+		numBytes = 0;
+	}
+
+	// the directory is scanned without holding the lock, only merging the result into the index holds it
+	private void initIndex()
+	{
+		final File[] subDirectories = cacheDirectory.listFiles( File::isDirectory );
+		if ( subDirectories == null ) return;
+
+		final File[] files = Arrays.stream( subDirectories )
+				.map( d -> d.listFiles( ( dir, name ) -> name.endsWith( SUFFIX ) ) )
+				.filter( f -> f != null )
+				.flatMap( Arrays::stream )
+				.sorted( Comparator.comparingLong( File::lastModified ) )
+				.toArray( File[]::new );
+
+		final LinkedHashMap< String, Long > scanned = new LinkedHashMap<>();
+		for ( File file : files )
+			scanned.put( file.getName(), file.length() );
+
+		synchronized ( this )
+		{
+			// blocks that were used during the scan are the most recently used ones
+			for ( String fileName : fileNameToNumBytes.keySet() )
+				scanned.remove( fileName );
+			final LinkedHashMap< String, Long > used = new LinkedHashMap<>( fileNameToNumBytes );
+
+			fileNameToNumBytes.clear();
+			fileNameToNumBytes.putAll( scanned );
+			fileNameToNumBytes.putAll( used );
+			numBytes = fileNameToNumBytes.values().stream().mapToLong( Long::longValue ).sum();
+
+			evict();
+		}
+	}
+
+	private synchronized void touch( String fileName, File file )
+	{
+		if ( fileNameToNumBytes.get( fileName ) == null )
+		{
+			fileNameToNumBytes.put( fileName, file.length() );
+			numBytes += file.length();
+		}
+
+		// persist the access order for the next session
+		file.setLastModified( System.currentTimeMillis() );
+	}
+
+	private synchronized void add( String fileName, long fileNumBytes )
+	{
+		final Long previous = fileNameToNumBytes.put( fileName, fileNumBytes );
+		if ( previous != null ) numBytes -= previous;
+		numBytes += fileNumBytes;
+		evict();
+	}
+
+	private void evict()
+	{
+		final Iterator< Map.Entry< String, Long > > iterator = fileNameToNumBytes.entrySet().iterator();
+		while ( numBytes > maxCacheBytes && iterator.hasNext() )
+		{
+			final Map.Entry< String, Long > eldest = iterator.next();
+			getFile( eldest.getKey() ).delete();
+			numBytes -= eldest.getValue();
+			iterator.remove();
+		}
+	}
+
+	private File getFile( String fileName )
+	{
+		return new File( new File( cacheDirectory, fileName.substring( 0, 2 ) ), fileName );
+	}
+
+	private Entry read( File file, String key )
+	{
+		if ( ! file.exists() ) return null;
+
+		try ( final DataInputStream in = new DataInputStream( new FileInputStream( file ) ) )
+		{
+			if ( in.readInt() != MAGIC ) throw new IOException( "Invalid header" );
+			if ( ! in.readUTF().equals( key ) ) throw new IOException( "Key mismatch" );
+
+			final String eTag = in.readUTF();
+			final long validationTime = in.readLong();
+			final int length = in.readInt();
+			final long checksum = in.readLong();
+			final byte[] bytes = new byte[ length ];
+			in.readFully( bytes );
+
+			if ( checksum( bytes ) != checksum ) throw new IOException( "Checksum mismatch" );
+
+			return new Entry( bytes, eTag.isEmpty() ? null : eTag, validationTime );
+		}
+		catch ( IOException e )
+		{
+			remove( file );
+			return null;
+		}
+	}
+
+	private synchronized void remove( File file )
+	{
+		final Long fileNumBytes = fileNameToNumBytes.remove( file.getName() );
+		if ( fileNumBytes != null ) numBytes -= fileNumBytes;
+		file.delete();
+	}
+
+	private static void write( File file, String key, Block block ) throws IOException
+	{
+		final byte[] bytes = block.bytes;
+		file.getParentFile().mkdirs();
+
+		// write to a temporary file first, such that readers never see partial blocks
+		final File tmp = File.createTempFile( file.getName(), ".tmp", file.getParentFile() );
+		try ( final DataOutputStream out = new DataOutputStream( new FileOutputStream( tmp ) ) )
+		{
+			out.writeInt( MAGIC );
+			out.writeUTF( key );
+			out.writeUTF( block.eTag == null ? "" : block.eTag );
+			out.writeLong( System.currentTimeMillis() );
+			out.writeInt( bytes.length );
+			out.writeLong( checksum( bytes ) );
+			out.write( bytes );
+		}
+		catch ( IOException e )
+		{
+			tmp.delete();
+			throw e;
+		}
+
+		Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+	}
+
+	private static long checksum( byte[] bytes )
+	{
+		final CRC32 crc32 = new CRC32();
+		crc32.update( bytes, 0, bytes.length );
+		return crc32.getValue();
+	}
+
+	private static byte[] readFully( InputStream in ) throws IOException
+	{
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[ 64 * 1024 ];
+		int n;
+		while ( ( n = in.read( buffer ) ) != -1 )
+			out.write( buffer, 0, n );
+		return out.toByteArray();
+	}
+
+	private static String toFileName( String key )
+	{
+		try
+		{
+			final byte[] digest = MessageDigest.getInstance( "SHA-1" ).digest( key.getBytes( StandardCharsets.UTF_8 ) );
+			final StringBuilder builder = new StringBuilder();
+			for ( byte b : digest )
+				builder.append( String.format( "%02x", b ) );
+			return builder.append( SUFFIX ).toString();
+		}
+		catch ( NoSuchAlgorithmException e )
+		{
+			throw new RuntimeException( e );
+		}
+	}
+}
@@ -29,7 +29,6 @@
  */
 package de.embl.cba.mobie.n5;
 import mpicbg.spim.data.generic.sequence.AbstractSequenceDescription;
-import org.janelia.saalfeldlab.n5.N5FSReader;
 
 import java.io.File;
 import java.io.IOException;
@@ -40,7 +39,7 @@ public class N5FSImageLoader extends N5ImageLoader
 
 	public N5FSImageLoader( final File n5File, final AbstractSequenceDescription< ?, ?, ? > sequenceDescription ) throws IOException
 	{
-		super( new N5FSReader( n5File.getAbsolutePath() ), sequenceDescription );
+		super( new ShardedN5FSReader( n5File.getAbsolutePath() ), sequenceDescription );
 		this.n5File = n5File;
 	}
 
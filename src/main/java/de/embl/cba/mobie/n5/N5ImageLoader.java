@@ -36,6 +36,7 @@ import bdv.img.cache.SimpleCacheArrayLoader;
 import bdv.img.cache.VolatileGlobalCellCache;
 import bdv.util.ConstantRandomAccessible;
 import bdv.util.MipmapTransforms;
+import de.embl.cba.mobie.ThreadUtils;
 import mpicbg.spim.data.generic.sequence.AbstractSequenceDescription;
 import mpicbg.spim.data.generic.sequence.BasicViewSetup;
 import mpicbg.spim.data.generic.sequence.ImgLoaderHint;
@@ -43,8 +44,6 @@ import mpicbg.spim.data.sequence.MultiResolutionImgLoader;
 import mpicbg.spim.data.sequence.MultiResolutionSetupImgLoader;
 import mpicbg.spim.data.sequence.VoxelDimensions;
 import net.imglib2.*;
-import net.imglib2.cache.queue.BlockingFetchQueues;
-import net.imglib2.cache.queue.FetcherThreads;
 import net.imglib2.cache.volatiles.CacheHints;
 import net.imglib2.cache.volatiles.LoadingStrategy;
 import net.imglib2.img.basictypeaccess.volatiles.array.*;
@@ -57,6 +56,8 @@ import net.imglib2.type.numeric.real.DoubleType;
 import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.type.volatiles.*;
 import net.imglib2.util.Cast;
+import net.imglib2.util.Pair;
+import net.imglib2.util.ValuePair;
 import net.imglib2.view.Views;
 import org.janelia.saalfeldlab.n5.*;
 
@@ -65,7 +66,9 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Function;
 
 import static bdv.img.n5.BdvN5Format.*;
@@ -83,9 +86,19 @@ public class N5ImageLoader implements ViewerImgLoader, MultiResolutionImgLoader
 	 */
 	private final Map< Integer, SetupImgLoader > setupImgLoaders = new HashMap<>();
 
+	/**
+	 * Maps dataset path to its {@link ChunkIndex}, which is loaded once per dataset.
+	 */
+	private final Map< String, CompletableFuture< ChunkIndex > > pathNameToChunkIndex = new ConcurrentHashMap<>();
+
 	private volatile boolean isOpen = false;
-	private FetcherThreads fetchers;
-	private VolatileGlobalCellCache cache;
+	private volatile VolatileGlobalCellCache cache;
+
+	/**
+	 * Set when this loader is closed; shared with the array loaders of the
+	 * current cache, such that their queued requests are dropped.
+	 */
+	private volatile AtomicBoolean isClosed = new AtomicBoolean();
 
 	public N5ImageLoader( N5Reader n5Reader, AbstractSequenceDescription< ?, ?, ? > sequenceDescription )
 	{
@@ -104,20 +117,17 @@ public class N5ImageLoader implements ViewerImgLoader, MultiResolutionImgLoader
 
 				try
 				{
-					int maxNumLevels = 0;
 					final List< ? extends BasicViewSetup > setups = seq.getViewSetupsOrdered();
 					for ( final BasicViewSetup setup : setups )
 					{
 						final int setupId = setup.getId();
 						final SetupImgLoader setupImgLoader = createSetupImgLoader( setupId );
 						setupImgLoaders.put( setupId, setupImgLoader );
-						maxNumLevels = Math.max( maxNumLevels, setupImgLoader.numMipmapLevels() );
 					}
 
-					final int numFetcherThreads = Math.max( 1, Runtime.getRuntime().availableProcessors() );
-					final BlockingFetchQueues< Callable< ? > > queue = new BlockingFetchQueues<>( maxNumLevels, numFetcherThreads );
-					fetchers = new FetcherThreads( queue, numFetcherThreads );
-					cache = new VolatileGlobalCellCache( queue );
+					// all loaders share the fetcher threads, see ThreadUtils
+					cache = new VolatileGlobalCellCache( ThreadUtils.getFetchQueue() );
+					isClosed = new AtomicBoolean();
 				}
 				catch ( IOException e )
 				{
@@ -130,10 +140,13 @@ public class N5ImageLoader implements ViewerImgLoader, MultiResolutionImgLoader
 	}
 
 	/**
-	 * Clear the cache. Images that were obtained from
-	 * this loader before {@link #close()} will stop working. Requesting images
-	 * after {@link #close()} will cause the n5 to be reopened (with a
-	 * new cache).
+	 * Release the cache. The cache is not cleared, as that would also clear
+	 * the requests of all other loaders from the shared fetch queue, see
+	 * {@link ThreadUtils#getFetchQueue()}. Instead, the requests of this loader
+	 * that are still queued are dropped without reading, and the cells of the
+	 * cache are garbage collected once the images that were obtained from this
+	 * loader before {@link #close()} are no longer used. Requesting images
+	 * after {@link #close()} will cause the n5 to be reopened (with a new cache).
 	 */
 	public void close()
 	{
@@ -143,8 +156,8 @@ public class N5ImageLoader implements ViewerImgLoader, MultiResolutionImgLoader
 			{
 				if ( !isOpen )
 					return;
-				fetchers.shutdown();
-				cache.clearCache();
+				isClosed.set( true );
+				pathNameToChunkIndex.clear();
 				isOpen = false;
 			}
 		}
@@ -158,31 +171,55 @@ public class N5ImageLoader implements ViewerImgLoader, MultiResolutionImgLoader
 	}
 
 	private < T extends NativeType< T >, V extends Volatile< T > & NativeType< V > > SetupImgLoader< T, V > createSetupImgLoader( final int setupId ) throws IOException
+	{
+		final Pair< T, V > types = getTypes( setupId );
+		if ( types == null )
+			return null;
+
+		return new SetupImgLoader<>( setupId, types.getA(), types.getB() );
+	}
+
+	/**
+	 * Reads the pixel type of the setup from its attributes, without opening this loader.
+	 *
+	 * @return the type and its volatile version, or null if the data type is not supported
+	 */
+	public < T extends NativeType< T >, V extends Volatile< T > & NativeType< V > > Pair< T, V > getTypes( final int setupId ) throws IOException
 	{
 		final String pathName = getPathName( setupId );
-		final DataType dataType = n5.getAttribute( pathName, DATA_TYPE_KEY, DataType.class );
+		return getTypes( n5.getAttribute( pathName, DATA_TYPE_KEY, DataType.class ) );
+	}
+
+	/**
+	 * @return the type and its volatile version, or null if the data type is not supported
+	 */
+	public static < T extends NativeType< T >, V extends Volatile< T > & NativeType< V > > Pair< T, V > getTypes( final DataType dataType )
+	{
+		if ( dataType == null )
+			return null;
+
 		switch ( dataType )
 		{
 		case UINT8:
-			return Cast.unchecked( new SetupImgLoader<>( setupId, new UnsignedByteType(), new VolatileUnsignedByteType() ) );
+			return Cast.unchecked( new ValuePair<>( new UnsignedByteType(), new VolatileUnsignedByteType() ) );
 		case UINT16:
-			return Cast.unchecked( new SetupImgLoader<>( setupId, new UnsignedShortType(), new VolatileUnsignedShortType() ) );
+			return Cast.unchecked( new ValuePair<>( new UnsignedShortType(), new VolatileUnsignedShortType() ) );
 		case UINT32:
-			return Cast.unchecked( new SetupImgLoader<>( setupId, new UnsignedIntType(), new VolatileUnsignedIntType() ) );
+			return Cast.unchecked( new ValuePair<>( new UnsignedIntType(), new VolatileUnsignedIntType() ) );
 		case UINT64:
-			return Cast.unchecked( new SetupImgLoader<>( setupId, new UnsignedLongType(), new VolatileUnsignedLongType() ) );
+			return Cast.unchecked( new ValuePair<>( new UnsignedLongType(), new VolatileUnsignedLongType() ) );
 		case INT8:
-			return Cast.unchecked( new SetupImgLoader<>( setupId, new ByteType(), new VolatileByteType() ) );
+			return Cast.unchecked( new ValuePair<>( new ByteType(), new VolatileByteType() ) );
 		case INT16:
-			return Cast.unchecked( new SetupImgLoader<>( setupId, new ShortType(), new VolatileShortType() ) );
+			return Cast.unchecked( new ValuePair<>( new ShortType(), new VolatileShortType() ) );
 		case INT32:
-			return Cast.unchecked( new SetupImgLoader<>( setupId, new IntType(), new VolatileIntType() ) );
+			return Cast.unchecked( new ValuePair<>( new IntType(), new VolatileIntType() ) );
 		case INT64:
-			return Cast.unchecked( new SetupImgLoader<>( setupId, new LongType(), new VolatileLongType() ) );
+			return Cast.unchecked( new ValuePair<>( new LongType(), new VolatileLongType() ) );
 		case FLOAT32:
-			return Cast.unchecked( new SetupImgLoader<>( setupId, new FloatType(), new VolatileFloatType() ) );
+			return Cast.unchecked( new ValuePair<>( new FloatType(), new VolatileFloatType() ) );
 		case FLOAT64:
-			return Cast.unchecked( new SetupImgLoader<>( setupId, new DoubleType(), new VolatileDoubleType() ) );
+			return Cast.unchecked( new ValuePair<>( new DoubleType(), new VolatileDoubleType() ) );
 		}
 		return null;
 	}
@@ -272,6 +309,16 @@ public class N5ImageLoader implements ViewerImgLoader, MultiResolutionImgLoader
 		 */
 		private < T extends NativeType< T > > RandomAccessibleInterval< T > prepareCachedImage( final int timepointId, final int level, final LoadingStrategy loadingStrategy, final T type )
 		{
+			// the loader may have been closed since this setup loader was obtained
+			final VolatileGlobalCellCache cache;
+			final AtomicBoolean isClosed;
+			synchronized ( N5ImageLoader.this )
+			{
+				open();
+				cache = N5ImageLoader.this.cache;
+				isClosed = N5ImageLoader.this.isClosed;
+			}
+
 			try
 			{
 				final String pathName = getPathName( setupId, timepointId, level );
@@ -283,7 +330,8 @@ public class N5ImageLoader implements ViewerImgLoader, MultiResolutionImgLoader
 				final int priority = numMipmapLevels() - 1 - level;
 				final CacheHints cacheHints = new CacheHints( loadingStrategy, priority, false );
 
-				final SimpleCacheArrayLoader< ? > loader = createCacheArrayLoader( n5, pathName );
+				final CompletableFuture< ChunkIndex > chunkIndex = pathNameToChunkIndex.computeIfAbsent( pathName, p -> ChunkIndex.load( n5, p, attributes ) );
+				final SimpleCacheArrayLoader< ? > loader = createCacheArrayLoader( n5, pathName, chunkIndex, isClosed );
 				return cache.createImg( grid, timepointId, setupId, level, cacheHints, loader, type );
 			}
 			catch ( IOException e )
@@ -304,18 +352,32 @@ public class N5ImageLoader implements ViewerImgLoader, MultiResolutionImgLoader
 		private final String pathName;
 		private final DatasetAttributes attributes;
 		private final Function< DataBlock< ? >, A > createArray;
+		private final CompletableFuture< ChunkIndex > chunkIndex;
+		private final AtomicBoolean isClosed;
+		private volatile A emptyArray;
 
-		N5CacheArrayLoader( final N5Reader n5, final String pathName, final DatasetAttributes attributes, final Function< DataBlock< ? >, A > createArray )
+		N5CacheArrayLoader( final N5Reader n5, final String pathName, final DatasetAttributes attributes, final Function< DataBlock< ? >, A > createArray, final CompletableFuture< ChunkIndex > chunkIndex, final AtomicBoolean isClosed )
 		{
 			this.n5 = n5;
 			this.pathName = pathName;
 			this.attributes = attributes;
 			this.createArray = createArray;
+			this.chunkIndex = chunkIndex;
+			this.isClosed = isClosed;
 		}
 
 		@Override
 		public A loadArray( final long[] gridPosition ) throws IOException
 		{
+			// requests that were still queued when the image loader was closed
+			if ( isClosed.get() )
+				return getEmptyArray();
+
+			// until the index is loaded, missing chunks are found by reading them
+			final ChunkIndex index = chunkIndex.getNow( null );
+			if ( index != null && ! index.contains( gridPosition ) )
+				return getEmptyArray();
+
 			DataBlock< ? > block = null;
 
 			try {
@@ -333,39 +395,77 @@ public class N5ImageLoader implements ViewerImgLoader, MultiResolutionImgLoader
 
 
 			if ( block == null )
+				return getEmptyArray();
+			else
+				return createArray.apply( block );
+		}
+
+		/**
+		 * All missing chunks share one array of zeros, as the cells are only read.
+		 */
+		private A getEmptyArray()
+		{
+			A array = emptyArray;
+			if ( array == null )
 			{
-				final int[] blockSize = attributes.getBlockSize();
-				final int n = blockSize[ 0 ] * blockSize[ 1 ] * blockSize[ 2 ];
-				switch ( attributes.getDataType() )
-				{
-					case UINT8:
-					case INT8:
-						return createArray.apply( new ByteArrayDataBlock( blockSize, gridPosition, new byte[ n ] ) );
-					case UINT16:
-					case INT16:
-						return createArray.apply( new ShortArrayDataBlock( blockSize, gridPosition, new short[ n ] ) );
-					case UINT32:
-					case INT32:
-						return createArray.apply( new IntArrayDataBlock( blockSize, gridPosition, new int[ n ] ) );
-					case UINT64:
-					case INT64:
-						return createArray.apply( new LongArrayDataBlock( blockSize, gridPosition, new long[ n ] ) );
-					case FLOAT32:
-						return createArray.apply( new FloatArrayDataBlock( blockSize, gridPosition, new float[ n ] ) );
-					case FLOAT64:
-						return createArray.apply( new DoubleArrayDataBlock( blockSize, gridPosition, new double[ n ] ) );
-					default:
-						throw new IllegalArgumentException();
-				}
+				array = createEmptyArray();
+				emptyArray = array;
 			}
-			else
+			return array;
+		}
+
+		private A createEmptyArray()
+		{
+			final int[] blockSize = attributes.getBlockSize();
+			final long[] gridPosition = new long[ blockSize.length ];
+			final int n = blockSize[ 0 ] * blockSize[ 1 ] * blockSize[ 2 ];
+			switch ( attributes.getDataType() )
 			{
-				return createArray.apply( block );
+				case UINT8:
+				case INT8:
+					return createArray.apply( new ByteArrayDataBlock( blockSize, gridPosition, new byte[ n ] ) );
+				case UINT16:
+				case INT16:
+					return createArray.apply( new ShortArrayDataBlock( blockSize, gridPosition, new short[ n ] ) );
+				case UINT32:
+				case INT32:
+					return createArray.apply( new IntArrayDataBlock( blockSize, gridPosition, new int[ n ] ) );
+				case UINT64:
+				case INT64:
+					return createArray.apply( new LongArrayDataBlock( blockSize, gridPosition, new long[ n ] ) );
+				case FLOAT32:
+					return createArray.apply( new FloatArrayDataBlock( blockSize, gridPosition, new float[ n ] ) );
+				case FLOAT64:
+					return createArray.apply( new DoubleArrayDataBlock( blockSize, gridPosition, new double[ n ] ) );
+				default:
+					throw new IllegalArgumentException();
 			}
 		}
 	}
 
 	public static SimpleCacheArrayLoader< ? > createCacheArrayLoader( final N5Reader n5, final String pathName ) throws IOException
+	{
+		return createCacheArrayLoader( n5, pathName, CompletableFuture.completedFuture( null ) );
+	}
+
+	/**
+	 * @param chunkIndex
+	 * 			the existing chunks of the dataset; the other chunks are
+	 * 			not fetched, once the index is loaded.
+	 */
+	public static SimpleCacheArrayLoader< ? > createCacheArrayLoader( final N5Reader n5, final String pathName, final CompletableFuture< ChunkIndex > chunkIndex ) throws IOException
+	{
+		return createCacheArrayLoader( n5, pathName, chunkIndex, new AtomicBoolean() );
+	}
+
+	/**
+	 * @param chunkIndex
+	 * 			the existing chunks of the dataset; the other chunks are
+	 * 			not fetched, once the index is loaded.
+	 * @param isClosed
+	 * 			once set, requests are answered with empty arrays without reading
+	 */
+	public static SimpleCacheArrayLoader< ? > createCacheArrayLoader( final N5Reader n5, final String pathName, final CompletableFuture< ChunkIndex > chunkIndex, final AtomicBoolean isClosed ) throws IOException
 	{
 		final DatasetAttributes attributes = n5.getDatasetAttributes( pathName );
 		switch ( attributes.getDataType() )
@@ -373,25 +473,25 @@ public class N5ImageLoader implements ViewerImgLoader, MultiResolutionImgLoader
 		case UINT8:
 		case INT8:
 			return new N5CacheArrayLoader<>( n5, pathName, attributes,
-					dataBlock -> new VolatileByteArray( Cast.unchecked( dataBlock.getData() ), true ) );
+					dataBlock -> new VolatileByteArray( Cast.unchecked( dataBlock.getData() ), true ), chunkIndex, isClosed );
 		case UINT16:
 		case INT16:
 			return new N5CacheArrayLoader<>( n5, pathName, attributes,
-					dataBlock -> new VolatileShortArray( Cast.unchecked( dataBlock.getData() ), true ) );
+					dataBlock -> new VolatileShortArray( Cast.unchecked( dataBlock.getData() ), true ), chunkIndex, isClosed );
 		case UINT32:
 		case INT32:
 			return new N5CacheArrayLoader<>( n5, pathName, attributes,
-					dataBlock -> new VolatileIntArray( Cast.unchecked( dataBlock.getData() ), true ) );
+					dataBlock -> new VolatileIntArray( Cast.unchecked( dataBlock.getData() ), true ), chunkIndex, isClosed );
 		case UINT64:
 		case INT64:
 			return new N5CacheArrayLoader<>( n5, pathName, attributes,
-					dataBlock -> new VolatileLongArray( Cast.unchecked( dataBlock.getData() ), true ) );
+					dataBlock -> new VolatileLongArray( Cast.unchecked( dataBlock.getData() ), true ), chunkIndex, isClosed );
 		case FLOAT32:
 			return new N5CacheArrayLoader<>( n5, pathName, attributes,
-					dataBlock -> new VolatileFloatArray( Cast.unchecked( dataBlock.getData() ), true ) );
+					dataBlock -> new VolatileFloatArray( Cast.unchecked( dataBlock.getData() ), true ), chunkIndex, isClosed );
 		case FLOAT64:
 			return new N5CacheArrayLoader<>( n5, pathName, attributes,
-					dataBlock -> new VolatileDoubleArray( Cast.unchecked( dataBlock.getData() ), true ) );
+					dataBlock -> new VolatileDoubleArray( Cast.unchecked( dataBlock.getData() ), true ), chunkIndex, isClosed );
 		default:
 			throw new IllegalArgumentException();
 		}
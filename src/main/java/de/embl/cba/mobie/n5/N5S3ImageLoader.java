@@ -49,7 +49,7 @@ public class N5S3ImageLoader extends N5ImageLoader
 		public N5AmazonS3Reader create( String serviceEndpoint, String signingRegion, String bucketName, String key ) throws IOException
 		{
 			final AmazonS3 s3 = S3Utils.getS3Client( serviceEndpoint, signingRegion, bucketName );
-			return new N5AmazonS3Reader( s3, bucketName, key );
+			return new CachingN5AmazonS3Reader( s3, bucketName, key );
 		}
 	}
 
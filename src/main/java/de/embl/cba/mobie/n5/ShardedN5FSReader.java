@@ -0,0 +1,52 @@
+package de.embl.cba.mobie.n5;
+
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.DefaultBlockReader;
+import org.janelia.saalfeldlab.n5.N5FSReader;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * {@link N5FSReader} that also reads the blocks of sharded datasets, see {@link Shards}.
+ */
+public class ShardedN5FSReader extends N5FSReader
+{
+	private final Shards.ShardSizes shardSizes = new Shards.ShardSizes();
+
+	public ShardedN5FSReader( String basePath ) throws IOException
+	{
+		super( basePath );
+	}
+
+	@Override
+	public DatasetAttributes getDatasetAttributes( String pathName ) throws IOException
+	{
+		final DatasetAttributes attributes = shardSizes.get( this, pathName ) == null ? null : Shards.getN5DatasetAttributes( getAttributes( pathName ), getGson() );
+		return attributes != null ? attributes : super.getDatasetAttributes( pathName );
+	}
+
+	@Override
+	public DataBlock< ? > readBlock( String pathName, DatasetAttributes datasetAttributes, long... gridPosition ) throws IOException
+	{
+		final int[] shardSize = shardSizes.get( this, pathName );
+		if ( shardSize == null )
+			return super.readBlock( pathName, datasetAttributes, gridPosition );
+
+		return readBlock( getShardFile( getBasePath(), pathName, Shards.getShardPosition( gridPosition, shardSize ) ), datasetAttributes, shardSize, gridPosition );
+	}
+
+	static DataBlock< ? > readBlock( File shardFile, DatasetAttributes datasetAttributes, int[] shardSize, long[] gridPosition ) throws IOException
+	{
+		final byte[] block = Shards.readBlock( shardFile, Shards.getBlockIndex( gridPosition, shardSize ), Shards.getNumBlocks( shardSize ) );
+		return block == null ? null : DefaultBlockReader.readBlock( new ByteArrayInputStream( block ), datasetAttributes, gridPosition );
+	}
+
+	static File getShardFile( String basePath, String pathName, long[] shardPosition )
+	{
+		return Paths.get( basePath, pathName, Shards.getShardPath( Shards.getN5ChunkPath( shardPosition ) ) ).toFile();
+	}
+}
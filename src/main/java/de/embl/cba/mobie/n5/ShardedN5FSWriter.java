@@ -0,0 +1,130 @@
+package de.embl.cba.mobie.n5;
+
+import com.google.gson.JsonElement;
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.DefaultBlockWriter;
+import org.janelia.saalfeldlab.n5.N5FSWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link N5FSWriter} that packs the blocks of datasets with the
+ * {@link Shards#SHARD_SIZE_KEY} attribute into shards.
+ *
+ * Every {@link #writeBlock} and {@link #deleteBlock} of a sharded dataset
+ * rewrites the shard; writers of many blocks should collect the blocks
+ * of a shard and write them with one {@link #writeShard}.
+ */
+public class ShardedN5FSWriter extends N5FSWriter
+{
+	private final Shards.ShardSizes shardSizes = new Shards.ShardSizes();
+
+	public ShardedN5FSWriter( String basePath ) throws IOException
+	{
+		super( basePath );
+	}
+
+	/**
+	 * @see Shards#getShardSize
+	 */
+	public int[] getShardSize( String pathName ) throws IOException
+	{
+		return shardSizes.get( this, pathName );
+	}
+
+	/**
+	 * Sets the number of chunks per shard of a dataset, or null for unsharded chunks,
+	 * and wraps the compression of a sharded dataset, see {@link Shards}.
+	 */
+	public void setShardSize( String pathName, int[] shardSize ) throws IOException
+	{
+		final JsonElement compression = Shards.unwrapN5Compression( getAttributes( pathName ).get( "compression" ) );
+		final Map< String, Object > attributes = new HashMap<>();
+		attributes.put( Shards.SHARD_SIZE_KEY, shardSize );
+		attributes.put( "compression", shardSize == null ? compression : Shards.wrapN5Compression( compression ) );
+		setAttributes( pathName, attributes );
+	}
+
+	@Override
+	public void setAttributes( String pathName, Map< String, ? > attributes ) throws IOException
+	{
+		super.setAttributes( pathName, attributes );
+		shardSizes.invalidate( pathName );
+	}
+
+	@Override
+	public DatasetAttributes getDatasetAttributes( String pathName ) throws IOException
+	{
+		final DatasetAttributes attributes = shardSizes.get( this, pathName ) == null ? null : Shards.getN5DatasetAttributes( getAttributes( pathName ), getGson() );
+		return attributes != null ? attributes : super.getDatasetAttributes( pathName );
+	}
+
+	@Override
+	public DataBlock< ? > readBlock( String pathName, DatasetAttributes datasetAttributes, long... gridPosition ) throws IOException
+	{
+		final int[] shardSize = getShardSize( pathName );
+		if ( shardSize == null )
+			return super.readBlock( pathName, datasetAttributes, gridPosition );
+
+		return ShardedN5FSReader.readBlock( ShardedN5FSReader.getShardFile( getBasePath(), pathName, Shards.getShardPosition( gridPosition, shardSize ) ), datasetAttributes, shardSize, gridPosition );
+	}
+
+	@Override
+	public < T > void writeBlock( String pathName, DatasetAttributes datasetAttributes, DataBlock< T > dataBlock ) throws IOException
+	{
+		final int[] shardSize = getShardSize( pathName );
+		if ( shardSize == null )
+		{
+			super.writeBlock( pathName, datasetAttributes, dataBlock );
+			return;
+		}
+
+		final long[] gridPosition = dataBlock.getGridPosition();
+		writeShard( pathName, Shards.getShardPosition( gridPosition, shardSize ),
+				Collections.singletonMap( Shards.getBlockIndex( gridPosition, shardSize ), encode( datasetAttributes, dataBlock ) ) );
+	}
+
+	@Override
+	public boolean deleteBlock( String pathName, long... gridPosition ) throws IOException
+	{
+		final int[] shardSize = getShardSize( pathName );
+		if ( shardSize == null )
+			return super.deleteBlock( pathName, gridPosition );
+
+		writeShard( pathName, Shards.getShardPosition( gridPosition, shardSize ),
+				Collections.singletonMap( Shards.getBlockIndex( gridPosition, shardSize ), null ) );
+		return true;
+	}
+
+	/**
+	 * Writes blocks into the shard at the given position of the shard grid,
+	 * keeping the blocks of the shard that are not given.
+	 *
+	 * @param blocks
+	 * 			the encoded blocks (see {@link #encode}) by their index in the shard
+	 * 			(see {@link Shards#getBlockIndex}); null removes the block
+	 */
+	public void writeShard( String pathName, long[] shardPosition, Map< Integer, byte[] > blocks ) throws IOException
+	{
+		final int[] shardSize = getShardSize( pathName );
+		if ( shardSize == null )
+			throw new IllegalArgumentException( "The blocks of " + pathName + " are not sharded" );
+
+		Shards.writeBlocks( ShardedN5FSReader.getShardFile( getBasePath(), pathName, shardPosition ), blocks, Shards.getNumBlocks( shardSize ) );
+	}
+
+	/**
+	 * @return the block as it is stored in an N5 dataset
+	 */
+	public static < T > byte[] encode( DatasetAttributes datasetAttributes, DataBlock< T > dataBlock ) throws IOException
+	{
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		DefaultBlockWriter.writeBlock( out, datasetAttributes, dataBlock );
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,571 @@
+package de.embl.cba.mobie.n5;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import org.janelia.saalfeldlab.n5.Compression;
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.N5Reader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Datasets of N5 and Zarr containers whose chunks are packed into shards,
+ * such that a large image consists of a few thousand files instead of millions.
+ *
+ * A sharded dataset has the {@link #SHARD_SIZE_KEY} attribute, the number of
+ * chunks per shard in each dimension, in the dimension order of the block size.
+ * Its compression (N5) or compressor (Zarr) is of the type {@link #COMPRESSION_TYPE}
+ * and wraps the compression of the chunks, such that readers without support
+ * for this layout fail on the unknown compression, instead of reading an empty dataset.
+ * The shard at a position of the shard grid is stored like a chunk at the same
+ * position, but below the {@link #DIRECTORY_NAME} directory of the dataset,
+ * e.g. "s0/shards/1/0/2" in N5 and "s0/shards/2.0.1" in Zarr.
+ *
+ * A shard starts with an index of fixed size, the offset and length of every
+ * chunk in the shard, with dimension 0 being the fastest, followed by the chunks.
+ * The chunks are encoded as in unsharded datasets. Missing chunks have length 0.
+ * As the index has a fixed size, a reader can fetch the index and then a chunk
+ * with two byte-range reads.
+ *
+ * Shards are replaced as a whole when their chunks are written, such that
+ * readers and crashed writers never leave a partially written shard behind.
+ * Chunks of shards in S3 are cached under the ETag of their shard.
+ *
+ * This is not the sharding of Zarr v3, as the containers here are N5 and Zarr v2.
+ */
+public class Shards
+{
+	public static final String SHARD_SIZE_KEY = "shardSize";
+	public static final String DIRECTORY_NAME = "shards";
+	public static final String COMPRESSION_TYPE = "mobie_shards";
+
+	private static final String N5_COMPRESSION_KEY = "compression";
+	private static final int MAGIC = 0x4D6F5348; // "MoSH"
+	private static final int INDEX_ENTRY_SIZE = Long.BYTES + Integer.BYTES;
+	private static final int MAX_NUM_CACHED_INDICES = 4096;
+
+	// writers of the same shard are serialised by the lock of its path
+	private static final Object[] WRITE_LOCKS = new Object[ 64 ];
+	static
+	{
+		for ( int i = 0; i < WRITE_LOCKS.length; i++ )
+			WRITE_LOCKS[ i ] = new Object();
+	}
+
+	/**
+	 * The offsets and lengths of the chunks in a shard.
+	 */
+	public static class Index
+	{
+		private final long[] offsets;
+		private final int[] lengths;
+		private String eTag;
+		private long fetchTime;
+
+		private Index( long[] offsets, int[] lengths )
+		{
+			this.offsets = offsets;
+			this.lengths = lengths;
+		}
+
+		private static Index empty()
+		{
+			return new Index( new long[ 0 ], new int[ 0 ] );
+		}
+
+		public boolean contains( int blockIndex )
+		{
+			return blockIndex < lengths.length && lengths[ blockIndex ] > 0;
+		}
+
+		public long getOffset( int blockIndex )
+		{
+			return offsets[ blockIndex ];
+		}
+
+		public int getLength( int blockIndex )
+		{
+			return lengths[ blockIndex ];
+		}
+
+		static Index decode( ByteBuffer header, int numBlocks ) throws IOException
+		{
+			if ( header.getInt() != MAGIC || header.getInt() != numBlocks )
+				throw new IOException( "Not a shard of " + numBlocks + " chunks" );
+
+			final long[] offsets = new long[ numBlocks ];
+			final int[] lengths = new int[ numBlocks ];
+			for ( int i = 0; i < numBlocks; i++ )
+			{
+				offsets[ i ] = header.getLong();
+				lengths[ i ] = header.getInt();
+			}
+			return new Index( offsets, lengths );
+		}
+	}
+
+	/**
+	 * The shard sizes of the datasets of a container, for readers without
+	 * a metadata cache, such that the attributes are not read for every chunk.
+	 */
+	public static class ShardSizes
+	{
+		private static final int[] NOT_SHARDED = new int[ 0 ];
+
+		private final Map< String, int[] > shardSizes = new ConcurrentHashMap<>();
+
+		/**
+		 * @see Shards#getShardSize
+		 */
+		public int[] get( N5Reader n5, String pathName ) throws IOException
+		{
+			int[] shardSize = shardSizes.get( pathName );
+			if ( shardSize == null )
+			{
+				shardSize = getShardSize( n5, pathName );
+				if ( shardSize == null )
+					shardSize = NOT_SHARDED;
+				shardSizes.put( pathName, shardSize );
+			}
+			return shardSize == NOT_SHARDED ? null : shardSize;
+		}
+
+		public void invalidate( String pathName )
+		{
+			shardSizes.remove( pathName );
+		}
+	}
+
+	/**
+	 * @return the number of chunks per shard in each dimension,
+	 * or null if the chunks of the dataset are not sharded
+	 */
+	public static int[] getShardSize( N5Reader n5, String pathName ) throws IOException
+	{
+		return n5.getAttribute( pathName, SHARD_SIZE_KEY, int[].class );
+	}
+
+	/**
+	 * @return the compression attribute of a sharded N5 dataset,
+	 * which wraps the given compression of its chunks
+	 */
+	public static JsonObject wrapN5Compression( JsonElement compression )
+	{
+		final JsonObject wrapped = new JsonObject();
+		wrapped.addProperty( "type", COMPRESSION_TYPE );
+		wrapped.add( N5_COMPRESSION_KEY, unwrapN5Compression( compression ) );
+		return wrapped;
+	}
+
+	/**
+	 * @return the compression of the chunks of an N5 dataset
+	 */
+	public static JsonElement unwrapN5Compression( JsonElement compression )
+	{
+		return isWrappedN5Compression( compression ) ? compression.getAsJsonObject().get( N5_COMPRESSION_KEY ) : compression;
+	}
+
+	private static boolean isWrappedN5Compression( JsonElement compression )
+	{
+		return compression != null && compression.isJsonObject()
+				&& compression.getAsJsonObject().has( "type" )
+				&& COMPRESSION_TYPE.equals( compression.getAsJsonObject().get( "type" ).getAsString() );
+	}
+
+	/**
+	 * @return the attributes of an N5 dataset whose compression is wrapped, see {@link #wrapN5Compression},
+	 * with the compression of its chunks, or null if its compression is not wrapped
+	 */
+	public static DatasetAttributes getN5DatasetAttributes( Map< String, JsonElement > attributes, Gson gson )
+	{
+		final JsonElement compression = attributes.get( N5_COMPRESSION_KEY );
+		if ( ! isWrappedN5Compression( compression ) )
+			return null;
+
+		return new DatasetAttributes(
+				gson.fromJson( attributes.get( "dimensions" ), long[].class ),
+				gson.fromJson( attributes.get( "blockSize" ), int[].class ),
+				DataType.fromString( attributes.get( "dataType" ).getAsString() ),
+				gson.fromJson( unwrapN5Compression( compression ), Compression.class ) );
+	}
+
+	public static int getNumBlocks( int[] shardSize )
+	{
+		long numBlocks = 1;
+		for ( int size : shardSize )
+			numBlocks *= size;
+
+		if ( numBlocks > ( Integer.MAX_VALUE - 2 * Integer.BYTES ) / INDEX_ENTRY_SIZE )
+			throw new IllegalArgumentException( "Too many chunks per shard: " + numBlocks );
+
+		return ( int ) numBlocks;
+	}
+
+	public static long[] getShardPosition( long[] gridPosition, int[] shardSize )
+	{
+		final long[] shardPosition = new long[ gridPosition.length ];
+		for ( int d = 0; d < gridPosition.length; d++ )
+			shardPosition[ d ] = gridPosition[ d ] / shardSize[ d ];
+		return shardPosition;
+	}
+
+	/**
+	 * @return the index of a chunk within its shard
+	 */
+	public static int getBlockIndex( long[] gridPosition, int[] shardSize )
+	{
+		int blockIndex = 0;
+		for ( int d = gridPosition.length - 1; d >= 0; d-- )
+			blockIndex = blockIndex * shardSize[ d ] + ( int ) ( gridPosition[ d ] % shardSize[ d ] );
+		return blockIndex;
+	}
+
+	/**
+	 * @return the grid position of the chunk with the given index in a shard
+	 */
+	public static long[] getGridPosition( long[] shardPosition, int[] shardSize, int blockIndex )
+	{
+		final long[] gridPosition = new long[ shardPosition.length ];
+		for ( int d = 0; d < shardPosition.length; d++ )
+		{
+			gridPosition[ d ] = shardPosition[ d ] * shardSize[ d ] + blockIndex % shardSize[ d ];
+			blockIndex /= shardSize[ d ];
+		}
+		return gridPosition;
+	}
+
+	/**
+	 * @return the number of chunks of the shard that are inside of the dataset;
+	 * shards at the border of the dataset are smaller
+	 */
+	public static int getNumBlocksInGrid( long[] shardPosition, int[] shardSize, long[] gridDimensions )
+	{
+		int numBlocks = 1;
+		for ( int d = 0; d < shardPosition.length; d++ )
+			numBlocks *= ( int ) Math.min( shardSize[ d ], gridDimensions[ d ] - shardPosition[ d ] * shardSize[ d ] );
+		return numBlocks;
+	}
+
+	/**
+	 * @param chunkPath
+	 * 			the path of a chunk at the position of the shard, e.g. "1/0/2"
+	 * @return the path of the shard within the dataset
+	 */
+	public static String getShardPath( String chunkPath )
+	{
+		return DIRECTORY_NAME + "/" + chunkPath;
+	}
+
+	/**
+	 * @return the path of a chunk within an N5 dataset, e.g. "1/0/2"
+	 */
+	public static String getN5ChunkPath( long[] gridPosition )
+	{
+		final StringBuilder builder = new StringBuilder();
+		for ( int d = 0; d < gridPosition.length; d++ )
+			builder.append( d == 0 ? "" : "/" ).append( gridPosition[ d ] );
+		return builder.toString();
+	}
+
+	public static int getIndexSize( int numBlocks )
+	{
+		return 2 * Integer.BYTES + numBlocks * INDEX_ENTRY_SIZE;
+	}
+
+	/**
+	 * A cache for the indices of shards that are fetched from S3.
+	 */
+	public static Map< String, Index > createIndexCache()
+	{
+		return Collections.synchronizedMap( new LinkedHashMap< String, Index >( 16, 0.75f, true )
+		{
+			@Override
+			protected boolean removeEldestEntry( Map.Entry< String, Index > eldest )
+			{
+				return size() > MAX_NUM_CACHED_INDICES;
+			}
+		} );
+	}
+
+	/**
+	 * Reads a chunk of a shard in the file system. The shard is not locked,
+	 * as {@link #writeBlocks} replaces shards as a whole; a reader sees
+	 * either the previous or the new shard.
+	 *
+	 * @return the encoded chunk, or null if the shard or the chunk does not exist
+	 */
+	public static byte[] readBlock( File shardFile, int blockIndex, int numBlocks ) throws IOException
+	{
+		if ( ! shardFile.isFile() ) return null;
+
+		try ( FileChannel channel = FileChannel.open( shardFile.toPath(), StandardOpenOption.READ ) )
+		{
+			final Index index = readIndex( channel, numBlocks );
+			if ( index == null || ! index.contains( blockIndex ) ) return null;
+
+			return read( channel, index.getOffset( blockIndex ), index.getLength( blockIndex ) );
+		}
+	}
+
+	/**
+	 * Reads a chunk of a shard in S3 with byte-range requests for the index and the chunk.
+	 * The index of an existing shard is kept in the given cache together with the ETag
+	 * of the shard, and fetched again after {@link DiskBlockCache#MAX_AGE_MILLIS}.
+	 * The chunk is kept in the {@link DiskBlockCache} under the ETag of the shard,
+	 * and only fetched if the shard still has that ETag; otherwise the index is
+	 * fetched again.
+	 *
+	 * @return the encoded chunk, or null if the shard or the chunk does not exist
+	 */
+	public static byte[] readBlock( AmazonS3 s3, String bucketName, String shardKey, int blockIndex, int numBlocks, Map< String, Index > indexCache ) throws IOException
+	{
+		Index index = indexCache.get( shardKey );
+		if ( index == null || System.currentTimeMillis() - index.fetchTime > DiskBlockCache.MAX_AGE_MILLIS )
+			index = fetchIndex( s3, bucketName, shardKey, numBlocks, indexCache );
+
+		if ( ! index.contains( blockIndex ) ) return null;
+
+		final byte[] block = readRange( s3, bucketName, shardKey, index, blockIndex );
+		if ( block != null ) return block;
+
+		// the shard changed since its index was fetched
+		index = fetchIndex( s3, bucketName, shardKey, numBlocks, indexCache );
+		if ( ! index.contains( blockIndex ) ) return null;
+
+		final byte[] changedBlock = readRange( s3, bucketName, shardKey, index, blockIndex );
+		if ( changedBlock == null )
+			throw new IOException( "Shard " + shardKey + " keeps changing while reading chunk " + blockIndex );
+		return changedBlock;
+	}
+
+	/**
+	 * Writes chunks into a shard, keeping the chunks of an existing shard
+	 * that are not given. No shard is created for chunks that are all removed.
+	 *
+	 * The new shard is written to a temporary file, which then replaces the
+	 * shard, such that a crash never loses the chunks of the previous shard.
+	 * Writers of the same shard in this JVM are serialised; writers in other
+	 * processes must write other shards.
+	 *
+	 * @param blocks
+	 * 			the encoded chunks by their index in the shard;
+	 * 			null removes the chunk from the shard
+	 */
+	public static void writeBlocks( File shardFile, Map< Integer, byte[] > blocks, int numBlocks ) throws IOException
+	{
+		if ( ! shardFile.exists() && blocks.values().stream().allMatch( block -> block == null ) )
+			return;
+
+		final File directory = shardFile.getParentFile();
+		Files.createDirectories( directory.toPath() );
+
+		synchronized ( getWriteLock( shardFile ) )
+		{
+			final byte[][] shardBlocks = new byte[ numBlocks ][];
+
+			// a shard whose chunks are all given is not read
+			if ( blocks.size() < numBlocks && shardFile.exists() )
+			{
+				try ( FileChannel channel = FileChannel.open( shardFile.toPath(), StandardOpenOption.READ ) )
+				{
+					final Index index = readIndex( channel, numBlocks );
+					if ( index != null )
+						for ( int i = 0; i < numBlocks; i++ )
+							if ( index.contains( i ) && ! blocks.containsKey( i ) )
+								shardBlocks[ i ] = read( channel, index.getOffset( i ), index.getLength( i ) );
+				}
+			}
+
+			for ( Map.Entry< Integer, byte[] > block : blocks.entrySet() )
+				shardBlocks[ block.getKey() ] = block.getValue();
+
+			// the prefix must have at least three characters, shards of N5 datasets are named e.g. "0"
+			final File tmpFile = File.createTempFile( "." + shardFile.getName() + ".", ".tmp", directory );
+			try
+			{
+				try ( FileChannel channel = FileChannel.open( tmpFile.toPath(), StandardOpenOption.WRITE ) )
+				{
+					write( channel, shardBlocks );
+					channel.force( true );
+				}
+				Files.move( tmpFile.toPath(), shardFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+			}
+			catch ( IOException e )
+			{
+				tmpFile.delete();
+				throw e;
+			}
+		}
+	}
+
+	private static Object getWriteLock( File shardFile )
+	{
+		final int hash = shardFile.getAbsoluteFile().toPath().normalize().hashCode();
+		return WRITE_LOCKS[ Math.floorMod( hash, WRITE_LOCKS.length ) ];
+	}
+
+	private static void write( FileChannel channel, byte[][] blocks ) throws IOException
+	{
+		final ByteBuffer header = ByteBuffer.allocate( getIndexSize( blocks.length ) );
+		header.putInt( MAGIC );
+		header.putInt( blocks.length );
+		long offset = header.capacity();
+		for ( byte[] block : blocks )
+		{
+			final int length = block == null ? 0 : block.length;
+			header.putLong( length == 0 ? 0 : offset );
+			header.putInt( length );
+			offset += length;
+		}
+		header.flip();
+
+		channel.position( 0 );
+		while ( header.hasRemaining() )
+			channel.write( header );
+		for ( byte[] block : blocks )
+		{
+			if ( block == null ) continue;
+			final ByteBuffer buffer = ByteBuffer.wrap( block );
+			while ( buffer.hasRemaining() )
+				channel.write( buffer );
+		}
+	}
+
+	// null for a new, empty file
+	private static Index readIndex( FileChannel channel, int numBlocks ) throws IOException
+	{
+		if ( channel.size() == 0 ) return null;
+
+		return Index.decode( ByteBuffer.wrap( read( channel, 0, getIndexSize( numBlocks ) ) ), numBlocks );
+	}
+
+	private static byte[] read( FileChannel channel, long offset, int length ) throws IOException
+	{
+		final ByteBuffer buffer = ByteBuffer.allocate( length );
+		while ( buffer.hasRemaining() )
+			if ( channel.read( buffer, offset + buffer.position() ) < 0 )
+				throw new EOFException( "Shard ends before " + ( offset + length ) + " bytes" );
+		return buffer.array();
+	}
+
+	// an empty index if the shard does not exist, which is not cached, as the shard may be written later
+	private static Index fetchIndex( AmazonS3 s3, String bucketName, String shardKey, int numBlocks, Map< String, Index > indexCache ) throws IOException
+	{
+		final GetObjectRequest request = new GetObjectRequest( bucketName, shardKey ).withRange( 0, getIndexSize( numBlocks ) - 1 );
+
+		final Index index;
+		try ( S3Object object = s3.getObject( request ); InputStream in = object.getObjectContent() )
+		{
+			index = Index.decode( ByteBuffer.wrap( readFully( in ) ), numBlocks );
+			index.eTag = object.getObjectMetadata().getETag();
+		}
+		catch ( AmazonS3Exception e )
+		{
+			if ( ! isMissing( e ) ) throw e;
+			indexCache.remove( shardKey );
+			return Index.empty();
+		}
+
+		index.fetchTime = System.currentTimeMillis();
+		indexCache.put( shardKey, index );
+		return index;
+	}
+
+	/**
+	 * @return the chunk, or null if the shard no longer has the ETag of the index
+	 */
+	private static byte[] readRange( AmazonS3 s3, String bucketName, String shardKey, Index index, int blockIndex ) throws IOException
+	{
+		final long offset = index.getOffset( blockIndex );
+		final int length = index.getLength( blockIndex );
+
+		// the chunks of a shard with a given ETag never change, so a cached chunk is always valid
+		final DiskBlockCache.BlockFetcher fetcher = cachedETag ->
+		{
+			if ( cachedETag != null && cachedETag.equals( index.eTag ) ) return null;
+
+			final byte[] block = fetchRange( s3, bucketName, shardKey, index.eTag, offset, length );
+			if ( block == null ) throw new ShardChangedException();
+			return new DiskBlockCache.Block( block, index.eTag );
+		};
+
+		try
+		{
+			final DiskBlockCache diskBlockCache = DiskBlockCache.getInstance();
+			if ( diskBlockCache == null )
+				return fetchRange( s3, bucketName, shardKey, index.eTag, offset, length );
+
+			final String rangeKey = s3.getUrl( bucketName, shardKey ) + "#" + index.eTag + "#" + offset + "-" + length;
+			try ( InputStream in = diskBlockCache.get( rangeKey, fetcher ) )
+			{
+				return readFully( in );
+			}
+		}
+		catch ( ShardChangedException e )
+		{
+			return null;
+		}
+		catch ( AmazonS3Exception e )
+		{
+			// the shard was removed since its index was fetched
+			if ( isMissing( e ) ) return null;
+			throw e;
+		}
+	}
+
+	// null if the object does not have the given ETag anymore
+	private static byte[] fetchRange( AmazonS3 s3, String bucketName, String key, String eTag, long offset, int length ) throws IOException
+	{
+		final GetObjectRequest request = new GetObjectRequest( bucketName, key ).withRange( offset, offset + length - 1 );
+		if ( eTag != null )
+			request.setMatchingETagConstraints( Collections.singletonList( eTag ) );
+
+		try ( S3Object object = s3.getObject( request ) )
+		{
+			if ( object == null ) return null;
+
+			try ( InputStream in = object.getObjectContent() )
+			{
+				return readFully( in );
+			}
+		}
+	}
+
+	private static boolean isMissing( AmazonS3Exception e )
+	{
+		return "NoSuchKey".equals( e.getErrorCode() ) || e.getStatusCode() == 404;
+	}
+
+	private static class ShardChangedException extends IOException
+	{
+	}
+
+	private static byte[] readFully( InputStream in ) throws IOException
+	{
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[ 16 * 1024 ];
+		int numBytes;
+		while ( ( numBytes = in.read( buffer ) ) > 0 )
+			out.write( buffer, 0, numBytes );
+		return out.toByteArray();
+	}
+}
@@ -36,6 +36,9 @@ import bdv.img.cache.SimpleCacheArrayLoader;
 import bdv.img.cache.VolatileGlobalCellCache;
 import bdv.util.ConstantRandomAccessible;
 import bdv.util.MipmapTransforms;
+import de.embl.cba.mobie.ThreadUtils;
+import de.embl.cba.mobie.n5.ChunkIndex;
+import de.embl.cba.mobie.n5.N5ImageLoader;
 import mpicbg.spim.data.generic.sequence.AbstractSequenceDescription;
 import mpicbg.spim.data.generic.sequence.BasicViewSetup;
 import mpicbg.spim.data.generic.sequence.ImgLoaderHint;
@@ -43,8 +46,6 @@ import mpicbg.spim.data.registration.ViewRegistration;
 import mpicbg.spim.data.registration.ViewRegistrations;
 import mpicbg.spim.data.sequence.*;
 import net.imglib2.*;
-import net.imglib2.cache.queue.BlockingFetchQueues;
-import net.imglib2.cache.queue.FetcherThreads;
 import net.imglib2.cache.volatiles.CacheHints;
 import net.imglib2.cache.volatiles.LoadingStrategy;
 import net.imglib2.img.basictypeaccess.volatiles.array.*;
@@ -63,8 +64,9 @@ import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.Callable;
-import java.util.function.Function;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 // TODO: avoid code duplication!
 //  Check N5OMEZarrImageLoader and N5ImageLoader
@@ -80,6 +82,11 @@ public class OpenOrganelleN5ImageLoader implements ViewerImgLoader, MultiResolut
 	 */
 	private final Map< Integer, SetupImgLoader > setupImgLoaders = new HashMap<>();
 
+	/**
+	 * Maps dataset path to its {@link ChunkIndex}, which is loaded once per dataset.
+	 */
+	private final Map< String, CompletableFuture< ChunkIndex > > pathNameToChunkIndex = new ConcurrentHashMap<>();
+
 	private final Map< Integer, String > setupToPathname = new HashMap<>(  );
 	private final Map< Integer, Multiscale > setupToMultiscale = new HashMap<>(  );
 	private final Map< Integer, DatasetAttributes > setupToAttributes = new HashMap<>(  );
@@ -87,8 +94,13 @@ public class OpenOrganelleN5ImageLoader implements ViewerImgLoader, MultiResolut
 	private final Map< Integer, double[][] > setupToScales = new HashMap<>();
 
 	private volatile boolean isOpen = false;
-	private FetcherThreads fetchers;
-	private VolatileGlobalCellCache cache;
+	private volatile VolatileGlobalCellCache cache;
+
+	/**
+	 * Set when this loader is closed; shared with the array loaders of the
+	 * current cache, such that their queued requests are dropped.
+	 */
+	private volatile AtomicBoolean isClosed = new AtomicBoolean();
 	private int sequenceTimepoints = 0;
 
 	/**
@@ -265,22 +277,17 @@ public class OpenOrganelleN5ImageLoader implements ViewerImgLoader, MultiResolut
 
 				try
 				{
-					int maxNumLevels = 0;
 					final List< ? extends BasicViewSetup > setups = seq.getViewSetupsOrdered();
 					for ( final BasicViewSetup setup : setups )
 					{
 						final int setupId = setup.getId();
 						final SetupImgLoader setupImgLoader = createSetupImgLoader( setupId );
 						setupImgLoaders.put( setupId, setupImgLoader );
-						if (setupImgLoader != null) {
-							maxNumLevels = Math.max( maxNumLevels, setupImgLoader.numMipmapLevels() );
-						}
 					}
 
-					final int numFetcherThreads = Math.max( 1, Runtime.getRuntime().availableProcessors() );
-					final BlockingFetchQueues< Callable< ? > > queue = new BlockingFetchQueues<>( maxNumLevels, numFetcherThreads );
-					fetchers = new FetcherThreads( queue, numFetcherThreads );
-					cache = new VolatileGlobalCellCache( queue );
+					// all loaders share the fetcher threads, see ThreadUtils
+					cache = new VolatileGlobalCellCache( ThreadUtils.getFetchQueue() );
+					isClosed = new AtomicBoolean();
 				}
 				catch ( IOException e )
 				{
@@ -374,10 +381,13 @@ public class OpenOrganelleN5ImageLoader implements ViewerImgLoader, MultiResolut
 	}
 
 	/**
-	 * Clear the cache. Images that were obtained from
-	 * this loader before {@link #close()} will stop working. Requesting images
-	 * after {@link #close()} will cause the n5 to be reopened (with a
-	 * new cache).
+	 * Release the cache. The cache is not cleared, as that would also clear
+	 * the requests of all other loaders from the shared fetch queue, see
+	 * {@link ThreadUtils#getFetchQueue()}. Instead, the requests of this loader
+	 * that are still queued are dropped without reading, and the cells of the
+	 * cache are garbage collected once the images that were obtained from this
+	 * loader before {@link #close()} are no longer used. Requesting images
+	 * after {@link #close()} will cause the n5 to be reopened (with a new cache).
 	 */
 	public void close()
 	{
@@ -387,8 +397,8 @@ public class OpenOrganelleN5ImageLoader implements ViewerImgLoader, MultiResolut
 			{
 				if ( !isOpen )
 					return;
-				fetchers.shutdown();
-				cache.clearCache();
+				isClosed.set( true );
+				pathNameToChunkIndex.clear();
 				isOpen = false;
 			}
 		}
@@ -529,6 +539,16 @@ public class OpenOrganelleN5ImageLoader implements ViewerImgLoader, MultiResolut
 		 */
 		private < T extends NativeType< T > > RandomAccessibleInterval< T > prepareCachedImage( final int timepointId, final int level, final LoadingStrategy loadingStrategy, final T type )
 		{
+			// the loader may have been closed since this setup loader was obtained
+			final VolatileGlobalCellCache cache;
+			final AtomicBoolean isClosed;
+			synchronized ( OpenOrganelleN5ImageLoader.this )
+			{
+				open();
+				cache = OpenOrganelleN5ImageLoader.this.cache;
+				isClosed = OpenOrganelleN5ImageLoader.this.isClosed;
+			}
+
 			try
 			{
 				final String pathName = getPathName( setupId, level );
@@ -547,7 +567,8 @@ public class OpenOrganelleN5ImageLoader implements ViewerImgLoader, MultiResolut
 				final int priority = numMipmapLevels() - 1 - level;
 				final CacheHints cacheHints = new CacheHints( loadingStrategy, priority, false );
 
-				final SimpleCacheArrayLoader< ? > loader = createCacheArrayLoader( n5, pathName );
+				final CompletableFuture< ChunkIndex > chunkIndex = pathNameToChunkIndex.computeIfAbsent( pathName, p -> ChunkIndex.load( n5, p, attributes ) );
+				final SimpleCacheArrayLoader< ? > loader = N5ImageLoader.createCacheArrayLoader( n5, pathName, chunkIndex, isClosed );
 				return cache.createImg( grid, timepointId, setupId, level, cacheHints, loader, type );
 			}
 			catch ( IOException e )
@@ -562,102 +583,8 @@ public class OpenOrganelleN5ImageLoader implements ViewerImgLoader, MultiResolut
 		}
 	}
 
-	private static class N5CacheArrayLoader< A > implements SimpleCacheArrayLoader< A >
-	{
-		private final N5Reader n5;
-		private final String pathName;
-		private final DatasetAttributes attributes;
-		private final Function< DataBlock< ? >, A > createArray;
-
-		N5CacheArrayLoader( final N5Reader n5, final String pathName, final DatasetAttributes attributes, final Function< DataBlock< ? >, A > createArray )
-		{
-			this.n5 = n5;
-			this.pathName = pathName;
-			this.attributes = attributes;
-			this.createArray = createArray;
-		}
-
-		@Override
-		public A loadArray( final long[] gridPosition ) throws IOException
-		{
-			DataBlock< ? > block = null;
-
-			try {
-				block = n5.readBlock( pathName, attributes, gridPosition );
-			}
-			catch ( Exception e )
-			{
-				System.err.println( "Error loading " + pathName + " at block " + Arrays.toString( gridPosition ) + ": " + e );
-			}
-
-//			if ( block != null )
-//				System.out.println( pathName + " " + Arrays.toString( gridPosition ) + " " + block.getNumElements() );
-//			else
-//				System.out.println( pathName + " " + Arrays.toString( gridPosition ) + " NaN" );
-
-
-			if ( block == null )
-			{
-				final int[] blockSize = attributes.getBlockSize();
-				final int n = blockSize[ 0 ] * blockSize[ 1 ] * blockSize[ 2 ];
-				switch ( attributes.getDataType() )
-				{
-					case UINT8:
-					case INT8:
-						return createArray.apply( new ByteArrayDataBlock( blockSize, gridPosition, new byte[ n ] ) );
-					case UINT16:
-					case INT16:
-						return createArray.apply( new ShortArrayDataBlock( blockSize, gridPosition, new short[ n ] ) );
-					case UINT32:
-					case INT32:
-						return createArray.apply( new IntArrayDataBlock( blockSize, gridPosition, new int[ n ] ) );
-					case UINT64:
-					case INT64:
-						return createArray.apply( new LongArrayDataBlock( blockSize, gridPosition, new long[ n ] ) );
-					case FLOAT32:
-						return createArray.apply( new FloatArrayDataBlock( blockSize, gridPosition, new float[ n ] ) );
-					case FLOAT64:
-						return createArray.apply( new DoubleArrayDataBlock( blockSize, gridPosition, new double[ n ] ) );
-					default:
-						throw new IllegalArgumentException();
-				}
-			}
-			else
-			{
-				return createArray.apply( block );
-			}
-		}
-	}
-
 	public static SimpleCacheArrayLoader< ? > createCacheArrayLoader( final N5Reader n5, final String pathName ) throws IOException
 	{
-		final DatasetAttributes attributes = n5.getDatasetAttributes( pathName );
-		switch ( attributes.getDataType() )
-		{
-			case UINT8:
-			case INT8:
-				return new N5CacheArrayLoader<>( n5, pathName, attributes,
-						dataBlock -> new VolatileByteArray( Cast.unchecked( dataBlock.getData() ), true ) );
-			case UINT16:
-			case INT16:
-				return new N5CacheArrayLoader<>( n5, pathName, attributes,
-						dataBlock -> new VolatileShortArray( Cast.unchecked( dataBlock.getData() ), true ) );
-			case UINT32:
-			case INT32:
-				return new N5CacheArrayLoader<>( n5, pathName, attributes,
-						dataBlock -> new VolatileIntArray( Cast.unchecked( dataBlock.getData() ), true ) );
-			case UINT64:
-			case INT64:
-				return new N5CacheArrayLoader<>( n5, pathName, attributes,
-						dataBlock -> new VolatileLongArray( Cast.unchecked( dataBlock.getData() ), true ) );
-			case FLOAT32:
-				return new N5CacheArrayLoader<>( n5, pathName, attributes,
-						dataBlock -> new VolatileFloatArray( Cast.unchecked( dataBlock.getData() ), true ) );
-			case FLOAT64:
-				return new N5CacheArrayLoader<>( n5, pathName, attributes,
-						dataBlock -> new VolatileDoubleArray( Cast.unchecked( dataBlock.getData() ), true ) );
-			default:
-				throw new IllegalArgumentException();
-		}
+		return N5ImageLoader.createCacheArrayLoader( n5, pathName );
 	}
 }
@@ -34,6 +34,7 @@ import com.amazonaws.auth.AnonymousAWSCredentials;
 import com.amazonaws.client.builder.AwsClientBuilder;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import de.embl.cba.mobie.n5.CachingN5AmazonS3Reader;
 import de.embl.cba.mobie.n5.S3ImageLoader;
 import mpicbg.spim.data.generic.sequence.AbstractSequenceDescription;
 import org.janelia.saalfeldlab.n5.s3.N5AmazonS3Reader;
@@ -63,7 +64,7 @@ public class OpenOrganelleN5S3ImageLoader extends OpenOrganelleN5ImageLoader imp
                     .withCredentials(new AWSStaticCredentialsProvider( new AnonymousAWSCredentials() ))
                     .build();
 
-            return new N5AmazonS3Reader( s3, bucketName, key );
+            return new CachingN5AmazonS3Reader( s3, bucketName, key );
         }
     }
 
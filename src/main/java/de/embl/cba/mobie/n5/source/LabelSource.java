@@ -3,6 +3,7 @@ package de.embl.cba.mobie.n5.source;
 import bdv.util.DefaultInterpolators;
 import bdv.viewer.Interpolation;
 import bdv.viewer.Source;
+import de.embl.cba.mobie.source.SourceWrapper;
 import de.embl.cba.lazyalgorithm.RandomAccessibleIntervalFilter;
 import mpicbg.spim.data.sequence.VoxelDimensions;
 import net.imglib2.RandomAccessibleInterval;
@@ -24,7 +25,7 @@ import net.imglib2.view.Views;
  * @param <T>
  *            the type of the original source.
  */
-public class LabelSource< T extends NumericType< T > & RealType< T > > implements Source< T >
+public class LabelSource< T extends NumericType< T > & RealType< T > > implements Source< T >, SourceWrapper< T >
 {
 	protected final Source< T > source;
 	private final DefaultInterpolators< T > interpolators;
@@ -43,6 +44,12 @@ public class LabelSource< T extends NumericType< T > & RealType< T > > implement
 		this.boundaryWidth = boundaryWidth;
 	}
 
+	@Override
+	public Source< T > getWrappedSource()
+	{
+		return source;
+	}
+
 	@Override
 	public boolean doBoundingBoxCulling()
 	{
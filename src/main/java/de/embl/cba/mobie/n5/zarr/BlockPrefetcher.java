@@ -0,0 +1,175 @@
+package de.embl.cba.mobie.n5.zarr;
+
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.N5Reader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Reads data blocks ahead of the requests of the {@link bdv.img.cache.VolatileGlobalCellCache}.
+ * <p>
+ * Blocks that are predicted to be needed soon are submitted as one batch
+ * and read in parallel. When a block is then requested, it is either
+ * taken from the finished prefetch, the caller waits for the running read,
+ * or the caller reads it itself if the prefetch has not started yet.
+ * <p>
+ * Only the most recent {@link #maxNumPending} prefetches are kept; older ones
+ * are dropped, such that prefetches for regions that the viewer already
+ * left do not delay the ones for the current region.
+ * <p>
+ * Blocks that were read recently, and thus are in the cell cache, or are
+ * being read, are not prefetched again.
+ */
+public class BlockPrefetcher {
+	private static final int MAX_NUM_LOADED = 16384;
+
+	private final N5Reader n5;
+	private final ExecutorService executorService;
+	private final int maxNumPending;
+	private final LinkedHashMap<BlockKey, Prefetch> pending = new LinkedHashMap<>();
+	private final LinkedHashMap<BlockKey, Boolean> loaded = new LinkedHashMap<BlockKey, Boolean>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<BlockKey, Boolean> eldest) {
+			return size() > MAX_NUM_LOADED;
+		}
+	};
+
+	/**
+	 * @param executorService
+	 * 			may be shared with other prefetchers, it is not shut down by this one
+	 */
+	public BlockPrefetcher(N5Reader n5, ExecutorService executorService, int maxNumPending) {
+		this.n5 = n5;
+		this.maxNumPending = maxNumPending;
+		this.executorService = executorService;
+	}
+
+	public DataBlock<?> readBlock(String pathName, DatasetAttributes attributes, long[] gridPosition) throws IOException {
+		final BlockKey key = new BlockKey(pathName, gridPosition);
+		final Prefetch prefetch;
+		synchronized (this) {
+			prefetch = pending.remove(key);
+			loaded.put(key, Boolean.TRUE);
+		}
+
+		if (prefetch == null || prefetch.claim())
+			return n5.readBlock(pathName, attributes, gridPosition);
+
+		try {
+			return prefetch.block.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+
+	public void prefetch(String pathName, DatasetAttributes attributes, List<long[]> gridPositions) {
+		final List<Prefetch> submit = new ArrayList<>();
+
+		synchronized (this) {
+			for (long[] gridPosition : gridPositions) {
+				final BlockKey key = new BlockKey(pathName, gridPosition);
+				if (pending.containsKey(key) || loaded.containsKey(key)) continue;
+				final Prefetch prefetch = new Prefetch(pathName, attributes, gridPosition);
+				pending.put(key, prefetch);
+				submit.add(prefetch);
+			}
+
+			dropStale();
+		}
+
+		for (Prefetch prefetch : submit)
+			executorService.submit(prefetch);
+	}
+
+	private void dropStale() {
+		final Iterator<Map.Entry<BlockKey, Prefetch>> iterator = pending.entrySet().iterator();
+		while (pending.size() > maxNumPending && iterator.hasNext()) {
+			// claiming it prevents it from being read
+			iterator.next().getValue().claim();
+			iterator.remove();
+		}
+	}
+
+	public synchronized void clear() {
+		for (Prefetch prefetch : pending.values())
+			prefetch.claim();
+		pending.clear();
+		loaded.clear();
+	}
+
+	private class Prefetch implements Runnable {
+		private final String pathName;
+		private final DatasetAttributes attributes;
+		private final long[] gridPosition;
+		private final AtomicBoolean isClaimed = new AtomicBoolean(false);
+		private final CompletableFuture<DataBlock<?>> block = new CompletableFuture<>();
+
+		Prefetch(String pathName, DatasetAttributes attributes, long[] gridPosition) {
+			this.pathName = pathName;
+			this.attributes = attributes;
+			this.gridPosition = gridPosition;
+		}
+
+		/**
+		 * @return true if the block was not yet claimed for reading,
+		 * in which case the caller is responsible for it.
+		 */
+		boolean claim() {
+			return isClaimed.compareAndSet(false, true);
+		}
+
+		@Override
+		public void run() {
+			if (!claim()) return;
+
+			try {
+				block.complete(n5.readBlock(pathName, attributes, gridPosition));
+			} catch (Throwable e) {
+				block.completeExceptionally(e);
+			}
+		}
+	}
+
+	private static class BlockKey {
+		private final String pathName;
+		private final long[] gridPosition;
+		private final int hashCode;
+
+		BlockKey(String pathName, long[] gridPosition) {
+			this.pathName = pathName;
+			this.gridPosition = gridPosition;
+			this.hashCode = 31 * pathName.hashCode() + Arrays.hashCode(gridPosition);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (!(o instanceof BlockKey)) return false;
+			final BlockKey other = (BlockKey) o;
+			return pathName.equals(other.pathName) && Arrays.equals(gridPosition, other.gridPosition);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+	}
+}
@@ -37,6 +37,8 @@ import bdv.img.cache.VolatileGlobalCellCache;
 import bdv.util.ConstantRandomAccessible;
 import bdv.util.MipmapTransforms;
 import com.amazonaws.SdkClientException;
+import de.embl.cba.mobie.ThreadUtils;
+import de.embl.cba.mobie.n5.ChunkIndex;
 import mpicbg.spim.data.generic.sequence.AbstractSequenceDescription;
 import mpicbg.spim.data.generic.sequence.BasicViewSetup;
 import mpicbg.spim.data.generic.sequence.ImgLoaderHint;
@@ -44,8 +46,6 @@ import mpicbg.spim.data.registration.ViewRegistration;
 import mpicbg.spim.data.registration.ViewRegistrations;
 import mpicbg.spim.data.sequence.*;
 import net.imglib2.*;
-import net.imglib2.cache.queue.BlockingFetchQueues;
-import net.imglib2.cache.queue.FetcherThreads;
 import net.imglib2.cache.volatiles.CacheHints;
 import net.imglib2.cache.volatiles.LoadingStrategy;
 import net.imglib2.img.array.ArrayImg;
@@ -70,7 +70,9 @@ import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.BiConsumer;
 
 public class N5OMEZarrImageLoader implements ViewerImgLoader, MultiResolutionImgLoader {
@@ -80,6 +82,8 @@ public class N5OMEZarrImageLoader implements ViewerImgLoader, MultiResolutionImg
 	protected AbstractSequenceDescription<?, ?, ?> seq;
 	protected ViewRegistrations viewRegistrations;
 	public static boolean logChunkLoading = false;
+	public static boolean prefetchBlocks = true;
+	private static final int MAX_NUM_PENDING_PREFETCHES = 256;
 	private static boolean is5D = false;
 	private static boolean is4DC = false;
 	private static boolean is4DT = false;
@@ -91,9 +95,17 @@ public class N5OMEZarrImageLoader implements ViewerImgLoader, MultiResolutionImg
 	private final Map<Integer, SetupImgLoader> setupImgLoaders = new HashMap<>();
 
 	private volatile boolean isOpen = false;
-	private FetcherThreads fetchers;
-	private VolatileGlobalCellCache cache;
+	private volatile VolatileGlobalCellCache cache;
+	private volatile BlockPrefetcher prefetcher;
+
+	/**
+	 * Set when this loader is closed; shared with the array loaders of the
+	 * current cache, such that their queued requests are dropped.
+	 */
+	private volatile AtomicBoolean isClosed = new AtomicBoolean();
+
 	private final Map<Integer, String> setupToPathname = new HashMap<>();
+	private final Map<String, CompletableFuture<ChunkIndex>> pathNameToChunkIndex = new ConcurrentHashMap<>();
 	private final Map<Integer, Multiscale> setupToMultiscale = new HashMap<>();
 	private final Map<Integer, DatasetAttributes> setupToAttributes = new HashMap<>();
 	private final Map<Integer, Integer> setupToChannel = new HashMap<>();
@@ -282,19 +294,18 @@ public class N5OMEZarrImageLoader implements ViewerImgLoader, MultiResolutionImg
 					return;
 
 				try {
-					int maxNumLevels = 0;
 					final List<? extends BasicViewSetup> setups = seq.getViewSetupsOrdered();
 					for (final BasicViewSetup setup : setups) {
 						final int setupId = setup.getId();
 						final SetupImgLoader setupImgLoader = createSetupImgLoader(setupId);
 						setupImgLoaders.put(setupId, setupImgLoader);
-						maxNumLevels = Math.max(maxNumLevels, setupImgLoader.numMipmapLevels());
 					}
 
-					final int numFetcherThreads = Math.max(1, Runtime.getRuntime().availableProcessors());
-					final BlockingFetchQueues<Callable<?>> queue = new BlockingFetchQueues<>(maxNumLevels, numFetcherThreads);
-					fetchers = new FetcherThreads(queue, numFetcherThreads);
-					cache = new VolatileGlobalCellCache(queue);
+					// all loaders share the fetcher threads, see ThreadUtils
+					cache = new VolatileGlobalCellCache(ThreadUtils.getFetchQueue());
+					isClosed = new AtomicBoolean();
+					if (prefetchBlocks)
+						prefetcher = new BlockPrefetcher(n5, ThreadUtils.getPrefetchExecutorService(), MAX_NUM_PENDING_PREFETCHES);
 				} catch (IOException e) {
 					throw new RuntimeException(e);
 				}
@@ -379,18 +390,25 @@ public class N5OMEZarrImageLoader implements ViewerImgLoader, MultiResolutionImg
 	}
 
 	/**
-	 * Clear the cache. Images that were obtained from
-	 * this loader before {@link #close()} will stop working. Requesting images
-	 * after {@link #close()} will cause the n5 to be reopened (with a
-	 * new cache).
+	 * Release the cache. The cache is not cleared, as that would also clear
+	 * the requests of all other loaders from the shared fetch queue, see
+	 * {@link ThreadUtils#getFetchQueue()}. Instead, the requests of this loader
+	 * that are still queued are dropped without reading, and the cells of the
+	 * cache are garbage collected once the images that were obtained from this
+	 * loader before {@link #close()} are no longer used. Requesting images
+	 * after {@link #close()} will cause the n5 to be reopened (with a new cache).
 	 */
 	public void close() {
 		if (isOpen) {
 			synchronized (this) {
 				if (!isOpen)
 					return;
-				fetchers.shutdown();
-				cache.clearCache();
+				if (prefetcher != null) {
+					prefetcher.clear();
+					prefetcher = null;
+				}
+				isClosed.set(true);
+				pathNameToChunkIndex.clear();
 				isOpen = false;
 			}
 		}
@@ -539,6 +557,17 @@ public class N5OMEZarrImageLoader implements ViewerImgLoader, MultiResolutionImg
 		 * Create a {@link CellImg} backed by the cache.
 		 */
 		private <T extends NativeType<T>> RandomAccessibleInterval<T> prepareCachedImage(final int timepointId, final int level, final LoadingStrategy loadingStrategy, final T type) {
+			// the loader may have been closed since this setup loader was obtained
+			final VolatileGlobalCellCache cache;
+			final BlockPrefetcher prefetcher;
+			final AtomicBoolean isClosed;
+			synchronized (N5OMEZarrImageLoader.this) {
+				open();
+				cache = N5OMEZarrImageLoader.this.cache;
+				prefetcher = N5OMEZarrImageLoader.this.prefetcher;
+				isClosed = N5OMEZarrImageLoader.this.isClosed;
+			}
+
 			try {
 				final String pathName = getPathName(setupId, level);
 				final DatasetAttributes attributes = getDatasetAttributes(pathName);
@@ -553,7 +582,15 @@ public class N5OMEZarrImageLoader implements ViewerImgLoader, MultiResolutionImg
 				final int priority = numMipmapLevels() - 1 - level;
 				final CacheHints cacheHints = new CacheHints(loadingStrategy, priority, false);
 
-				final SimpleCacheArrayLoader<?> loader = createCacheArrayLoader(n5, pathName, setupToChannel.get(setupId), timepointId, grid);
+				final N5OMEZarrCacheArrayLoader<?> loader = createCacheArrayLoader(n5, pathName, setupToChannel.get(setupId), timepointId, grid, getChunkIndex(pathName, attributes), isClosed);
+				if (prefetcher != null) {
+					loader.setPrefetcher(prefetcher);
+					// the finer level is requested next, the coarser one when zooming out
+					if (level > 0)
+						loader.addRelatedLevel(createRelatedLevel(level, level - 1));
+					if (level < numMipmapLevels() - 1)
+						loader.addRelatedLevel(createRelatedLevel(level, level + 1));
+				}
 				return cache.createImg(grid, timepointId, setupId, level, cacheHints, loader, type);
 			} catch (IOException e) {
 				System.err.printf(
@@ -564,6 +601,43 @@ public class N5OMEZarrImageLoader implements ViewerImgLoader, MultiResolutionImg
 						new FinalInterval(1, 1, 1));
 			}
 		}
+
+		private RelatedLevel createRelatedLevel(int level, int relatedLevel) throws IOException {
+			final String pathName = getPathName(setupId, relatedLevel);
+			final DatasetAttributes attributes = getDatasetAttributes(pathName);
+			final CellGrid grid = new CellGrid(getDimensions(attributes), getBlockSize(attributes));
+			final double[] scale = new double[3];
+			for (int d = 0; d < 3; d++)
+				scale[d] = mipmapResolutions[level][d] / mipmapResolutions[relatedLevel][d];
+			return new RelatedLevel(pathName, attributes, grid, scale, getChunkIndex(pathName, attributes));
+		}
+	}
+
+	/**
+	 * The index of the existing chunks of a dataset, which is loaded once per dataset.
+	 */
+	private CompletableFuture<ChunkIndex> getChunkIndex(String pathName, DatasetAttributes attributes) {
+		return pathNameToChunkIndex.computeIfAbsent(pathName, p -> ChunkIndex.load(n5, p, attributes));
+	}
+
+	/**
+	 * Another resolution level of the same image,
+	 * whose blocks are prefetched along with the blocks of a level.
+	 */
+	private static class RelatedLevel {
+		private final String pathName;
+		private final DatasetAttributes attributes;
+		private final CellGrid grid;
+		private final double[] scale; // voxel coordinates of the level to the related level
+		private final CompletableFuture<ChunkIndex> chunkIndex;
+
+		RelatedLevel(String pathName, DatasetAttributes attributes, CellGrid grid, double[] scale, CompletableFuture<ChunkIndex> chunkIndex) {
+			this.pathName = pathName;
+			this.attributes = attributes;
+			this.grid = grid;
+			this.scale = scale;
+			this.chunkIndex = chunkIndex;
+		}
 	}
 
 	private long[] getDimensions(DatasetAttributes attributes) {
@@ -604,6 +678,8 @@ public class N5OMEZarrImageLoader implements ViewerImgLoader, MultiResolutionImg
 		private final CellGrid cellGrid;
 		private final DataType dataType;
 		private final BiConsumer<ArrayImg<T, ?>, DataBlock<?>> copyFromBlock;
+		// cells at the border of the image are smaller
+		private final Map<Integer, A> sizeToEmptyArray = new ConcurrentHashMap<>();
 
 		public ArrayCreator(CellGrid cellGrid, DataType dataType) {
 			this.cellGrid = cellGrid;
@@ -652,9 +728,16 @@ public class N5OMEZarrImageLoader implements ViewerImgLoader, MultiResolutionImg
 			}
 		}
 
-		public A createEmptyArray(long[] gridPosition) {
+		/**
+		 * All missing chunks of the same size share one array of zeros, as the cells are only read.
+		 */
+		public A getEmptyArray(long[] gridPosition) {
 			long[] cellDims = getCellDims(gridPosition);
 			int n = (int) (cellDims[0] * cellDims[1] * cellDims[2]);
+			return sizeToEmptyArray.computeIfAbsent(n, this::createEmptyArray);
+		}
+
+		private A createEmptyArray(int n) {
 			switch (dataType) {
 				case UINT8:
 				case INT8:
@@ -709,28 +792,61 @@ public class N5OMEZarrImageLoader implements ViewerImgLoader, MultiResolutionImg
 	}
 
 	private static class N5OMEZarrCacheArrayLoader<A> implements SimpleCacheArrayLoader<A> {
+		private static final int MAX_NUM_RELATED_LEVEL_BLOCKS = 8;
+
 		private final N5Reader n5;
 		private final String pathName;
 		private final int channel;
 		private final int timepoint;
 		private final DatasetAttributes attributes;
+		private final CellGrid grid;
 		private final ArrayCreator<A, ?> arrayCreator;
+		private final CompletableFuture<ChunkIndex> chunkIndex;
+		private final AtomicBoolean isClosed;
+		private final List<RelatedLevel> relatedLevels = new ArrayList<>();
+		private BlockPrefetcher prefetcher;
 
-		N5OMEZarrCacheArrayLoader(final N5Reader n5, final String pathName, final int channel, final int timepoint, final DatasetAttributes attributes, CellGrid grid) {
+		// for estimating the viewer plane from the sequence of requested blocks
+		private final double[] numAxisChanges = new double[3];
+		private long[] lastGridPosition;
+
+		N5OMEZarrCacheArrayLoader(final N5Reader n5, final String pathName, final int channel, final int timepoint, final DatasetAttributes attributes, CellGrid grid, CompletableFuture<ChunkIndex> chunkIndex, AtomicBoolean isClosed) {
 			this.n5 = n5;
 			this.pathName = pathName; // includes the level
 			this.channel = channel;
 			this.timepoint = timepoint;
 			this.attributes = attributes;
+			this.grid = grid;
 			this.arrayCreator = new ArrayCreator<>(grid, attributes.getDataType());
+			this.chunkIndex = chunkIndex;
+			this.isClosed = isClosed;
+		}
+
+		void setPrefetcher(BlockPrefetcher prefetcher) {
+			this.prefetcher = prefetcher;
+		}
+
+		void addRelatedLevel(RelatedLevel relatedLevel) {
+			relatedLevels.add(relatedLevel);
 		}
 
 		@Override
 		public A loadArray(final long[] gridPosition) throws IOException {
+			// requests that were still queued when the image loader was closed
+			if (isClosed.get())
+				return arrayCreator.getEmptyArray(gridPosition);
+
 			DataBlock<?> block = null;
 
 			long[] dataBlockIndices = toDataBlockIndices(gridPosition);
 
+			// until the index is loaded, missing chunks are found by reading them
+			if (!exists(chunkIndex, dataBlockIndices)) {
+				if (logChunkLoading)
+					System.out.println(pathName + " " + Arrays.toString(dataBlockIndices) + " is not in the chunk index, returning zeros.");
+				return arrayCreator.getEmptyArray(gridPosition);
+			}
+
 			long start = 0;
 			if (logChunkLoading) {
 				start = System.currentTimeMillis();
@@ -738,8 +854,13 @@ public class N5OMEZarrImageLoader implements ViewerImgLoader, MultiResolutionImg
 			}
 
 			try {
-				System.out.println("dataBlockIndices" + Arrays.toString(dataBlockIndices));
-				block = n5.readBlock(pathName, attributes, dataBlockIndices);
+				if (prefetcher != null) {
+					// submit the prefetches first, such that they are read while waiting for this block
+					prefetch(gridPosition);
+					block = prefetcher.readBlock(pathName, attributes, dataBlockIndices);
+				} else {
+					block = n5.readBlock(pathName, attributes, dataBlockIndices);
+				}
 			} catch (SdkClientException e) {
 				System.err.println(e); // this happens sometimes, not sure yet why...
 			}
@@ -752,12 +873,106 @@ public class N5OMEZarrImageLoader implements ViewerImgLoader, MultiResolutionImg
 			}
 
 			if (block == null) {
-				return arrayCreator.createEmptyArray(gridPosition);
+				return arrayCreator.getEmptyArray(gridPosition);
 			} else {
 				return arrayCreator.createArray(block, gridPosition);
 			}
 		}
 
+		/**
+		 * Prefetches the neighbouring blocks within the estimated viewer plane,
+		 * and the blocks covering the same region at the finer and coarser level.
+		 */
+		private void prefetch(long[] gridPosition) {
+			final int normal = updatePlaneNormal(gridPosition);
+
+			final List<long[]> neighbours = new ArrayList<>();
+			final long[] gridDimensions = grid.getGridDimensions();
+			for (int dz = -1; dz <= 1; dz++) {
+				for (int dy = -1; dy <= 1; dy++) {
+					for (int dx = -1; dx <= 1; dx++) {
+						final long[] offset = new long[]{dx, dy, dz};
+						final int numNonZero = Math.abs(dx) + Math.abs(dy) + Math.abs(dz);
+						if (numNonZero == 0) continue;
+						// within the plane the whole ring, otherwise only the faces
+						if (normal >= 0 ? offset[normal] != 0 : numNonZero > 1) continue;
+
+						final long[] neighbour = new long[3];
+						boolean isInside = true;
+						for (int d = 0; d < 3; d++) {
+							neighbour[d] = gridPosition[d] + offset[d];
+							isInside &= neighbour[d] >= 0 && neighbour[d] < gridDimensions[d];
+						}
+						if (isInside && exists(chunkIndex, toDataBlockIndices(neighbour)))
+							neighbours.add(toDataBlockIndices(neighbour));
+					}
+				}
+			}
+			prefetcher.prefetch(pathName, attributes, neighbours);
+
+			if (relatedLevels.isEmpty()) return;
+
+			final long[] cellMin = new long[3];
+			final int[] cellDims = new int[3];
+			grid.getCellDimensions(gridPosition, cellMin, cellDims);
+
+			for (RelatedLevel relatedLevel : relatedLevels) {
+				final long[] min = new long[3];
+				final long[] max = new long[3];
+				final long[] relatedGridDimensions = relatedLevel.grid.getGridDimensions();
+				for (int d = 0; d < 3; d++) {
+					final int blockSize = relatedLevel.grid.cellDimension(d);
+					if (d == normal) {
+						final long center = (long) ((cellMin[d] + cellDims[d] / 2) * relatedLevel.scale[d]);
+						min[d] = max[d] = center / blockSize;
+					} else {
+						min[d] = (long) (cellMin[d] * relatedLevel.scale[d]) / blockSize;
+						max[d] = (long) ((cellMin[d] + cellDims[d] - 1) * relatedLevel.scale[d]) / blockSize;
+					}
+					max[d] = Math.min(max[d], relatedGridDimensions[d] - 1);
+				}
+
+				final List<long[]> blocks = new ArrayList<>();
+				for (long z = min[2]; z <= max[2]; z++)
+					for (long y = min[1]; y <= max[1]; y++)
+						for (long x = min[0]; x <= max[0] && blocks.size() < MAX_NUM_RELATED_LEVEL_BLOCKS; x++)
+							if (exists(relatedLevel.chunkIndex, toDataBlockIndices(new long[]{x, y, z})))
+								blocks.add(toDataBlockIndices(new long[]{x, y, z}));
+
+				prefetcher.prefetch(relatedLevel.pathName, relatedLevel.attributes, blocks);
+			}
+		}
+
+		private boolean exists(CompletableFuture<ChunkIndex> chunkIndex, long[] dataBlockIndices) {
+			final ChunkIndex index = chunkIndex.getNow(null);
+			return index == null || index.contains(dataBlockIndices);
+		}
+
+		/**
+		 * BDV requests the blocks intersecting the current viewer plane,
+		 * thus the grid axis that changes least between requests is taken as its normal.
+		 *
+		 * @return the plane normal axis, or -1 if the plane is oblique
+		 */
+		private synchronized int updatePlaneNormal(long[] gridPosition) {
+			if (is2D) return 2;
+
+			if (lastGridPosition != null) {
+				for (int d = 0; d < 3; d++)
+					numAxisChanges[d] = 0.9 * numAxisChanges[d] + (gridPosition[d] != lastGridPosition[d] ? 1 : 0);
+			}
+			lastGridPosition = gridPosition.clone();
+
+			int normal = 0;
+			for (int d = 1; d < 3; d++)
+				if (numAxisChanges[d] < numAxisChanges[normal]) normal = d;
+
+			for (int d = 0; d < 3; d++)
+				if (d != normal && !(numAxisChanges[normal] < 0.5 * numAxisChanges[d])) return -1;
+
+			return normal;
+		}
+
 		private long[] toDataBlockIndices(long[] gridPosition) {
 			long[] dataBlockIndices = gridPosition;
 
@@ -799,9 +1014,9 @@ public class N5OMEZarrImageLoader implements ViewerImgLoader, MultiResolutionImg
 		}
 	}
 
-	private static SimpleCacheArrayLoader<?> createCacheArrayLoader(final N5Reader n5, final String pathName, int channel, int timepointId, CellGrid grid) throws IOException {
+	private static N5OMEZarrCacheArrayLoader<?> createCacheArrayLoader(final N5Reader n5, final String pathName, int channel, int timepointId, CellGrid grid, CompletableFuture<ChunkIndex> chunkIndex, AtomicBoolean isClosed) throws IOException {
 		final DatasetAttributes attributes = n5.getDatasetAttributes(pathName);
-		return new N5OMEZarrCacheArrayLoader<>(n5, pathName, channel, timepointId, attributes, grid);
+		return new N5OMEZarrCacheArrayLoader<>(n5, pathName, channel, timepointId, attributes, grid, chunkIndex, isClosed);
 	}
 }
 
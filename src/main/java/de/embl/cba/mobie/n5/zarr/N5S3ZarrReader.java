@@ -30,6 +30,8 @@ import com.amazonaws.services.s3.model.AmazonS3Exception;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonElement;
 import com.google.gson.reflect.TypeToken;
+import de.embl.cba.mobie.n5.DiskBlockCache;
+import de.embl.cba.mobie.n5.Shards;
 import net.imglib2.Cursor;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.type.Type;
@@ -38,6 +40,7 @@ import net.imglib2.view.Views;
 import org.janelia.saalfeldlab.n5.*;
 import org.janelia.saalfeldlab.n5.s3.N5AmazonS3Reader;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -45,6 +48,7 @@ import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Map;
 
 
 /**
@@ -62,6 +66,9 @@ public class N5S3ZarrReader extends N5AmazonS3Reader {
 
     protected String dimensionSeparator;
     private final String serviceEndpoint;
+    private final DiskBlockCache diskBlockCache;
+    private final ZarrMetadataCache metadataCache = new ZarrMetadataCache();
+    private final Map<String, Shards.Index> shardIndexCache = Shards.createIndexCache();
     private final HashMap<String, Integer> axesMap = new HashMap<>();
 
     public HashMap<String, Integer> getAxesMap() {
@@ -76,6 +83,7 @@ public class N5S3ZarrReader extends N5AmazonS3Reader {
         super(s3, bucketName, containerPath, initGsonBuilder(new GsonBuilder()));
         this.serviceEndpoint = serviceEndpoint; // for debugging
         this.dimensionSeparator = dimensionSeparator;
+        this.diskBlockCache = DiskBlockCache.getInstance();
         mapN5DatasetAttributes = true;
     }
 
@@ -95,6 +103,16 @@ public class N5S3ZarrReader extends N5AmazonS3Reader {
         return serviceEndpoint;
     }
 
+    /**
+     * The metadata is cached once fetched;
+     * invalidate it if the container is modified by others.
+     *
+     * @return the metadata cache of this reader
+     */
+    public ZarrMetadataCache getMetadataCache() {
+        return metadataCache;
+    }
+
     //
     // Local helpers. May should live elsewhere
     //
@@ -157,12 +175,16 @@ public class N5S3ZarrReader extends N5AmazonS3Reader {
     // remove getBasePath
 
     public boolean groupExists(final String pathName) {
-        return exists(objectFile(pathName, zgroupFile));
+        try {
+            return metadataCache.exists(pathName, zgroupFile, () -> exists(objectFile(pathName, zgroupFile)));
+        } catch (final IOException e) {
+            return false;
+        }
     }
 
     public ZArrayAttributes getZArraryAttributes(final String pathName) throws IOException {
         final String path = objectFile(pathName, zarrayFile);
-        HashMap<String, JsonElement> attributes = readJson(path);
+        HashMap<String, JsonElement> attributes = metadataCache.getJson(pathName, zarrayFile, () -> readJson(path));
 
         if (attributes == null) {
             System.out.println(path + " does not exist.");
@@ -171,7 +193,12 @@ public class N5S3ZarrReader extends N5AmazonS3Reader {
 
         JsonElement dimSep = attributes.get("dimension_separator");
         this.dimensionSeparator = dimSep == null ? DEFAULT_SEPARATOR : dimSep.getAsString();
-        return new ZArrayAttributes(
+
+        final ZArrayAttributes cached = metadataCache.getZArrayAttributes(pathName);
+        if (cached != null)
+            return cached;
+
+        final ZArrayAttributes zArrayAttributes = new ZArrayAttributes(
                 attributes.get("zarr_format").getAsInt(),
                 gson.fromJson(attributes.get("shape"), long[].class),
                 gson.fromJson(attributes.get("chunks"), int[].class),
@@ -180,6 +207,9 @@ public class N5S3ZarrReader extends N5AmazonS3Reader {
                 attributes.get("fill_value").getAsString(),
                 attributes.get("order").getAsCharacter(),
                 gson.fromJson(attributes.get("filters"), TypeToken.getParameterized(Collection.class, Filter.class).getType()));
+
+        metadataCache.putZArrayAttributes(pathName, zArrayAttributes);
+        return zArrayAttributes;
     }
 
     @Override
@@ -191,7 +221,7 @@ public class N5S3ZarrReader extends N5AmazonS3Reader {
     @Override
     public boolean datasetExists(final String pathName) throws IOException {
         final String path = objectFile(pathName, zarrayFile);
-        return readJson(path) != null;
+        return metadataCache.jsonExists(pathName, zarrayFile, () -> readJson(path));
     }
 
     /**
@@ -217,7 +247,7 @@ public class N5S3ZarrReader extends N5AmazonS3Reader {
     @Override
     public HashMap<String, JsonElement> getAttributes(final String pathName) throws IOException {
         final String path = objectFile(pathName, zattrsFile);
-        HashMap<String, JsonElement> attributes = readJson(path);
+        HashMap<String, JsonElement> attributes = metadataCache.getJson(pathName, zattrsFile, () -> readJson(path));
 
         if (attributes == null) {
             attributes = new HashMap<>();
@@ -320,6 +350,23 @@ public class N5S3ZarrReader extends N5AmazonS3Reader {
         else
             zarrDatasetAttributes = getZArraryAttributes(pathName).getDatasetAttributes();
 
+        // the chunks of a sharded dataset are fetched with byte-range requests
+        final int[] shardSize = Shards.getShardSize(this, pathName);
+        if (shardSize != null) {
+            final String shardKey =
+                    objectFile(pathName,
+                            Shards.getShardPath(getZarrDataBlockPath(
+                                    Shards.getShardPosition(gridPosition, shardSize),
+                                    dimensionSeparator,
+                                    zarrDatasetAttributes.isRowMajor())));
+            final byte[] block = Shards.readBlock(
+                    s3, bucketName, shardKey,
+                    Shards.getBlockIndex(gridPosition, shardSize),
+                    Shards.getNumBlocks(shardSize),
+                    shardIndexCache);
+            return block == null ? null : readBlock(new ByteArrayInputStream(block), zarrDatasetAttributes, gridPosition);
+        }
+
         final String dataBlockKey =
                 objectFile(pathName,
                         getZarrDataBlockPath(
@@ -332,7 +379,7 @@ public class N5S3ZarrReader extends N5AmazonS3Reader {
         //			return null;
 
         try {
-            try (final InputStream in = this.readS3Object(dataBlockKey)) {
+            try (final InputStream in = readDataBlockObject(dataBlockKey)) {
                 return readBlock(in, zarrDatasetAttributes, gridPosition);
             }
         } catch (AmazonS3Exception ase) {
@@ -343,6 +390,13 @@ public class N5S3ZarrReader extends N5AmazonS3Reader {
         }
     }
 
+    private InputStream readDataBlockObject(String dataBlockKey) throws IOException {
+        if (diskBlockCache == null)
+            return this.readS3Object(dataBlockKey);
+
+        return diskBlockCache.get(s3.getUrl(bucketName, dataBlockKey).toString(), DiskBlockCache.createS3Fetcher(s3, bucketName, dataBlockKey));
+    }
+
     // CHANGE: remove N5FSReader.list(String) implementation in favor of AWS
 
     /**
@@ -396,35 +450,13 @@ public class N5S3ZarrReader extends N5AmazonS3Reader {
      * @throws IOException
      */
     public HashMap<String, JsonElement> readJson(String objectPath) throws IOException {
-        if (!this.s3.doesObjectExist(this.bucketName, objectPath)) {
-            return null;
-//			throw new UnsupportedOperationException( this.bucketName + " " + objectPath + " does not exist." );
-        } else {
-            InputStream in = this.readS3Object(objectPath);
-            Throwable var4 = null;
-
-            HashMap var5;
-            try {
-                var5 = GsonAttributesParser.readAttributes(new InputStreamReader(in), this.gson);
-            } catch (Throwable var14) {
-                var4 = var14;
-                throw var14;
-            } finally {
-                if (in != null) {
-                    if (var4 != null) {
-                        try {
-                            in.close();
-                        } catch (Throwable var13) {
-                            var4.addSuppressed(var13);
-                        }
-                    } else {
-                        in.close();
-                    }
-                }
-
-            }
-
-            return var5;
+        // a GET that fails for missing objects saves the HEAD request of doesObjectExist
+        try (final InputStream in = this.readS3Object(objectPath)) {
+            return GsonAttributesParser.readAttributes(new InputStreamReader(in), this.gson);
+        } catch (AmazonS3Exception ase) {
+            if ("NoSuchKey".equals(ase.getErrorCode()) || ase.getStatusCode() == 404)
+                return null;
+            throw ase;
         }
     }
 
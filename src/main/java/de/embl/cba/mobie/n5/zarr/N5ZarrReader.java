@@ -28,6 +28,7 @@ package de.embl.cba.mobie.n5.zarr;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonElement;
 import com.google.gson.reflect.TypeToken;
+import de.embl.cba.mobie.n5.Shards;
 import net.imglib2.Cursor;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.type.Type;
@@ -35,6 +36,7 @@ import net.imglib2.view.IntervalView;
 import net.imglib2.view.Views;
 import org.janelia.saalfeldlab.n5.*;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
@@ -73,6 +75,7 @@ public class N5ZarrReader extends N5FSReader
 
 	final protected boolean mapN5DatasetAttributes;
 	final protected String dimensionSeparator;
+	final protected ZarrMetadataCache metadataCache = new ZarrMetadataCache();
 
 	/**
 	 * Opens an {@link N5ZarrReader} at a given base path with a custom
@@ -226,31 +229,43 @@ public class N5ZarrReader extends N5FSReader
 		return this.basePath;
 	}
 
+	/**
+	 * The metadata is cached once read;
+	 * invalidate it if the container is modified by others.
+	 *
+	 * @return the metadata cache of this reader
+	 */
+	public ZarrMetadataCache getMetadataCache() {
+
+		return metadataCache;
+	}
+
 	public boolean groupExists(final String pathName) {
 
 		final Path path = Paths.get(basePath, removeLeadingSlash(pathName), zgroupFile);
-		return Files.exists(path) && Files.isRegularFile(path);
+		try {
+			return metadataCache.exists(pathName, zgroupFile, () -> Files.exists(path) && Files.isRegularFile(path));
+		} catch (final IOException e) {
+			return false;
+		}
 	}
 
 	public ZArrayAttributes getZArraryAttributes(final String pathName) throws IOException
 	{
 
-		final Path path = Paths.get(basePath, removeLeadingSlash(pathName), zarrayFile);
-		final HashMap< String, JsonElement> attributes = new HashMap<>();
+		final ZArrayAttributes cached = metadataCache.getZArrayAttributes(pathName);
+		if (cached != null)
+			return cached;
 
-		if ( Files.exists(path)) {
+		final Path path = Paths.get(basePath, removeLeadingSlash(pathName), zarrayFile);
+		HashMap< String, JsonElement> attributes = metadataCache.getJson(pathName, zarrayFile, () -> readJson(path));
 
-			try (final LockedFileChannel lockedFileChannel = LockedFileChannel.openForReading(path)) {
-				attributes.putAll(
-						GsonAttributesParser.readAttributes(
-								Channels.newReader(
-										lockedFileChannel.getFileChannel(),
-										StandardCharsets.UTF_8.name()),
-								gson));
-			}
-		} else System.out.println(path.toString() + " does not exist.");
+		if (attributes == null) {
+			System.out.println(path.toString() + " does not exist.");
+			attributes = new HashMap<>();
+		}
 
-		return new ZArrayAttributes(
+		final ZArrayAttributes zArrayAttributes = new ZArrayAttributes(
 				attributes.get("zarr_format").getAsInt(),
 				gson.fromJson(attributes.get("shape"), long[].class),
 				gson.fromJson(attributes.get("chunks"), int[].class),
@@ -259,6 +274,27 @@ public class N5ZarrReader extends N5FSReader
 				attributes.get("fill_value").getAsString(),
 				attributes.get("order").getAsCharacter(),
 				gson.fromJson(attributes.get("filters"), TypeToken.getParameterized( Collection.class, Filter.class).getType()));
+
+		metadataCache.putZArrayAttributes(pathName, zArrayAttributes);
+		return zArrayAttributes;
+	}
+
+	/**
+	 * @return the parsed json, or null if the file does not exist
+	 */
+	protected HashMap< String, JsonElement> readJson(final Path path) throws IOException
+	{
+
+		if (!Files.exists(path) || !Files.isRegularFile(path))
+			return null;
+
+		try (final LockedFileChannel lockedFileChannel = LockedFileChannel.openForReading(path)) {
+			return GsonAttributesParser.readAttributes(
+					Channels.newReader(
+							lockedFileChannel.getFileChannel(),
+							StandardCharsets.UTF_8.name()),
+					gson);
+		}
 	}
 
 	@Override
@@ -272,7 +308,7 @@ public class N5ZarrReader extends N5FSReader
 	public boolean datasetExists(final String pathName) throws IOException {
 
 		final Path path = Paths.get(basePath, removeLeadingSlash(pathName), zarrayFile);
-		return Files.exists(path) && Files.isRegularFile(path) && getDatasetAttributes(pathName) != null;
+		return metadataCache.jsonExists(pathName, zarrayFile, () -> readJson(path));
 	}
 
 
@@ -300,19 +336,10 @@ public class N5ZarrReader extends N5FSReader
 	public HashMap< String, JsonElement> getAttributes( final String pathName) throws IOException {
 
 		final Path path = Paths.get(basePath, removeLeadingSlash(pathName), zattrsFile);
-		final HashMap< String, JsonElement> attributes = new HashMap<>();
+		HashMap< String, JsonElement> attributes = metadataCache.getJson(pathName, zattrsFile, () -> readJson(path));
 
-		if ( Files.exists(path)) {
-
-			try (final LockedFileChannel lockedFileChannel = LockedFileChannel.openForReading(path)) {
-				attributes.putAll(
-						GsonAttributesParser.readAttributes(
-								Channels.newReader(
-										lockedFileChannel.getFileChannel(),
-										StandardCharsets.UTF_8.name()),
-								gson));
-			}
-		}
+		if (attributes == null)
+			attributes = new HashMap<>();
 
 		if (mapN5DatasetAttributes && datasetExists(pathName)) {
 
@@ -449,6 +476,15 @@ public class N5ZarrReader extends N5FSReader
 		else
 			zarrDatasetAttributes = getZArraryAttributes(pathName).getDatasetAttributes();
 
+		final int[] shardSize = Shards.getShardSize(this, pathName);
+		if (shardSize != null) {
+			final byte[] block = Shards.readBlock(
+					getShardPath(pathName, zarrDatasetAttributes, Shards.getShardPosition(gridPosition, shardSize)).toFile(),
+					Shards.getBlockIndex(gridPosition, shardSize),
+					Shards.getNumBlocks(shardSize));
+			return block == null ? null : readBlock(new ByteArrayInputStream(block), zarrDatasetAttributes, gridPosition);
+		}
+
 		final Path path = Paths.get(
 				basePath,
 				removeLeadingSlash(pathName),
@@ -464,6 +500,24 @@ public class N5ZarrReader extends N5FSReader
 		}
 	}
 
+	/**
+	 * Constructs the path of the file into which the chunks of a sharded
+	 * dataset at the given position of the shard grid are packed, see {@link Shards}.
+	 */
+	protected Path getShardPath(
+			final String pathName,
+			final ZarrDatasetAttributes zarrDatasetAttributes,
+			final long[] shardPosition) {
+
+		return Paths.get(
+				basePath,
+				removeLeadingSlash(pathName),
+				Shards.getShardPath(getZarrDataBlockPath(
+						shardPosition,
+						dimensionSeparator,
+						zarrDatasetAttributes.isRowMajor()).toString()));
+	}
+
 	@Override
 	public String[] list( final String pathName) throws IOException
 	{
@@ -28,6 +28,7 @@ package de.embl.cba.mobie.n5.zarr;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonPrimitive;
+import de.embl.cba.mobie.n5.Shards;
 import net.imglib2.Cursor;
 import net.imglib2.FinalInterval;
 import net.imglib2.img.array.ArrayImg;
@@ -38,6 +39,7 @@ import net.imglib2.util.Intervals;
 import net.imglib2.view.Views;
 import org.janelia.saalfeldlab.n5.*;
 
+import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -46,8 +48,11 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.nio.file.attribute.FileAttribute;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.stream.Stream;
 
@@ -185,6 +190,7 @@ public class N5ZarrWriter extends N5ZarrReader implements N5Writer
 
 		final Path path = Paths.get(basePath, pathName);
 		createDirectories(path);
+		metadataCache.clear();
 
 		final Path root = Paths.get(basePath);
 		Path parent = path;
@@ -221,6 +227,33 @@ public class N5ZarrWriter extends N5ZarrReader implements N5Writer
 			lockedFileChannel.getFileChannel().truncate(0);
 			GsonAttributesParser.writeAttributes( Channels.newWriter(lockedFileChannel.getFileChannel(), StandardCharsets.UTF_8.name()), map, gson);
 		}
+
+		metadataCache.invalidate(pathName);
+	}
+
+	/**
+	 * Sets the number of chunks per shard of a dataset, or null for unsharded chunks,
+	 * and wraps the compressor of a sharded dataset, see {@link Shards}.
+	 */
+	public void setShardSize(final String pathName, final int[] shardSize) throws IOException {
+
+		final ZArrayAttributes zArrayAttributes = getZArraryAttributes(pathName);
+		ZarrCompressor compressor = zArrayAttributes.getCompressor();
+		if (compressor instanceof ZarrCompressor.Sharded)
+			compressor = ((ZarrCompressor.Sharded)compressor).getCompressor();
+		if (shardSize != null)
+			compressor = new ZarrCompressor.Sharded(compressor);
+
+		setZArrayAttributes(pathName, new ZArrayAttributes(
+				zArrayAttributes.getZarrFormat(),
+				zArrayAttributes.getShape(),
+				zArrayAttributes.getChunks(),
+				zArrayAttributes.getDType(),
+				compressor,
+				zArrayAttributes.getFillValue(),
+				zArrayAttributes.getOrder(),
+				zArrayAttributes.getFilters()));
+		setAttribute(pathName, Shards.SHARD_SIZE_KEY, shardSize);
 	}
 
 	@Override
@@ -318,7 +351,10 @@ public class N5ZarrWriter extends N5ZarrReader implements N5Writer
 					dtype = zArrayAttributes.getDType();
 
 				if (attributes.containsKey("compression")) {
-					compressor = ZarrCompressor.fromCompression(( Compression )attributes.get("compression"));
+					final ZarrCompressor chunkCompressor = ZarrCompressor.fromCompression(( Compression )attributes.get("compression"));
+					compressor = zArrayAttributes.getCompressor() instanceof ZarrCompressor.Sharded
+							? new ZarrCompressor.Sharded(chunkCompressor)
+							: chunkCompressor;
 					attributes.remove("compression");
 					/* fails with null when compression is not supported by Zarr
 					 * TODO invent meaningful error behavior */
@@ -346,6 +382,8 @@ public class N5ZarrWriter extends N5ZarrReader implements N5Writer
 					map,
 					gson);
 		}
+
+		metadataCache.invalidate(pathName);
 	}
 
 	public static byte[] padCrop(
@@ -465,6 +503,12 @@ public class N5ZarrWriter extends N5ZarrReader implements N5Writer
 		else
 			zarrDatasetAttributes = getZArraryAttributes(pathName).getDatasetAttributes();
 
+		final int[] shardSize = Shards.getShardSize(this, pathName);
+		if (shardSize != null) {
+			writeShardedBlocks(pathName, zarrDatasetAttributes, shardSize, Collections.singletonList(dataBlock));
+			return;
+		}
+
 		final Path path = Paths.get(
 				basePath,
 				removeLeadingSlash(pathName),
@@ -483,6 +527,64 @@ public class N5ZarrWriter extends N5ZarrReader implements N5Writer
 		}
 	}
 
+	/**
+	 * Writes several {@link DataBlock DataBlocks}. The blocks of a sharded
+	 * dataset (see {@link Shards}) are written with one update of each shard,
+	 * instead of one update for every block.
+	 *
+	 * @param pathName
+	 * @param datasetAttributes
+	 * @param dataBlocks
+	 * @throws IOException
+	 */
+	public <T> void writeBlocks(
+			final String pathName,
+			final DatasetAttributes datasetAttributes,
+			final Collection<DataBlock<T>> dataBlocks) throws IOException
+	{
+
+		final int[] shardSize = Shards.getShardSize(this, pathName);
+		if (shardSize == null) {
+			for (final DataBlock<T> dataBlock : dataBlocks)
+				writeBlock(pathName, datasetAttributes, dataBlock);
+			return;
+		}
+
+		final ZarrDatasetAttributes zarrDatasetAttributes;
+		if (datasetAttributes instanceof ZarrDatasetAttributes)
+			zarrDatasetAttributes = (ZarrDatasetAttributes)datasetAttributes;
+		else
+			zarrDatasetAttributes = getZArraryAttributes(pathName).getDatasetAttributes();
+
+		writeShardedBlocks(pathName, zarrDatasetAttributes, shardSize, dataBlocks);
+	}
+
+	private <T> void writeShardedBlocks(
+			final String pathName,
+			final ZarrDatasetAttributes zarrDatasetAttributes,
+			final int[] shardSize,
+			final Collection<DataBlock<T>> dataBlocks) throws IOException
+	{
+
+		final Map<List<Long>, Map<Integer, byte[]>> shards = new HashMap<>();
+		for (final DataBlock<T> dataBlock : dataBlocks) {
+			final long[] shardPosition = Shards.getShardPosition(dataBlock.getGridPosition(), shardSize);
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			writeBlock(out, zarrDatasetAttributes, dataBlock);
+			shards.computeIfAbsent(Arrays.asList(Arrays.stream(shardPosition).boxed().toArray(Long[]::new)), k -> new HashMap<>())
+					.put(Shards.getBlockIndex(dataBlock.getGridPosition(), shardSize), out.toByteArray());
+		}
+
+		final int numBlocks = Shards.getNumBlocks(shardSize);
+		for (final Map.Entry<List<Long>, Map<Integer, byte[]>> shard : shards.entrySet()) {
+			final long[] shardPosition = shard.getKey().stream().mapToLong(Long::longValue).toArray();
+			Shards.writeBlocks(
+					getShardPath(pathName, zarrDatasetAttributes, shardPosition).toFile(),
+					shard.getValue(),
+					numBlocks);
+		}
+	}
+
 	@Override
 	public boolean deleteBlock( final String pathName, final long... gridPosition) throws IOException
 	{
@@ -495,6 +597,15 @@ public class N5ZarrWriter extends N5ZarrReader implements N5Writer
 		else
 			zarrDatasetAttributes = getZArraryAttributes(pathName).getDatasetAttributes();
 
+		final int[] shardSize = Shards.getShardSize(this, pathName);
+		if (shardSize != null) {
+			Shards.writeBlocks(
+					getShardPath(pathName, zarrDatasetAttributes, Shards.getShardPosition(gridPosition, shardSize)).toFile(),
+					Collections.singletonMap(Shards.getBlockIndex(gridPosition, shardSize), null),
+					Shards.getNumBlocks(shardSize));
+			return true;
+		}
+
 		final Path path = Paths.get(
 				basePath,
 				removeLeadingSlash(pathName),
@@ -525,6 +636,7 @@ public class N5ZarrWriter extends N5ZarrReader implements N5Writer
 	{
 
 		final Path path = Paths.get(basePath, pathName);
+		metadataCache.clear();
 		if ( Files.exists(path))
 			try (final Stream< Path > pathStream = Files.walk(path)) {
 				pathStream.sorted( Comparator.reverseOrder()).forEach(
@@ -26,6 +26,7 @@
 package de.embl.cba.mobie.n5.zarr;
 
 import com.google.gson.*;
+import de.embl.cba.mobie.n5.Shards;
 import org.janelia.saalfeldlab.n5.Bzip2Compression;
 import org.janelia.saalfeldlab.n5.Compression;
 import org.janelia.saalfeldlab.n5.GzipCompression;
@@ -51,7 +52,8 @@ public interface ZarrCompressor {
 			new SimpleImmutableEntry<>("blosc", Blosc.class),
 			new SimpleImmutableEntry<>("zlib", Zlib.class),
 			new SimpleImmutableEntry<>("gzip", Gzip.class),
-			new SimpleImmutableEntry<>("bz2", Bz2.class))
+			new SimpleImmutableEntry<>("bz2", Bz2.class),
+			new SimpleImmutableEntry<>(Shards.COMPRESSION_TYPE, Sharded.class))
 			.collect( Collectors.toMap( Map.Entry::getKey, Map.Entry::getValue));
 
 	public static ZarrCompressor fromCompression( final Compression compression ) {
@@ -223,6 +225,31 @@ public interface ZarrCompressor {
 		}
 	}
 
+	/**
+	 * The compressor of a sharded dataset, which wraps the compressor of its chunks, see {@link Shards}.
+	 */
+	public static class Sharded implements ZarrCompressor {
+
+		private final String id = Shards.COMPRESSION_TYPE;
+		private final ZarrCompressor compressor;
+
+		public Sharded(final ZarrCompressor compressor) {
+
+			this.compressor = compressor instanceof RawCompression ? null : compressor;
+		}
+
+		public ZarrCompressor getCompressor() {
+
+			return compressor;
+		}
+
+		@Override
+		public Compression getCompression() {
+
+			return compressor == null ? new RawCompression() : compressor.getCompression();
+		}
+	}
+
 	public static class Raw extends RawCompression implements ZarrCompressor {
 
 		@Override
@@ -234,7 +261,7 @@ public interface ZarrCompressor {
 
 	public static JsonAdapter jsonAdapter = new JsonAdapter();
 
-	static public class JsonAdapter implements JsonDeserializer<ZarrCompressor> {
+	static public class JsonAdapter implements JsonDeserializer<ZarrCompressor>, JsonSerializer<ZarrCompressor> {
 
 		@Override
 		public ZarrCompressor deserialize( final JsonElement json, final Type typeOfT, final JsonDeserializationContext context)
@@ -251,5 +278,12 @@ public interface ZarrCompressor {
 
 			return context.deserialize(json, compressorClass);
 		}
+
+		/* serializes the compressor wrapped by a {@link Sharded} by its runtime class */
+		@Override
+		public JsonElement serialize(final ZarrCompressor compressor, final Type typeOfSrc, final JsonSerializationContext context) {
+
+			return context.serialize(compressor, compressor.getClass());
+		}
 	}
 }
@@ -0,0 +1,113 @@
+package de.embl.cba.mobie.n5.zarr;
+
+import com.google.gson.JsonElement;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches the metadata objects (.zarray, .zattrs, .zgroup) of a Zarr container,
+ * such that each of them is fetched and parsed only once per reader.
+ * <p>
+ * Missing objects are cached as well. Writers, or readers of containers
+ * that are modified by others, must call {@link #invalidate(String)}
+ * or {@link #clear()}.
+ */
+public class ZarrMetadataCache {
+
+	public interface JsonLoader {
+		/**
+		 * @return the parsed object, or null if it does not exist
+		 */
+		HashMap<String, JsonElement> load() throws IOException;
+	}
+
+	public interface ExistsChecker {
+		boolean exists() throws IOException;
+	}
+
+	private static final HashMap<String, JsonElement> MISSING = new HashMap<>();
+
+	private final ConcurrentHashMap<String, HashMap<String, JsonElement>> keyToJson = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, Boolean> keyToExists = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, ZArrayAttributes> pathNameToZArrayAttributes = new ConcurrentHashMap<>();
+
+	/**
+	 * @param pathName
+	 * @param file one of .zarray, .zattrs or .zgroup
+	 * @param loader
+	 * @return a copy of the cached object, or null if it does not exist
+	 * @throws IOException
+	 */
+	public HashMap<String, JsonElement> getJson(String pathName, String file, JsonLoader loader) throws IOException {
+		final HashMap<String, JsonElement> json = loadJson(pathName, file, loader);
+		return json == MISSING ? null : new HashMap<>(json);
+	}
+
+	/**
+	 * Like {@link #getJson}, but without copying the object.
+	 */
+	public boolean jsonExists(String pathName, String file, JsonLoader loader) throws IOException {
+		return loadJson(pathName, file, loader) != MISSING;
+	}
+
+	private HashMap<String, JsonElement> loadJson(String pathName, String file, JsonLoader loader) throws IOException {
+		final String key = key(pathName, file);
+
+		HashMap<String, JsonElement> json = keyToJson.get(key);
+		if (json == null) {
+			json = loader.load();
+			if (json == null) json = MISSING;
+			keyToJson.put(key, json);
+		}
+
+		return json;
+	}
+
+	public boolean exists(String pathName, String file, ExistsChecker checker) throws IOException {
+		final String key = key(pathName, file);
+
+		final HashMap<String, JsonElement> json = keyToJson.get(key);
+		if (json != null) return json != MISSING;
+
+		Boolean exists = keyToExists.get(key);
+		if (exists == null) {
+			exists = checker.exists();
+			keyToExists.put(key, exists);
+		}
+
+		return exists;
+	}
+
+	public ZArrayAttributes getZArrayAttributes(String pathName) {
+		return pathNameToZArrayAttributes.get(normalize(pathName));
+	}
+
+	public void putZArrayAttributes(String pathName, ZArrayAttributes zArrayAttributes) {
+		pathNameToZArrayAttributes.put(normalize(pathName), zArrayAttributes);
+	}
+
+	public void invalidate(String pathName) {
+		final String normalized = normalize(pathName);
+		keyToJson.keySet().removeIf(key -> key.startsWith(normalized));
+		keyToExists.keySet().removeIf(key -> key.startsWith(normalized));
+		pathNameToZArrayAttributes.keySet().removeIf(key -> key.startsWith(normalized));
+	}
+
+	public void clear() {
+		keyToJson.clear();
+		keyToExists.clear();
+		pathNameToZArrayAttributes.clear();
+	}
+
+	private static String key(String pathName, String file) {
+		return normalize(pathName) + file;
+	}
+
+	// "", "/", "a", "/a/" all map to the same form: "" or "a/"
+	private static String normalize(String pathName) {
+		String normalized = pathName.replaceAll("^/+", "").replaceAll("/+$", "");
+		return normalized.isEmpty() ? normalized : normalized + "/";
+	}
+}
@@ -9,9 +9,9 @@ import de.embl.cba.mobie.n5.N5FSImageLoader;
 import de.embl.cba.mobie.projectcreator.n5.DownsampleBlock;
 import de.embl.cba.mobie.projectcreator.n5.WriteImgPlusToN5;
 import de.embl.cba.mobie.projectcreator.ui.ManualN5ExportPanel;
+import de.embl.cba.mobie.segment.LabelStatistics;
 import de.embl.cba.mobie.source.ImageDataFormat;
 import de.embl.cba.tables.FileAndUrlUtils;
-import de.embl.cba.tables.Tables;
 import ij.IJ;
 import ij.ImagePlus;
 import mpicbg.spim.data.SpimDataException;
@@ -22,27 +22,20 @@ import mpicbg.spim.data.registration.ViewRegistration;
 import mpicbg.spim.data.registration.ViewRegistrations;
 import mpicbg.spim.data.sequence.*;
 import net.imglib2.RandomAccessibleInterval;
-import net.imglib2.converter.RealTypeConverters;
 import net.imglib2.realtransform.AffineTransform3D;
-import net.imglib2.roi.labeling.ImgLabeling;
-import net.imglib2.roi.labeling.LabelRegion;
-import net.imglib2.roi.labeling.LabelRegions;
-import net.imglib2.type.numeric.integer.IntType;
-import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.type.numeric.RealType;
 import org.apache.commons.compress.utils.FileNameUtils;
 import org.apache.commons.io.FileUtils;
 import org.janelia.saalfeldlab.n5.GzipCompression;
 
-import javax.swing.*;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
 
 import static de.embl.cba.mobie.projectcreator.ProjectCreatorHelper.*;
-import static de.embl.cba.morphometry.Utils.labelMapAsImgLabeling;
-import static net.imglib2.util.Util.getTypeFromInterval;
 
 public class ImagesCreator {
 
@@ -151,59 +144,45 @@ public class ImagesCreator {
         }
     }
 
-    private ArrayList<Object[]> makeDefaultTableRowsForTimepoint( LazySpimSource labelsSource, int timepoint, boolean addTimepointColumn ) {
+    private void writeDefaultTableRowsForTimepoint( LazySpimSource labelsSource, int timepoint, boolean addTimepointColumn,
+                                                    BufferedWriter writer ) throws IOException {
 
-        RandomAccessibleInterval rai = labelsSource.getNonVolatileSource( timepoint, 0 );
-        if ( getTypeFromInterval( rai ) instanceof FloatType ) {
-            rai = RealTypeConverters.convert( rai, new IntType() );
-        }
+        RandomAccessibleInterval< ? extends RealType< ? > > rai = labelsSource.getNonVolatileSource( timepoint, 0 );
 
         double[] dimensions = new double[ rai.numDimensions() ];
         labelsSource.getVoxelDimensions().dimensions( dimensions );
 
-        ImgLabeling<Integer, IntType> imgLabeling = labelMapAsImgLabeling(rai);
+        // streams over the cells of the image, in parallel, keeping only the statistics of each label in memory
+        LabelStatistics labelStatistics = LabelStatistics.compute( rai );
 
-        LabelRegions labelRegions = new LabelRegions(imgLabeling);
-        Iterator<LabelRegion> labelRegionIterator = labelRegions.iterator();
+        for ( long label : labelStatistics.getLabels() ) {
+            LabelStatistics.Statistics statistics = labelStatistics.get( label );
 
-        ArrayList<Object[]> rows = new ArrayList<>();
-        int nColumns = 10;
-        if ( addTimepointColumn ) {
-            nColumns += 1;
-        }
-        while (labelRegionIterator.hasNext()) {
-            Object[] row = new Object[ nColumns ];
-            LabelRegion labelRegion = labelRegionIterator.next();
-
-            double[] centre = new double[rai.numDimensions()];
-            labelRegion.getCenterOfMass().localize(centre);
-            double[] bbMin = new double[rai.numDimensions()];
-            double[] bbMax = new double[rai.numDimensions()];
-            labelRegion.realMin(bbMin);
-            labelRegion.realMax(bbMax);
-
-            row[0] = labelRegion.getLabel();
-            row[1] = centre[0] * dimensions[0];
-            row[2] = centre[1] * dimensions[1];
-            row[3] = centre[2] * dimensions[2];
-            row[4] = bbMin[0] * dimensions[0];
-            row[5] = bbMin[1] * dimensions[1];
-            row[6] = bbMin[2] * dimensions[2];
-            row[7] = bbMax[0] * dimensions[0];
-            row[8] = bbMax[1] * dimensions[1];
-            row[9] = bbMax[2] * dimensions[2];
+            double[] centre = statistics.getCentroid();
+            long[] bbMin = statistics.getMin();
+            long[] bbMax = statistics.getMax();
+
+            StringBuilder row = new StringBuilder();
+            row.append( label );
+            for ( int d = 0; d < 3; d++ ) {
+                row.append( "\t" ).append( centre[d] * dimensions[d] );
+            }
+            for ( int d = 0; d < 3; d++ ) {
+                row.append( "\t" ).append( bbMin[d] * dimensions[d] );
+            }
+            for ( int d = 0; d < 3; d++ ) {
+                row.append( "\t" ).append( bbMax[d] * dimensions[d] );
+            }
 
             if ( addTimepointColumn ) {
-                row[10] = timepoint;
+                row.append( "\t" ).append( timepoint );
             }
 
-            rows.add(row);
+            writer.write( row.toString() );
+            writer.newLine();
         }
-
-        return rows;
     }
 
-    // TODO - is this efficient for big images?
     private void addDefaultTableForImage ( String imageName, String datasetName ) throws SpimDataException {
         File tableFolder = new File( getDefaultTableDirPath( datasetName, imageName ) );
         File defaultTable = new File( tableFolder, "default.tsv" );
@@ -235,17 +214,28 @@ public class ImagesCreator {
 
             final LazySpimSource labelsSource = new LazySpimSource("labelImage",
                     getDefaultLocalImageXmlPath(datasetName, imageName));
-            ArrayList<Object[]> rows = new ArrayList<>();
 
-            for ( Integer timepoint: spimDataMinimal.getSequenceDescription().getTimePoints().getTimePoints().keySet() ) {
-                rows.addAll( makeDefaultTableRowsForTimepoint( labelsSource, timepoint, hasTimeColumn ) );
-            }
+            // the rows of each timepoint are written as soon as they are computed,
+            // and the table only appears once it is complete
+            File tmpTable = new File( tableFolder, "default.tsv.tmp" );
+            try ( BufferedWriter writer = new BufferedWriter( new FileWriter( tmpTable ) ) ) {
+                writer.write( String.join( "\t", columnNames ) );
+                writer.newLine();
 
-            Object[][] rowArray = new Object[rows.size()][columnNames.size()];
-            rowArray = rows.toArray(rowArray);
+                for ( Integer timepoint: spimDataMinimal.getSequenceDescription().getTimePoints().getTimePoints().keySet() ) {
+                    writeDefaultTableRowsForTimepoint( labelsSource, timepoint, hasTimeColumn, writer );
+                }
+            } catch ( IOException e ) {
+                tmpTable.delete();
+                IJ.log( "Default table creation failed: " + e.getMessage() );
+                return;
+            }
 
-            JTable table = new JTable(rowArray, columnNames.toArray() );
-            Tables.saveTable( table, defaultTable );
+            if ( !tmpTable.renameTo( defaultTable ) ) {
+                tmpTable.delete();
+                IJ.log( "Default table creation failed - could not write " + defaultTable );
+                return;
+            }
 
             IJ.log( "Default table complete" );
         }
@@ -0,0 +1,177 @@
+package de.embl.cba.mobie.projectcreator.n5;
+
+import net.imglib2.Interval;
+import net.imglib2.util.IntervalIndexer;
+import net.imglib2.util.Intervals;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Records which blocks of each resolution level of a scale pyramid were
+ * written, such that an interrupted export can resume with the missing blocks.
+ *
+ * Blocks are identified by their flat index in the cell grid of their level.
+ * The checkpoint is kept in a file, which is replaced atomically by {@link #save()}.
+ */
+public class ExportCheckpoint
+{
+    private final File file;
+    private final List< long[] > levelToGridDimensions = new ArrayList<>();
+    private final List< BitSet > levelToWrittenBlocks = new ArrayList<>();
+
+    private ExportCheckpoint( final File file )
+    {
+        this.file = file;
+    }
+
+    /**
+     * @return the checkpoint in the file, or an empty checkpoint if the file does not exist
+     */
+    public static ExportCheckpoint load( final File file ) throws IOException
+    {
+        final ExportCheckpoint checkpoint = new ExportCheckpoint( file );
+        if ( !file.exists() )
+            return checkpoint;
+
+        try ( DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) ) )
+        {
+            final int numLevels = in.readInt();
+            for ( int level = 0; level < numLevels; ++level )
+            {
+                final long[] gridDimensions = new long[ in.readInt() ];
+                for ( int d = 0; d < gridDimensions.length; ++d )
+                    gridDimensions[ d ] = in.readLong();
+                final long[] words = new long[ in.readInt() ];
+                for ( int i = 0; i < words.length; ++i )
+                    words[ i ] = in.readLong();
+
+                checkpoint.levelToGridDimensions.add( gridDimensions );
+                checkpoint.levelToWrittenBlocks.add( BitSet.valueOf( words ) );
+            }
+        }
+
+        return checkpoint;
+    }
+
+    /**
+     * Prepares the checkpoint for writing a level with the given cell grid.
+     * The written blocks of this level are forgotten if the level was
+     * recorded with a different grid.
+     *
+     * @return {@code true} if the written blocks of this level were kept
+     */
+    public synchronized boolean initLevel( final int level, final long[] gridDimensions )
+    {
+        if ( Intervals.numElements( gridDimensions ) > Integer.MAX_VALUE )
+            throw new IllegalArgumentException( "Too many blocks in level " + level + ": " + Arrays.toString( gridDimensions ) );
+
+        while ( levelToGridDimensions.size() <= level )
+        {
+            levelToGridDimensions.add( new long[ 0 ] );
+            levelToWrittenBlocks.add( new BitSet() );
+        }
+
+        if ( Arrays.equals( levelToGridDimensions.get( level ), gridDimensions ) )
+            return true;
+
+        levelToGridDimensions.set( level, gridDimensions.clone() );
+        levelToWrittenBlocks.set( level, new BitSet() );
+        return false;
+    }
+
+    public synchronized boolean isBlockWritten( final int level, final long index )
+    {
+        return level < levelToWrittenBlocks.size() && levelToWrittenBlocks.get( level ).get( ( int ) index );
+    }
+
+    public synchronized void setBlockWritten( final int level, final long index )
+    {
+        levelToWrittenBlocks.get( level ).set( ( int ) index );
+    }
+
+    public synchronized void setLevelWritten( final int level )
+    {
+        levelToWrittenBlocks.get( level ).set( 0, ( int ) Intervals.numElements( levelToGridDimensions.get( level ) ) );
+    }
+
+    /**
+     * Marks the blocks of a level within an interval of the cell grid as not written,
+     * e.g. because the image changed in that region.
+     */
+    public synchronized void setBlocksNotWritten( final int level, final Interval gridInterval )
+    {
+        final long[] gridDimensions = levelToGridDimensions.get( level );
+        final BitSet writtenBlocks = levelToWrittenBlocks.get( level );
+
+        final int n = gridDimensions.length;
+        final long[] min = new long[ n ];
+        final long[] max = new long[ n ];
+        for ( int d = 0; d < n; ++d )
+        {
+            min[ d ] = Math.max( 0, gridInterval.min( d ) );
+            max[ d ] = Math.min( gridDimensions[ d ] - 1, gridInterval.max( d ) );
+            if ( min[ d ] > max[ d ] )
+                return;
+        }
+
+        final long[] position = min.clone();
+        while ( true )
+        {
+            writtenBlocks.clear( ( int ) IntervalIndexer.positionToIndex( position, gridDimensions ) );
+
+            int d = 0;
+            for ( ; d < n; ++d )
+            {
+                if ( ++position[ d ] <= max[ d ] )
+                    break;
+                position[ d ] = min[ d ];
+            }
+            if ( d == n )
+                return;
+        }
+    }
+
+    public synchronized void save() throws IOException
+    {
+        final File tmpFile = new File( file.getPath() + ".tmp" );
+        try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tmpFile ) ) ) )
+        {
+            out.writeInt( levelToGridDimensions.size() );
+            for ( int level = 0; level < levelToGridDimensions.size(); ++level )
+            {
+                final long[] gridDimensions = levelToGridDimensions.get( level );
+                out.writeInt( gridDimensions.length );
+                for ( final long dimension : gridDimensions )
+                    out.writeLong( dimension );
+                final long[] words = levelToWrittenBlocks.get( level ).toLongArray();
+                out.writeInt( words.length );
+                for ( final long word : words )
+                    out.writeLong( word );
+            }
+        }
+
+        // an interrupted save keeps the previous checkpoint
+        if ( !tmpFile.renameTo( file ) )
+        {
+            file.delete();
+            if ( !tmpFile.renameTo( file ) )
+                throw new IOException( "Could not write checkpoint " + file );
+        }
+    }
+
+    public void delete()
+    {
+        file.delete();
+    }
+}
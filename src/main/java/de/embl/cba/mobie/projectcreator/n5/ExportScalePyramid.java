@@ -114,6 +114,26 @@ public class ExportScalePyramid
         void afterEachPlane( final boolean usedLoopBack );
     }
 
+    /**
+     * How the blocks of a previous, interrupted export into the same dataset are treated.
+     */
+    public enum ResumeMode
+    {
+        /**
+         * All blocks are written.
+         */
+        NONE,
+        /**
+         * Blocks that are recorded as written in the {@link ExportCheckpoint} are skipped.
+         */
+        CHECKPOINT,
+        /**
+         * In addition, blocks that exist in the dataset and can be read back are skipped,
+         * e.g. if the checkpoint was lost. Blocks of changed regions are then not rewritten.
+         */
+        CHECKPOINT_AND_EXISTING_BLOCKS
+    }
+
     /**
      * A block to be written. See {@link DatasetIO#writeBlock(Object, Block)
      * DatasetIO.writeBlock()}.
@@ -176,9 +196,22 @@ public class ExportScalePyramid
 
         /**
          * Blocks until all pending data was written to {@code dataset}.
+         * Called after each plane of blocks, if a checkpoint is kept, and after each level.
          */
         void flush( D dataset ) throws IOException;
 
+        /**
+         * Whether a complete block of the given size was already written at the
+         * given grid position, e.g. by an interrupted export.
+         */
+        default boolean isBlockWritten(
+                final D dataset,
+                final long[] gridPosition,
+                final int[] blockSize ) throws IOException
+        {
+            return false;
+        }
+
         /**
          * Opens a dataset that was already written as a
          * {@code RaπdomAccessibleInterval}.
@@ -236,6 +269,38 @@ public class ExportScalePyramid
             final LoopbackHeuristic loopbackHeuristic,
             final AfterEachPlane afterEachPlane,
             ProgressWriter progressWriter ) throws IOException
+    {
+        writeScalePyramid( img, type, mipmapInfo, downsamplingMethod, io,
+                executorService, numThreads, loopbackHeuristic, afterEachPlane,
+                null, ResumeMode.NONE, progressWriter );
+    }
+
+    /**
+     * Write an image to a chunked mipmap representation, recording the
+     * written blocks in a checkpoint, and skipping blocks that were already
+     * written according to the {@code resumeMode}.
+     *
+     * @param checkpoint
+     *            records the written blocks, and is saved after each "plane of
+     *            blocks". may be null.
+     * @param resumeMode
+     *            which blocks of a previous export are skipped.
+     *
+     * @see #writeScalePyramid(RandomAccessibleInterval, NativeType, ExportMipmapInfo, DownsampleBlock.DownsamplingMethod, DatasetIO, ExecutorService, int, LoopbackHeuristic, AfterEachPlane, ProgressWriter)
+     */
+    public static < T extends RealType< T > & NativeType< T >, D > void writeScalePyramid(
+            final RandomAccessibleInterval< T > img,
+            final T type,
+            final ExportMipmapInfo mipmapInfo,
+            final DownsampleBlock.DownsamplingMethod downsamplingMethod,
+            final DatasetIO< D, T > io,
+            final ExecutorService executorService,
+            final int numThreads,
+            final LoopbackHeuristic loopbackHeuristic,
+            final AfterEachPlane afterEachPlane,
+            final ExportCheckpoint checkpoint,
+            final ResumeMode resumeMode,
+            ProgressWriter progressWriter ) throws IOException
     {
         final BlockCreator< T > blockCreator = BlockCreator.forType( type );
 
@@ -348,6 +413,9 @@ public class ExportScalePyramid
             final long[] numCells = grid.getGridDimensions();
             final long numBlocksPerPlane = numElements( numCells, 0, 2 );
             final long numPlanes = numElements( numCells, 2, n );
+            final int currentLevel = level;
+            if ( checkpoint != null )
+                checkpoint.initLevel( level, numCells );
             for ( int plane = 0; plane < numPlanes; ++plane )
             {
                 final long planeBaseIndex = numBlocksPerPlane * plane;
@@ -373,6 +441,9 @@ public class ExportScalePyramid
 
                             grid.getCellDimensions( index, currentCellMin, currentCellDim );
                             grid.getCellGridPositionFlat( index, currentCellPos );
+                            if ( isBlockWritten( io, dataset, checkpoint, resumeMode, currentLevel, index, currentCellPos, currentCellDim ) )
+                                continue;
+
                             final Block< T > block = blockCreator.create( currentCellDim, currentCellMin, currentCellPos );
 
                             if ( fullResolution )
@@ -391,6 +462,8 @@ public class ExportScalePyramid
                             }
 
                             io.writeBlock( dataset, block );
+                            if ( checkpoint != null )
+                                checkpoint.setBlockWritten( currentLevel, index );
                         }
                         return null;
                     } );
@@ -410,6 +483,14 @@ public class ExportScalePyramid
                 if ( afterEachPlane != null )
                     afterEachPlane.afterEachPlane( useLoopBack );
 
+                // the blocks of this plane are recorded once writeBlock() returned for them,
+                // and blocks that the io collects are written before they are saved as written
+                if ( checkpoint != null )
+                {
+                    io.flush( dataset );
+                    checkpoint.save();
+                }
+
                 subProgressWriter.setProgress( ( double ) plane / numPlanes );
             }
             io.flush( dataset );
@@ -417,6 +498,32 @@ public class ExportScalePyramid
         }
     }
 
+    private static < D, T extends NativeType< T > > boolean isBlockWritten(
+            final DatasetIO< D, T > io,
+            final D dataset,
+            final ExportCheckpoint checkpoint,
+            final ResumeMode resumeMode,
+            final int level,
+            final long index,
+            final long[] gridPosition,
+            final int[] blockSize ) throws IOException
+    {
+        if ( resumeMode == ResumeMode.NONE )
+            return false;
+
+        if ( checkpoint != null && checkpoint.isBlockWritten( level, index ) )
+            return true;
+
+        if ( resumeMode == ResumeMode.CHECKPOINT_AND_EXISTING_BLOCKS && io.isBlockWritten( dataset, gridPosition, blockSize ) )
+        {
+            if ( checkpoint != null )
+                checkpoint.setBlockWritten( level, index );
+            return true;
+        }
+
+        return false;
+    }
+
     private static long numElements( final long[] size, final int mind, final int maxd )
     {
         long numElements = 1;
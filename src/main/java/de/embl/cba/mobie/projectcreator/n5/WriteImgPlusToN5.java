@@ -42,6 +42,9 @@ import static de.embl.cba.mobie.projectcreator.ProjectCreatorHelper.*;
 
 public class WriteImgPlusToN5 {
 
+    private ExportScalePyramid.ResumeMode resumeMode = ExportScalePyramid.ResumeMode.NONE;
+    private int[] shardSize = null;
+
     protected static class Parameters
     {
         final int[][] resolutions;
@@ -92,6 +95,16 @@ public class WriteImgPlusToN5 {
         }
     }
 
+    // set to resume an interrupted export into the same n5, instead of writing all blocks again
+    public void setResumeMode( ExportScalePyramid.ResumeMode resumeMode ) {
+        this.resumeMode = resumeMode;
+    }
+
+    // set to pack the blocks into shards of e.g. 8 x 8 x 1 blocks, instead of writing one file per block
+    public void setShardSize( int[] shardSize ) {
+        this.shardSize = shardSize;
+    }
+
     // export, generating default source transform, and default resolutions / subdivisions
     public void export( ImagePlus imp, String xmlPath, DownsampleBlock.DownsamplingMethod downsamplingMethod,
                         Compression compression ) {
@@ -344,12 +357,16 @@ public class WriteImgPlusToN5 {
 
         };
 
+        // the planes of a virtual stack are cached, several views at once would thrash this cache
+        final int numConcurrentViews = isVirtual ? 1 : WriteSequenceToN5.DEFAULT_NUM_CONCURRENT_VIEWS;
+
         try
         {
             WriteSequenceToN5.writeN5File( seq, perSetupExportMipmapInfo,
                     params.downsamplingMethod,
                     params.compression, params.n5File,
                     loopbackHeuristic, afterEachPlane, numCellCreatorThreads,
+                    numConcurrentViews, resumeMode, shardSize,
                     new SubTaskProgressWriter( progressWriter, 0, 0.95 ) );
 
             // write xml sequence description
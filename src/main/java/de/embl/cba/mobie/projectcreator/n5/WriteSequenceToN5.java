@@ -31,9 +31,11 @@ package de.embl.cba.mobie.projectcreator.n5;
 import bdv.export.ExportMipmapInfo;
 import bdv.export.ProgressWriter;
 import bdv.export.ProgressWriterNull;
-import bdv.export.SubTaskProgressWriter;
 import bdv.img.cache.SimpleCacheArrayLoader;
 import bdv.img.n5.N5ImageLoader;
+import de.embl.cba.mobie.n5.ChunkIndex;
+import de.embl.cba.mobie.n5.ShardedN5FSWriter;
+import de.embl.cba.mobie.n5.Shards;
 import mpicbg.spim.data.generic.sequence.AbstractSequenceDescription;
 import mpicbg.spim.data.generic.sequence.BasicImgLoader;
 import mpicbg.spim.data.generic.sequence.BasicSetupImgLoader;
@@ -41,6 +43,8 @@ import mpicbg.spim.data.generic.sequence.BasicViewSetup;
 import mpicbg.spim.data.sequence.TimePoint;
 import mpicbg.spim.data.sequence.ViewId;
 import mpicbg.spim.data.sequence.VoxelDimensions;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.cache.img.ReadOnlyCachedCellImgFactory;
 import net.imglib2.img.cell.Cell;
@@ -53,11 +57,16 @@ import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -72,6 +81,10 @@ public class WriteSequenceToN5
 {
     private static final String MULTI_SCALE_KEY = "multiScale";
     private static final String RESOLUTION_KEY = "resolution";
+    private static final String EXPORT_COMPLETE_KEY = "exportComplete";
+    private static final String CHECKPOINT_FILE_NAME = "export-checkpoint";
+
+    public static final int DEFAULT_NUM_CONCURRENT_VIEWS = 2;
 
     /**
      * Create a n5 group containing image data from all views and all
@@ -118,6 +131,52 @@ public class WriteSequenceToN5
             final ExportScalePyramid.AfterEachPlane afterEachPlane,
             final int numCellCreatorThreads,
             ProgressWriter progressWriter ) throws IOException
+    {
+        writeN5File( seq, perSetupMipmapInfo, downsamplingMethod, compression, n5File,
+                loopbackHeuristic, afterEachPlane, numCellCreatorThreads,
+                DEFAULT_NUM_CONCURRENT_VIEWS, ExportScalePyramid.ResumeMode.NONE, null, progressWriter );
+    }
+
+    /**
+     * As {@link #writeN5File(AbstractSequenceDescription, Map, DownsampleBlock.DownsamplingMethod, Compression, File, ExportScalePyramid.LoopbackHeuristic, ExportScalePyramid.AfterEachPlane, int, ProgressWriter)},
+     * but writes the scale pyramids of up to {@code numConcurrentViews} views
+     * (timepoints and setups) at the same time. Their cell creator tasks share
+     * one pool, such that e.g. the last planes of one pyramid do not leave
+     * threads idle.
+     *
+     * The written blocks of each view are recorded in an {@link ExportCheckpoint}
+     * file in the group of the view, which is removed once the view is complete.
+     * When resuming an interrupted export into the same n5, complete views and
+     * recorded blocks are skipped.
+     *
+     * @param numConcurrentViews
+     *            The maximal number of views that are written at the same time.
+     *            Limits the memory that is needed for the blocks and caches of
+     *            the views; 1 writes the views one after the other.
+     * @param resumeMode
+     *            which views and blocks of a previous export are skipped;
+     *            with {@link ExportScalePyramid.ResumeMode#NONE} all views are
+     *            written again, also those that were completely written before.
+     * @param shardSize
+     *            the number of blocks per shard in each dimension, such that
+     *            the blocks are packed into a few shard files instead of one
+     *            file each (see {@link Shards}), or null for one file per block.
+     *            Shards that are one block deep in the dimensions after the
+     *            first two are written once, the others once per plane of blocks.
+     */
+    public static void writeN5File(
+            final AbstractSequenceDescription< ?, ?, ? > seq,
+            final Map< Integer, ExportMipmapInfo> perSetupMipmapInfo,
+            final DownsampleBlock.DownsamplingMethod downsamplingMethod,
+            final Compression compression,
+            final File n5File,
+            final ExportScalePyramid.LoopbackHeuristic loopbackHeuristic,
+            final ExportScalePyramid.AfterEachPlane afterEachPlane,
+            final int numCellCreatorThreads,
+            final int numConcurrentViews,
+            final ExportScalePyramid.ResumeMode resumeMode,
+            final int[] shardSize,
+            ProgressWriter progressWriter ) throws IOException
     {
         if ( progressWriter == null )
             progressWriter = new ProgressWriterNull();
@@ -141,7 +200,7 @@ public class WriteSequenceToN5
                 .map( BasicViewSetup::getId )
                 .collect( Collectors.toList() );
 
-        N5Writer n5 = new N5FSWriter( n5File.getAbsolutePath() );
+        final ShardedN5FSWriter n5 = new ShardedN5FSWriter( n5File.getAbsolutePath() );
 
         // write Mipmap descriptions
         for ( final int setupId : setupIds )
@@ -154,75 +213,269 @@ public class WriteSequenceToN5
             n5.setAttribute( pathName, DATA_TYPE_KEY, dataType );
         }
 
+        // the views that are present, in the order in which they are written
+        final List< ViewId > viewIds = new ArrayList<>();
+        for ( final int timepointId : timepointIds )
+            for ( final int setupId : setupIds )
+                if ( seq.getViewDescriptions().get( new ViewId( timepointId, setupId ) ).isPresent() )
+                    viewIds.add( new ViewId( timepointId, setupId ) );
 
-        // calculate number of tasks for progressWriter
-        int numTasks = 0; // first task is for writing mipmap descriptions etc...
-        for ( final int timepointIdSequence : timepointIds )
-            for ( final int setupIdSequence : setupIds )
-                if ( seq.getViewDescriptions().get( new ViewId( timepointIdSequence, setupIdSequence ) ).isPresent() )
-                    numTasks++;
-        int numCompletedTasks = 0;
+        final ViewsProgressWriter viewsProgressWriter = new ViewsProgressWriter( progressWriter, viewIds.size() );
 
         final ExecutorService executorService = Executors.newFixedThreadPool( numCellCreatorThreads );
+        final ExecutorService viewExecutorService = Executors.newFixedThreadPool( Math.max( 1, Math.min( numConcurrentViews, viewIds.size() ) ) );
         try
         {
             // write image data for all views
-            final int numTimepoints = timepointIds.size();
-            int timepointIndex = 0;
-            for ( final int timepointId : timepointIds )
+            final List< Future< Void > > futures = new ArrayList<>();
+            for ( int viewIndex = 0; viewIndex < viewIds.size(); viewIndex++ )
             {
-                progressWriter.out().printf( "proccessing timepoint %d / %d\n", ++timepointIndex, numTimepoints );
-
-                // assemble the viewsetups that are present in this timepoint
-                final ArrayList< Integer > setupsTimePoint = new ArrayList<>();
-                for ( final int setupId : setupIds )
-                    if ( seq.getViewDescriptions().get( new ViewId( timepointId, setupId ) ).isPresent() )
-                        setupsTimePoint.add( setupId );
-
-                final int numSetups = setupsTimePoint.size();
-                int setupIndex = 0;
-                for ( final int setupId : setupsTimePoint )
-                {
-                    progressWriter.out().printf( "proccessing setup %d / %d\n", ++setupIndex, numSetups );
-
-                    final ExportMipmapInfo mipmapInfo = perSetupMipmapInfo.get( setupId );
-                    final double startCompletionRatio = ( double ) numCompletedTasks++ / numTasks;
-                    final double endCompletionRatio = ( double ) numCompletedTasks / numTasks;
-                    final ProgressWriter subProgressWriter = new SubTaskProgressWriter( progressWriter, startCompletionRatio, endCompletionRatio );
-                    writeScalePyramid(
-                            n5, compression, downsamplingMethod,
-                            imgLoader, setupId, timepointId, mipmapInfo,
+                final ViewId viewId = viewIds.get( viewIndex );
+                final ProgressWriter viewProgressWriter = viewsProgressWriter.getViewProgressWriter( viewIndex );
+                futures.add( viewExecutorService.submit( () -> {
+                    writeView(
+                            n5, n5File, compression, downsamplingMethod, seq, imgLoader,
+                            viewId.getSetupId(), viewId.getTimePointId(), perSetupMipmapInfo.get( viewId.getSetupId() ),
                             executorService, numCellCreatorThreads,
-                            loopbackHeuristic, afterEachPlane, subProgressWriter );
-
-
-                    // additional attributes for paintera compatibility
-                    final String pathName = getPathName( setupId, timepointId );
-                    n5.createGroup( pathName );
-                    n5.setAttribute( pathName, MULTI_SCALE_KEY, true );
-                    final VoxelDimensions voxelSize = seq.getViewSetups().get( setupId ).getVoxelSize();
-                    if ( voxelSize != null )
-                    {
-                        final double[] resolution = new double[ voxelSize.numDimensions() ];
-                        voxelSize.dimensions( resolution );
-                        n5.setAttribute( pathName, RESOLUTION_KEY, resolution );
-                    }
-                    final int[][] downsamplingFactors = perSetupMipmapInfo.get( setupId ).getExportResolutions();
-                    for( int l = 0; l < downsamplingFactors.length; ++l )
-                        n5.setAttribute( getPathName( setupId, timepointId, l ), DOWNSAMPLING_FACTORS_KEY, downsamplingFactors[ l ] );
-                }
+                            loopbackHeuristic, afterEachPlane, resumeMode, shardSize, viewProgressWriter );
+                    return null;
+                } ) );
             }
+
+            for ( final Future< Void > future : futures )
+                future.get();
+        }
+        catch ( final InterruptedException | ExecutionException e )
+        {
+            viewExecutorService.shutdownNow();
+            final Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+            if ( cause instanceof IOException )
+                throw ( IOException ) cause;
+            throw new IOException( cause );
         }
         finally
         {
+            viewExecutorService.shutdown();
             executorService.shutdown();
         }
 
         progressWriter.setProgress( 1.0 );
     }
 
+    private static void writeView(
+            final ShardedN5FSWriter n5,
+            final File n5File,
+            final Compression compression,
+            final DownsampleBlock.DownsamplingMethod downsamplingMethod,
+            final AbstractSequenceDescription< ?, ?, ? > seq,
+            final BasicImgLoader imgLoader,
+            final int setupId,
+            final int timepointId,
+            final ExportMipmapInfo mipmapInfo,
+            final ExecutorService executorService,
+            final int numThreads,
+            final ExportScalePyramid.LoopbackHeuristic loopbackHeuristic,
+            final ExportScalePyramid.AfterEachPlane afterEachPlane,
+            final ExportScalePyramid.ResumeMode resumeMode,
+            final int[] shardSize,
+            final ProgressWriter progressWriter ) throws IOException
+    {
+        final String pathName = getPathName( setupId, timepointId );
+        if ( isViewSkipped( n5, pathName, resumeMode ) )
+        {
+            progressWriter.out().printf( "skipping timepoint %d, setup %d: already written\n", timepointId, setupId );
+            progressWriter.setProgress( 1.0 );
+            return;
+        }
+
+        progressWriter.out().printf( "proccessing timepoint %d, setup %d\n", timepointId, setupId );
+
+        n5.createGroup( pathName );
+        n5.setAttribute( pathName, EXPORT_COMPLETE_KEY, false );
+
+        // the chunk indices of a previous export would hide the chunks written now
+        final int[][] downsamplingFactors = mipmapInfo.getExportResolutions();
+        for ( int l = 0; l < downsamplingFactors.length; ++l )
+            new File( new File( n5File, getPathName( setupId, timepointId, l ) ), ChunkIndex.FILE_NAME ).delete();
+
+        // the blocks of a previous export with other shards are not found in the new ones
+        final ExportScalePyramid.ResumeMode viewResumeMode = hasShardSize( n5, setupId, timepointId, downsamplingFactors.length, shardSize )
+                ? resumeMode
+                : ExportScalePyramid.ResumeMode.NONE;
+
+        final File checkpointFile = getCheckpointFile( n5File, pathName );
+        if ( viewResumeMode == ExportScalePyramid.ResumeMode.NONE )
+            checkpointFile.delete();
+        final ExportCheckpoint checkpoint = ExportCheckpoint.load( checkpointFile );
+
+        writeScalePyramid(
+                n5, compression, downsamplingMethod,
+                imgLoader, setupId, timepointId, mipmapInfo,
+                executorService, numThreads,
+                loopbackHeuristic, afterEachPlane,
+                checkpoint, viewResumeMode, shardSize, progressWriter );
+
+        // additional attributes for paintera compatibility
+        n5.setAttribute( pathName, MULTI_SCALE_KEY, true );
+        final VoxelDimensions voxelSize = seq.getViewSetups().get( setupId ).getVoxelSize();
+        if ( voxelSize != null )
+        {
+            final double[] resolution = new double[ voxelSize.numDimensions() ];
+            voxelSize.dimensions( resolution );
+            n5.setAttribute( pathName, RESOLUTION_KEY, resolution );
+        }
+        for( int l = 0; l < downsamplingFactors.length; ++l )
+            n5.setAttribute( getPathName( setupId, timepointId, l ), DOWNSAMPLING_FACTORS_KEY, downsamplingFactors[ l ] );
+
+        // lets the image loaders skip the empty chunks, which are not written
+        for ( int l = 0; l < downsamplingFactors.length; ++l )
+        {
+            final String levelPathName = getPathName( setupId, timepointId, l );
+            final ChunkIndex chunkIndex = ChunkIndex.list( n5, levelPathName, n5.getDatasetAttributes( levelPathName ) );
+            if ( chunkIndex != null )
+                chunkIndex.write( n5, levelPathName );
+        }
+
+        // written last, such that an interrupted export writes this view again
+        n5.setAttribute( pathName, EXPORT_COMPLETE_KEY, true );
+        checkpoint.delete();
+        progressWriter.setProgress( 1.0 );
+    }
+
+    // whether the existing levels of a view have the given shard size
+    private static boolean hasShardSize( final ShardedN5FSWriter n5, final int setupId, final int timepointId, final int numLevels, final int[] shardSize ) throws IOException
+    {
+        for ( int l = 0; l < numLevels; ++l )
+        {
+            final String levelPathName = getPathName( setupId, timepointId, l );
+            if ( n5.datasetExists( levelPathName ) && ! Arrays.equals( n5.getShardSize( levelPathName ), shardSize ) )
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Marks the blocks of all resolution levels of a view that are computed
+     * from a region of the full resolution image as not written. Exporting the
+     * changed image with {@link ExportScalePyramid.ResumeMode#CHECKPOINT} then
+     * only rewrites these blocks.
+     *
+     * @param region
+     *            the changed region, in full resolution voxel coordinates.
+     */
+    public static void setRegionNotWritten(
+            final File n5File,
+            final int setupId,
+            final int timepointId,
+            final ExportMipmapInfo mipmapInfo,
+            final Interval region ) throws IOException
+    {
+        final N5Writer n5 = new N5FSWriter( n5File.getAbsolutePath() );
+        final String pathName = getPathName( setupId, timepointId );
+        final boolean isViewComplete = isViewComplete( n5, pathName );
+        final ExportCheckpoint checkpoint = ExportCheckpoint.load( getCheckpointFile( n5File, pathName ) );
+
+        final int[][] resolutions = mipmapInfo.getExportResolutions();
+        for ( int level = 0; level < resolutions.length; ++level )
+        {
+            final String levelPathName = getPathName( setupId, timepointId, level );
+            if ( !n5.datasetExists( levelPathName ) )
+                continue;
+
+            final DatasetAttributes attributes = n5.getDatasetAttributes( levelPathName );
+            final int[] blockSize = attributes.getBlockSize();
+            final CellGrid grid = new CellGrid( attributes.getDimensions(), blockSize );
+
+            // the checkpoint of a complete view was removed
+            if ( !checkpoint.initLevel( level, grid.getGridDimensions() ) && isViewComplete )
+                checkpoint.setLevelWritten( level );
+
+            final int n = blockSize.length;
+            final long[] min = new long[ n ];
+            final long[] max = new long[ n ];
+            for ( int d = 0; d < n; ++d )
+            {
+                min[ d ] = region.min( d ) / resolutions[ level ][ d ] / blockSize[ d ];
+                max[ d ] = region.max( d ) / resolutions[ level ][ d ] / blockSize[ d ];
+            }
+            checkpoint.setBlocksNotWritten( level, new FinalInterval( min, max ) );
+        }
+
+        checkpoint.save();
+        n5.setAttribute( pathName, EXPORT_COMPLETE_KEY, false );
+    }
+
+    private static File getCheckpointFile( final File n5File, final String pathName )
+    {
+        return new File( new File( n5File, pathName ), CHECKPOINT_FILE_NAME );
+    }
+
+    // only a resumed export skips complete views, a new export of the same dataset may write changed data
+    private static boolean isViewSkipped( final N5Writer n5, final String pathName, final ExportScalePyramid.ResumeMode resumeMode ) throws IOException
+    {
+        return resumeMode != ExportScalePyramid.ResumeMode.NONE && isViewComplete( n5, pathName );
+    }
+
+    private static boolean isViewComplete( final N5Writer n5, final String pathName ) throws IOException
+    {
+        if ( !n5.exists( pathName ) )
+            return false;
+
+        final Boolean isComplete = n5.getAttribute( pathName, EXPORT_COMPLETE_KEY, Boolean.class );
+        return isComplete != null && isComplete;
+    }
+
+    /**
+     * Combines the progress of the views that are written at the same time.
+     */
+    private static class ViewsProgressWriter
+    {
+        private final ProgressWriter progressWriter;
+        private final double[] viewProgresses;
+
+        ViewsProgressWriter( final ProgressWriter progressWriter, final int numViews )
+        {
+            this.progressWriter = progressWriter;
+            this.viewProgresses = new double[ numViews ];
+        }
+
+        ProgressWriter getViewProgressWriter( final int viewIndex )
+        {
+            return new ProgressWriter()
+            {
+                @Override
+                public PrintStream out()
+                {
+                    return progressWriter.out();
+                }
+
+                @Override
+                public PrintStream err()
+                {
+                    return progressWriter.err();
+                }
+
+                @Override
+                public void setProgress( final double completionRatio )
+                {
+                    setViewProgress( viewIndex, completionRatio );
+                }
+            };
+        }
+
+        private synchronized void setViewProgress( final int viewIndex, final double completionRatio )
+        {
+            viewProgresses[ viewIndex ] = completionRatio;
+
+            double sum = 0;
+            for ( final double viewProgress : viewProgresses )
+                sum += viewProgress;
+            progressWriter.setProgress( sum / viewProgresses.length );
+        }
+    }
+
     static < T extends RealType< T > & NativeType< T > > void writeScalePyramid(
-            final N5Writer n5,
+            final ShardedN5FSWriter n5,
             final Compression compression,
             final DownsampleBlock.DownsamplingMethod downsamplingMethod,
             final BasicImgLoader imgLoader,
@@ -233,44 +486,68 @@ public class WriteSequenceToN5
             final int numThreads,
             final ExportScalePyramid.LoopbackHeuristic loopbackHeuristic,
             final ExportScalePyramid.AfterEachPlane afterEachPlane,
+            final ExportCheckpoint checkpoint,
+            final ExportScalePyramid.ResumeMode resumeMode,
+            final int[] shardSize,
             ProgressWriter progressWriter ) throws IOException
     {
         final BasicSetupImgLoader< T > setupImgLoader = Cast.unchecked( imgLoader.getSetupImgLoader( setupId ) );
         final RandomAccessibleInterval< T > img = setupImgLoader.getImage( timepointId );
         final T type = setupImgLoader.getImageType();
-        final N5DatasetIO< T > io = new N5DatasetIO<>( n5, compression, setupId, timepointId, type );
+        final N5DatasetIO< T > io = new N5DatasetIO<>( n5, compression, setupId, timepointId, type, shardSize );
         ExportScalePyramid.writeScalePyramid(
                 img, type, mipmapInfo, downsamplingMethod, io,
                 executorService, numThreads,
-                loopbackHeuristic, afterEachPlane, progressWriter );
+                loopbackHeuristic, afterEachPlane,
+                checkpoint, resumeMode, progressWriter );
     }
 
     static class N5Dataset
     {
         final String pathName;
         final DatasetAttributes attributes;
+        final long[] gridDimensions;
+
+        // the shards whose blocks are not all written yet
+        final Map< List< Long >, PendingShard > pendingShards = new HashMap<>();
 
         public N5Dataset( final String pathName, final DatasetAttributes attributes )
         {
             this.pathName = pathName;
             this.attributes = attributes;
+            this.gridDimensions = new CellGrid( attributes.getDimensions(), attributes.getBlockSize() ).getGridDimensions();
+        }
+    }
+
+    static class PendingShard
+    {
+        final long[] shardPosition;
+        final int numBlocks;
+        final Map< Integer, byte[] > blocks = new HashMap<>();
+
+        public PendingShard( final long[] shardPosition, final int numBlocks )
+        {
+            this.shardPosition = shardPosition;
+            this.numBlocks = numBlocks;
         }
     }
 
     static class N5DatasetIO< T extends RealType< T > & NativeType< T > > implements ExportScalePyramid.DatasetIO< N5Dataset, T >
     {
-        private final N5Writer n5;
+        private final ShardedN5FSWriter n5;
         private final Compression compression;
+        private final int[] shardSize;
         private final int setupId;
         private final int timepointId;
         private final DataType dataType;
         private final T type;
         private final Function< ExportScalePyramid.Block< T >, DataBlock< ? > > getDataBlock;
 
-        public N5DatasetIO( final N5Writer n5, final Compression compression, final int setupId, final int timepointId, final T type )
+        public N5DatasetIO( final ShardedN5FSWriter n5, final Compression compression, final int setupId, final int timepointId, final T type, final int[] shardSize )
         {
             this.n5 = n5;
             this.compression = compression;
+            this.shardSize = shardSize;
             this.setupId = setupId;
             this.timepointId = timepointId;
             this.dataType = N5Utils.dataType( type );
@@ -317,20 +594,126 @@ public class WriteSequenceToN5
         public N5Dataset createDataset( final int level, final long[] dimensions, final int[] blockSize ) throws IOException
         {
             final String pathName = getPathName( setupId, timepointId, level );
+            if ( shardSize != null && shardSize.length != dimensions.length )
+                throw new IllegalArgumentException( "Shard size " + Arrays.toString( shardSize ) + " does not match the dimensions " + Arrays.toString( dimensions ) );
+
             n5.createDataset( pathName, dimensions, blockSize, dataType, compression );
+            // also removes the shard size of a previous export
+            if ( shardSize != null || n5.getShardSize( pathName ) != null )
+                n5.setShardSize( pathName, shardSize );
             final DatasetAttributes attributes = n5.getDatasetAttributes( pathName );
             return new N5Dataset( pathName, attributes );
         }
 
+        /**
+         * Blocks of zeros are not written, as the image loaders read missing
+         * blocks as zeros. A block written by a previous export is removed.
+         *
+         * The blocks of a shard are collected until all of them are written,
+         * and the shard is then written at once.
+         */
         @Override
         public void writeBlock( final N5Dataset dataset, final ExportScalePyramid.Block< T > dataBlock ) throws IOException
         {
-            n5.writeBlock( dataset.pathName, dataset.attributes, getDataBlock.apply( dataBlock ) );
+            final boolean isEmpty = isEmpty( dataBlock.getData().getStorageArray() );
+            if ( shardSize == null )
+            {
+                if ( isEmpty )
+                    n5.deleteBlock( dataset.pathName, dataBlock.getGridPosition() );
+                else
+                    n5.writeBlock( dataset.pathName, dataset.attributes, getDataBlock.apply( dataBlock ) );
+                return;
+            }
+
+            final byte[] block = isEmpty ? null : ShardedN5FSWriter.encode( dataset.attributes, getDataBlock.apply( dataBlock ) );
+            final long[] gridPosition = dataBlock.getGridPosition();
+            final long[] shardPosition = Shards.getShardPosition( gridPosition, shardSize );
+            final List< Long > key = Arrays.stream( shardPosition ).boxed().collect( Collectors.toList() );
+
+            final PendingShard shard;
+            synchronized ( dataset.pendingShards )
+            {
+                shard = dataset.pendingShards.computeIfAbsent( key,
+                        k -> new PendingShard( shardPosition, Shards.getNumBlocksInGrid( shardPosition, shardSize, dataset.gridDimensions ) ) );
+                shard.blocks.put( Shards.getBlockIndex( gridPosition, shardSize ), block );
+                if ( shard.blocks.size() < shard.numBlocks )
+                    return;
+                dataset.pendingShards.remove( key );
+            }
+
+            n5.writeShard( dataset.pathName, shard.shardPosition, shard.blocks );
+        }
+
+        private static boolean isEmpty( final Object data )
+        {
+            if ( data instanceof byte[] )
+            {
+                for ( final byte value : ( byte[] ) data )
+                    if ( value != 0 ) return false;
+            }
+            else if ( data instanceof short[] )
+            {
+                for ( final short value : ( short[] ) data )
+                    if ( value != 0 ) return false;
+            }
+            else if ( data instanceof int[] )
+            {
+                for ( final int value : ( int[] ) data )
+                    if ( value != 0 ) return false;
+            }
+            else if ( data instanceof long[] )
+            {
+                for ( final long value : ( long[] ) data )
+                    if ( value != 0 ) return false;
+            }
+            else if ( data instanceof float[] )
+            {
+                for ( final float value : ( float[] ) data )
+                    if ( value != 0 ) return false;
+            }
+            else if ( data instanceof double[] )
+            {
+                for ( final double value : ( double[] ) data )
+                    if ( value != 0 ) return false;
+            }
+            else
+                return false;
+
+            return true;
         }
 
         @Override
-        public void flush( final N5Dataset dataset )
-        {}
+        public boolean isBlockWritten( final N5Dataset dataset, final long[] gridPosition, final int[] blockSize )
+        {
+            try
+            {
+                final DataBlock< ? > block = n5.readBlock( dataset.pathName, dataset.attributes, gridPosition );
+                return block != null && Arrays.equals( block.getSize(), blockSize );
+            }
+            catch ( final IOException | RuntimeException e )
+            {
+                // e.g. a partially written block
+                return false;
+            }
+        }
+
+        /**
+         * Writes the shards whose blocks are not all written, e.g. because
+         * they were skipped when resuming, keeping their existing blocks.
+         */
+        @Override
+        public void flush( final N5Dataset dataset ) throws IOException
+        {
+            final List< PendingShard > shards;
+            synchronized ( dataset.pendingShards )
+            {
+                shards = new ArrayList<>( dataset.pendingShards.values() );
+                dataset.pendingShards.clear();
+            }
+
+            for ( final PendingShard shard : shards )
+                n5.writeShard( dataset.pathName, shard.shardPosition, shard.blocks );
+        }
 
         @Override
         public RandomAccessibleInterval< T > getImage( final int level ) throws IOException
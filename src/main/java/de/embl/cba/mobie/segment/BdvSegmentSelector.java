@@ -3,28 +3,50 @@ package de.embl.cba.mobie.segment;
 import bdv.util.BdvHandle;
 import bdv.viewer.Source;
 import bdv.viewer.SourceAndConverter;
+import de.embl.cba.mobie.ThreadUtils;
 import de.embl.cba.mobie.bdv.BdvMousePositionProvider;
+import de.embl.cba.mobie.bdv.SourceBoundsIndex;
 import de.embl.cba.mobie.display.SegmentationSourceDisplay;
+import de.embl.cba.tables.Logger;
 import de.embl.cba.tables.tablerow.TableRowImageSegment;
+import net.imglib2.Point;
 import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.RealPoint;
+import net.imglib2.Volatile;
 import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.ValuePair;
 import sc.fiji.bdvpg.sourceandconverter.SourceAndConverterHelper;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.function.Supplier;
 
 public class BdvSegmentSelector implements Runnable
 {
+	// toggles that undo a provisional toggle do not focus
+	private static final long NO_CLICK = -1;
+
 	private BdvHandle bdvHandle;
 	private boolean is2D;
 	private Supplier< Collection< SegmentationSourceDisplay > > segmentationDisplaySupplier;
+	private SourceBoundsIndex sourceBoundsIndex;
+	private long numClicks;
 
 	public BdvSegmentSelector( BdvHandle bdvHandle, boolean is2D, Supplier< Collection< SegmentationSourceDisplay > > segmentationDisplaySupplier )
+	{
+		this( bdvHandle, is2D, segmentationDisplaySupplier, null );
+	}
+
+	public BdvSegmentSelector( BdvHandle bdvHandle, boolean is2D, Supplier< Collection< SegmentationSourceDisplay > > segmentationDisplaySupplier, SourceBoundsIndex sourceBoundsIndex )
 	{
 		this.bdvHandle = bdvHandle;
 		this.is2D = is2D;
 		this.segmentationDisplaySupplier = segmentationDisplaySupplier;
+		this.sourceBoundsIndex = sourceBoundsIndex;
 	}
 
 	public synchronized void clearSelection()
@@ -37,36 +59,100 @@ public class BdvSegmentSelector implements Runnable
 		}
 	}
 
+	/**
+	 * Toggles the segments at the mouse position without blocking the caller.
+	 * If the full resolution label is already cached the segment is toggled
+	 * right away. Otherwise the label of the finest cached resolution is
+	 * toggled provisionally, and corrected once the full resolution has been
+	 * loaded in the background: if the labels differ, the provisional toggle
+	 * is undone and the segment of the full resolution label is toggled.
+	 */
 	private synchronized void toggleSelectionAtMousePosition()
 	{
 		final BdvMousePositionProvider positionProvider = new BdvMousePositionProvider( bdvHandle );
 		final int timePoint = positionProvider.getTimePoint();
 		final RealPoint position = positionProvider.getPosition();
+		final long click = ++numClicks;
 
 		final Collection< SegmentationSourceDisplay > segmentationDisplays = segmentationDisplaySupplier.get();
 
+		final Set< SourceAndConverter< ? > > indexedSourcesAtPosition = sourceBoundsIndex == null ? Collections.emptySet() : new HashSet<>( sourceBoundsIndex.getSourceAndConverters( position, timePoint ) );
+
 		for ( SegmentationSourceDisplay segmentationDisplay : segmentationDisplays )
 		{
 			for ( SourceAndConverter< ? > sourceAndConverter : segmentationDisplay.sourceAndConverters )
 			{
-				if ( SourceAndConverterHelper.isPositionWithinSourceInterval( sourceAndConverter, position, timePoint, is2D ) )
+				final boolean isAtPosition = sourceBoundsIndex != null && sourceBoundsIndex.contains( sourceAndConverter ) ?
+						indexedSourcesAtPosition.contains( sourceAndConverter ) :
+						SourceAndConverterHelper.isPositionWithinSourceInterval( sourceAndConverter, position, timePoint, is2D );
+
+				if ( isAtPosition )
 				{
 					final Source< ? > source = sourceAndConverter.getSpimSource();
-					final double labelIndex = getPixelValue( timePoint, position, source );
-					if ( labelIndex == 0 ) return;
-
-					final TableRowImageSegment segment = segmentationDisplay.segmentAdapter.getSegment( labelIndex, timePoint, source.getName() );
+					final Source< ? > volatileSource = sourceAndConverter.asVolatile() == null ? null : sourceAndConverter.asVolatile().getSpimSource();
 
-					segmentationDisplay.selectionModel.toggle( segment );
-					if ( segmentationDisplay.selectionModel.isSelected( segment ) )
+					final ValuePair< Integer, Double > cached = getFinestCachedPixelValue( timePoint, position, volatileSource );
+					if ( cached != null )
 					{
-						segmentationDisplay.selectionModel.focus( segment );
+						if ( cached.getB() != 0 )
+							toggle( segmentationDisplay, source, cached.getB(), timePoint, click );
+						if ( cached.getA() == 0 ) continue;
 					}
+
+					final Double provisionalLabel = cached == null ? null : cached.getB();
+					ThreadUtils.getSelectionExecutorService().submit( () -> {
+						try
+						{
+							toggleWhenLoaded( segmentationDisplay, source, timePoint, position, provisionalLabel, click );
+						}
+						catch ( Exception e )
+						{
+							Logger.warn( "Could not select the segment of " + source.getName() + " at " + position + ": " + e );
+						}
+					} );
 				}
 			}
 		}
 	}
 
+	/**
+	 * @param provisionalLabel
+	 * 			the label that was toggled from a lower resolution, or null
+	 */
+	private void toggleWhenLoaded( SegmentationSourceDisplay segmentationDisplay, Source< ? > source, int timePoint, RealPoint position, Double provisionalLabel, long click )
+	{
+		// blocks until the full resolution data is loaded
+		final double labelIndex = getPixelValue( timePoint, position, source );
+		if ( provisionalLabel != null && provisionalLabel == labelIndex ) return;
+
+		synchronized ( this )
+		{
+			// toggles commute, such that undoing is correct also after further clicks
+			if ( provisionalLabel != null && provisionalLabel != 0 )
+				toggle( segmentationDisplay, source, provisionalLabel, timePoint, NO_CLICK );
+			if ( labelIndex != 0 )
+				toggle( segmentationDisplay, source, labelIndex, timePoint, click );
+		}
+	}
+
+	// toggles commute, such that clicks may be completed in any order;
+	// only the segment of the latest click is focussed
+	private void toggle( SegmentationSourceDisplay segmentationDisplay, Source< ? > source, double labelIndex, int timePoint, long click )
+	{
+		final TableRowImageSegment segment = segmentationDisplay.segmentAdapter.getSegment( labelIndex, timePoint, source.getName() );
+		if ( segment == null )
+		{
+			Logger.warn( "There is no segment with label " + labelIndex + " in the table of " + source.getName() + "." );
+			return;
+		}
+
+		segmentationDisplay.selectionModel.toggle( segment );
+		if ( click == numClicks && segmentationDisplay.selectionModel.isSelected( segment ) )
+		{
+			segmentationDisplay.selectionModel.focus( segment );
+		}
+	}
+
 	private static double getPixelValue( int timePoint, RealPoint position, Source< ? > source )
 	{
 		final RandomAccess< RealType > randomAccess = ( RandomAccess< RealType > ) source.getSource( timePoint, 0 ).randomAccess();
@@ -76,6 +162,44 @@ public class BdvSegmentSelector implements Runnable
 		return labelIndex;
 	}
 
+	/**
+	 * @return the level and label of the finest resolution whose label at the
+	 * position is cached, or null if none of them is cached
+	 */
+	private static ValuePair< Integer, Double > getFinestCachedPixelValue( int timePoint, RealPoint position, Source< ? > volatileSource )
+	{
+		if ( volatileSource == null ) return null;
+
+		for ( int level = 0; level < volatileSource.getNumMipmapLevels(); level++ )
+		{
+			final Double label = getCachedPixelValue( timePoint, position, volatileSource, level );
+			if ( label != null )
+				return new ValuePair<>( level, label );
+		}
+
+		return null;
+	}
+
+	/**
+	 * @return the label at the position if it is cached, or null if it still has to be loaded
+	 */
+	private static Double getCachedPixelValue( int timePoint, RealPoint position, Source< ? > volatileSource, int level )
+	{
+		final RandomAccessibleInterval< ? > rai = volatileSource.getSource( timePoint, level );
+		final long[] positionInSource = SourceAndConverterHelper.getVoxelPositionInSource( volatileSource, position, timePoint, level );
+		if ( ! Intervals.contains( rai, new Point( positionInSource ) ) ) return null;
+
+		final RandomAccess< ? > randomAccess = rai.randomAccess();
+		randomAccess.setPosition( positionInSource );
+		final Object value = randomAccess.get();
+		if ( ! ( value instanceof Volatile ) ) return null;
+
+		final Volatile< ? > volatileValue = ( Volatile< ? > ) value;
+		if ( ! volatileValue.isValid() ) return null;
+
+		return ( ( RealType< ? > ) volatileValue.get() ).getRealDouble();
+	}
+
 	@Override
 	public void run()
 	{
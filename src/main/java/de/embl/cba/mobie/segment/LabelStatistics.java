@@ -0,0 +1,312 @@
+package de.embl.cba.mobie.segment;
+
+import de.embl.cba.mobie.ThreadUtils;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import net.imglib2.Cursor;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.algorithm.util.Grids;
+import net.imglib2.img.cell.AbstractCellImg;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Voxel count, bounding box and centroid of all labels of a label image,
+ * in voxel coordinates of that image.
+ *
+ * They are computed in one pass over the image, block-wise and in parallel,
+ * and can be written to and read from a (tab separated) sidecar file.
+ * The blocks are processed in batches, such that only the statistics of the
+ * labels, but not of all blocks, are kept in memory.
+ */
+public class LabelStatistics
+{
+	public static final int[] DEFAULT_BLOCK_SIZE = new int[]{ 64, 64, 64 };
+	public static final int NUM_BLOCKS_PER_BATCH = 16 * ThreadUtils.N_IO_THREADS;
+
+	private static final String LABEL_ID = "label_id";
+	private static final String NUM_VOXELS = "num_voxels";
+
+	private final int numDimensions;
+	private final TLongObjectHashMap< Statistics > labelToStatistics;
+
+	private LabelStatistics( int numDimensions, TLongObjectHashMap< Statistics > labelToStatistics )
+	{
+		this.numDimensions = numDimensions;
+		this.labelToStatistics = labelToStatistics;
+	}
+
+	/**
+	 * @return the statistics of the label, or null if the label is not in the image
+	 */
+	public Statistics get( long label )
+	{
+		return labelToStatistics.get( label );
+	}
+
+	public int numLabels()
+	{
+		return labelToStatistics.size();
+	}
+
+	/**
+	 * @return the labels, in ascending order
+	 */
+	public long[] getLabels()
+	{
+		final long[] labels = labelToStatistics.keys();
+		Arrays.sort( labels );
+		return labels;
+	}
+
+	/**
+	 * Computes the statistics of all labels, except the background label 0.
+	 * The blocks are the cells of the image, if it is a cell image, e.g. of an N5 or OME-Zarr
+	 * image loader, such that each cell is loaded only once.
+	 */
+	public static LabelStatistics compute( RandomAccessibleInterval< ? extends RealType< ? > > labels )
+	{
+		if ( labels instanceof AbstractCellImg )
+		{
+			final int[] cellDimensions = new int[ labels.numDimensions() ];
+			( ( AbstractCellImg< ?, ?, ?, ? > ) labels ).getCellGrid().cellDimensions( cellDimensions );
+			return compute( labels, cellDimensions );
+		}
+
+		return compute( labels, DEFAULT_BLOCK_SIZE );
+	}
+
+	public static LabelStatistics compute( RandomAccessibleInterval< ? extends RealType< ? > > labels, int[] blockSize )
+	{
+		final int numDimensions = labels.numDimensions();
+		final RandomAccessibleInterval< ? extends RealType< ? > > zeroMinLabels = Views.zeroMin( labels );
+		final long[] offset = Intervals.minAsLongArray( labels );
+
+		final List< Interval > blocks = Grids.collectAllContainedIntervals( Intervals.dimensionsAsLongArray( labels ), blockSize );
+
+		final TLongObjectHashMap< Statistics > labelToStatistics = new TLongObjectHashMap<>();
+		for ( int batchStart = 0; batchStart < blocks.size(); batchStart += NUM_BLOCKS_PER_BATCH )
+		{
+			final List< Callable< TLongObjectHashMap< Statistics > > > tasks = new ArrayList<>();
+			for ( Interval block : blocks.subList( batchStart, Math.min( blocks.size(), batchStart + NUM_BLOCKS_PER_BATCH ) ) )
+				tasks.add( () -> computeBlock( zeroMinLabels, block, offset ) );
+
+			for ( TLongObjectHashMap< Statistics > blockStatistics : ThreadUtils.invokeAll( tasks ) )
+				merge( labelToStatistics, blockStatistics );
+		}
+
+		return new LabelStatistics( numDimensions, labelToStatistics );
+	}
+
+	// the statistics of labels that span several blocks are merged
+	private static void merge( TLongObjectHashMap< Statistics > labelToStatistics, TLongObjectHashMap< Statistics > blockStatistics )
+	{
+		blockStatistics.forEachEntry( ( label, statistics ) ->
+		{
+			final Statistics existing = labelToStatistics.get( label );
+			if ( existing == null )
+				labelToStatistics.put( label, statistics );
+			else
+				existing.add( statistics );
+			return true;
+		} );
+	}
+
+	private static TLongObjectHashMap< Statistics > computeBlock( RandomAccessibleInterval< ? extends RealType< ? > > labels, Interval block, long[] offset )
+	{
+		final int numDimensions = labels.numDimensions();
+		final TLongObjectHashMap< Statistics > labelToStatistics = new TLongObjectHashMap<>();
+		final long[] position = new long[ numDimensions ];
+
+		// neighbouring voxels mostly have the same label
+		long lastLabel = 0;
+		Statistics lastStatistics = null;
+
+		// labels beyond 2^53 are not exactly representable as double
+		final boolean isIntegerType = Util.getTypeFromInterval( labels ) instanceof IntegerType;
+
+		final Cursor< ? extends RealType< ? > > cursor = Views.interval( labels, block ).localizingCursor();
+		while ( cursor.hasNext() )
+		{
+			final RealType< ? > value = cursor.next();
+			final long label = isIntegerType ? ( ( IntegerType< ? > ) value ).getIntegerLong() : ( long ) value.getRealDouble();
+			if ( label == 0 ) continue;
+
+			if ( lastStatistics == null || label != lastLabel )
+			{
+				lastStatistics = labelToStatistics.get( label );
+				if ( lastStatistics == null )
+				{
+					lastStatistics = new Statistics( numDimensions );
+					labelToStatistics.put( label, lastStatistics );
+				}
+				lastLabel = label;
+			}
+
+			cursor.localize( position );
+			for ( int d = 0; d < numDimensions; d++ )
+				position[ d ] += offset[ d ];
+			lastStatistics.add( position );
+		}
+
+		return labelToStatistics;
+	}
+
+	public void write( File file ) throws IOException
+	{
+		try ( BufferedWriter writer = new BufferedWriter( new FileWriter( file ) ) )
+		{
+			writer.write( LABEL_ID + "\t" + NUM_VOXELS );
+			for ( String column : new String[]{ "centroid", "bb_min", "bb_max" } )
+				for ( int d = 0; d < numDimensions; d++ )
+					writer.write( "\t" + column + "_" + d );
+			writer.newLine();
+
+			final IOException[] exception = new IOException[ 1 ];
+			labelToStatistics.forEachEntry( ( label, statistics ) ->
+			{
+				final StringBuilder line = new StringBuilder();
+				line.append( label ).append( "\t" ).append( statistics.numVoxels );
+				for ( double value : statistics.getCentroid() )
+					line.append( "\t" ).append( value );
+				for ( long value : statistics.min )
+					line.append( "\t" ).append( value );
+				for ( long value : statistics.max )
+					line.append( "\t" ).append( value );
+
+				try
+				{
+					writer.write( line.toString() );
+					writer.newLine();
+					return true;
+				}
+				catch ( IOException e )
+				{
+					exception[ 0 ] = e;
+					return false;
+				}
+			} );
+
+			if ( exception[ 0 ] != null ) throw exception[ 0 ];
+		}
+	}
+
+	public static LabelStatistics read( File file ) throws IOException
+	{
+		try ( BufferedReader reader = new BufferedReader( new FileReader( file ) ) )
+		{
+			final String header = reader.readLine();
+			if ( header == null || ! header.startsWith( LABEL_ID ) )
+				throw new IOException( "Not a label statistics file: " + file );
+
+			final int numDimensions = ( header.split( "\t" ).length - 2 ) / 3;
+			final TLongObjectHashMap< Statistics > labelToStatistics = new TLongObjectHashMap<>();
+
+			String line;
+			while ( ( line = reader.readLine() ) != null )
+			{
+				final String[] values = line.split( "\t" );
+				if ( values.length != 2 + 3 * numDimensions )
+					throw new IOException( "Invalid line in " + file + ": " + line );
+
+				try
+				{
+					final Statistics statistics = new Statistics( numDimensions );
+					statistics.numVoxels = Long.parseLong( values[ 1 ] );
+					for ( int d = 0; d < numDimensions; d++ )
+					{
+						statistics.sum[ d ] = Double.parseDouble( values[ 2 + d ] ) * statistics.numVoxels;
+						statistics.min[ d ] = Long.parseLong( values[ 2 + numDimensions + d ] );
+						statistics.max[ d ] = Long.parseLong( values[ 2 + 2 * numDimensions + d ] );
+					}
+					labelToStatistics.put( Long.parseLong( values[ 0 ] ), statistics );
+				}
+				catch ( NumberFormatException e )
+				{
+					throw new IOException( "Invalid line in " + file + ": " + line, e );
+				}
+			}
+
+			return new LabelStatistics( numDimensions, labelToStatistics );
+		}
+	}
+
+	public static class Statistics
+	{
+		private long numVoxels;
+		private final long[] min;
+		private final long[] max;
+		private final double[] sum;
+
+		private Statistics( int numDimensions )
+		{
+			min = new long[ numDimensions ];
+			max = new long[ numDimensions ];
+			sum = new double[ numDimensions ];
+			for ( int d = 0; d < numDimensions; d++ )
+			{
+				min[ d ] = Long.MAX_VALUE;
+				max[ d ] = Long.MIN_VALUE;
+			}
+		}
+
+		public long getNumVoxels()
+		{
+			return numVoxels;
+		}
+
+		public long[] getMin()
+		{
+			return min.clone();
+		}
+
+		public long[] getMax()
+		{
+			return max.clone();
+		}
+
+		public double[] getCentroid()
+		{
+			final double[] centroid = new double[ sum.length ];
+			for ( int d = 0; d < sum.length; d++ )
+				centroid[ d ] = sum[ d ] / numVoxels;
+			return centroid;
+		}
+
+		private void add( long[] position )
+		{
+			numVoxels++;
+			for ( int d = 0; d < position.length; d++ )
+			{
+				min[ d ] = Math.min( min[ d ], position[ d ] );
+				max[ d ] = Math.max( max[ d ], position[ d ] );
+				sum[ d ] += position[ d ];
+			}
+		}
+
+		private void add( Statistics statistics )
+		{
+			numVoxels += statistics.numVoxels;
+			for ( int d = 0; d < sum.length; d++ )
+			{
+				min[ d ] = Math.min( min[ d ], statistics.min[ d ] );
+				max[ d ] = Math.max( max[ d ], statistics.max[ d ] );
+				sum[ d ] += statistics.sum[ d ];
+			}
+		}
+	}
+}
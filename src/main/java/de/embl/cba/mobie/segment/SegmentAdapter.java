@@ -1,49 +1,46 @@
 package de.embl.cba.mobie.segment;
 
-import de.embl.cba.tables.imagesegment.DefaultImageSegment;
 import de.embl.cba.tables.imagesegment.ImageSegment;
-import de.embl.cba.tables.imagesegment.LabelFrameAndImage;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class SegmentAdapter< T extends ImageSegment >
 {
-	private HashMap< LabelFrameAndImage, T > labelFrameAndImageToSegment;
+	private final ConcurrentHashMap< String, SegmentIndex< T > > imageIdToSegmentIndex;
 
 	/**
 	 * For lazy initialization
 	 */
 	public SegmentAdapter()
 	{
-		labelFrameAndImageToSegment = new HashMap<>();
+		imageIdToSegmentIndex = new ConcurrentHashMap<>();
 	}
 
 	public SegmentAdapter( List< T > segments )
 	{
-		labelFrameAndImageToSegment = new HashMap<>();
+		imageIdToSegmentIndex = new ConcurrentHashMap<>();
 
 		for ( T segment : segments )
-			labelFrameAndImageToSegment.put( new LabelFrameAndImage( segment ), segment );
+			getSegmentIndex( segment.imageId() ).add( segment );
 	}
 
-	public T getSegment( double label, int t, String imageId )
+	/**
+	 * The returned index can be kept by converters,
+	 * such that the per pixel lookup does not need to go via the image id.
+	 *
+	 * @param imageId
+	 * @return index of all segments of this image
+	 */
+	public SegmentIndex< T > getSegmentIndex( String imageId )
 	{
-		final LabelFrameAndImage labelFrameAndImage = new LabelFrameAndImage( label, t, imageId  );
-
-		return getSegment( labelFrameAndImage );
+		return imageIdToSegmentIndex.computeIfAbsent( imageId, SegmentIndex::new );
 	}
 
-	private T getSegment( LabelFrameAndImage labelFrameAndImage )
+	public T getSegment( double label, int t, String imageId )
 	{
-		if ( ! labelFrameAndImageToSegment.containsKey( labelFrameAndImage ) )
-		{
-			final DefaultImageSegment defaultImageSegment = new DefaultImageSegment( labelFrameAndImage.getImage(), labelFrameAndImage.getLabel(), labelFrameAndImage.getFrame(), 0, 0, 0, null );
-			labelFrameAndImageToSegment.put( labelFrameAndImage, ( T ) defaultImageSegment );
-		}
-
-		return labelFrameAndImageToSegment.get( labelFrameAndImage );
+		return getSegmentIndex( imageId ).getSegment( ( long ) label, t );
 	}
 
 	// deserialize
@@ -53,8 +50,7 @@ public class SegmentAdapter< T extends ImageSegment >
 		for ( String serialisedSegment : serialisedSegments )
 		{
 			final String[] split = serialisedSegment.split( ";" );
-			final LabelFrameAndImage labelFrameAndImage = new LabelFrameAndImage( Double.parseDouble( split[2] ), Integer.parseInt( split[1] ), split[0] );
-			segments.add( getSegment( labelFrameAndImage ) );
+			segments.add( getSegment( Double.parseDouble( split[2] ), Integer.parseInt( split[1] ), split[0] ) );
 		}
 
 		return segments;
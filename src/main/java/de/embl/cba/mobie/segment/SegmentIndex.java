@@ -0,0 +1,131 @@
+package de.embl.cba.mobie.segment;
+
+import de.embl.cba.tables.imagesegment.DefaultImageSegment;
+import de.embl.cba.tables.imagesegment.ImageSegment;
+import gnu.trove.map.hash.TLongObjectHashMap;
+
+import java.util.Arrays;
+
+/**
+ * Segments of one label image, keyed on timepoint and (primitive) label id.
+ *
+ * {@link #getSegment(long, int)} does not allocate for known segments and
+ * may be called concurrently from the BDV render threads.
+ * Segments that are not part of a table are created lazily
+ * as {@link DefaultImageSegment}.
+ *
+ * @param < T >
+ */
+public class SegmentIndex< T extends ImageSegment >
+{
+	private final String imageId;
+
+	// copy on write, index is the timepoint
+	private volatile LabelMap< T >[] labelMaps;
+
+	public SegmentIndex( String imageId )
+	{
+		this.imageId = imageId;
+		this.labelMaps = new LabelMap[ 0 ];
+	}
+
+	public String getImageId()
+	{
+		return imageId;
+	}
+
+	/**
+	 * @throws IllegalArgumentException for a negative timepoint
+	 */
+	public T getSegment( long label, int t )
+	{
+		final LabelMap< T >[] labelMaps = this.labelMaps;
+
+		if ( t >= 0 && t < labelMaps.length && labelMaps[ t ] != null )
+		{
+			final T segment = labelMaps[ t ].get( label );
+			if ( segment != null ) return segment;
+		}
+
+		return getOrCreateSegment( label, t );
+	}
+
+	public synchronized void add( T segment )
+	{
+		getLabelMap( segment.timePoint() ).put( ( long ) segment.labelId(), segment );
+	}
+
+	private synchronized T getOrCreateSegment( long label, int t )
+	{
+		final LabelMap< T > labelMap = getLabelMap( t );
+
+		T segment = labelMap.get( label );
+
+		if ( segment == null )
+		{
+			segment = ( T ) new DefaultImageSegment( imageId, label, t, 0, 0, 0, null );
+			labelMap.put( label, segment );
+		}
+
+		return segment;
+	}
+
+	// must be called while holding the lock
+	private LabelMap< T > getLabelMap( int t )
+	{
+		if ( t < 0 )
+			throw new IllegalArgumentException( "Negative timepoint " + t + " of image " + imageId );
+
+		if ( t < labelMaps.length && labelMaps[ t ] != null )
+			return labelMaps[ t ];
+
+		final LabelMap< T >[] copy = Arrays.copyOf( labelMaps, Math.max( labelMaps.length, t + 1 ) );
+		copy[ t ] = new LabelMap<>();
+		labelMaps = copy;
+		return copy[ t ];
+	}
+
+	/**
+	 * Readers only look at the published levels, which are never modified,
+	 * and do not lock. Each added segment is published as a new level right away,
+	 * and levels of similar size are merged, such that there are O(log n) levels
+	 * and adding stays amortised O(log n) per segment. The largest level, e.g. all
+	 * segments of a table, comes first, such that most lookups hit the first level.
+	 */
+	private static class LabelMap< T >
+	{
+		private volatile TLongObjectHashMap< T >[] levels = new TLongObjectHashMap[ 0 ];
+
+		private T get( long label )
+		{
+			final TLongObjectHashMap< T >[] levels = this.levels;
+			for ( int i = 0; i < levels.length; i++ )
+			{
+				final T segment = levels[ i ].get( label );
+				if ( segment != null ) return segment;
+			}
+			return null;
+		}
+
+		// must be called while holding the lock of the index
+		private void put( long label, T segment )
+		{
+			TLongObjectHashMap< T > level = new TLongObjectHashMap<>();
+			level.put( label, segment );
+
+			int numLevels = levels.length;
+			while ( numLevels > 0 && levels[ numLevels - 1 ].size() <= level.size() )
+			{
+				final TLongObjectHashMap< T > merged = new TLongObjectHashMap<>( levels[ numLevels - 1 ].size() + level.size() );
+				merged.putAll( levels[ numLevels - 1 ] );
+				merged.putAll( level );
+				level = merged;
+				numLevels--;
+			}
+
+			final TLongObjectHashMap< T >[] copy = Arrays.copyOf( levels, numLevels + 1 );
+			copy[ numLevels ] = level;
+			levels = copy;
+		}
+	}
+}
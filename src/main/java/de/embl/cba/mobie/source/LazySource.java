@@ -0,0 +1,220 @@
+package de.embl.cba.mobie.source;
+
+import bdv.tools.transformation.TransformedSource;
+import bdv.viewer.Interpolation;
+import bdv.viewer.Source;
+import mpicbg.spim.data.sequence.VoxelDimensions;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.RealRandomAccessible;
+import net.imglib2.Volatile;
+import net.imglib2.interpolation.randomaccess.NearestNeighborInterpolatorFactory;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.NumericType;
+import net.imglib2.util.ConstantUtils;
+import net.imglib2.view.Views;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * A placeholder {@link Source} that knows the bounds of the actual source,
+ * but only opens it (and thereby its image loader) when {@link #open} is called.
+ *
+ * Until then, it is present with the bounds and transform of the actual source,
+ * and its voxels are zero (and valid, if volatile).
+ */
+public class LazySource< T extends NumericType< T > > implements Source< T >, SourceWrapper< T >
+{
+	private final String name;
+	private final SourceBounds bounds;
+	private final T zero;
+	private final Supplier< Source< T > > opener;
+	// the running or completed opening; reset if it fails or is cancelled, such that it is tried again
+	private final AtomicReference< CompletableFuture< Source< T > > > opening = new AtomicReference<>();
+	private volatile Source< T > source;
+
+	/**
+	 * @param type
+	 * 			the pixel type of the actual source, read from its metadata
+	 * @param opener
+	 * 			opens the actual source
+	 */
+	public LazySource( String name, SourceBounds bounds, T type, Supplier< Source< T > > opener )
+	{
+		this.name = name;
+		this.bounds = bounds;
+		this.opener = opener;
+
+		zero = type.createVariable();
+		zero.setZero();
+		if ( zero instanceof Volatile )
+			( ( Volatile< ? > ) zero ).setValid( true );
+	}
+
+	public boolean isOpen()
+	{
+		return source != null;
+	}
+
+	public boolean isOpeningStarted()
+	{
+		return opening.get() != null;
+	}
+
+	/**
+	 * Opens the actual source in the executor service, unless its opening was already started.
+	 * If the opening fails or is cancelled, the next call starts it again.
+	 */
+	public CompletableFuture< Source< T > > open( ExecutorService executorService )
+	{
+		return startOpening( executorService::submit );
+	}
+
+	/**
+	 * Opens the actual source in the calling thread, unless its opening was already started,
+	 * and waits for it, e.g. if all resolution levels are needed.
+	 */
+	public Source< T > open()
+	{
+		try
+		{
+			return startOpening( Runnable::run ).join();
+		}
+		catch ( CompletionException e )
+		{
+			if ( e.getCause() instanceof RuntimeException )
+				throw ( RuntimeException ) e.getCause();
+			throw new RuntimeException( "Could not open " + name, e.getCause() );
+		}
+	}
+
+	private CompletableFuture< Source< T > > startOpening( Consumer< Runnable > runner )
+	{
+		while ( true )
+		{
+			final CompletableFuture< Source< T > > running = opening.get();
+			if ( running != null )
+				return running;
+
+			final CompletableFuture< Source< T > > newOpening = new CompletableFuture<>();
+			if ( opening.compareAndSet( null, newOpening ) )
+			{
+				runner.accept( () -> doOpen( newOpening ) );
+				return newOpening;
+			}
+		}
+	}
+
+	private void doOpen( CompletableFuture< Source< T > > newOpening )
+	{
+		try
+		{
+			source = opener.get();
+			newOpening.complete( source );
+		}
+		catch ( RuntimeException e )
+		{
+			// reset before completing, such that the callbacks of the opening can start it again
+			opening.compareAndSet( newOpening, null );
+			newOpening.completeExceptionally( e );
+		}
+	}
+
+	/**
+	 * @return the not yet opened lazy source that is (possibly) wrapped by the source, or null
+	 */
+	public static LazySource< ? > getUnopened( Source< ? > source )
+	{
+		while ( source != null )
+		{
+			if ( source instanceof LazySource )
+				return ( ( LazySource< ? > ) source ).isOpen() ? null : ( LazySource< ? > ) source;
+			else if ( source instanceof TransformedSource )
+				source = ( ( TransformedSource< ? > ) source ).getWrappedSource();
+			else if ( source instanceof SourceWrapper )
+				source = ( ( SourceWrapper< ? > ) source ).getWrappedSource();
+			else
+				return null;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Opens the actual source if needed, and waits for it, see {@link #open()}.
+	 * Use {@link #getUnopened} to check for lazy sources without opening them.
+	 */
+	@Override
+	public Source< T > getWrappedSource()
+	{
+		final Source< T > source = this.source;
+		return source != null ? source : open();
+	}
+
+	@Override
+	public boolean isPresent( int t )
+	{
+		final Source< T > source = this.source;
+		return source != null ? source.isPresent( t ) : bounds.isPresent( t );
+	}
+
+	@Override
+	public RandomAccessibleInterval< T > getSource( int t, int level )
+	{
+		final Source< T > source = this.source;
+		if ( source != null ) return source.getSource( t, level );
+
+		return ConstantUtils.constantRandomAccessibleInterval( zero, new FinalInterval( bounds.getDimensions() ) );
+	}
+
+	@Override
+	public RealRandomAccessible< T > getInterpolatedSource( int t, int level, Interpolation method )
+	{
+		final Source< T > source = this.source;
+		if ( source != null ) return source.getInterpolatedSource( t, level, method );
+
+		return Views.interpolate( Views.extendValue( getSource( t, level ), zero ), new NearestNeighborInterpolatorFactory<>() );
+	}
+
+	@Override
+	public void getSourceTransform( int t, int level, AffineTransform3D transform )
+	{
+		final Source< T > source = this.source;
+		if ( source != null )
+			source.getSourceTransform( t, level, transform );
+		else
+			bounds.getSourceTransform( t, transform );
+	}
+
+	@Override
+	public T getType()
+	{
+		final Source< T > source = this.source;
+		return source != null ? source.getType() : zero;
+	}
+
+	@Override
+	public String getName()
+	{
+		return name;
+	}
+
+	@Override
+	public VoxelDimensions getVoxelDimensions()
+	{
+		final Source< T > source = this.source;
+		return source != null ? source.getVoxelDimensions() : bounds.getVoxelDimensions();
+	}
+
+	@Override
+	public int getNumMipmapLevels()
+	{
+		final Source< T > source = this.source;
+		return source != null ? source.getNumMipmapLevels() : 1;
+	}
+}
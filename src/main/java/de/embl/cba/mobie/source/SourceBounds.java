@@ -0,0 +1,210 @@
+package de.embl.cba.mobie.source;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import de.embl.cba.tables.FileAndUrlUtils;
+import mpicbg.spim.data.sequence.FinalVoxelDimensions;
+import mpicbg.spim.data.sequence.VoxelDimensions;
+import net.imglib2.realtransform.AffineTransform3D;
+import org.janelia.saalfeldlab.n5.DataType;
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.JDOMException;
+import org.jdom2.input.SAXBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import static mpicbg.spim.data.XmlKeys.*;
+
+/**
+ * The dimensions, transforms and data type of the first setup of a BDV xml,
+ * read without creating the image loader.
+ */
+public class SourceBounds
+{
+	private final long[] dimensions;
+	private final VoxelDimensions voxelDimensions;
+	private final Map< Integer, AffineTransform3D > timepointToTransform;
+	private final DataType dataType;
+
+	public SourceBounds( long[] dimensions, VoxelDimensions voxelDimensions, Map< Integer, AffineTransform3D > timepointToTransform, DataType dataType )
+	{
+		this.dimensions = dimensions;
+		this.voxelDimensions = voxelDimensions;
+		this.timepointToTransform = timepointToTransform;
+		this.dataType = dataType;
+	}
+
+	/**
+	 * Reads the bounds from the xml, and the data type from the attributes of the
+	 * setup in the n5 container (bdv.n5) or public bucket (bdv.n5.s3) of the image loader.
+	 *
+	 * @return the bounds, or null if they or the data type can not be read this way
+	 */
+	public static SourceBounds read( String xmlPath )
+	{
+		try ( InputStream stream = FileAndUrlUtils.getInputStream( xmlPath ) )
+		{
+			final Document document = new SAXBuilder().build( stream );
+			final Element root = document.getRootElement();
+
+			final Element sequenceDescription = root.getChild( SEQUENCEDESCRIPTION_TAG );
+			final Element viewSetups = getChild( sequenceDescription, VIEWSETUPS_TAG );
+			final Element viewSetup = getChild( viewSetups, VIEWSETUP_TAG );
+			if ( viewSetup == null || viewSetup.getChild( VIEWSETUP_SIZE_TAG ) == null ) return null;
+
+			final String setupId = viewSetup.getChildText( "id" ).trim();
+			final long[] dimensions = parseLongs( viewSetup.getChildText( VIEWSETUP_SIZE_TAG ) );
+
+			VoxelDimensions voxelDimensions = null;
+			final Element voxelSize = viewSetup.getChild( VIEWSETUP_VOXELSIZE_TAG );
+			if ( voxelSize != null )
+				voxelDimensions = new FinalVoxelDimensions( voxelSize.getChildText( VOXELDIMENSIONS_UNIT_TAG ), parseDoubles( voxelSize.getChildText( VOXELDIMENSIONS_SIZE_TAG ) ) );
+
+			final Map< Integer, AffineTransform3D > timepointToTransform = new HashMap<>();
+			final Element viewRegistrations = root.getChild( VIEWREGISTRATIONS_TAG );
+			if ( viewRegistrations == null ) return null;
+
+			for ( Element viewRegistration : viewRegistrations.getChildren( VIEWREGISTRATION_TAG ) )
+			{
+				if ( ! setupId.equals( viewRegistration.getAttributeValue( VIEWREGISTRATION_SETUP_ATTRIBUTE_NAME ) ) ) continue;
+
+				// as in mpicbg.spim.data.registration.ViewRegistration, the first transform is the outermost
+				final AffineTransform3D transform = new AffineTransform3D();
+				for ( Element viewTransform : viewRegistration.getChildren( VIEWTRANSFORM_TAG ) )
+				{
+					final AffineTransform3D affine = new AffineTransform3D();
+					affine.set( parseDoubles( viewTransform.getChildText( VIEWTRANSFORM_AFFINE_TAG ) ) );
+					transform.concatenate( affine );
+				}
+
+				final int timepoint = Integer.parseInt( viewRegistration.getAttributeValue( VIEWREGISTRATION_TIMEPOINT_ATTRIBUTE_NAME ) );
+				timepointToTransform.put( timepoint, transform );
+			}
+
+			if ( timepointToTransform.isEmpty() ) return null;
+
+			final String attributesPath = getSetupAttributesPath( xmlPath, getChild( sequenceDescription, IMGLOADER_TAG ), setupId );
+			if ( attributesPath == null ) return null;
+
+			final DataType dataType = readDataType( attributesPath );
+			if ( dataType == null ) return null;
+
+			return new SourceBounds( dimensions, voxelDimensions, timepointToTransform, dataType );
+		}
+		catch ( JDOMException | IOException | RuntimeException e )
+		{
+			// the source is then opened eagerly, which reports the actual problem
+			return null;
+		}
+	}
+
+	public long[] getDimensions()
+	{
+		return dimensions;
+	}
+
+	public VoxelDimensions getVoxelDimensions()
+	{
+		return voxelDimensions;
+	}
+
+	public DataType getDataType()
+	{
+		return dataType;
+	}
+
+	public boolean isPresent( int timepoint )
+	{
+		return timepointToTransform.containsKey( timepoint );
+	}
+
+	public void getSourceTransform( int timepoint, AffineTransform3D transform )
+	{
+		final AffineTransform3D sourceTransform = timepointToTransform.get( timepoint );
+		if ( sourceTransform != null )
+			transform.set( sourceTransform );
+		else
+			transform.identity();
+	}
+
+	// as the paths of the image loaders of bdv.n5 and bdv.n5.s3, see XmlIoN5FSImageLoader and XmlIoN5S3ImageLoader
+	private static String getSetupAttributesPath( String xmlPath, Element imageLoader, String setupId )
+	{
+		if ( imageLoader == null ) return null;
+
+		final String format = imageLoader.getAttributeValue( IMGLOADER_FORMAT_ATTRIBUTE_NAME );
+		final String setupPath = "setup" + setupId + "/attributes.json";
+		if ( "bdv.n5".equals( format ) )
+		{
+			final Element n5 = imageLoader.getChild( "n5" );
+			if ( n5 == null ) return null;
+
+			final String n5Path = n5.getTextTrim();
+			if ( "relative".equals( n5.getAttributeValue( "type" ) ) )
+				return FileAndUrlUtils.combinePath( getParentPath( xmlPath ), n5Path, setupPath );
+			else
+				return FileAndUrlUtils.combinePath( n5Path, setupPath );
+		}
+		else if ( "bdv.n5.s3".equals( format ) )
+		{
+			// path-style url, which only works for public buckets; others are opened eagerly
+			final String endpoint = imageLoader.getChildTextTrim( "ServiceEndpoint" );
+			final String bucketName = imageLoader.getChildTextTrim( "BucketName" );
+			final String key = imageLoader.getChildTextTrim( "Key" );
+			if ( endpoint == null || bucketName == null || key == null ) return null;
+
+			return FileAndUrlUtils.combinePath( endpoint.replaceAll( "/+$", "" ), bucketName, key.replaceAll( "^/+", "" ), setupPath );
+		}
+
+		return null;
+	}
+
+	private static DataType readDataType( String attributesPath ) throws IOException
+	{
+		try ( Reader reader = new InputStreamReader( FileAndUrlUtils.getInputStream( attributesPath ), StandardCharsets.UTF_8 ) )
+		{
+			final JsonObject attributes = new Gson().fromJson( reader, JsonObject.class );
+			final JsonElement dataType = attributes == null ? null : attributes.get( "dataType" );
+			return dataType == null ? null : DataType.fromString( dataType.getAsString() );
+		}
+	}
+
+	// works for urls, unlike File#getParent
+	private static String getParentPath( String path )
+	{
+		final int separator = Math.max( path.lastIndexOf( '/' ), path.lastIndexOf( File.separatorChar ) );
+		return separator < 0 ? "." : path.substring( 0, separator );
+	}
+
+	private static Element getChild( Element element, String name )
+	{
+		return element == null ? null : element.getChild( name );
+	}
+
+	private static long[] parseLongs( String text )
+	{
+		final String[] values = text.trim().split( "\\s+" );
+		final long[] longs = new long[ values.length ];
+		for ( int i = 0; i < values.length; i++ )
+			longs[ i ] = Long.parseLong( values[ i ] );
+		return longs;
+	}
+
+	private static double[] parseDoubles( String text )
+	{
+		final String[] values = text.trim().split( "\\s+" );
+		final double[] doubles = new double[ values.length ];
+		for ( int i = 0; i < values.length; i++ )
+			doubles[ i ] = Double.parseDouble( values[ i ] );
+		return doubles;
+	}
+}
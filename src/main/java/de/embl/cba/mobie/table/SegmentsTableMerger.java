@@ -0,0 +1,148 @@
+package de.embl.cba.mobie.table;
+
+import de.embl.cba.mobie.Constants;
+import de.embl.cba.mobie.ThreadUtils;
+import de.embl.cba.tables.TableRows;
+import de.embl.cba.tables.tablerow.TableRowImageSegment;
+import gnu.trove.map.hash.TLongIntHashMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Appends the columns of additional tables to the segments of a primary table,
+ * joining the rows on (label_image_id, label_id).
+ *
+ * The additional tables may be partial, i.e. not contain all segments or
+ * columns; the missing cells are set to {@link #MISSING_VALUE}.
+ * Label ids are compared as numbers, such that "1" and "1.0" match.
+ */
+public class SegmentsTableMerger
+{
+	public static final String MISSING_VALUE = "NaN";
+
+	private static final int NO_ROW = -1;
+
+	private final List< TableRowImageSegment > tableRows;
+	private final Map< String, TLongIntHashMap > imageIdToLabelToRowIndex;
+
+	public SegmentsTableMerger( List< TableRowImageSegment > tableRows )
+	{
+		this.tableRows = tableRows;
+		this.imageIdToLabelToRowIndex = createIndex( tableRows );
+	}
+
+	public void merge( Map< String, Map< String, List< String > > > imageIdToTable )
+	{
+		merge( imageIdToTable, "additional table" );
+	}
+
+	/**
+	 * @param imageIdToTable
+	 * 			the additional table of each label image; the tables are matched
+	 * 			to the rows in parallel, in the shared IO pool
+	 * @param tableName
+	 * 			the name of the tables, for error messages
+	 * @throws IllegalArgumentException if a table does not contain a {@link Constants#SEGMENT_LABEL_ID} column
+	 */
+	public void merge( Map< String, Map< String, List< String > > > imageIdToTable, String tableName )
+	{
+		final List< String > imageIds = new ArrayList<>( imageIdToTable.keySet() );
+
+		final List< Callable< int[] > > tasks = new ArrayList<>();
+		for ( String imageId : imageIds )
+			tasks.add( () -> matchRows( imageId, imageIdToTable.get( imageId ), tableName ) );
+
+		final List< int[] > rowIndexToTableRowIndex = ThreadUtils.invokeAll( tasks );
+
+		final LinkedHashSet< String > columnNames = new LinkedHashSet<>();
+		for ( Map< String, List< String > > table : imageIdToTable.values() )
+			columnNames.addAll( table.keySet() );
+		columnNames.remove( Constants.LABEL_IMAGE_ID );
+		columnNames.remove( Constants.SEGMENT_LABEL_ID );
+
+		// for each primary row, the additional table and the row in it
+		final int numRows = tableRows.size();
+		final int[] tableIndices = new int[ numRows ];
+		final int[] tableRowIndices = new int[ numRows ];
+		Arrays.fill( tableIndices, NO_ROW );
+		for ( int tableIndex = 0; tableIndex < imageIds.size(); tableIndex++ )
+		{
+			final int[] rowIndices = rowIndexToTableRowIndex.get( tableIndex );
+			for ( int tableRowIndex = 0; tableRowIndex < rowIndices.length; tableRowIndex++ )
+			{
+				final int rowIndex = rowIndices[ tableRowIndex ];
+				if ( rowIndex == NO_ROW ) continue;
+				tableIndices[ rowIndex ] = tableIndex;
+				tableRowIndices[ rowIndex ] = tableRowIndex;
+			}
+		}
+
+		for ( String columnName : columnNames )
+		{
+			final List< List< String > > columns = new ArrayList<>();
+			for ( String imageId : imageIds )
+				columns.add( imageIdToTable.get( imageId ).get( columnName ) );
+
+			final TableColumn values = new TableColumn( numRows );
+			for ( int rowIndex = 0; rowIndex < numRows; rowIndex++ )
+			{
+				final int tableIndex = tableIndices[ rowIndex ];
+				final List< String > column = tableIndex == NO_ROW ? null : columns.get( tableIndex );
+				values.add( column == null ? MISSING_VALUE : column.get( tableRowIndices[ rowIndex ] ) );
+			}
+
+			TableRows.addColumn( tableRows, columnName, values );
+		}
+	}
+
+	/**
+	 * @return for each row of the table, the index of the primary row, or {@link #NO_ROW}
+	 */
+	private int[] matchRows( String imageId, Map< String, List< String > > table, String tableName )
+	{
+		final List< String > labelIds = table.get( Constants.SEGMENT_LABEL_ID );
+		if ( labelIds == null )
+			throw new IllegalArgumentException( "Table " + tableName + " of " + imageId + " does not contain a " + Constants.SEGMENT_LABEL_ID + " column." );
+
+		final int numTableRows = labelIds.size();
+		final int[] rowIndices = new int[ numTableRows ];
+
+		final TLongIntHashMap labelToRowIndex = imageIdToLabelToRowIndex.get( imageId );
+		if ( labelToRowIndex == null )
+		{
+			Arrays.fill( rowIndices, NO_ROW );
+			return rowIndices;
+		}
+
+		final TableColumn numericLabelIds = labelIds instanceof TableColumn ? ( TableColumn ) labelIds : null;
+		for ( int tableRowIndex = 0; tableRowIndex < numTableRows; tableRowIndex++ )
+		{
+			final double labelId = numericLabelIds != null ? numericLabelIds.getDouble( tableRowIndex ) : Double.parseDouble( labelIds.get( tableRowIndex ) );
+			rowIndices[ tableRowIndex ] = labelToRowIndex.get( ( long ) labelId );
+		}
+
+		return rowIndices;
+	}
+
+	private static Map< String, TLongIntHashMap > createIndex( List< TableRowImageSegment > tableRows )
+	{
+		final Map< String, TLongIntHashMap > imageIdToLabelToRowIndex = new HashMap<>();
+
+		final int numRows = tableRows.size();
+		for ( int rowIndex = 0; rowIndex < numRows; rowIndex++ )
+		{
+			final TableRowImageSegment segment = tableRows.get( rowIndex );
+			imageIdToLabelToRowIndex
+					.computeIfAbsent( segment.imageId(), id -> new TLongIntHashMap( 16, 0.5f, -1, NO_ROW ) )
+					.put( ( long ) segment.labelId(), rowIndex );
+		}
+
+		return imageIdToLabelToRowIndex;
+	}
+}
@@ -0,0 +1,345 @@
+package de.embl.cba.mobie.table;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Memory efficient column of table cells.
+ *
+ * Columns of which all cells are integers (e.g. "12") are stored as long[],
+ * columns of which all cells are decimal numbers in the notation of
+ * {@link Double#toString(double)} (e.g. "1.5", "1.0E-4", "NaN") as double[];
+ * all other columns are dictionary encoded, i.e. stored as indices into
+ * the list of distinct values. Cells are only stored as numbers if they
+ * are reproduced exactly, such that {@link #get} always returns the
+ * original text of the cells.
+ *
+ * A numeric column is converted to a dictionary encoded one when a cell
+ * is added or set that cannot be stored in its representation.
+ *
+ * As for an {@link ArrayList}, concurrent modifications must be synchronized externally.
+ */
+public class TableColumn extends AbstractList< String > implements RandomAccess
+{
+	enum Type
+	{
+		Empty,
+		Long,
+		Double,
+		String
+	}
+
+	private Type type = Type.Empty;
+	private int size;
+	private int initialCapacity = 16;
+
+	private long[] longs;
+	private double[] doubles;
+	private int[] indices;
+	private ArrayList< String > dictionary;
+	private HashMap< String, Integer > valueToIndex;
+
+	public TableColumn()
+	{
+	}
+
+	public TableColumn( int initialCapacity )
+	{
+		this.initialCapacity = Math.max( 16, initialCapacity );
+	}
+
+	@Override
+	public String get( int index )
+	{
+		checkIndex( index );
+
+		switch ( type )
+		{
+			case Long:
+				return Long.toString( longs[ index ] );
+			case Double:
+				return Double.toString( doubles[ index ] );
+			default:
+				return dictionary.get( indices[ index ] );
+		}
+	}
+
+	/**
+	 * @return the cell as a number, parsing it for dictionary encoded columns
+	 * @throws NumberFormatException if the cell is not a number
+	 */
+	public double getDouble( int index )
+	{
+		checkIndex( index );
+
+		switch ( type )
+		{
+			case Long:
+				return longs[ index ];
+			case Double:
+				return doubles[ index ];
+			default:
+				return Double.parseDouble( dictionary.get( indices[ index ] ) );
+		}
+	}
+
+	/**
+	 * @return true if all cells are stored as numbers
+	 */
+	public boolean isNumeric()
+	{
+		return type == Type.Long || type == Type.Double;
+	}
+
+	@Override
+	public int size()
+	{
+		return size;
+	}
+
+	@Override
+	public boolean add( String value )
+	{
+		ensureCapacity( size + 1 );
+		size++;
+		setValue( size - 1, value );
+		modCount++;
+		return true;
+	}
+
+	@Override
+	public String set( int index, String value )
+	{
+		checkIndex( index );
+		final String previous = get( index );
+		setValue( index, value );
+		return previous;
+	}
+
+	/**
+	 * Appends all cells of the other column, keeping its representation if possible.
+	 */
+	public void addAll( TableColumn other )
+	{
+		if ( type == Type.Empty && other.type != Type.Empty )
+		{
+			ensureCapacity( other.size );
+			type = other.type;
+		}
+
+		if ( type == other.type && type != Type.String && type != Type.Empty )
+		{
+			ensureCapacity( size + other.size );
+			if ( type == Type.Long )
+				System.arraycopy( other.longs, 0, longs, size, other.size );
+			else
+				System.arraycopy( other.doubles, 0, doubles, size, other.size );
+			size += other.size;
+			modCount++;
+		}
+		else
+		{
+			for ( int i = 0; i < other.size; i++ )
+				add( other.get( i ) );
+		}
+	}
+
+	private void setValue( int index, String value )
+	{
+		if ( type == Type.Empty )
+			type = numericType( value );
+
+		switch ( type )
+		{
+			case Long:
+				if ( isLong( value ) )
+				{
+					longs[ index ] = Long.parseLong( value );
+					return;
+				}
+				break;
+			case Double:
+				if ( isDouble( value ) )
+				{
+					doubles[ index ] = Double.parseDouble( value );
+					return;
+				}
+				break;
+			default:
+				indices[ index ] = indexOf( value );
+				return;
+		}
+
+		toDictionary();
+		indices[ index ] = indexOf( value );
+	}
+
+	private static Type numericType( String value )
+	{
+		if ( isLong( value ) ) return Type.Long;
+		if ( isDouble( value ) ) return Type.Double;
+		return Type.String;
+	}
+
+	// only values that are reproduced exactly by Long.toString
+	private static boolean isLong( String value )
+	{
+		final int length = value.length();
+		if ( length == 0 || length > 18 ) return false;
+
+		int i = value.charAt( 0 ) == '-' ? 1 : 0;
+		if ( i == length ) return false;
+		if ( value.charAt( i ) == '0' && length > i + 1 ) return false; // leading zeros
+		if ( i == 1 && value.charAt( 1 ) == '0' ) return false; // "-0"
+
+		for ( ; i < length; i++ )
+		{
+			final char c = value.charAt( i );
+			if ( c < '0' || c > '9' ) return false;
+		}
+
+		return true;
+	}
+
+	// only values that are reproduced exactly by Double.toString,
+	// e.g. not "0.10", "1e-3" or "12", which would be shown as "0.1", "0.001" and "12.0"
+	private static boolean isDouble( String value )
+	{
+		if ( value.isEmpty() ) return false;
+
+		final char first = value.charAt( 0 );
+		if ( ! ( first == '-' || first == 'N' || first == 'I' || ( first >= '0' && first <= '9' ) ) ) return false;
+
+		try
+		{
+			return Double.toString( Double.parseDouble( value ) ).equals( value );
+		}
+		catch ( NumberFormatException e )
+		{
+			return false;
+		}
+	}
+
+	private int indexOf( String value )
+	{
+		Integer index = valueToIndex.get( value );
+		if ( index == null )
+		{
+			index = dictionary.size();
+			dictionary.add( value );
+			valueToIndex.put( value, index );
+		}
+		return index;
+	}
+
+	private void toDictionary()
+	{
+		final int[] indices = new int[ capacity() ];
+		dictionary = new ArrayList<>();
+		valueToIndex = new HashMap<>();
+
+		for ( int i = 0; i < size; i++ )
+		{
+			final String value = type == Type.Long ? Long.toString( longs[ i ] ) : Double.toString( doubles[ i ] );
+			indices[ i ] = indexOf( value );
+		}
+
+		this.indices = indices;
+		longs = null;
+		doubles = null;
+		type = Type.String;
+	}
+
+	private int capacity()
+	{
+		switch ( type )
+		{
+			case Long:
+				return longs.length;
+			case Double:
+				return doubles.length;
+			case String:
+				return indices.length;
+			default:
+				return 0;
+		}
+	}
+
+	private void ensureCapacity( int minCapacity )
+	{
+		final int capacity = capacity();
+
+		if ( type == Type.Empty )
+		{
+			// the type is determined by the first value, allocate all to be safe
+			final int newCapacity = Math.max( minCapacity, initialCapacity );
+			longs = new long[ newCapacity ];
+			doubles = new double[ newCapacity ];
+			indices = new int[ newCapacity ];
+			dictionary = new ArrayList<>();
+			valueToIndex = new HashMap<>();
+			return;
+		}
+
+		if ( capacity >= minCapacity )
+		{
+			releaseUnused();
+			return;
+		}
+
+		final int newCapacity = Math.max( minCapacity, capacity + ( capacity >> 1 ) );
+
+		switch ( type )
+		{
+			case Long:
+				longs = Arrays.copyOf( longs, newCapacity );
+				break;
+			case Double:
+				doubles = Arrays.copyOf( doubles, newCapacity );
+				break;
+			case String:
+				indices = Arrays.copyOf( indices, newCapacity );
+				break;
+		}
+
+		releaseUnused();
+	}
+
+	private void releaseUnused()
+	{
+		if ( type != Type.Long ) longs = null;
+		if ( type != Type.Double ) doubles = null;
+		if ( type != Type.String )
+		{
+			indices = null;
+			dictionary = null;
+			valueToIndex = null;
+		}
+	}
+
+	private void checkIndex( int index )
+	{
+		if ( index < 0 || index >= size )
+			throw new IndexOutOfBoundsException( "Index: " + index + ", Size: " + size );
+	}
+
+	/**
+	 * Concatenates the columns, e.g. of consecutive parts of a table.
+	 */
+	public static TableColumn concatenate( List< TableColumn > columns )
+	{
+		int size = 0;
+		for ( TableColumn column : columns )
+			size += column.size();
+
+		final TableColumn concatenated = new TableColumn( size );
+		for ( TableColumn column : columns )
+			concatenated.addAll( column );
+
+		return concatenated;
+	}
+}
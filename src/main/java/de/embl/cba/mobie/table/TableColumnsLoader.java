@@ -0,0 +1,142 @@
+package de.embl.cba.mobie.table;
+
+import de.embl.cba.tables.FileAndUrlUtils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Loads tab (or comma) separated tables into {@link TableColumn}s.
+ *
+ * The file is streamed in batches of lines, which are parsed in parallel
+ * while the following lines are still being read.
+ */
+public abstract class TableColumnsLoader
+{
+	public static final int NUM_LINES_PER_BATCH = 16 * 1024;
+
+	/**
+	 * @param tablePath
+	 * 			resolved path or URL of the table
+	 * @return the columns, in the order of the table header
+	 */
+	public static Map< String, List< String > > loadColumns( String tablePath )
+	{
+		try ( final BufferedReader reader = new BufferedReader( new InputStreamReader( FileAndUrlUtils.getInputStream( tablePath ), StandardCharsets.UTF_8 ) ) )
+		{
+			final String header = reader.readLine();
+			if ( header == null )
+				throw new IOException( "Table is empty: " + tablePath );
+
+			final char delimiter = header.indexOf( '\t' ) >= 0 || ! tablePath.endsWith( ".csv" ) ? '\t' : ',';
+			final String[] columnNames = split( header, delimiter );
+
+			final List< CompletableFuture< TableColumn[] > > batches = new ArrayList<>();
+			List< String > lines = new ArrayList<>( NUM_LINES_PER_BATCH );
+			String line;
+			while ( ( line = reader.readLine() ) != null )
+			{
+				if ( line.isEmpty() ) continue;
+
+				lines.add( line );
+				if ( lines.size() == NUM_LINES_PER_BATCH )
+				{
+					batches.add( parseAsync( lines, delimiter, columnNames.length ) );
+					lines = new ArrayList<>( NUM_LINES_PER_BATCH );
+				}
+			}
+			batches.add( parseAsync( lines, delimiter, columnNames.length ) );
+
+			return concatenate( columnNames, batches );
+		}
+		catch ( IOException e )
+		{
+			throw new UncheckedIOException( "Could not load table " + tablePath, e );
+		}
+	}
+
+	private static CompletableFuture< TableColumn[] > parseAsync( List< String > lines, char delimiter, int numColumns )
+	{
+		// the common pool, as the caller may itself be running in a fixed size pool
+		return CompletableFuture.supplyAsync( () -> parse( lines, delimiter, numColumns ), ForkJoinPool.commonPool() );
+	}
+
+	private static TableColumn[] parse( List< String > lines, char delimiter, int numColumns )
+	{
+		final TableColumn[] columns = new TableColumn[ numColumns ];
+		for ( int c = 0; c < numColumns; c++ )
+			columns[ c ] = new TableColumn( lines.size() );
+
+		final String[] cells = new String[ numColumns ];
+		for ( String line : lines )
+		{
+			split( line, delimiter, cells );
+			for ( int c = 0; c < numColumns; c++ )
+				columns[ c ].add( cells[ c ] );
+		}
+
+		return columns;
+	}
+
+	private static Map< String, List< String > > concatenate( String[] columnNames, List< CompletableFuture< TableColumn[] > > batches )
+	{
+		final List< TableColumn[] > parsed = new ArrayList<>();
+		for ( CompletableFuture< TableColumn[] > batch : batches )
+			parsed.add( batch.join() );
+
+		final Map< String, List< String > > columns = new LinkedHashMap<>();
+		for ( int c = 0; c < columnNames.length; c++ )
+		{
+			final List< TableColumn > parts = new ArrayList<>();
+			for ( TableColumn[] batch : parsed )
+				parts.add( batch[ c ] );
+
+			columns.put( columnNames[ c ], parts.size() == 1 ? parts.get( 0 ) : TableColumn.concatenate( parts ) );
+		}
+
+		return columns;
+	}
+
+	private static String[] split( String line, char delimiter )
+	{
+		final List< String > cells = new ArrayList<>();
+		int start = 0;
+		int end;
+		while ( ( end = line.indexOf( delimiter, start ) ) >= 0 )
+		{
+			cells.add( line.substring( start, end ) );
+			start = end + 1;
+		}
+		cells.add( line.substring( start ) );
+
+		return cells.toArray( new String[ 0 ] );
+	}
+
+	// missing trailing cells are empty, additional cells are ignored
+	private static void split( String line, char delimiter, String[] cells )
+	{
+		int start = 0;
+		for ( int c = 0; c < cells.length; c++ )
+		{
+			if ( start > line.length() )
+			{
+				cells[ c ] = "";
+				continue;
+			}
+
+			int end = line.indexOf( delimiter, start );
+			if ( end < 0 ) end = line.length();
+			cells[ c ] = line.substring( start, end );
+			start = end + 1;
+		}
+	}
+}
@@ -0,0 +1,263 @@
+package de.embl.cba.mobie.table;
+
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Sorts the rows of a {@link TableRowsTableModel} by one column.
+ *
+ * The values of the sorted column are read once into an array, and only the
+ * updated rows are re-read when cells change; re-sorting the previous order
+ * is then almost linear, as it is almost sorted already.
+ */
+public class TableRowsRowSorter extends RowSorter< TableRowsTableModel< ? > >
+{
+	private final TableRowsTableModel< ? > model;
+	// by name, as the column indices change when columns are added
+	private final Set< String > unsortableColumnNames = new HashSet<>();
+	private List< SortKey > sortKeys = Collections.emptyList();
+
+	// the values of the sorted column, either numbers or strings
+	private double[] numbers;
+	private String[] strings;
+
+	// null if not sorted
+	private Integer[] viewToModel;
+	private int[] modelToView;
+
+	public TableRowsRowSorter( TableRowsTableModel< ? > model )
+	{
+		this.model = model;
+	}
+
+	public void setSortable( int column, boolean sortable )
+	{
+		final String columnName = model.getColumnName( column );
+		if ( sortable )
+			unsortableColumnNames.remove( columnName );
+		else
+			unsortableColumnNames.add( columnName );
+	}
+
+	@Override
+	public TableRowsTableModel< ? > getModel()
+	{
+		return model;
+	}
+
+	@Override
+	public void toggleSortOrder( int column )
+	{
+		if ( unsortableColumnNames.contains( model.getColumnName( column ) ) ) return;
+
+		SortOrder sortOrder = SortOrder.ASCENDING;
+		if ( ! sortKeys.isEmpty() && sortKeys.get( 0 ).getColumn() == column && sortKeys.get( 0 ).getSortOrder() == SortOrder.ASCENDING )
+			sortOrder = SortOrder.DESCENDING;
+
+		setSortKeys( Collections.singletonList( new SortKey( column, sortOrder ) ) );
+	}
+
+	@Override
+	public int convertRowIndexToModel( int index )
+	{
+		if ( viewToModel == null )
+		{
+			if ( index < 0 || index >= model.getRowCount() ) throw new IndexOutOfBoundsException( "Invalid index" );
+			return index;
+		}
+		return viewToModel[ index ];
+	}
+
+	@Override
+	public int convertRowIndexToView( int index )
+	{
+		if ( modelToView == null )
+		{
+			if ( index < 0 || index >= model.getRowCount() ) throw new IndexOutOfBoundsException( "Invalid index" );
+			return index;
+		}
+		return modelToView[ index ];
+	}
+
+	@Override
+	public void setSortKeys( List< ? extends SortKey > keys )
+	{
+		final List< SortKey > sortKeys = new ArrayList<>();
+		// only the primary key is used
+		if ( keys != null && ! keys.isEmpty() && keys.get( 0 ).getSortOrder() != SortOrder.UNSORTED )
+			sortKeys.add( keys.get( 0 ) );
+
+		if ( sortKeys.equals( this.sortKeys ) ) return;
+
+		this.sortKeys = Collections.unmodifiableList( sortKeys );
+		fireSortOrderChanged();
+
+		readValues( 0, model.getRowCount() - 1 );
+		sort();
+	}
+
+	@Override
+	public List< ? extends SortKey > getSortKeys()
+	{
+		return sortKeys;
+	}
+
+	@Override
+	public int getViewRowCount()
+	{
+		return model.getRowCount();
+	}
+
+	@Override
+	public int getModelRowCount()
+	{
+		return model.getRowCount();
+	}
+
+	@Override
+	public void modelStructureChanged()
+	{
+		// the column indices may have changed
+		sortKeys = Collections.emptyList();
+		numbers = null;
+		strings = null;
+		fireSortOrderChanged();
+		sort();
+	}
+
+	@Override
+	public void allRowsChanged()
+	{
+		readValues( 0, model.getRowCount() - 1 );
+		sort();
+	}
+
+	@Override
+	public void rowsInserted( int firstRow, int endRow )
+	{
+		allRowsChanged();
+	}
+
+	@Override
+	public void rowsDeleted( int firstRow, int endRow )
+	{
+		allRowsChanged();
+	}
+
+	@Override
+	public void rowsUpdated( int firstRow, int endRow )
+	{
+		if ( sortKeys.isEmpty() ) return;
+
+		readValues( firstRow, endRow );
+		sort();
+	}
+
+	@Override
+	public void rowsUpdated( int firstRow, int endRow, int column )
+	{
+		if ( sortKeys.isEmpty() || sortKeys.get( 0 ).getColumn() != column ) return;
+
+		rowsUpdated( firstRow, endRow );
+	}
+
+	private void readValues( int firstRow, int lastRow )
+	{
+		if ( sortKeys.isEmpty() )
+		{
+			numbers = null;
+			strings = null;
+			return;
+		}
+
+		final int column = sortKeys.get( 0 ).getColumn();
+		final int numRows = model.getRowCount();
+		if ( model.isNumeric( column ) )
+		{
+			strings = null;
+			if ( numbers == null || numbers.length != numRows )
+			{
+				numbers = new double[ numRows ];
+				firstRow = 0;
+				lastRow = numRows - 1;
+			}
+			for ( int row = firstRow; row <= lastRow; row++ )
+				numbers[ row ] = model.getDouble( row, column );
+		}
+		else
+		{
+			numbers = null;
+			if ( strings == null || strings.length != numRows )
+			{
+				strings = new String[ numRows ];
+				firstRow = 0;
+				lastRow = numRows - 1;
+			}
+			for ( int row = firstRow; row <= lastRow; row++ )
+				strings[ row ] = ( String ) model.getValueAt( row, column );
+		}
+	}
+
+	private void sort()
+	{
+		final int[] lastViewToModel = getViewToModelAsInts();
+
+		if ( sortKeys.isEmpty() )
+		{
+			viewToModel = null;
+			modelToView = null;
+		}
+		else
+		{
+			final int numRows = model.getRowCount();
+			if ( viewToModel == null || viewToModel.length != numRows )
+			{
+				viewToModel = new Integer[ numRows ];
+				for ( int row = 0; row < numRows; row++ )
+					viewToModel[ row ] = row;
+			}
+
+			// stable and fast on the almost sorted previous order
+			Arrays.sort( viewToModel, getComparator() );
+
+			modelToView = new int[ numRows ];
+			for ( int viewRow = 0; viewRow < numRows; viewRow++ )
+				modelToView[ viewToModel[ viewRow ] ] = viewRow;
+		}
+
+		fireRowSorterChanged( lastViewToModel );
+	}
+
+	private Comparator< Integer > getComparator()
+	{
+		final Comparator< Integer > comparator;
+		if ( numbers != null )
+		{
+			final double[] numbers = this.numbers;
+			comparator = ( row1, row2 ) -> Double.compare( numbers[ row1 ], numbers[ row2 ] );
+		}
+		else
+		{
+			final String[] strings = this.strings;
+			comparator = Comparator.comparing( row -> strings[ row ], Comparator.nullsFirst( Comparator.naturalOrder() ) );
+		}
+
+		return sortKeys.get( 0 ).getSortOrder() == SortOrder.DESCENDING ? comparator.reversed() : comparator;
+	}
+
+	private int[] getViewToModelAsInts()
+	{
+		if ( viewToModel == null ) return null;
+
+		final int[] viewToModel = new int[ this.viewToModel.length ];
+		for ( int i = 0; i < viewToModel.length; i++ )
+			viewToModel[ i ] = this.viewToModel[ i ];
+		return viewToModel;
+	}
+}
@@ -0,0 +1,203 @@
+package de.embl.cba.mobie.table;
+
+import de.embl.cba.tables.Utils;
+import de.embl.cba.tables.tablerow.TableRow;
+import gnu.trove.map.custom_hash.TObjectIntCustomHashMap;
+import gnu.trove.strategy.IdentityHashingStrategy;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A {@link javax.swing.table.TableModel} that reads the cells from the table rows
+ * when they are shown, instead of copying all of them into the model.
+ *
+ * Numeric columns, i.e. columns whose value in the first row is a number,
+ * are of class {@link Double}, all others of class {@link String}.
+ *
+ * Cell changes of the table rows, which may happen in any thread, are
+ * collected and notified to the table at once, in the event dispatch thread.
+ */
+public class TableRowsTableModel< T extends TableRow > extends AbstractTableModel
+{
+	public static final int NO_ROW = -1;
+
+	private final List< T > tableRows;
+	private final TObjectIntCustomHashMap< T > tableRowToRowIndex;
+	private List< String > columnNames;
+	private boolean[] isNumeric;
+
+	// collected cell changes
+	private int firstChangedRow = Integer.MAX_VALUE;
+	private int lastChangedRow = -1;
+	private final Set< String > changedColumns = new HashSet<>();
+	private boolean isStructureChanged;
+
+	public TableRowsTableModel( List< T > tableRows )
+	{
+		this.tableRows = tableRows;
+
+		final int numRows = tableRows.size();
+		tableRowToRowIndex = new TObjectIntCustomHashMap<>( new IdentityHashingStrategy<>(), numRows, 0.5f, NO_ROW );
+		for ( int rowIndex = 0; rowIndex < numRows; rowIndex++ )
+			tableRowToRowIndex.put( tableRows.get( rowIndex ), rowIndex );
+
+		initColumns();
+	}
+
+	/**
+	 * @return the (model) index of the table row, or {@link #NO_ROW}
+	 */
+	public int getRowIndex( T tableRow )
+	{
+		return tableRowToRowIndex.get( tableRow );
+	}
+
+	public T getTableRow( int rowIndex )
+	{
+		return tableRows.get( rowIndex );
+	}
+
+	public synchronized boolean isNumeric( int columnIndex )
+	{
+		return isNumeric[ columnIndex ];
+	}
+
+	public synchronized boolean isNumeric( String columnName )
+	{
+		final int columnIndex = columnNames.indexOf( columnName );
+		return columnIndex >= 0 && isNumeric[ columnIndex ];
+	}
+
+	public synchronized List< String > getColumnNames()
+	{
+		return columnNames;
+	}
+
+	/**
+	 * @return the value of a numeric cell, without boxing it
+	 */
+	public double getDouble( int rowIndex, int columnIndex )
+	{
+		return parseDouble( tableRows.get( rowIndex ).getCell( getColumnName( columnIndex ) ) );
+	}
+
+	@Override
+	public int getRowCount()
+	{
+		return tableRows.size();
+	}
+
+	@Override
+	public synchronized int getColumnCount()
+	{
+		return columnNames.size();
+	}
+
+	@Override
+	public synchronized String getColumnName( int columnIndex )
+	{
+		return columnNames.get( columnIndex );
+	}
+
+	@Override
+	public synchronized Class< ? > getColumnClass( int columnIndex )
+	{
+		return isNumeric[ columnIndex ] ? Double.class : String.class;
+	}
+
+	@Override
+	public Object getValueAt( int rowIndex, int columnIndex )
+	{
+		final String cell = tableRows.get( rowIndex ).getCell( getColumnName( columnIndex ) );
+		return isNumeric( columnIndex ) ? ( Object ) parseDouble( cell ) : cell;
+	}
+
+	/**
+	 * Notifies the table about a changed cell, e.g. from a
+	 * {@link de.embl.cba.tables.tablerow.TableRowListener}.
+	 */
+	public synchronized void cellChanged( int rowIndex, String columnName )
+	{
+		final boolean isPending = isStructureChanged || lastChangedRow >= 0;
+
+		if ( ! columnNames.contains( columnName ) )
+			isStructureChanged = true;
+
+		firstChangedRow = Math.min( firstChangedRow, rowIndex );
+		lastChangedRow = Math.max( lastChangedRow, rowIndex );
+		changedColumns.add( columnName );
+
+		if ( ! isPending )
+			SwingUtilities.invokeLater( this::fireCollectedChanges );
+	}
+
+	private void fireCollectedChanges()
+	{
+		final boolean isStructureChanged;
+		final int firstChangedRow;
+		final int lastChangedRow;
+		final int changedColumn;
+		synchronized ( this )
+		{
+			isStructureChanged = this.isStructureChanged;
+			firstChangedRow = this.firstChangedRow;
+			lastChangedRow = this.lastChangedRow;
+			changedColumn = changedColumns.size() == 1 ? columnNames.indexOf( changedColumns.iterator().next() ) : -1;
+
+			this.isStructureChanged = false;
+			this.firstChangedRow = Integer.MAX_VALUE;
+			this.lastChangedRow = -1;
+			changedColumns.clear();
+
+			if ( isStructureChanged )
+				initColumns();
+		}
+
+		if ( isStructureChanged )
+			fireTableStructureChanged();
+		else if ( firstChangedRow == lastChangedRow && changedColumn >= 0 )
+			fireTableCellUpdated( firstChangedRow, changedColumn );
+		else
+			fireTableRowsUpdated( firstChangedRow, lastChangedRow );
+	}
+
+	private void initColumns()
+	{
+		columnNames = tableRows.isEmpty() ? new ArrayList<>() : new ArrayList<>( tableRows.get( 0 ).getColumnNames() );
+
+		isNumeric = new boolean[ columnNames.size() ];
+		if ( tableRows.isEmpty() ) return;
+
+		final T firstRow = tableRows.get( 0 );
+		for ( int columnIndex = 0; columnIndex < columnNames.size(); columnIndex++ )
+		{
+			final String cell = firstRow.getCell( columnNames.get( columnIndex ) );
+			isNumeric[ columnIndex ] = isNaN( cell ) || ! Double.isNaN( parseDouble( cell ) );
+		}
+	}
+
+	private static boolean isNaN( String cell )
+	{
+		return cell != null && cell.trim().equalsIgnoreCase( "nan" );
+	}
+
+	// NaN for cells that are not numbers
+	private static double parseDouble( String cell )
+	{
+		if ( cell == null || cell.isEmpty() ) return Double.NaN;
+
+		try
+		{
+			return Utils.parseDouble( cell );
+		}
+		catch ( NumberFormatException e )
+		{
+			return Double.NaN;
+		}
+	}
+}
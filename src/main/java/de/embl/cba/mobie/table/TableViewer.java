@@ -39,7 +39,6 @@ import de.embl.cba.tables.plot.ScatterPlotDialog;
 
 import de.embl.cba.tables.select.SelectionListener;
 import de.embl.cba.tables.select.SelectionModel;
-import de.embl.cba.tables.tablerow.JTableFromTableRowsModelCreator;
 import de.embl.cba.tables.tablerow.TableRow;
 import de.embl.cba.tables.tablerow.TableRowImageSegment;
 import de.embl.cba.tables.tablerow.TableRowListener;
@@ -75,6 +74,8 @@ public class TableViewer< T extends TableRow > implements SelectionListener< T >
 	private final String tableName;
 
 	private JTable jTable;
+	private TableRowsTableModel< T > tableModel;
+	private TableRowsRowSorter rowSorter;
 
 	private int recentlySelectedRowInView;
 	private ColumnColoringModelCreator< T > columnColoringModelCreator;
@@ -123,6 +124,8 @@ public class TableViewer< T extends TableRow > implements SelectionListener< T >
 		this.hasColumnsFromTablesOutsideProject = false;
 		this.isGridTable = isGridTable;
 
+		tableModel = new TableRowsTableModel<>( tableRows );
+
 		// TODO: reconsider
 		registerAsTableRowListener( tableRows );
 	}
@@ -154,15 +157,7 @@ public class TableViewer< T extends TableRow > implements SelectionListener< T >
 				@Override
 				public void cellChanged( String columnName, String value )
 				{
-					synchronized ( jTable )
-					{
-						if ( ! Tables.getColumnNames( jTable ).contains( columnName ) )
-						{
-							Tables.addColumnToJTable( columnName, value, jTable.getModel() );
-						}
-
-						Tables.setJTableCell( finalRowIndex, columnName, value, jTable );
-					}
+					tableModel.cellChanged( finalRowIndex, columnName );
 				}
 			});
 		}
@@ -314,10 +309,12 @@ public class TableViewer< T extends TableRow > implements SelectionListener< T >
 
 	private void configureJTable()
 	{
-		jTable = new JTableFromTableRowsModelCreator( tableRows ).createJTable();
+		// the cells are only read from the table rows when they are shown or sorted
+		jTable = new JTable( tableModel );
 		jTable.setPreferredScrollableViewportSize( new Dimension(500, 200) );
 		jTable.setFillsViewportHeight( true );
-		jTable.setAutoCreateRowSorter( true );
+		rowSorter = new TableRowsRowSorter( tableModel );
+		jTable.setRowSorter( rowSorter );
 		jTable.setRowSelectionAllowed( true );
 		jTable.setSelectionMode( ListSelectionModel.SINGLE_SELECTION );
 
@@ -472,7 +469,7 @@ public class TableViewer< T extends TableRow > implements SelectionListener< T >
 		final int columnCount = jTable.getColumnCount();
 		for ( int i = 0; i < columnCount; i++ )
 		{
-			((DefaultRowSorter) jTable.getRowSorter()).setSortable( i, sortable );
+			rowSorter.setSortable( i, sortable );
 		}
 	}
 
@@ -632,7 +629,7 @@ public class TableViewer< T extends TableRow > implements SelectionListener< T >
 
 		// Have to parse to doubles for double column (as e.g. integers like 9 are displayed as 9.0)
 		double doubleValue = 0;
-		boolean isDoubleColumn = jTable.getValueAt(0, jTable.getColumn( columnName ).getModelIndex() ) instanceof Double;
+		boolean isDoubleColumn = tableModel.isNumeric( columnName );
 		if ( isDoubleColumn ) {
 			try {
 				doubleValue = Utils.parseDouble(value);
@@ -820,7 +817,7 @@ public class TableViewer< T extends TableRow > implements SelectionListener< T >
 		Set<String> columnNames = getColumnNames();
 		ArrayList<String> numericColumnNames = new ArrayList<>();
 		for( String columnName: columnNames ) {
-			if ( jTable.getValueAt(0, jTable.getColumn( columnName ).getModelIndex() ) instanceof Double ) {
+			if ( tableModel.isNumeric( columnName ) ) {
 				numericColumnNames.add( columnName );
 			}
 		}
@@ -897,7 +894,10 @@ public class TableViewer< T extends TableRow > implements SelectionListener< T >
 
 	private synchronized void moveToSelectedTableRow( TableRow selection )
 	{
-		final int rowInView = jTable.convertRowIndexToView( tableRows.indexOf( selection ) );
+		final int row = tableModel.getRowIndex( ( T ) selection );
+		if ( row == TableRowsTableModel.NO_ROW ) return;
+
+		final int rowInView = jTable.convertRowIndexToView( row );
 
 		if ( rowInView == recentlySelectedRowInView ) return;
 
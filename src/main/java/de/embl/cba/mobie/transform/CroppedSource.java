@@ -31,6 +31,8 @@ package de.embl.cba.mobie.transform;
 import bdv.util.DefaultInterpolators;
 import bdv.viewer.Interpolation;
 import bdv.viewer.Source;
+import de.embl.cba.mobie.source.LazySource;
+import de.embl.cba.mobie.source.SourceWrapper;
 import mpicbg.spim.data.sequence.VoxelDimensions;
 import net.imglib2.FinalInterval;
 import net.imglib2.FinalRealInterval;
@@ -51,7 +53,7 @@ import net.imglib2.view.Views;
 import java.util.HashMap;
 import java.util.function.Function;
 
-public class CroppedSource< T extends NumericType<T> > implements Source< T > //, Function< Source< T >, Source< T > >
+public class CroppedSource< T extends NumericType<T> > implements Source< T >, SourceWrapper< T > //, Function< Source< T >, Source< T > >
 {
     private Source< T > source;
     private final String name;
@@ -69,6 +71,11 @@ public class CroppedSource< T extends NumericType<T> > implements Source< T > //
         this.zeroMin = zeroMin;
         this.interpolators = new DefaultInterpolators();
 
+        // the crop intervals are computed for all resolution levels, which requires the actual source
+        final LazySource< ? > lazySource = LazySource.getUnopened( source );
+        if ( lazySource != null )
+            lazySource.open();
+
         initCropIntervals( source, crop );
     }
 
@@ -101,7 +108,8 @@ public class CroppedSource< T extends NumericType<T> > implements Source< T > //
         return intersect;
     }
 
-    public Source< ? > getWrappedSource() {
+    @Override
+    public Source< T > getWrappedSource() {
         return source;
     }
 
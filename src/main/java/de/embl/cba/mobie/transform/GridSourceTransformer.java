@@ -1,7 +1,7 @@
 package de.embl.cba.mobie.transform;
 
 import bdv.viewer.SourceAndConverter;
-import de.embl.cba.mobie.MoBIE;
+import de.embl.cba.mobie.ThreadUtils;
 import de.embl.cba.mobie.Utils;
 import net.imglib2.FinalRealInterval;
 import net.imglib2.realtransform.AffineTransform3D;
@@ -11,10 +11,8 @@ import org.apache.commons.lang.ArrayUtils;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
 
 public class GridSourceTransformer< T extends NumericType< T > > extends AbstractSourceTransformer< T >
 {
@@ -53,23 +51,19 @@ public class GridSourceTransformer< T extends NumericType< T > > extends Abstrac
 	private void transformSources( List< SourceAndConverter< T > > sourceAndConverters, CopyOnWriteArrayList< SourceAndConverter< T > > transformedSources, double spacingX, double spacingY )
 	{
 		final long start = System.currentTimeMillis();
-		final int nThreads = MoBIE.N_THREADS;
-		final ExecutorService executorService = Executors.newFixedThreadPool( nThreads );
 
+		final List< Callable< Void > > tasks = new ArrayList<>();
 		for ( String gridId : sources.keySet() )
 		{
-			executorService.execute( () -> {
+			tasks.add( () -> {
 				transformSources( sourceAndConverters, transformedSources, spacingX, spacingY, sources.get( gridId ), getTransformedSourceNames( gridId ), positions.get( gridId ) );
+				return null;
 			} );
 		}
 
-		executorService.shutdown();
-		try {
-			executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-		} catch (InterruptedException e) {
-		}
+		ThreadUtils.invokeAll( tasks );
 
-		System.out.println( "Transformed " + sourceAndConverters.size() + " image source(s) in " + (System.currentTimeMillis() - start) + " ms, using " + nThreads + " thread(s)." );
+		System.out.println( "Transformed " + sourceAndConverters.size() + " image source(s) in " + (System.currentTimeMillis() - start) + " ms, using " + ThreadUtils.N_IO_THREADS + " thread(s)." );
 	}
 
 	private List< String > getTransformedSourceNames( String gridId )
@@ -9,6 +9,7 @@ import de.embl.cba.mobie.bdv.view.AnnotatedIntervalSliceView;
 import de.embl.cba.mobie.color.MoBIEColoringModel;
 import de.embl.cba.mobie.display.AnnotatedRegionDisplay;
 import de.embl.cba.mobie.display.AnnotatedIntervalDisplay;
+import de.embl.cba.mobie.mesh.MeshCache;
 import de.embl.cba.mobie.playground.PlaygroundUtils;
 import de.embl.cba.mobie.Utils;
 import de.embl.cba.mobie.bdv.view.ImageSliceView;
@@ -43,6 +44,7 @@ import sc.fiji.bdvpg.services.SourceAndConverterServices;
 import javax.swing.*;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.CancellationException;
 import java.util.stream.Collectors;
 
 import static de.embl.cba.mobie.ui.UserInterfaceHelper.setMoBIESwingLookAndFeel;
@@ -197,7 +199,25 @@ public class ViewerManager
 		}
 	}
 
-	public synchronized void show( View view )
+	public void show( View view )
+	{
+		// an exclusive view replaces the current one,
+		// thus there is no need to finish opening its sources
+		if ( view.isExclusive() )
+			moBIE.cancelSourceOpenings();
+
+		try
+		{
+			showView( view );
+		}
+		catch ( CancellationException e )
+		{
+			resetSystemSwingLookAndFeel();
+			IJ.log( "Showing of view " + view.getName() + " was cancelled." );
+		}
+	}
+
+	private synchronized void showView( View view )
 	{
 		if ( view.isExclusive() )
 		{
@@ -257,6 +277,9 @@ public class ViewerManager
 		// register the SAC with MoBIE for access and closing
 		sourceDisplay.sourceAndConverters.stream().forEach( sac -> moBIE.registerSourceAndConverter( sac.getSpimSource().getName(), sac)  );
 
+		// index the bounds for finding the sources at the mouse position
+		sliceViewer.getSourceBoundsIndex().addAll( sourceDisplay.sourceAndConverters );
+
 		userInterface.addSourceDisplay( sourceDisplay );
 		sourceDisplays.add( sourceDisplay );
 	}
@@ -395,6 +418,8 @@ public class ViewerManager
 	private void initVolumeViewer( SegmentationSourceDisplay display )
 	{
 		display.segmentsVolumeViewer = new SegmentsVolumeViewer<>( display.selectionModel, display.coloringModel, display.sourceAndConverters, universeManager );
+		display.segmentsVolumeViewer.setDatasetLocation( moBIE.getDatasetLocation() );
+		display.segmentsVolumeViewer.setMeshCacheDirectory( MeshCache.getDefaultDirectory() );
 		display.segmentsVolumeViewer.showSegments( display.showSelectedSegmentsIn3d() );
 		display.coloringModel.listeners().add( display.segmentsVolumeViewer );
 		display.selectionModel.listeners().add( display.segmentsVolumeViewer );
@@ -407,6 +432,9 @@ public class ViewerManager
 
 	public synchronized void removeSourceDisplay( SourceDisplay sourceDisplay )
 	{
+		// closing the views clears the sources of the display
+		final List< SourceAndConverter< ? > > sourceAndConverters = new ArrayList<>( sourceDisplay.sourceAndConverters );
+
 		if ( sourceDisplay instanceof SegmentationSourceDisplay )
 		{
 			final SegmentationSourceDisplay segmentationDisplay = ( SegmentationSourceDisplay ) sourceDisplay;
@@ -432,6 +460,7 @@ public class ViewerManager
 			annotatedIntervalDisplay.scatterPlotViewer.close();
 		}
 
+		sliceViewer.getSourceBoundsIndex().removeAll( sourceAndConverters );
 		userInterface.removeDisplaySettingsPanel( sourceDisplay );
 		sourceDisplays.remove( sourceDisplay );
 	}
@@ -446,7 +475,7 @@ public class ViewerManager
 	public void close()
 	{
 		removeAllSourceDisplays();
-		sliceViewer.getBdvHandle().close();
+		sliceViewer.close();
 		universeManager.close();
 	}
 }
@@ -31,8 +31,10 @@ package de.embl.cba.mobie.volume;
 import bdv.viewer.Source;
 import bdv.viewer.SourceAndConverter;
 import customnode.CustomTriangleMesh;
+import de.embl.cba.mobie.ThreadUtils;
 import de.embl.cba.mobie.VisibilityListener;
 import de.embl.cba.mobie.mesh.MeshCreator;
+import de.embl.cba.tables.Logger;
 import de.embl.cba.tables.color.ColorUtils;
 import de.embl.cba.tables.color.ColoringListener;
 import de.embl.cba.tables.color.ColoringModel;
@@ -51,6 +53,7 @@ import org.scijava.vecmath.Color3f;
 import java.awt.*;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
@@ -70,6 +73,7 @@ public class SegmentsVolumeViewer< S extends ImageSegment > implements ColoringL
 	private S recentFocus;
 	private ConcurrentHashMap< S, Content > segmentToContent;
 	private ConcurrentHashMap< Content, S > contentToSegment;
+	private ConcurrentHashMap< S, MeshingTask > segmentToMeshing;
 	private double transparency;
 	private int meshSmoothingIterations;
 	private int segmentFocusAnimationDurationMillis;
@@ -107,6 +111,7 @@ public class SegmentsVolumeViewer< S extends ImageSegment > implements ColoringL
 		this.objectsName = "";
 		this.segmentToContent = new ConcurrentHashMap<>();
 		this.contentToSegment = new ConcurrentHashMap<>();
+		this.segmentToMeshing = new ConcurrentHashMap<>();
 
 		this.meshCreator = new MeshCreator<>( meshSmoothingIterations, maxNumSegmentVoxels );
 	}
@@ -127,6 +132,25 @@ public class SegmentsVolumeViewer< S extends ImageSegment > implements ColoringL
 	public void setMeshSmoothingIterations( int iterations )
 	{
 		this.meshSmoothingIterations = iterations;
+		meshCreator.setMeshSmoothingIterations( iterations );
+	}
+
+	/**
+	 * @param datasetLocation
+	 * 			identifies the meshes of the segments, together with the image names
+	 */
+	public void setDatasetLocation( String datasetLocation )
+	{
+		meshCreator.setDatasetLocation( datasetLocation );
+	}
+
+	/**
+	 * @param directory
+	 * 			for keeping the computed meshes across sessions; null to only keep them in memory
+	 */
+	public void setMeshCacheDirectory( File directory )
+	{
+		meshCreator.getMeshCache().setDirectory( directory );
 	}
 
 	public void setSegmentFocusAnimationDurationMillis( int duration )
@@ -177,7 +201,8 @@ public class SegmentsVolumeViewer< S extends ImageSegment > implements ColoringL
 	private void removeUnselectedSegments( )
 	{
 		final Set< S > selectedSegments = selectionModel.getSelected();
-		final Set< S > currentSegments = segmentToContent.keySet();
+		final Set< S > currentSegments = new HashSet<>( segmentToContent.keySet() );
+		currentSegments.addAll( segmentToMeshing.keySet() );
 		final Set< S > remove = new HashSet<>();
 
 		for ( S segment : currentSegments )
@@ -188,6 +213,7 @@ public class SegmentsVolumeViewer< S extends ImageSegment > implements ColoringL
 			removeSegment( segment );
 	}
 
+	// the meshes are computed in parallel, and added to the universe as they are done
 	private synchronized void updateSelectedSegments( boolean recomputeMeshes )
 	{
 		final Set< S > selected = selectionModel.getSelected();
@@ -198,12 +224,11 @@ public class SegmentsVolumeViewer< S extends ImageSegment > implements ColoringL
 			{
 				if ( recomputeMeshes ) removeSegment( segment );
 
-				if ( ! segmentToContent.containsKey( segment ) )
+				if ( ! segmentToContent.containsKey( segment ) && ! segmentToMeshing.containsKey( segment ) )
 				{
-					final Source< ? extends RealType< ? > > source = getSource( segment );
-					final CustomTriangleMesh mesh = meshCreator.createSmoothCustomTriangleMesh( segment, voxelSpacing, recomputeMeshes, source );
-					mesh.setColor( getColor3f( segment ) );
-					addSegmentMeshToUniverse( segment, mesh );
+					final MeshingTask meshingTask = new MeshingTask( segment, recomputeMeshes );
+					segmentToMeshing.put( segment, meshingTask );
+					ThreadUtils.getMeshingExecutorService().submit( meshingTask );
 				}
 			}
 			else // segment is of another time point
@@ -228,8 +253,14 @@ public class SegmentsVolumeViewer< S extends ImageSegment > implements ColoringL
 
 	private synchronized void removeSegment( S segment )
 	{
+		// a mesh that is still being computed will not be added
+		segmentToMeshing.remove( segment );
+
 		final Content content = segmentToContent.get( segment );
-		universe.removeContent( content.getName() );
+		if ( content == null ) return;
+
+		if ( universe != null )
+			universe.removeContent( content.getName() );
 		segmentToContent.remove( segment );
 		contentToSegment.remove( content );
 	}
@@ -254,6 +285,7 @@ public class SegmentsVolumeViewer< S extends ImageSegment > implements ColoringL
 						universe = null;
 						segmentToContent.clear();
 						contentToSegment.clear();
+						segmentToMeshing.clear();
 						setShowSegments( false );
 						universeManager.setUniverse( null );
 						for ( VisibilityListener listener : listeners )
@@ -297,14 +329,17 @@ public class SegmentsVolumeViewer< S extends ImageSegment > implements ColoringL
 		}
 	}
 
-	private synchronized void addSegmentMeshToUniverse( S segment, CustomTriangleMesh mesh )
+	private synchronized void addSegmentMeshToUniverse( MeshingTask meshingTask, CustomTriangleMesh mesh )
 	{
+		final S segment = meshingTask.segment;
+
+		// the segment may have been removed in the meantime
+		if ( segmentToMeshing.get( segment ) != meshingTask ) return;
+		if ( universe == null || segment.timePoint() != currentTimePoint ) return;
+
 		if ( mesh == null )
 			throw new RuntimeException( "Mesh of segment " + objectsName + "_" + segment.labelId() + " is null." );
 
-		if ( universe == null )
-			throw new RuntimeException( "Universe is null." );
-
 		final Content content = universe.addCustomMesh( mesh, objectsName + "_" + segment.labelId() );
 
 		content.setTransparency( ( float ) transparency );
@@ -491,4 +526,38 @@ public class SegmentsVolumeViewer< S extends ImageSegment > implements ColoringL
 	{
 		return listeners;
 	}
+
+	private class MeshingTask implements Runnable
+	{
+		private final S segment;
+		private final boolean recomputeMesh;
+
+		MeshingTask( S segment, boolean recomputeMesh )
+		{
+			this.segment = segment;
+			this.recomputeMesh = recomputeMesh;
+		}
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				if ( segmentToMeshing.get( segment ) != this ) return;
+
+				final Source< ? extends RealType< ? > > source = getSource( segment );
+				final CustomTriangleMesh mesh = meshCreator.createSmoothCustomTriangleMesh( segment, voxelSpacing, recomputeMesh, source );
+				mesh.setColor( getColor3f( segment ) );
+				addSegmentMeshToUniverse( this, mesh );
+			}
+			catch ( RuntimeException e )
+			{
+				Logger.warn( e.getMessage() );
+			}
+			finally
+			{
+				segmentToMeshing.remove( segment, this );
+			}
+		}
+	}
 }
@@ -0,0 +1,106 @@
+package benchmark;
+
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.ByteArray;
+import net.imglib2.img.basictypeaccess.array.IntArray;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.type.numeric.ARGBType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedIntType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+import java.util.Random;
+
+/**
+ * Synthetic screen sized canvases, as they are rendered by BDV.
+ *
+ * Labels come in square patches, such that neighbouring pixels mostly have
+ * the same label, as in real segmentations, with some background in between.
+ */
+public class Canvases
+{
+	public static final int WIDTH = 1024;
+	public static final int HEIGHT = 1024;
+
+	private static final int PATCH_SIZE = 16;
+	private static final double BACKGROUND_FRACTION = 0.3;
+
+	public static ArrayImg< UnsignedIntType, IntArray > createLabels( int numLabels, long seed )
+	{
+		final ArrayImg< UnsignedIntType, IntArray > labels = ArrayImgs.unsignedInts( WIDTH, HEIGHT );
+		final int[] data = labels.update( null ).getCurrentStorageArray();
+		final int[] patchLabels = createPatchLabels( numLabels, seed );
+		for ( int y = 0; y < HEIGHT; y++ )
+			for ( int x = 0; x < WIDTH; x++ )
+				data[ y * WIDTH + x ] = patchLabels[ getPatchIndex( x, y ) ];
+		return labels;
+	}
+
+	/**
+	 * @return row indices into a list of {@code numRows}, -1 outside of the rows
+	 */
+	public static ArrayImg< IntType, IntArray > createRowIndices( int numRows, long seed )
+	{
+		final ArrayImg< IntType, IntArray > rowIndices = ArrayImgs.ints( WIDTH, HEIGHT );
+		final int[] data = rowIndices.update( null ).getCurrentStorageArray();
+		final int[] patchLabels = createPatchLabels( numRows, seed );
+		for ( int y = 0; y < HEIGHT; y++ )
+			for ( int x = 0; x < WIDTH; x++ )
+				data[ y * WIDTH + x ] = patchLabels[ getPatchIndex( x, y ) ] - 1;
+		return rowIndices;
+	}
+
+	public static ArrayImg< UnsignedByteType, ByteArray > createBytes( long seed )
+	{
+		final ArrayImg< UnsignedByteType, ByteArray > img = ArrayImgs.unsignedBytes( WIDTH, HEIGHT );
+		final byte[] data = img.update( null ).getCurrentStorageArray();
+		new Random( seed ).nextBytes( data );
+		return img;
+	}
+
+	public static ArrayImg< UnsignedShortType, ShortArray > createShorts( long seed )
+	{
+		final ArrayImg< UnsignedShortType, ShortArray > img = ArrayImgs.unsignedShorts( WIDTH, HEIGHT );
+		final short[] data = img.update( null ).getCurrentStorageArray();
+		final Random random = new Random( seed );
+		for ( int i = 0; i < data.length; i++ )
+			data[ i ] = ( short ) random.nextInt( 1 << 16 );
+		return img;
+	}
+
+	/**
+	 * @param visibleFraction
+	 * 			fraction of the pixels with a non transparent color
+	 */
+	public static ArrayImg< ARGBType, IntArray > createARGBs( double visibleFraction, long seed )
+	{
+		final ArrayImg< ARGBType, IntArray > img = ArrayImgs.argbs( WIDTH, HEIGHT );
+		final int[] data = img.update( null ).getCurrentStorageArray();
+		final Random random = new Random( seed );
+		for ( int i = 0; i < data.length; i++ )
+			data[ i ] = random.nextDouble() < visibleFraction ? random.nextInt() | 0xff000000 : 0;
+		return img;
+	}
+
+	public static ArrayImg< ARGBType, IntArray > createTarget()
+	{
+		return ArrayImgs.argbs( WIDTH, HEIGHT );
+	}
+
+	private static int getPatchIndex( int x, int y )
+	{
+		return ( y / PATCH_SIZE ) * ( WIDTH / PATCH_SIZE ) + x / PATCH_SIZE;
+	}
+
+	// 0 is background
+	private static int[] createPatchLabels( int numLabels, long seed )
+	{
+		final Random random = new Random( seed );
+		final int[] patchLabels = new int[ ( WIDTH / PATCH_SIZE ) * ( HEIGHT / PATCH_SIZE ) ];
+		for ( int i = 0; i < patchLabels.length; i++ )
+			patchLabels[ i ] = random.nextDouble() < BACKGROUND_FRACTION ? 0 : 1 + random.nextInt( numLabels );
+		return patchLabels;
+	}
+}
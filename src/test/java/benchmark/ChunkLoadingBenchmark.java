@@ -0,0 +1,392 @@
+package benchmark;
+
+import com.amazonaws.services.s3.AmazonS3;
+import de.embl.cba.mobie.n5.CachingN5AmazonS3Reader;
+import de.embl.cba.mobie.n5.DiskBlockCache;
+import de.embl.cba.mobie.n5.zarr.N5S3ZarrReader;
+import de.embl.cba.mobie.n5.zarr.N5ZarrReader;
+import net.imglib2.Interval;
+import net.imglib2.algorithm.util.Grids;
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.N5FSReader;
+import org.janelia.saalfeldlab.n5.N5Reader;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how fast chunks are fetched and decoded by the N5 and Zarr readers
+ * that back the image loaders, headless and without network access.
+ *
+ * Synthetic containers are generated for all combinations of format and compression,
+ * and their chunks are read in random order by several threads, like the fetcher
+ * threads of the image loaders do, from the local file system and from a {@link LocalS3}
+ * with the given latency and bandwidth.
+ *
+ * For every combination the chunks/s, decoded and stored bytes/s, p50 and p99 latency
+ * and the peak heap use are printed and written to a tab separated file.
+ * If a baseline file of an earlier run is given, the run fails if any combination
+ * got slower than the baseline by more than the tolerance, such that it can be used
+ * as a regression gate.
+ *
+ * Arguments are name=value pairs, see {@link #DEFAULTS}, e.g.
+ * "dimensions=1024,1024,512 blockSize=128,128,64 latencyMillis=50 baseline=main.tsv".
+ */
+public class ChunkLoadingBenchmark
+{
+	public static final Map< String, String > DEFAULTS = new LinkedHashMap<>();
+	static
+	{
+		DEFAULTS.put( "dimensions", "512,512,256" );
+		DEFAULTS.put( "blockSize", "64,64,64" );
+		DEFAULTS.put( "formats", "n5,ome_zarr" );
+		DEFAULTS.put( "codecs", "raw,gzip,blosc" );
+		DEFAULTS.put( "backends", "fs,s3" );
+		DEFAULTS.put( "numThreads", "8" );
+		DEFAULTS.put( "latencyMillis", "20" );
+		DEFAULTS.put( "bandwidthMBps", "100" ); // 0 for no limit
+		DEFAULTS.put( "numIterations", "3" ); // after one warm up iteration
+		DEFAULTS.put( "diskBlockCache", "false" );
+		DEFAULTS.put( "directory", "" ); // containers are kept there, default is a temporary directory
+		DEFAULTS.put( "output", "chunk-loading.tsv" );
+		DEFAULTS.put( "baseline", "" );
+		DEFAULTS.put( "tolerance", "0.2" );
+	}
+
+	private static final String BUCKET_NAME = "benchmark";
+	private static final String[] COLUMNS = { "name", "chunks_per_s", "decoded_mb_per_s", "stored_mb_per_s", "p50_ms", "p99_ms", "peak_heap_mb" };
+	private static final long SEED = 42;
+
+	enum Backend
+	{
+		FS,
+		S3
+	}
+
+	public static void main( String[] args ) throws Exception
+	{
+		System.setProperty( "java.awt.headless", "true" );
+		final Map< String, String > parameters = parseArguments( args );
+
+		final long[] dimensions = Arrays.stream( parameters.get( "dimensions" ).split( "," ) ).mapToLong( Long::parseLong ).toArray();
+		final int[] blockSize = Arrays.stream( parameters.get( "blockSize" ).split( "," ) ).mapToInt( Integer::parseInt ).toArray();
+		final int numThreads = Integer.parseInt( parameters.get( "numThreads" ) );
+		final int numIterations = Integer.parseInt( parameters.get( "numIterations" ) );
+
+		final boolean isTemporary = parameters.get( "directory" ).isEmpty();
+		final File directory = isTemporary ? Files.createTempDirectory( "mobie-chunk-loading" ).toFile() : new File( parameters.get( "directory" ) );
+		directory.mkdirs();
+
+		final boolean diskBlockCache = Boolean.parseBoolean( parameters.get( "diskBlockCache" ) );
+		DiskBlockCache.setEnabled( diskBlockCache );
+		if ( diskBlockCache )
+			DiskBlockCache.configure( new File( directory, "block-cache" ), 10L * 1024 * 1024 * 1024 );
+
+		final List< Result > results = new ArrayList<>();
+		final ExecutorService executorService = Executors.newFixedThreadPool( numThreads );
+		try ( LocalS3 s3 = new LocalS3( BUCKET_NAME, directory, Long.parseLong( parameters.get( "latencyMillis" ) ), ( long ) ( Double.parseDouble( parameters.get( "bandwidthMBps" ) ) * 1024 * 1024 ) ) )
+		{
+			final AmazonS3 client = s3.createClient( numThreads );
+
+			System.out.println( String.join( "\t", COLUMNS ) );
+			for ( String formatName : parameters.get( "formats" ).split( "," ) )
+			{
+				for ( String codecName : parameters.get( "codecs" ).split( "," ) )
+				{
+					final SyntheticContainers.Format format = SyntheticContainers.Format.valueOf( formatName.trim().toUpperCase() );
+					final SyntheticContainers.Codec codec = SyntheticContainers.Codec.valueOf( codecName.trim().toUpperCase() );
+
+					final File container;
+					try
+					{
+						container = SyntheticContainers.create( directory, format, codec, dimensions, blockSize, SEED );
+					}
+					catch ( LinkageError e )
+					{
+						// e.g. the native blosc library is not installed
+						System.err.println( "Skipping " + format + " " + codec + ": " + e );
+						continue;
+					}
+
+					for ( String backendName : parameters.get( "backends" ).split( "," ) )
+					{
+						final Backend backend = Backend.valueOf( backendName.trim().toUpperCase() );
+						final String name = format.name().toLowerCase() + "-" + codec.name().toLowerCase() + "-" + backend.name().toLowerCase();
+						final N5Reader reader = createReader( format, backend, container, s3, client );
+
+						final Result result = run( name, reader, dimensions, blockSize, SyntheticContainers.getNumBytes( container ), numIterations, executorService );
+						results.add( result );
+						System.out.println( result );
+					}
+				}
+			}
+		}
+		finally
+		{
+			executorService.shutdown();
+			if ( isTemporary )
+				delete( directory );
+		}
+
+		write( results, new File( parameters.get( "output" ) ) );
+
+		if ( ! parameters.get( "baseline" ).isEmpty() )
+		{
+			final List< String > regressions = compare( results, read( new File( parameters.get( "baseline" ) ) ), Double.parseDouble( parameters.get( "tolerance" ) ) );
+			regressions.forEach( System.err::println );
+			System.exit( regressions.isEmpty() ? 0 : 1 );
+		}
+
+		// the AWS client keeps non daemon threads
+		System.exit( 0 );
+	}
+
+	// the readers that the image loaders use
+	private static N5Reader createReader( SyntheticContainers.Format format, Backend backend, File container, LocalS3 s3, AmazonS3 client ) throws IOException
+	{
+		if ( format == SyntheticContainers.Format.N5 )
+		{
+			if ( backend == Backend.FS )
+				return new N5FSReader( container.getAbsolutePath() );
+			else
+				return new CachingN5AmazonS3Reader( client, s3.getBucketName(), container.getName() );
+		}
+		else
+		{
+			if ( backend == Backend.FS )
+				return new N5ZarrReader( container.getAbsolutePath(), SyntheticContainers.ZARR_DIMENSION_SEPARATOR, true );
+			else
+				return new N5S3ZarrReader( client, s3.getServiceEndpoint(), s3.getBucketName(), container.getName(), SyntheticContainers.ZARR_DIMENSION_SEPARATOR );
+		}
+	}
+
+	private static Result run( String name, N5Reader reader, long[] dimensions, int[] blockSize, long numStoredBytes, int numIterations, ExecutorService executorService ) throws IOException, InterruptedException, ExecutionException
+	{
+		// the metadata is fetched once, as by the image loaders
+		final DatasetAttributes attributes = reader.getDatasetAttributes( SyntheticContainers.DATASET );
+
+		final List< long[] > gridPositions = new ArrayList<>();
+		for ( Interval block : Grids.collectAllContainedIntervals( dimensions, blockSize ) )
+		{
+			final long[] gridPosition = new long[ dimensions.length ];
+			for ( int d = 0; d < dimensions.length; d++ )
+				gridPosition[ d ] = block.min( d ) / blockSize[ d ];
+			gridPositions.add( gridPosition );
+		}
+		Collections.shuffle( gridPositions, new Random( SEED ) );
+
+		readAll( reader, attributes, gridPositions, executorService );
+
+		System.gc();
+		final HeapSampler heapSampler = new HeapSampler();
+		heapSampler.start();
+
+		final long[] latencyNanos = new long[ numIterations * gridPositions.size() ];
+		long numDecodedBytes = 0;
+		final long startNanos = System.nanoTime();
+		for ( int iteration = 0; iteration < numIterations; iteration++ )
+		{
+			final long[][] chunks = readAll( reader, attributes, gridPositions, executorService );
+			for ( int i = 0; i < chunks.length; i++ )
+			{
+				latencyNanos[ iteration * chunks.length + i ] = chunks[ i ][ 0 ];
+				numDecodedBytes += chunks[ i ][ 1 ];
+			}
+		}
+		final double seconds = ( System.nanoTime() - startNanos ) / 1e9;
+
+		heapSampler.interrupt();
+		heapSampler.join();
+
+		Arrays.sort( latencyNanos );
+		final Result result = new Result();
+		result.name = name;
+		result.chunksPerSecond = latencyNanos.length / seconds;
+		result.decodedMBPerSecond = numDecodedBytes / seconds / ( 1024 * 1024 );
+		result.storedMBPerSecond = numIterations * numStoredBytes / seconds / ( 1024 * 1024 );
+		result.p50Millis = getPercentile( latencyNanos, 0.5 ) / 1e6;
+		result.p99Millis = getPercentile( latencyNanos, 0.99 ) / 1e6;
+		result.peakHeapMB = heapSampler.peakNumBytes / ( 1024.0 * 1024 );
+		return result;
+	}
+
+	/**
+	 * @return the latency in nanoseconds and the number of decoded bytes of each chunk
+	 */
+	private static long[][] readAll( N5Reader reader, DatasetAttributes attributes, List< long[] > gridPositions, ExecutorService executorService ) throws InterruptedException, ExecutionException
+	{
+		final List< Callable< long[] > > tasks = new ArrayList<>();
+		for ( long[] gridPosition : gridPositions )
+		{
+			tasks.add( () -> {
+				final long startNanos = System.nanoTime();
+				final DataBlock< ? > block = reader.readBlock( SyntheticContainers.DATASET, attributes, gridPosition );
+				final long nanos = System.nanoTime() - startNanos;
+				if ( block == null )
+					throw new IOException( "Missing chunk " + Arrays.toString( gridPosition ) );
+				// the synthetic containers are uint16
+				return new long[]{ nanos, block.getNumElements() * ( long ) Short.BYTES };
+			} );
+		}
+
+		final List< Future< long[] > > futures = executorService.invokeAll( tasks );
+		final long[][] chunks = new long[ futures.size() ][];
+		for ( int i = 0; i < chunks.length; i++ )
+			chunks[ i ] = futures.get( i ).get();
+		return chunks;
+	}
+
+	private static long getPercentile( long[] sortedValues, double percentile )
+	{
+		return sortedValues[ ( int ) Math.round( percentile * ( sortedValues.length - 1 ) ) ];
+	}
+
+	/**
+	 * @return a description of every result that is worse than its baseline by more than the tolerance
+	 */
+	static List< String > compare( List< Result > results, List< Result > baselines, double tolerance )
+	{
+		final List< String > regressions = new ArrayList<>();
+		for ( Result result : results )
+		{
+			for ( Result baseline : baselines )
+			{
+				if ( ! baseline.name.equals( result.name ) ) continue;
+
+				if ( result.chunksPerSecond < ( 1 - tolerance ) * baseline.chunksPerSecond )
+					regressions.add( String.format( Locale.ROOT, "%s: %.1f chunks/s, baseline %.1f chunks/s", result.name, result.chunksPerSecond, baseline.chunksPerSecond ) );
+				if ( result.p99Millis > ( 1 + tolerance ) * baseline.p99Millis )
+					regressions.add( String.format( Locale.ROOT, "%s: p99 latency %.2f ms, baseline %.2f ms", result.name, result.p99Millis, baseline.p99Millis ) );
+			}
+		}
+		return regressions;
+	}
+
+	private static void write( List< Result > results, File file ) throws IOException
+	{
+		try ( BufferedWriter writer = new BufferedWriter( new FileWriter( file ) ) )
+		{
+			writer.write( String.join( "\t", COLUMNS ) );
+			writer.newLine();
+			for ( Result result : results )
+			{
+				writer.write( result.toString() );
+				writer.newLine();
+			}
+		}
+	}
+
+	private static List< Result > read( File file ) throws IOException
+	{
+		final List< Result > results = new ArrayList<>();
+		try ( BufferedReader reader = new BufferedReader( new FileReader( file ) ) )
+		{
+			final String header = reader.readLine();
+			if ( header == null || ! header.equals( String.join( "\t", COLUMNS ) ) )
+				throw new IOException( "Not a chunk loading benchmark result: " + file );
+
+			String line;
+			while ( ( line = reader.readLine() ) != null )
+			{
+				final String[] values = line.split( "\t" );
+				final Result result = new Result();
+				result.name = values[ 0 ];
+				result.chunksPerSecond = Double.parseDouble( values[ 1 ] );
+				result.decodedMBPerSecond = Double.parseDouble( values[ 2 ] );
+				result.storedMBPerSecond = Double.parseDouble( values[ 3 ] );
+				result.p50Millis = Double.parseDouble( values[ 4 ] );
+				result.p99Millis = Double.parseDouble( values[ 5 ] );
+				result.peakHeapMB = Double.parseDouble( values[ 6 ] );
+				results.add( result );
+			}
+		}
+		return results;
+	}
+
+	private static Map< String, String > parseArguments( String[] args )
+	{
+		final Map< String, String > parameters = new LinkedHashMap<>( DEFAULTS );
+		for ( String arg : args )
+		{
+			final int separator = arg.indexOf( '=' );
+			if ( separator < 0 || ! DEFAULTS.containsKey( arg.substring( 0, separator ) ) )
+				throw new IllegalArgumentException( "Unknown argument: " + arg + "; known are " + DEFAULTS.keySet() );
+			parameters.put( arg.substring( 0, separator ), arg.substring( separator + 1 ) );
+		}
+		return parameters;
+	}
+
+	private static void delete( File file )
+	{
+		final File[] children = file.listFiles();
+		if ( children != null )
+			for ( File child : children )
+				delete( child );
+		file.delete();
+	}
+
+	static class Result
+	{
+		String name;
+		double chunksPerSecond;
+		double decodedMBPerSecond;
+		double storedMBPerSecond;
+		double p50Millis;
+		double p99Millis;
+		double peakHeapMB;
+
+		@Override
+		public String toString()
+		{
+			return String.format( Locale.ROOT, "%s\t%.1f\t%.1f\t%.1f\t%.2f\t%.2f\t%.1f", name, chunksPerSecond, decodedMBPerSecond, storedMBPerSecond, p50Millis, p99Millis, peakHeapMB );
+		}
+	}
+
+	private static class HeapSampler extends Thread
+	{
+		private volatile long peakNumBytes;
+
+		HeapSampler()
+		{
+			setDaemon( true );
+		}
+
+		@Override
+		public void run()
+		{
+			final Runtime runtime = Runtime.getRuntime();
+			while ( ! isInterrupted() )
+			{
+				peakNumBytes = Math.max( peakNumBytes, runtime.totalMemory() - runtime.freeMemory() );
+				try
+				{
+					TimeUnit.MILLISECONDS.sleep( 10 );
+				}
+				catch ( InterruptedException e )
+				{
+					return;
+				}
+			}
+		}
+	}
+}
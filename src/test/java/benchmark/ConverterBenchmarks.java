@@ -0,0 +1,198 @@
+package benchmark;
+
+import de.embl.cba.mobie.color.LabelConverter;
+import de.embl.cba.mobie.color.ListItemsARGBConverter;
+import de.embl.cba.mobie.color.MoBIEColoringModel;
+import de.embl.cba.mobie.color.opacity.VolatileAdjustableOpacityColorConverter;
+import de.embl.cba.mobie.segment.SegmentAdapter;
+import de.embl.cba.tables.color.ColoringLuts;
+import de.embl.cba.tables.imagesegment.DefaultImageSegment;
+import de.embl.cba.tables.select.DefaultSelectionModel;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.converter.Converter;
+import net.imglib2.display.RealARGBColorConverter;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.array.IntArray;
+import net.imglib2.type.numeric.ARGBType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedIntType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.volatiles.VolatileUnsignedByteType;
+import net.imglib2.type.volatiles.VolatileUnsignedShortType;
+import net.imglib2.view.Views;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the per pixel converters, converting one synthetic
+ * {@link Canvases#WIDTH} x {@link Canvases#HEIGHT} canvas per operation.
+ *
+ * Run with {@link RunBenchmarks}, which also reports the allocation rate.
+ *
+ * The label converters run on {@link LabelState}, for each number of labels
+ * and selected segments; the opacity converters do not depend on these and
+ * run once on {@link OpacityState}.
+ */
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class ConverterBenchmarks
+{
+	private static final String IMAGE_ID = "labels";
+
+	@State( Scope.Thread )
+	public static class LabelState
+	{
+		@Param( { "100", "10000", "1000000" } )
+		public int numLabels;
+
+		@Param( { "0", "10" } )
+		public int numSelected;
+
+		private ArrayImg< UnsignedIntType, IntArray > labels;
+		private ArrayImg< IntType, IntArray > rowIndices;
+		private ArrayImg< ARGBType, IntArray > target;
+
+		private List< DefaultImageSegment > segments;
+		private MoBIEColoringModel< DefaultImageSegment > coloringModel;
+		private LabelConverter< DefaultImageSegment > labelConverter;
+		private ListItemsARGBConverter< DefaultImageSegment > listItemsConverter;
+
+		@Setup
+		public void setup()
+		{
+			labels = Canvases.createLabels( numLabels, 42 );
+			rowIndices = Canvases.createRowIndices( numLabels, 42 );
+			target = Canvases.createTarget();
+
+			segments = new ArrayList<>();
+			for ( int label = 1; label <= numLabels; label++ )
+				segments.add( new DefaultImageSegment( IMAGE_ID, label, 0, 0, 0, 0, null ) );
+
+			final DefaultSelectionModel< DefaultImageSegment > selectionModel = new DefaultSelectionModel<>();
+			coloringModel = new MoBIEColoringModel<>( ColoringLuts.GLASBEY );
+			coloringModel.setSelectionModel( selectionModel );
+			if ( numSelected > 0 )
+				selectionModel.setSelected( segments.subList( 0, Math.min( numSelected, numLabels ) ), true );
+
+			labelConverter = new LabelConverter<>( new SegmentAdapter<>( segments ), IMAGE_ID, coloringModel );
+			labelConverter.selectionChanged();
+
+			listItemsConverter = new ListItemsARGBConverter<>( segments, coloringModel );
+		}
+	}
+
+	@State( Scope.Thread )
+	public static class OpacityState
+	{
+		private RandomAccessibleInterval< UnsignedByteType > bytes;
+		private RandomAccessibleInterval< UnsignedShortType > shorts;
+		private ArrayImg< ARGBType, IntArray > target;
+
+		// raw, as the converter expects volatiles of RealType itself
+		private VolatileAdjustableOpacityColorConverter byteConverter;
+		private VolatileAdjustableOpacityColorConverter shortConverter;
+
+		@Setup
+		public void setup()
+		{
+			bytes = Canvases.createBytes( 42 );
+			shorts = Canvases.createShorts( 42 );
+			target = Canvases.createTarget();
+
+			byteConverter = new VolatileAdjustableOpacityColorConverter( RealARGBColorConverter.create( new VolatileUnsignedByteType(), 0, 255 ) );
+			byteConverter.setOpacity( 0.5 );
+			shortConverter = new VolatileAdjustableOpacityColorConverter( RealARGBColorConverter.create( new VolatileUnsignedShortType(), 0, 65535 ) );
+			shortConverter.setOpacity( 0.5 );
+		}
+	}
+
+	@Benchmark
+	public ArrayImg< ARGBType, IntArray > labelConverter( LabelState state )
+	{
+		return convert( state.labels, state.labelConverter, state.target );
+	}
+
+	@Benchmark
+	public ArrayImg< ARGBType, IntArray > listItemsARGBConverter( LabelState state )
+	{
+		return convert( state.rowIndices, state.listItemsConverter, state.target );
+	}
+
+	/**
+	 * The coloring model without the label color cache of the {@link LabelConverter}.
+	 */
+	@Benchmark
+	public ArrayImg< ARGBType, IntArray > moBIEColoringModel( LabelState state )
+	{
+		final Cursor< UnsignedIntType > cursor = state.labels.cursor();
+		final Cursor< ARGBType > out = state.target.cursor();
+		while ( cursor.hasNext() )
+		{
+			final int label = cursor.next().getInt();
+			final ARGBType color = out.next();
+			if ( label == 0 )
+				color.set( 0 );
+			else
+				state.coloringModel.convert( state.segments.get( label - 1 ), color );
+		}
+		return state.target;
+	}
+
+	@Benchmark
+	public ArrayImg< ARGBType, IntArray > volatileAdjustableOpacityColorConverter8Bit( OpacityState state )
+	{
+		final VolatileUnsignedByteType value = new VolatileUnsignedByteType();
+		value.setValid( true );
+		final Cursor< UnsignedByteType > cursor = Views.flatIterable( state.bytes ).cursor();
+		final Cursor< ARGBType > out = state.target.cursor();
+		while ( cursor.hasNext() )
+		{
+			value.get().set( cursor.next() );
+			state.byteConverter.convert( value, out.next() );
+		}
+		return state.target;
+	}
+
+	@Benchmark
+	public ArrayImg< ARGBType, IntArray > volatileAdjustableOpacityColorConverter16Bit( OpacityState state )
+	{
+		final VolatileUnsignedShortType value = new VolatileUnsignedShortType();
+		value.setValid( true );
+		final Cursor< UnsignedShortType > cursor = Views.flatIterable( state.shorts ).cursor();
+		final Cursor< ARGBType > out = state.target.cursor();
+		while ( cursor.hasNext() )
+		{
+			value.get().set( cursor.next() );
+			state.shortConverter.convert( value, out.next() );
+		}
+		return state.target;
+	}
+
+	private static < T extends RealType< T > > ArrayImg< ARGBType, IntArray > convert( ArrayImg< T, ? > input, Converter< RealType, ARGBType > converter, ArrayImg< ARGBType, IntArray > target )
+	{
+		final Cursor< T > cursor = input.cursor();
+		final Cursor< ARGBType > out = target.cursor();
+		while ( cursor.hasNext() )
+			converter.convert( cursor.next(), out.next() );
+		return target;
+	}
+}
@@ -0,0 +1,436 @@
+package benchmark;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.AnonymousAWSCredentials;
+import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An in-process stand-in for an S3 object store, serving the files of
+ * a local directory as one bucket, with path style addressing.
+ *
+ * Every request is delayed by a fixed latency, and all responses share
+ * a bandwidth, as if they came through one network link.
+ *
+ * Only the requests that the N5 and Zarr readers make are supported:
+ * getting objects and their metadata, listing objects and the bucket ACL.
+ * Objects have the MD5 of their content as ETag, as S3, and can be
+ * requested by one byte range and with If-Match and If-None-Match.
+ */
+public class LocalS3 implements AutoCloseable
+{
+	public static final String SIGNING_REGION = "us-east-1";
+
+	private static final int BUFFER_SIZE = 16 * 1024;
+	private static final Pattern RANGE = Pattern.compile( "bytes=(\\d*)-(\\d*)" );
+
+	private final String bucketName;
+	private final File directory;
+	private final long latencyMillis;
+	private final long bytesPerSecond;
+	private final HttpServer server;
+	private final ExecutorService executorService;
+
+	private final AtomicLong numRequests = new AtomicLong();
+	private final AtomicLong numBytesSent = new AtomicLong();
+	private final Map< File, String[] > fileToVersionAndETag = new ConcurrentHashMap<>();
+	private long nextFreeNanos;
+
+	/**
+	 * @param latencyMillis
+	 * 			delay of every request
+	 * @param bytesPerSecond
+	 * 			bandwidth shared by all responses, or 0 for no limit
+	 */
+	public LocalS3( String bucketName, File directory, long latencyMillis, long bytesPerSecond ) throws IOException
+	{
+		this.bucketName = bucketName;
+		this.directory = directory;
+		this.latencyMillis = latencyMillis;
+		this.bytesPerSecond = bytesPerSecond;
+
+		server = HttpServer.create( new InetSocketAddress( InetAddress.getLoopbackAddress(), 0 ), 0 );
+		server.createContext( "/", this::handle );
+		executorService = Executors.newCachedThreadPool();
+		server.setExecutor( executorService );
+		server.start();
+	}
+
+	public String getServiceEndpoint()
+	{
+		return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+	}
+
+	public String getBucketName()
+	{
+		return bucketName;
+	}
+
+	public AmazonS3 createClient( int maxConnections )
+	{
+		return AmazonS3ClientBuilder.standard()
+				.withEndpointConfiguration( new AwsClientBuilder.EndpointConfiguration( getServiceEndpoint(), SIGNING_REGION ) )
+				.withPathStyleAccessEnabled( true )
+				.withCredentials( new AWSStaticCredentialsProvider( new AnonymousAWSCredentials() ) )
+				.withClientConfiguration( new ClientConfiguration().withMaxConnections( maxConnections ) )
+				.build();
+	}
+
+	public long getNumRequests()
+	{
+		return numRequests.get();
+	}
+
+	public long getNumBytesSent()
+	{
+		return numBytesSent.get();
+	}
+
+	@Override
+	public void close()
+	{
+		server.stop( 0 );
+		executorService.shutdownNow();
+	}
+
+	private void handle( HttpExchange exchange ) throws IOException
+	{
+		numRequests.incrementAndGet();
+
+		try
+		{
+			Thread.sleep( latencyMillis );
+
+			final boolean isHead = "HEAD".equals( exchange.getRequestMethod() );
+			final String path = exchange.getRequestURI().getPath().replaceAll( "^/+", "" );
+			final Map< String, String > query = parseQuery( exchange.getRequestURI().getRawQuery() );
+
+			final int separator = path.indexOf( '/' );
+			final String bucket = separator < 0 ? path : path.substring( 0, separator );
+			final String key = separator < 0 ? "" : path.substring( separator + 1 );
+
+			if ( ! bucket.equals( bucketName ) )
+				sendError( exchange, 404, "NoSuchBucket", bucket, isHead );
+			else if ( key.isEmpty() && query.containsKey( "acl" ) )
+				sendXml( exchange, "<AccessControlPolicy><Owner><ID>local</ID></Owner><AccessControlList/></AccessControlPolicy>", isHead );
+			else if ( key.isEmpty() && isHead )
+				sendXml( exchange, "", true );
+			else if ( key.isEmpty() )
+				sendXml( exchange, list( query ), false );
+			else
+				sendObject( exchange, key, isHead );
+		}
+		catch ( InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+		}
+		finally
+		{
+			exchange.close();
+		}
+	}
+
+	private void sendObject( HttpExchange exchange, String key, boolean isHead ) throws IOException, InterruptedException
+	{
+		final File file = new File( directory, key );
+		if ( ! file.isFile() )
+		{
+			sendError( exchange, 404, "NoSuchKey", key, isHead );
+			return;
+		}
+
+		// as S3, If-Match is checked before If-None-Match
+		final String eTag = getETag( file );
+		final String ifMatch = exchange.getRequestHeaders().getFirst( "If-Match" );
+		final String ifNoneMatch = exchange.getRequestHeaders().getFirst( "If-None-Match" );
+		if ( ifMatch != null && ! matches( ifMatch, eTag ) )
+		{
+			sendError( exchange, 412, "PreconditionFailed", key, isHead );
+			return;
+		}
+
+		exchange.getResponseHeaders().set( "ETag", eTag );
+		exchange.getResponseHeaders().set( "Last-Modified", DateTimeFormatter.RFC_1123_DATE_TIME.format( Instant.ofEpochMilli( file.lastModified() ).atZone( ZoneOffset.UTC ) ) );
+		exchange.getResponseHeaders().set( "Accept-Ranges", "bytes" );
+		if ( ifNoneMatch != null && matches( ifNoneMatch, eTag ) )
+		{
+			exchange.sendResponseHeaders( 304, -1 );
+			return;
+		}
+
+		final long length = file.length();
+		long first = 0;
+		long last = length - 1;
+		int status = 200;
+		final String range = exchange.getRequestHeaders().getFirst( "Range" );
+		if ( range != null )
+		{
+			final long[] firstAndLast = parseRange( range, length );
+			if ( firstAndLast == null )
+			{
+				exchange.getResponseHeaders().set( "Content-Range", "bytes */" + length );
+				sendError( exchange, 416, "InvalidRange", key, isHead );
+				return;
+			}
+
+			first = firstAndLast[ 0 ];
+			last = firstAndLast[ 1 ];
+			status = 206;
+			exchange.getResponseHeaders().set( "Content-Range", "bytes " + first + "-" + last + "/" + length );
+		}
+
+		exchange.getResponseHeaders().set( "Content-Type", "application/octet-stream" );
+		if ( isHead )
+		{
+			exchange.getResponseHeaders().set( "Content-Length", Long.toString( last - first + 1 ) );
+			exchange.sendResponseHeaders( status, -1 );
+			return;
+		}
+
+		exchange.sendResponseHeaders( status, last - first + 1 );
+		try ( RandomAccessFile in = new RandomAccessFile( file, "r" ); OutputStream out = exchange.getResponseBody() )
+		{
+			in.seek( first );
+			final byte[] buffer = new byte[ BUFFER_SIZE ];
+			long numRemainingBytes = last - first + 1;
+			int numBytes;
+			while ( numRemainingBytes > 0 && ( numBytes = in.read( buffer, 0, ( int ) Math.min( buffer.length, numRemainingBytes ) ) ) > 0 )
+			{
+				throttle( numBytes );
+				out.write( buffer, 0, numBytes );
+				numBytesSent.addAndGet( numBytes );
+				numRemainingBytes -= numBytes;
+			}
+		}
+	}
+
+	/**
+	 * @return the first and last byte of a single range, e.g. "bytes=0-99", "bytes=100-" or "bytes=-100",
+	 * or null if it is not satisfiable
+	 */
+	private static long[] parseRange( String range, long length )
+	{
+		final Matcher matcher = RANGE.matcher( range.trim() );
+		if ( ! matcher.matches() ) return null;
+
+		final String first = matcher.group( 1 );
+		final String last = matcher.group( 2 );
+		if ( first.isEmpty() && last.isEmpty() ) return null;
+
+		if ( first.isEmpty() )
+		{
+			// the suffix
+			final long suffixLength = Long.parseLong( last );
+			if ( suffixLength == 0 || length == 0 ) return null;
+			return new long[]{ Math.max( 0, length - suffixLength ), length - 1 };
+		}
+
+		final long firstByte = Long.parseLong( first );
+		final long lastByte = last.isEmpty() ? length - 1 : Math.min( Long.parseLong( last ), length - 1 );
+		if ( firstByte >= length || lastByte < firstByte ) return null;
+		return new long[]{ firstByte, lastByte };
+	}
+
+	private static boolean matches( String eTags, String eTag )
+	{
+		for ( String candidate : eTags.split( "," ) )
+		{
+			final String trimmed = candidate.trim();
+			if ( trimmed.equals( "*" ) || trimmed.replace( "W/", "" ).replace( "\"", "" ).equals( eTag.replace( "\"", "" ) ) )
+				return true;
+		}
+		return false;
+	}
+
+	// as S3 for objects that were not uploaded in parts, the quoted MD5 of the content
+	private String getETag( File file ) throws IOException
+	{
+		final String version = file.lastModified() + "-" + file.length();
+		final String[] cached = fileToVersionAndETag.get( file );
+		if ( cached != null && cached[ 0 ].equals( version ) )
+			return cached[ 1 ];
+
+		final MessageDigest md5;
+		try
+		{
+			md5 = MessageDigest.getInstance( "MD5" );
+		}
+		catch ( NoSuchAlgorithmException e )
+		{
+			throw new IOException( e );
+		}
+
+		try ( InputStream in = new DigestInputStream( new FileInputStream( file ), md5 ) )
+		{
+			final byte[] buffer = new byte[ BUFFER_SIZE ];
+			while ( in.read( buffer ) != -1 )
+				continue;
+		}
+
+		final StringBuilder eTag = new StringBuilder( "\"" );
+		for ( byte b : md5.digest() )
+			eTag.append( String.format( "%02x", b ) );
+		eTag.append( '"' );
+
+		fileToVersionAndETag.put( file, new String[]{ version, eTag.toString() } );
+		return eTag.toString();
+	}
+
+	// reserves the next free time slot on the shared link
+	private void throttle( int numBytes ) throws InterruptedException
+	{
+		if ( bytesPerSecond <= 0 ) return;
+
+		final long sendNanos;
+		synchronized ( this )
+		{
+			nextFreeNanos = Math.max( nextFreeNanos, System.nanoTime() ) + numBytes * TimeUnit.SECONDS.toNanos( 1 ) / bytesPerSecond;
+			sendNanos = nextFreeNanos;
+		}
+
+		final long waitNanos = sendNanos - System.nanoTime();
+		if ( waitNanos > 0 )
+			TimeUnit.NANOSECONDS.sleep( waitNanos );
+	}
+
+	private String list( Map< String, String > query ) throws UnsupportedEncodingException
+	{
+		final String prefix = query.getOrDefault( "prefix", "" );
+		final String delimiter = query.get( "delimiter" );
+		final boolean urlEncoding = "url".equals( query.get( "encoding-type" ) );
+
+		final List< String > keys = new ArrayList<>();
+		final TreeSet< String > commonPrefixes = new TreeSet<>();
+		for ( String key : listKeys( directory, "" ) )
+		{
+			if ( ! key.startsWith( prefix ) ) continue;
+
+			final int delimiterIndex = delimiter == null ? -1 : key.indexOf( delimiter, prefix.length() );
+			if ( delimiterIndex >= 0 )
+				commonPrefixes.add( key.substring( 0, delimiterIndex + delimiter.length() ) );
+			else
+				keys.add( key );
+		}
+
+		final StringBuilder xml = new StringBuilder();
+		xml.append( "<ListBucketResult xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\">" );
+		xml.append( "<Name>" ).append( bucketName ).append( "</Name>" );
+		xml.append( "<Prefix>" ).append( encode( prefix, urlEncoding ) ).append( "</Prefix>" );
+		xml.append( "<KeyCount>" ).append( keys.size() + commonPrefixes.size() ).append( "</KeyCount>" );
+		xml.append( "<MaxKeys>" ).append( Integer.MAX_VALUE ).append( "</MaxKeys>" );
+		xml.append( "<IsTruncated>false</IsTruncated>" );
+		if ( urlEncoding )
+			xml.append( "<EncodingType>url</EncodingType>" );
+		for ( String key : keys )
+			xml.append( "<Contents><Key>" ).append( encode( key, urlEncoding ) ).append( "</Key><Size>" ).append( new File( directory, key ).length() ).append( "</Size></Contents>" );
+		for ( String commonPrefix : commonPrefixes )
+			xml.append( "<CommonPrefixes><Prefix>" ).append( encode( commonPrefix, urlEncoding ) ).append( "</Prefix></CommonPrefixes>" );
+		xml.append( "</ListBucketResult>" );
+		return xml.toString();
+	}
+
+	private static List< String > listKeys( File directory, String prefix )
+	{
+		final List< String > keys = new ArrayList<>();
+		final File[] files = directory.listFiles();
+		if ( files == null ) return keys;
+
+		for ( File file : files )
+		{
+			if ( file.isDirectory() )
+				keys.addAll( listKeys( file, prefix + file.getName() + "/" ) );
+			else
+				keys.add( prefix + file.getName() );
+		}
+		keys.sort( String::compareTo );
+		return keys;
+	}
+
+	private static void sendError( HttpExchange exchange, int status, String code, String resource, boolean isHead ) throws IOException
+	{
+		final String xml = "<Error><Code>" + code + "</Code><Message>" + code + "</Message><Resource>" + escape( resource ) + "</Resource></Error>";
+		send( exchange, status, xml, isHead );
+	}
+
+	private static void sendXml( HttpExchange exchange, String xml, boolean isHead ) throws IOException
+	{
+		send( exchange, 200, xml, isHead );
+	}
+
+	private static void send( HttpExchange exchange, int status, String xml, boolean isHead ) throws IOException
+	{
+		exchange.getResponseHeaders().set( "Content-Type", "application/xml" );
+		if ( isHead )
+		{
+			exchange.sendResponseHeaders( status, -1 );
+			return;
+		}
+
+		final byte[] bytes = ( "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + xml ).getBytes( StandardCharsets.UTF_8 );
+		exchange.sendResponseHeaders( status, bytes.length );
+		try ( OutputStream out = exchange.getResponseBody() )
+		{
+			out.write( bytes );
+		}
+	}
+
+	private static Map< String, String > parseQuery( String rawQuery ) throws UnsupportedEncodingException
+	{
+		final Map< String, String > query = new HashMap<>();
+		if ( rawQuery == null || rawQuery.isEmpty() ) return query;
+
+		for ( String parameter : rawQuery.split( "&" ) )
+		{
+			final int separator = parameter.indexOf( '=' );
+			final String name = separator < 0 ? parameter : parameter.substring( 0, separator );
+			final String value = separator < 0 ? "" : parameter.substring( separator + 1 );
+			query.put( URLDecoder.decode( name, "UTF-8" ), URLDecoder.decode( value, "UTF-8" ) );
+		}
+		return query;
+	}
+
+	private static String encode( String value, boolean urlEncoding ) throws UnsupportedEncodingException
+	{
+		return urlEncoding ? URLEncoder.encode( value, "UTF-8" ) : escape( value );
+	}
+
+	private static String escape( String value )
+	{
+		return value.replace( "&", "&amp;" ).replace( "<", "&lt;" ).replace( ">", "&gt;" );
+	}
+}
@@ -0,0 +1,83 @@
+package benchmark;
+
+import de.embl.cba.mobie.bdv.render.AccumulateOccludingProjectorARGB;
+import net.imglib2.Cursor;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.array.IntArray;
+import net.imglib2.type.numeric.ARGBType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of accumulating the rendered source canvases into one
+ * canvas, as done by the {@link AccumulateOccludingProjectorARGB} for each
+ * pixel, with one {@link Canvases#WIDTH} x {@link Canvases#HEIGHT} canvas per operation.
+ *
+ * The projector itself is not constructed, as this needs the
+ * source and converter service of a running BDV.
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class ProjectorBenchmarks
+{
+	@Param( { "2", "4", "8" } )
+	public int numSources;
+
+	// the last sources are occluding, e.g. segmentations on top of images
+	@Param( { "0", "1" } )
+	public int numOccluding;
+
+	// fraction of non transparent pixels of each source
+	@Param( { "0.3", "1.0" } )
+	public double visibleFraction;
+
+	private ArrayImg< ARGBType, IntArray >[] sources;
+	private boolean[] isOccluding;
+	private ArrayImg< ARGBType, IntArray > target;
+
+	@Setup
+	public void setup()
+	{
+		sources = new ArrayImg[ numSources ];
+		isOccluding = new boolean[ numSources ];
+		for ( int i = 0; i < numSources; i++ )
+		{
+			sources[ i ] = Canvases.createARGBs( visibleFraction, i );
+			isOccluding[ i ] = i >= numSources - numOccluding;
+		}
+		target = Canvases.createTarget();
+	}
+
+	@Benchmark
+	public ArrayImg< ARGBType, IntArray > accumulateOccluding()
+	{
+		final Cursor< ? extends ARGBType >[] accesses = new Cursor[ numSources ];
+		for ( int i = 0; i < numSources; i++ )
+			accesses[ i ] = sources[ i ].cursor();
+
+		final Cursor< ARGBType > out = target.cursor();
+		while ( out.hasNext() )
+		{
+			for ( Cursor< ? extends ARGBType > access : accesses )
+				access.fwd();
+			out.next().set( AccumulateOccludingProjectorARGB.getArgbIndex( accesses, isOccluding ) );
+		}
+
+		return target;
+	}
+}
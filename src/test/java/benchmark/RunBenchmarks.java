@@ -0,0 +1,31 @@
+package benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks of this package, headless and without network access,
+ * and reports their throughput and allocation rate (gc.alloc.rate.norm is
+ * the number of bytes allocated per converted canvas).
+ *
+ * Optionally, a regular expression selecting the benchmarks can be given,
+ * e.g. "ConverterBenchmarks.labelConverter".
+ */
+public class RunBenchmarks
+{
+	public static void main( String[] args ) throws RunnerException
+	{
+		final String include = args.length > 0 ? args[ 0 ] : RunBenchmarks.class.getPackage().getName() + "\\..*Benchmarks";
+
+		final Options options = new OptionsBuilder()
+				.include( include )
+				.addProfiler( GCProfiler.class )
+				.jvmArgsAppend( "-Djava.awt.headless=true", "-Xmx4g" )
+				.build();
+
+		new Runner( options ).run();
+	}
+}
@@ -0,0 +1,184 @@
+package benchmark;
+
+import de.embl.cba.mobie.n5.zarr.N5ZarrWriter;
+import net.imglib2.Interval;
+import net.imglib2.algorithm.util.Grids;
+import net.imglib2.util.Intervals;
+import org.janelia.saalfeldlab.n5.Compression;
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.GzipCompression;
+import org.janelia.saalfeldlab.n5.N5FSWriter;
+import org.janelia.saalfeldlab.n5.N5Writer;
+import org.janelia.saalfeldlab.n5.RawCompression;
+import org.janelia.saalfeldlab.n5.ShortArrayDataBlock;
+import org.janelia.saalfeldlab.n5.blosc.BloscCompression;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Synthetic uint16 N5 and OME-Zarr containers with a single resolution level.
+ *
+ * The intensities are a smooth gradient with some noise, such that they
+ * compress about as well as real images, not as well as empty or as badly as random ones.
+ */
+public class SyntheticContainers
+{
+	public static final String DATASET = "s0";
+	public static final String ZARR_DIMENSION_SEPARATOR = "/";
+
+	private static final int NOISE = 64;
+
+	public enum Format
+	{
+		N5( ".n5" ),
+		OME_ZARR( ".ome.zarr" );
+
+		private final String extension;
+
+		Format( String extension )
+		{
+			this.extension = extension;
+		}
+	}
+
+	public enum Codec
+	{
+		RAW,
+		GZIP,
+		BLOSC;
+
+		public Compression createCompression()
+		{
+			switch ( this )
+			{
+				case GZIP:
+					return new GzipCompression();
+				case BLOSC:
+					return new BloscCompression();
+				default:
+					return new RawCompression();
+			}
+		}
+	}
+
+	/**
+	 * @return a name for the container that identifies all of its parameters,
+	 * such that an existing container can be reused
+	 */
+	public static String getName( Format format, Codec codec, long[] dimensions, int[] blockSize )
+	{
+		return format.name().toLowerCase() + "-" + codec.name().toLowerCase() + "-" + toString( dimensions ) + "-" + toString( blockSize ) + format.extension;
+	}
+
+	/**
+	 * Writes the container into the directory, unless it exists already.
+	 *
+	 * @return the container
+	 */
+	public static File create( File directory, Format format, Codec codec, long[] dimensions, int[] blockSize, long seed ) throws IOException
+	{
+		final File container = new File( directory, getName( format, codec, dimensions, blockSize ) );
+		if ( container.exists() )
+			return container;
+
+		// a partially written container is not reused
+		final File tmpContainer = new File( directory, container.getName() + ".tmp" );
+		final N5Writer writer = format == Format.N5
+				? new N5FSWriter( tmpContainer.getAbsolutePath() )
+				: new N5ZarrWriter( tmpContainer.getAbsolutePath(), ZARR_DIMENSION_SEPARATOR, true );
+
+		if ( format == Format.OME_ZARR )
+			writeMultiscales( writer, dimensions.length );
+
+		final DatasetAttributes attributes = new DatasetAttributes( dimensions, blockSize, DataType.UINT16, codec.createCompression() );
+		writer.createDataset( DATASET, attributes );
+
+		final Random random = new Random( seed );
+		for ( Interval block : Grids.collectAllContainedIntervals( dimensions, blockSize ) )
+		{
+			final long[] gridPosition = new long[ dimensions.length ];
+			for ( int d = 0; d < dimensions.length; d++ )
+				gridPosition[ d ] = block.min( d ) / blockSize[ d ];
+
+			final int[] size = Arrays.stream( Intervals.dimensionsAsLongArray( block ) ).mapToInt( s -> ( int ) s ).toArray();
+			writer.writeBlock( DATASET, attributes, new ShortArrayDataBlock( size, gridPosition, createData( block, dimensions, random ) ) );
+		}
+
+		if ( ! tmpContainer.renameTo( container ) )
+			throw new IOException( "Could not move " + tmpContainer + " to " + container );
+
+		return container;
+	}
+
+	private static short[] createData( Interval block, long[] dimensions, Random random )
+	{
+		final int n = block.numDimensions();
+		final short[] data = new short[ ( int ) Intervals.numElements( block ) ];
+		final long[] position = Intervals.minAsLongArray( block );
+		final double maxSum = Arrays.stream( dimensions ).sum();
+
+		for ( int i = 0; i < data.length; i++ )
+		{
+			double sum = 0;
+			for ( int d = 0; d < n; d++ )
+				sum += position[ d ];
+			data[ i ] = ( short ) ( ( 65535 - NOISE ) * sum / maxSum + random.nextInt( NOISE ) );
+
+			// flat iteration, dimension 0 is the fastest
+			for ( int d = 0; d < n; d++ )
+			{
+				if ( ++position[ d ] <= block.max( d ) )
+					break;
+				position[ d ] = block.min( d );
+			}
+		}
+
+		return data;
+	}
+
+	private static void writeMultiscales( N5Writer writer, int numDimensions ) throws IOException
+	{
+		// zarr axes are in reversed order
+		final List< String > axes = Arrays.asList( "z", "y", "x" ).subList( 3 - numDimensions, 3 );
+
+		final Map< String, Object > multiscale = new LinkedHashMap<>();
+		multiscale.put( "version", "0.3" );
+		multiscale.put( "name", "synthetic" );
+		multiscale.put( "axes", axes );
+		multiscale.put( "datasets", Collections.singletonList( Collections.singletonMap( "path", DATASET ) ) );
+
+		writer.createGroup( "" );
+		writer.setAttribute( "", "multiscales", Collections.singletonList( multiscale ) );
+	}
+
+	public static long getNumBytes( File file )
+	{
+		if ( file.isFile() )
+			return file.length();
+
+		long numBytes = 0;
+		final File[] children = file.listFiles();
+		if ( children != null )
+			for ( File child : children )
+				numBytes += getNumBytes( child );
+		return numBytes;
+	}
+
+	private static String toString( long[] values )
+	{
+		return Arrays.stream( values ).mapToObj( Long::toString ).reduce( ( a, b ) -> a + "x" + b ).orElse( "" );
+	}
+
+	private static String toString( int[] values )
+	{
+		return toString( Arrays.stream( values ).asLongStream().toArray() );
+	}
+}
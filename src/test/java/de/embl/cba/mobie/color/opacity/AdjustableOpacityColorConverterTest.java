@@ -0,0 +1,149 @@
+package de.embl.cba.mobie.color.opacity;
+
+import de.embl.cba.mobie.color.OpacityAdjuster;
+import net.imglib2.Volatile;
+import net.imglib2.converter.Converter;
+import net.imglib2.display.ColorConverter;
+import net.imglib2.display.RealARGBColorConverter;
+import net.imglib2.type.numeric.ARGBType;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.volatiles.VolatileUnsignedByteType;
+import net.imglib2.type.volatiles.VolatileUnsignedShortType;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The lookup tables of 8 and 16 bit images must give the same colors as the
+ * generic conversion, also after the settings were changed, either through the
+ * converter or directly on the converter that it wraps.
+ */
+public class AdjustableOpacityColorConverterTest
+{
+	@Test
+	public void unsignedByteType()
+	{
+		final RealARGBColorConverter< UnsignedByteType > wrapped = RealARGBColorConverter.create( new UnsignedByteType(), 0, 255 );
+		final RealARGBColorConverter< UnsignedByteType > reference = RealARGBColorConverter.create( new UnsignedByteType(), 0, 255 );
+		final AdjustableOpacityColorConverter converter = new AdjustableOpacityColorConverter( ( Converter ) wrapped );
+
+		final UnsignedByteType value = new UnsignedByteType();
+		for ( Runnable change : getChanges( converter, converter, wrapped, reference ) )
+		{
+			change.run();
+			for ( int i = 0; i < 256; i++ )
+			{
+				value.set( i );
+				assertEquals( "value " + i, getExpected( reference, value, i == 0, converter.getOpacity() ), convert( ( Converter ) converter, value ) );
+			}
+		}
+	}
+
+	@Test
+	public void unsignedShortType()
+	{
+		final RealARGBColorConverter< UnsignedShortType > wrapped = RealARGBColorConverter.create( new UnsignedShortType(), 0, 65535 );
+		final RealARGBColorConverter< UnsignedShortType > reference = RealARGBColorConverter.create( new UnsignedShortType(), 0, 65535 );
+		final AdjustableOpacityColorConverter converter = new AdjustableOpacityColorConverter( ( Converter ) wrapped );
+
+		final UnsignedShortType value = new UnsignedShortType();
+		for ( Runnable change : getChanges( converter, converter, wrapped, reference ) )
+		{
+			change.run();
+			for ( int i = 0; i < 65536; i++ )
+			{
+				value.set( i );
+				assertEquals( "value " + i, getExpected( reference, value, i == 0, converter.getOpacity() ), convert( ( Converter ) converter, value ) );
+			}
+		}
+	}
+
+	@Test
+	public void volatileUnsignedByteType()
+	{
+		final RealARGBColorConverter< VolatileUnsignedByteType > wrapped = RealARGBColorConverter.create( new VolatileUnsignedByteType(), 0, 255 );
+		final RealARGBColorConverter< VolatileUnsignedByteType > reference = RealARGBColorConverter.create( new VolatileUnsignedByteType(), 0, 255 );
+		final VolatileAdjustableOpacityColorConverter converter = new VolatileAdjustableOpacityColorConverter( wrapped );
+
+		assertVolatileConversion( converter, wrapped, reference, new VolatileUnsignedByteType(), 256 );
+	}
+
+	@Test
+	public void volatileUnsignedShortType()
+	{
+		final RealARGBColorConverter< VolatileUnsignedShortType > wrapped = RealARGBColorConverter.create( new VolatileUnsignedShortType(), 0, 65535 );
+		final RealARGBColorConverter< VolatileUnsignedShortType > reference = RealARGBColorConverter.create( new VolatileUnsignedShortType(), 0, 65535 );
+		final VolatileAdjustableOpacityColorConverter converter = new VolatileAdjustableOpacityColorConverter( wrapped );
+
+		assertVolatileConversion( converter, wrapped, reference, new VolatileUnsignedShortType(), 65536 );
+	}
+
+	private static < V extends Volatile< ? extends IntegerType< ? > > & RealType< V > > void assertVolatileConversion(
+			VolatileAdjustableOpacityColorConverter converter,
+			RealARGBColorConverter< V > wrapped,
+			RealARGBColorConverter< V > reference,
+			V value,
+			int numValues )
+	{
+		for ( Runnable change : getChanges( converter, converter, wrapped, reference ) )
+		{
+			change.run();
+			for ( boolean isValid : new boolean[]{ true, false } )
+			{
+				value.setValid( isValid );
+				for ( int i = 0; i < numValues; i++ )
+				{
+					value.get().setInteger( i );
+
+					// invalid voxels are not transparent if zero
+					final int expected = getExpected( reference, value, isValid && i == 0, converter.getOpacity() );
+					assertEquals( "value " + i + ", valid " + isValid, expected, convert( ( Converter ) converter, value ) );
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return changes of the settings of the converter, each also applied to the reference
+	 */
+	private static Runnable[] getChanges( ColorConverter converter, OpacityAdjuster opacityAdjuster, ColorConverter wrapped, ColorConverter reference )
+	{
+		final ARGBType magenta = new ARGBType( ARGBType.rgba( 255, 0, 128, 255 ) );
+		final ARGBType green = new ARGBType( ARGBType.rgba( 0, 255, 0, 255 ) );
+
+		return new Runnable[]{
+				() -> {},
+				() -> { converter.setMin( 10 ); reference.setMin( 10 ); },
+				() -> { converter.setMax( 200 ); reference.setMax( 200 ); },
+				() -> opacityAdjuster.setOpacity( 0.5 ),
+				() -> { converter.setColor( magenta ); reference.setColor( magenta ); },
+				() -> { wrapped.setMin( 100 ); reference.setMin( 100 ); },
+				() -> { wrapped.setMax( 40000 ); reference.setMax( 40000 ); },
+				() -> { wrapped.setColor( green ); reference.setColor( green ); },
+				() -> opacityAdjuster.setOpacity( 0.0 ),
+				() -> opacityAdjuster.setOpacity( 1.0 )
+		};
+	}
+
+	// the generic conversion of the converters, in which zero voxels are transparent
+	private static < T > int getExpected( Converter< T, ARGBType > reference, T value, boolean isTransparent, double opacity )
+	{
+		if ( isTransparent )
+			return 0;
+
+		final ARGBType output = new ARGBType();
+		reference.convert( value, output );
+		output.mul( opacity );
+		return output.get();
+	}
+
+	private static < T > int convert( Converter< T, ARGBType > converter, T value )
+	{
+		final ARGBType output = new ARGBType();
+		converter.convert( value, output );
+		return output.get();
+	}
+}
@@ -0,0 +1,65 @@
+package de.embl.cba.mobie.mesh;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class MeshCacheTest
+{
+	private static final float[] MESH = { 0.5f, 1, 2, 3, 4.25f, 5, 6, 7, 8 };
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void readsMeshesWrittenBeforeRestart() throws IOException
+	{
+		final File directory = folder.newFolder( "mesh-cache" );
+		final MeshCache.Key key = new MeshCache.Key( "/data/dataset", "sbem-6dpf-1-whole-segmented-cells", 42, 0, 1, 5 );
+
+		final MeshCache meshCache = new MeshCache();
+		meshCache.setDirectory( directory );
+		meshCache.put( key, MESH );
+		assertEquals( 1, directory.list( ( dir, name ) -> name.endsWith( ".mesh" ) ).length );
+
+		// a new cache, e.g. after a restart, reads the mesh from the directory
+		final MeshCache restartedMeshCache = new MeshCache();
+		restartedMeshCache.setDirectory( directory );
+		assertArrayEquals( MESH, restartedMeshCache.get( key ), 0 );
+
+		// meshes of other smoothing iterations or datasets are not mixed up
+		assertNull( restartedMeshCache.get( new MeshCache.Key( "/data/dataset", "sbem-6dpf-1-whole-segmented-cells", 42, 0, 1, 4 ) ) );
+		assertNull( restartedMeshCache.get( new MeshCache.Key( "/data/other-dataset", "sbem-6dpf-1-whole-segmented-cells", 42, 0, 1, 5 ) ) );
+
+		restartedMeshCache.remove( key );
+		assertEquals( 0, directory.list( ( dir, name ) -> name.endsWith( ".mesh" ) ).length );
+	}
+
+	@Test
+	public void ignoresCorruptMeshFiles() throws IOException
+	{
+		final File directory = folder.newFolder( "mesh-cache" );
+		final MeshCache.Key key = new MeshCache.Key( "/data/dataset", "cells", 1, 0, 0, 0 );
+
+		final MeshCache meshCache = new MeshCache();
+		meshCache.setDirectory( directory );
+		meshCache.put( key, MESH );
+
+		final File meshFile = new File( directory, key + ".mesh" );
+		Files.write( meshFile.toPath(), new byte[]{ 0, 0, 1 } );
+
+		final MeshCache restartedMeshCache = new MeshCache();
+		restartedMeshCache.setDirectory( directory );
+		assertNull( restartedMeshCache.get( key ) );
+		assertFalse( meshFile.exists() );
+	}
+}
@@ -0,0 +1,159 @@
+package de.embl.cba.mobie.n5;
+
+import com.google.gson.JsonObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ShardsTest
+{
+	private static final int[] SHARD_SIZE = { 2, 3, 4 };
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void blockIndexRoundTrip()
+	{
+		final long[] shardPosition = { 1, 0, 2 };
+		final int numBlocks = Shards.getNumBlocks( SHARD_SIZE );
+		assertEquals( 24, numBlocks );
+
+		for ( int blockIndex = 0; blockIndex < numBlocks; blockIndex++ )
+		{
+			final long[] gridPosition = Shards.getGridPosition( shardPosition, SHARD_SIZE, blockIndex );
+			assertArrayEquals( shardPosition, Shards.getShardPosition( gridPosition, SHARD_SIZE ) );
+			assertEquals( blockIndex, Shards.getBlockIndex( gridPosition, SHARD_SIZE ) );
+		}
+
+		// dimension 0 is the fastest
+		assertEquals( 1, Shards.getBlockIndex( new long[]{ 3, 0, 8 }, SHARD_SIZE ) );
+		assertEquals( 2, Shards.getBlockIndex( new long[]{ 2, 1, 8 }, SHARD_SIZE ) );
+		assertEquals( 6, Shards.getBlockIndex( new long[]{ 2, 0, 9 }, SHARD_SIZE ) );
+	}
+
+	@Test
+	public void numBlocksInGrid()
+	{
+		final long[] gridDimensions = { 3, 3, 5 };
+		assertEquals( 24, Shards.getNumBlocksInGrid( new long[]{ 0, 0, 0 }, SHARD_SIZE, gridDimensions ) );
+		assertEquals( 1 * 3 * 1, Shards.getNumBlocksInGrid( new long[]{ 1, 0, 1 }, SHARD_SIZE, gridDimensions ) );
+	}
+
+	@Test
+	public void layout() throws IOException
+	{
+		final File shardFile = new File( folder.getRoot(), "shards/0/0/0" );
+		final Map< Integer, byte[] > blocks = new HashMap<>();
+		blocks.put( 0, new byte[]{ 1, 2, 3 } );
+		blocks.put( 2, new byte[]{ 4, 5 } );
+		Shards.writeBlocks( shardFile, blocks, 4 );
+
+		final ByteBuffer shard = ByteBuffer.wrap( Files.readAllBytes( shardFile.toPath() ) );
+		final int indexSize = Shards.getIndexSize( 4 );
+		assertEquals( 2 * Integer.BYTES + 4 * ( Long.BYTES + Integer.BYTES ), indexSize );
+		assertEquals( indexSize + 5, shard.capacity() );
+
+		assertEquals( 0x4D6F5348, shard.getInt() );
+		assertEquals( 4, shard.getInt() );
+		final long[] offsets = new long[ 4 ];
+		final int[] lengths = new int[ 4 ];
+		for ( int i = 0; i < 4; i++ )
+		{
+			offsets[ i ] = shard.getLong();
+			lengths[ i ] = shard.getInt();
+		}
+		assertArrayEquals( new long[]{ indexSize, 0, indexSize + 3, 0 }, offsets );
+		assertArrayEquals( new int[]{ 3, 0, 2, 0 }, lengths );
+
+		final byte[] chunks = new byte[ 5 ];
+		shard.get( chunks );
+		assertArrayEquals( new byte[]{ 1, 2, 3, 4, 5 }, chunks );
+	}
+
+	@Test
+	public void indexRoundTrip() throws IOException
+	{
+		final File shardFile = new File( folder.getRoot(), "shard" );
+		Shards.writeBlocks( shardFile, Collections.singletonMap( 1, new byte[]{ 7, 8, 9 } ), 3 );
+
+		final byte[] header = Arrays.copyOf( Files.readAllBytes( shardFile.toPath() ), Shards.getIndexSize( 3 ) );
+		final Shards.Index index = Shards.Index.decode( ByteBuffer.wrap( header ), 3 );
+		assertFalse( index.contains( 0 ) );
+		assertTrue( index.contains( 1 ) );
+		assertFalse( index.contains( 2 ) );
+		assertEquals( Shards.getIndexSize( 3 ), index.getOffset( 1 ) );
+		assertEquals( 3, index.getLength( 1 ) );
+	}
+
+	@Test( expected = IOException.class )
+	public void indexOfOtherNumBlocks() throws IOException
+	{
+		final File shardFile = new File( folder.getRoot(), "shard" );
+		Shards.writeBlocks( shardFile, Collections.singletonMap( 0, new byte[]{ 1 } ), 3 );
+
+		Shards.Index.decode( ByteBuffer.wrap( Files.readAllBytes( shardFile.toPath() ) ), 4 );
+	}
+
+	@Test
+	public void writeAndReadBlocks() throws IOException
+	{
+		final File shardFile = new File( folder.getRoot(), "shards/1.0.2" );
+		assertNull( Shards.readBlock( shardFile, 0, 4 ) );
+
+		Shards.writeBlocks( shardFile, Collections.singletonMap( 0, new byte[]{ 1, 2 } ), 4 );
+		Shards.writeBlocks( shardFile, Collections.singletonMap( 3, new byte[]{ 3 } ), 4 );
+
+		// chunks that are not given are kept
+		assertArrayEquals( new byte[]{ 1, 2 }, Shards.readBlock( shardFile, 0, 4 ) );
+		assertArrayEquals( new byte[]{ 3 }, Shards.readBlock( shardFile, 3, 4 ) );
+		assertNull( Shards.readBlock( shardFile, 1, 4 ) );
+
+		// null removes a chunk
+		Shards.writeBlocks( shardFile, Collections.singletonMap( 0, null ), 4 );
+		assertNull( Shards.readBlock( shardFile, 0, 4 ) );
+		assertArrayEquals( new byte[]{ 3 }, Shards.readBlock( shardFile, 3, 4 ) );
+
+		// only the shard is left
+		assertArrayEquals( new String[]{ shardFile.getName() }, shardFile.getParentFile().list() );
+	}
+
+	@Test
+	public void wrapN5Compression()
+	{
+		final JsonObject compression = new JsonObject();
+		compression.addProperty( "type", "gzip" );
+		compression.addProperty( "level", 6 );
+
+		final JsonObject wrapped = Shards.wrapN5Compression( compression );
+		assertEquals( Shards.COMPRESSION_TYPE, wrapped.get( "type" ).getAsString() );
+		assertEquals( compression, Shards.unwrapN5Compression( wrapped ) );
+
+		// wrapping is idempotent and unwrapping leaves other compressions alone
+		assertEquals( wrapped, Shards.wrapN5Compression( wrapped ) );
+		assertEquals( compression, Shards.unwrapN5Compression( compression ) );
+	}
+
+	@Test
+	public void removeFromMissingShard() throws IOException
+	{
+		final File shardFile = new File( folder.getRoot(), "shards/0/0/0" );
+		Shards.writeBlocks( shardFile, Collections.singletonMap( 0, null ), 4 );
+		assertFalse( shardFile.exists() );
+	}
+}
@@ -0,0 +1,77 @@
+package de.embl.cba.mobie.segment;
+
+import net.imglib2.RandomAccess;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypes.IntArray;
+import net.imglib2.img.basictypes.LongArray;
+import net.imglib2.type.numeric.integer.UnsignedIntType;
+import net.imglib2.type.numeric.integer.UnsignedLongType;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class LabelStatisticsTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void sidecarFileRoundTrip() throws IOException
+	{
+		final ArrayImg< UnsignedIntType, IntArray > labels = ArrayImgs.unsignedInts( 10, 8, 8 );
+		final RandomAccess< UnsignedIntType > access = labels.randomAccess();
+		setLabel( access, 3, 1, 2, 1 );
+		setLabel( access, 3, 5, 6, 7 );
+		setLabel( access, 7, 0, 0, 0 );
+		setLabel( access, 12, 9, 7, 7 );
+
+		// blocks smaller than the image, such that label 3 spans several blocks
+		final LabelStatistics computed = LabelStatistics.compute( labels, new int[]{ 4, 4, 4 } );
+		final File file = new File( folder.getRoot(), "labels.label-statistics.tsv" );
+		computed.write( file );
+		final LabelStatistics read = LabelStatistics.read( file );
+
+		assertArrayEquals( new long[]{ 3, 7, 12 }, read.getLabels() );
+		assertNull( read.get( 0 ) );
+		for ( long label : computed.getLabels() )
+		{
+			assertEquals( computed.get( label ).getNumVoxels(), read.get( label ).getNumVoxels() );
+			assertArrayEquals( computed.get( label ).getMin(), read.get( label ).getMin() );
+			assertArrayEquals( computed.get( label ).getMax(), read.get( label ).getMax() );
+			assertArrayEquals( computed.get( label ).getCentroid(), read.get( label ).getCentroid(), 1e-9 );
+		}
+
+		assertEquals( 2, read.get( 3 ).getNumVoxels() );
+		assertArrayEquals( new long[]{ 1, 2, 1 }, read.get( 3 ).getMin() );
+		assertArrayEquals( new long[]{ 5, 6, 7 }, read.get( 3 ).getMax() );
+		assertArrayEquals( new double[]{ 3, 4, 4 }, read.get( 3 ).getCentroid(), 1e-9 );
+	}
+
+	@Test
+	public void labelsBeyondDoublePrecision()
+	{
+		final ArrayImg< UnsignedLongType, LongArray > labels = ArrayImgs.unsignedLongs( 4, 4, 4 );
+		final RandomAccess< UnsignedLongType > access = labels.randomAccess();
+		final long label = ( 1L << 53 ) + 1;
+		access.setPosition( new long[]{ 1, 2, 3 } );
+		access.get().set( label );
+
+		final LabelStatistics statistics = LabelStatistics.compute( labels );
+		assertArrayEquals( new long[]{ label }, statistics.getLabels() );
+		assertEquals( 1, statistics.get( label ).getNumVoxels() );
+	}
+
+	private static void setLabel( RandomAccess< UnsignedIntType > access, long label, long... position )
+	{
+		access.setPosition( position );
+		access.get().set( label );
+	}
+}
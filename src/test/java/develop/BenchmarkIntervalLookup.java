@@ -0,0 +1,100 @@
+package develop;
+
+import de.embl.cba.mobie.annotate.IntervalGridIndex;
+import net.imglib2.FinalRealInterval;
+import net.imglib2.RealInterval;
+import net.imglib2.RealPoint;
+import net.imglib2.util.Intervals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares finding the interval at each pixel of a 512x512 viewer plane
+ * by a linear scan (as previously done in TableRowsIntervalImage) with the
+ * {@link IntervalGridIndex}, for grids of increasingly many sites.
+ */
+public class BenchmarkIntervalLookup
+{
+	private static final int PLANE_SIZE = 512;
+	private static final int NUM_REPETITIONS = 5;
+
+	public static void main( String[] args )
+	{
+		for ( int numSitesPerDimension : new int[]{ 4, 16, 32, 64 } )
+		{
+			final List< RealInterval > intervals = createSites( numSitesPerDimension );
+			RealInterval union = intervals.get( 0 );
+			for ( RealInterval interval : intervals )
+				union = Intervals.union( interval, union );
+
+			long start = System.currentTimeMillis();
+			final IntervalGridIndex index = new IntervalGridIndex( intervals, union );
+			final long buildMillis = System.currentTimeMillis() - start;
+
+			final double step = union.realMax( 0 ) / PLANE_SIZE;
+
+			long linearChecksum = 0;
+			start = System.currentTimeMillis();
+			for ( int r = 0; r < NUM_REPETITIONS; r++ )
+				linearChecksum += renderPlane( step, p -> linearScan( intervals, p ) );
+			final long linearMillis = ( System.currentTimeMillis() - start ) / NUM_REPETITIONS;
+
+			long indexChecksum = 0;
+			start = System.currentTimeMillis();
+			for ( int r = 0; r < NUM_REPETITIONS; r++ )
+				indexChecksum += renderPlane( step, index::getIntervalIndex );
+			final long indexMillis = ( System.currentTimeMillis() - start ) / NUM_REPETITIONS;
+
+			System.out.println( "Sites: " + intervals.size()
+					+ "; build index [ms]: " + buildMillis
+					+ "; plane linear [ms]: " + linearMillis
+					+ "; plane index [ms]: " + indexMillis
+					+ "; same result: " + ( linearChecksum == indexChecksum ) );
+		}
+	}
+
+	private interface Lookup
+	{
+		int getIndex( RealPoint position );
+	}
+
+	private static long renderPlane( double step, Lookup lookup )
+	{
+		final RealPoint position = new RealPoint( 3 );
+		position.setPosition( 0.5, 2 );
+
+		long checksum = 0;
+		for ( int y = 0; y < PLANE_SIZE; y++ )
+			for ( int x = 0; x < PLANE_SIZE; x++ )
+			{
+				position.setPosition( x * step, 0 );
+				position.setPosition( y * step, 1 );
+				checksum += lookup.getIndex( position );
+			}
+
+		return checksum;
+	}
+
+	private static int linearScan( List< RealInterval > intervals, RealPoint position )
+	{
+		for ( int i = 0; i < intervals.size(); i++ )
+			if ( Intervals.contains( intervals.get( i ), position ) )
+				return i;
+
+		return IntervalGridIndex.NOT_FOUND;
+	}
+
+	// a plate like layout of sites with gaps in between
+	private static List< RealInterval > createSites( int numSitesPerDimension )
+	{
+		final List< RealInterval > intervals = new ArrayList<>();
+		for ( int y = 0; y < numSitesPerDimension; y++ )
+			for ( int x = 0; x < numSitesPerDimension; x++ )
+				intervals.add( new FinalRealInterval(
+						new double[]{ x * 110.0, y * 110.0, 0 },
+						new double[]{ x * 110.0 + 100.0, y * 110.0 + 100.0, 1 } ) );
+
+		return intervals;
+	}
+}